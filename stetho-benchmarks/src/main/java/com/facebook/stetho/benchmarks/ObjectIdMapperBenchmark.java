@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.benchmarks;
+
+import com.facebook.stetho.inspector.helper.ObjectIdMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link ObjectIdMapper} against the {@code IdentityHashMap<Object, Integer>} plus
+ * {@code SparseArray<Object>} pair it used to be built on.  {@code android.util.SparseArray}
+ * can't run on the JVM, so {@link LegacyObjectIdMapper} carries an equivalent sorted-array
+ * implementation.  Run with {@code -prof gc} to see the boxing on the lookup path.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ObjectIdMapperBenchmark {
+  @Param({"50000"})
+  public int mappedObjects;
+
+  private ObjectIdMapper mMapper;
+  private LegacyObjectIdMapper mLegacyMapper;
+
+  private Object[] mObjects;
+  private int[] mIds;
+  private int mCursor;
+
+  @Setup
+  public void setup() {
+    mMapper = new ObjectIdMapper();
+    mLegacyMapper = new LegacyObjectIdMapper();
+    mObjects = new Object[mappedObjects];
+    mIds = new int[mappedObjects];
+    for (int i = 0; i < mappedObjects; i++) {
+      mObjects[i] = new Object();
+      mIds[i] = mMapper.putObject(mObjects[i]);
+      mLegacyMapper.putObject(mObjects[i]);
+    }
+  }
+
+  @Benchmark
+  public int getIdForObject() {
+    return mMapper.getIdForObject(nextObject(), -1);
+  }
+
+  @Benchmark
+  public int getIdForObjectLegacy() {
+    return mLegacyMapper.getIdForObject(nextObject());
+  }
+
+  @Benchmark
+  public Object getObjectForId() {
+    return mMapper.getObjectForId(nextId());
+  }
+
+  @Benchmark
+  public Object getObjectForIdLegacy() {
+    return mLegacyMapper.getObjectForId(nextId());
+  }
+
+  /**
+   * Unmap and remap an object, which is the steady-state churn of a DOM whose views are being
+   * recycled.
+   */
+  @Benchmark
+  public int removeAndPut() {
+    Object object = nextObject();
+    mMapper.removeObject(object);
+    return mMapper.putObject(object);
+  }
+
+  @Benchmark
+  public int removeAndPutLegacy() {
+    Object object = nextObject();
+    mLegacyMapper.removeObject(object);
+    return mLegacyMapper.putObject(object);
+  }
+
+  private Object nextObject() {
+    int cursor = mCursor = (mCursor + 7919) % mappedObjects;
+    return mObjects[cursor];
+  }
+
+  private int nextId() {
+    int cursor = mCursor = (mCursor + 7919) % mappedObjects;
+    return mIds[cursor];
+  }
+
+  /**
+   * The previous {@code ObjectIdMapper}, less its locking and callbacks.
+   */
+  private static class LegacyObjectIdMapper {
+    private final IdentityHashMap<Object, Integer> mObjectToIdMap = new IdentityHashMap<>();
+    private final SortedIntMap mIdToObjectMap = new SortedIntMap();
+    private int mNextId = 1;
+
+    public int getIdForObject(Object object) {
+      Integer id = mObjectToIdMap.get(object);
+      return id != null ? id : -1;
+    }
+
+    public Object getObjectForId(int id) {
+      return mIdToObjectMap.get(id);
+    }
+
+    public int putObject(Object object) {
+      Integer id = mObjectToIdMap.get(object);
+      if (id != null) {
+        return id;
+      }
+      id = mNextId++;
+      mObjectToIdMap.put(object, id);
+      mIdToObjectMap.put(id, object);
+      return id;
+    }
+
+    public void removeObject(Object object) {
+      Integer id = mObjectToIdMap.remove(object);
+      if (id != null) {
+        mIdToObjectMap.remove(id);
+      }
+    }
+  }
+
+  /**
+   * Same storage strategy as {@code android.util.SparseArray}: sorted keys, binary search, and
+   * deleted entries marked in place until the next insertion needs the space.
+   */
+  private static class SortedIntMap {
+    private static final Object DELETED = new Object();
+
+    private int[] mKeys = new int[16];
+    private Object[] mValues = new Object[16];
+    private int mSize;
+    private boolean mGarbage;
+
+    public Object get(int key) {
+      int i = Arrays.binarySearch(mKeys, 0, mSize, key);
+      return i < 0 || mValues[i] == DELETED ? null : mValues[i];
+    }
+
+    public void remove(int key) {
+      int i = Arrays.binarySearch(mKeys, 0, mSize, key);
+      if (i >= 0 && mValues[i] != DELETED) {
+        mValues[i] = DELETED;
+        mGarbage = true;
+      }
+    }
+
+    public void put(int key, Object value) {
+      int i = Arrays.binarySearch(mKeys, 0, mSize, key);
+      if (i >= 0) {
+        mValues[i] = value;
+        return;
+      }
+      i = ~i;
+      if (i < mSize && mValues[i] == DELETED) {
+        mKeys[i] = key;
+        mValues[i] = value;
+        return;
+      }
+      if (mGarbage && mSize >= mKeys.length) {
+        gc();
+        i = ~Arrays.binarySearch(mKeys, 0, mSize, key);
+      }
+      if (mSize >= mKeys.length) {
+        mKeys = Arrays.copyOf(mKeys, mSize * 2);
+        mValues = Arrays.copyOf(mValues, mSize * 2);
+      }
+      System.arraycopy(mKeys, i, mKeys, i + 1, mSize - i);
+      System.arraycopy(mValues, i, mValues, i + 1, mSize - i);
+      mKeys[i] = key;
+      mValues[i] = value;
+      mSize++;
+    }
+
+    private void gc() {
+      int o = 0;
+      for (int i = 0; i < mSize; i++) {
+        if (mValues[i] != DELETED) {
+          mKeys[o] = mKeys[i];
+          mValues[o] = mValues[i];
+          o++;
+        }
+      }
+      Arrays.fill(mValues, o, mSize, null);
+      mSize = o;
+      mGarbage = false;
+    }
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.benchmarks;
+
+import com.facebook.stetho.inspector.protocol.module.Network;
+import com.facebook.stetho.inspector.protocol.module.Page;
+import com.facebook.stetho.json.JsonWriter;
+import com.facebook.stetho.json.ObjectMapper;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the reflective {@link ObjectMapper#convertValue} path against the generated
+ * {@code JsonCodec} path for {@code Network.responseReceived}, the most frequent sizable event
+ * Stetho emits.  Run with {@code -prof gc} to see the allocation difference.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ObjectMapperBenchmark {
+  private final ObjectMapper mObjectMapper = new ObjectMapper();
+  private final ByteArrayOutputStream mOut = new ByteArrayOutputStream(4096);
+
+  private Network.ResponseReceivedParams mParams;
+  private JSONObject mParamsJson;
+
+  @Setup
+  public void setup() throws JSONException {
+    mParams = createResponseReceivedParams();
+    mParamsJson = mObjectMapper.convertValue(mParams, JSONObject.class);
+  }
+
+  @Benchmark
+  public String writeReflective() {
+    return mObjectMapper.convertValue(mParams, JSONObject.class).toString();
+  }
+
+  @Benchmark
+  public int writeStreaming() throws IOException {
+    mOut.reset();
+    JsonWriter writer = new JsonWriter(mOut);
+    mObjectMapper.writeValue(writer, mParams);
+    writer.flush();
+    return mOut.size();
+  }
+
+  @Benchmark
+  public Network.ResponseReceivedParams readReflective() throws JSONException {
+    return mObjectMapper.readObjectReflectively(mParamsJson, Network.ResponseReceivedParams.class);
+  }
+
+  @Benchmark
+  public Network.ResponseReceivedParams readCodec() {
+    return mObjectMapper.convertValue(mParamsJson, Network.ResponseReceivedParams.class);
+  }
+
+  private static Network.ResponseReceivedParams createResponseReceivedParams()
+      throws JSONException {
+    JSONObject headers = new JSONObject();
+    headers.put("Content-Type", "application/json; charset=utf-8");
+    headers.put("Content-Length", "18734");
+    headers.put("Cache-Control", "private, max-age=0, must-revalidate");
+    headers.put("Date", "Tue, 13 Oct 2020 18:22:51 GMT");
+    headers.put("Server", "nginx");
+
+    JSONObject requestHeaders = new JSONObject();
+    requestHeaders.put("Accept", "*/*");
+    requestHeaders.put("Accept-Encoding", "gzip");
+    requestHeaders.put("User-Agent", "okhttp/3.12.0");
+
+    Network.ResourceTiming timing = new Network.ResourceTiming();
+    timing.requestTime = 1602613371.123;
+    timing.dnsStart = 0.5;
+    timing.dnsEnd = 3.25;
+    timing.connectionStart = 3.5;
+    timing.connectionEnd = 40.75;
+    timing.sslStart = 10.0;
+    timing.sslEnd = 40.5;
+    timing.sendStart = 41.0;
+    timing.sendEnd = 41.5;
+    timing.receivedHeadersEnd = 120.125;
+
+    Network.Response response = new Network.Response();
+    response.url = "https://api.example.com/v1/feed?cursor=abcdef0123456789&limit=50";
+    response.status = 200;
+    response.statusText = "OK";
+    response.headers = headers;
+    response.mimeType = "application/json";
+    response.requestHeaders = requestHeaders;
+    response.connectionReused = true;
+    response.connectionId = 42;
+    response.fromDiskCache = false;
+    response.timing = timing;
+
+    Network.ResponseReceivedParams params = new Network.ResponseReceivedParams();
+    params.requestId = "1234";
+    params.frameId = "1";
+    params.loaderId = "1";
+    params.timestamp = 1602613371.245;
+    params.type = Page.ResourceType.XHR;
+    params.response = response;
+    return params;
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.benchmarks;
+
+import com.facebook.stetho.inspector.elements.ShadowDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building {@link ShadowDocument} updates the way {@code AndroidDocumentProvider}
+ * does: every element's children are reported top-down on each pass.  {@link #initialUpdate}
+ * populates an empty document (as when DevTools first opens the Elements tab) and
+ * {@link #unchangedUpdate} re-reports an identical tree (the common case for periodic
+ * polling).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ShadowDocumentBenchmark {
+  private static final int FAN_OUT = 4;
+
+  @Param({"1000", "10000"})
+  public int elementCount;
+
+  private final Object mRoot = new Object();
+
+  /**
+   * Parents in top-down order, paired with {@link #mChildLists}.
+   */
+  private final List<Object> mParents = new ArrayList<>();
+  private final List<List<Object>> mChildLists = new ArrayList<>();
+
+  private ShadowDocument mPopulatedDocument;
+
+  @Setup
+  public void setup() {
+    List<Object> queue = new ArrayList<>();
+    queue.add(mRoot);
+    int created = 1;
+    for (int i = 0; i < queue.size(); i++) {
+      List<Object> children = new ArrayList<>(FAN_OUT);
+      for (int j = 0; j < FAN_OUT && created < elementCount; j++, created++) {
+        Object child = new Object();
+        children.add(child);
+        queue.add(child);
+      }
+      mParents.add(queue.get(i));
+      mChildLists.add(children.isEmpty()
+          ? Collections.emptyList()
+          : Collections.unmodifiableList(children));
+    }
+
+    mPopulatedDocument = new ShadowDocument(mRoot);
+    reportTree(mPopulatedDocument.beginUpdate()).build().commit();
+  }
+
+  @Benchmark
+  public ShadowDocument initialUpdate() {
+    ShadowDocument document = new ShadowDocument(mRoot);
+    reportTree(document.beginUpdate()).build().commit();
+    return document;
+  }
+
+  @Benchmark
+  public boolean unchangedUpdate() {
+    ShadowDocument.Update update = reportTree(mPopulatedDocument.beginUpdate()).build();
+    boolean isEmpty = update.isEmpty();
+    update.abandon();
+    return isEmpty;
+  }
+
+  private ShadowDocument.UpdateBuilder reportTree(ShadowDocument.UpdateBuilder builder) {
+    for (int i = 0, N = mParents.size(); i < N; i++) {
+      builder.setElementChildren(mParents.get(i), mChildLists.get(i));
+    }
+    return builder;
+  }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Time for the writer (the app's network thread, in practice) to push a gzipped JSON body
+ * through {@link GunzippingOutputStream} in 8KB chunks and close it, against the
+ * {@link PipedGunzippingOutputStream} it replaced, which decompressed on a pool thread fed
+ * through a pipe.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GunzippingOutputStreamBenchmark {
+  private static final int CHUNK_SIZE = 8192;
+
+  @Param({"16384", "1048576"})
+  public int bodySize;
+
+  private byte[] mGzippedBody;
+  private ExecutorService mExecutor;
+
+  @Setup
+  public void setup() throws IOException {
+    // Repetitive JSON-like text compresses roughly like a real API response.
+    StringBuilder body = new StringBuilder(bodySize);
+    for (int i = 0; body.length() < bodySize; i++) {
+      body.append("{\"id\":").append(i).append(",\"name\":\"item ").append(i).append("\"},");
+    }
+
+    ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+    GZIPOutputStream gzipOut = new GZIPOutputStream(gzipped);
+    gzipOut.write(body.substring(0, bodySize).getBytes("UTF-8"));
+    gzipOut.close();
+    mGzippedBody = gzipped.toByteArray();
+
+    mExecutor = Executors.newCachedThreadPool();
+  }
+
+  @TearDown
+  public void tearDown() {
+    mExecutor.shutdown();
+  }
+
+  @Benchmark
+  public long inline() throws IOException {
+    CountingOutputStream out = new CountingOutputStream(new DiscardingOutputStream());
+    writeChunked(GunzippingOutputStream.create(out));
+    return out.getCount();
+  }
+
+  @Benchmark
+  public long piped() throws IOException {
+    CountingOutputStream out = new CountingOutputStream(new DiscardingOutputStream());
+    writeChunked(PipedGunzippingOutputStream.create(mExecutor, out));
+    return out.getCount();
+  }
+
+  private void writeChunked(OutputStream out) throws IOException {
+    try {
+      for (int offset = 0; offset < mGzippedBody.length; offset += CHUNK_SIZE) {
+        out.write(mGzippedBody, offset, Math.min(CHUNK_SIZE, mGzippedBody.length - offset));
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  private static class DiscardingOutputStream extends OutputStream {
+    @Override
+    public void write(int oneByte) {
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int count) {
+    }
+  }
+
+  /**
+   * The previous {@code GunzippingOutputStream}, with the executor passed in.  Like the original
+   * it inherits {@link FilterOutputStream#write(byte[], int, int)}, which feeds the pipe one byte
+   * at a time.
+   */
+  private static class PipedGunzippingOutputStream extends FilterOutputStream {
+    private final Future<Void> mCopyFuture;
+
+    public static PipedGunzippingOutputStream create(
+        ExecutorService executor,
+        OutputStream finalOut) throws IOException {
+      PipedInputStream pipeIn = new PipedInputStream();
+      PipedOutputStream pipeOut = new PipedOutputStream(pipeIn);
+      Future<Void> copyFuture = executor.submit(new GunzippingCallable(pipeIn, finalOut));
+      return new PipedGunzippingOutputStream(pipeOut, copyFuture);
+    }
+
+    private PipedGunzippingOutputStream(OutputStream out, Future<Void> copyFuture) {
+      super(out);
+      mCopyFuture = copyFuture;
+    }
+
+    @Override
+    public void close() throws IOException {
+      super.close();
+      try {
+        mCopyFuture.get();
+      } catch (InterruptedException | ExecutionException e) {
+        throw new IOException(e);
+      }
+    }
+  }
+
+  private static class GunzippingCallable implements Callable<Void> {
+    private final InputStream mIn;
+    private final OutputStream mOut;
+
+    public GunzippingCallable(InputStream in, OutputStream out) {
+      mIn = in;
+      mOut = out;
+    }
+
+    @Override
+    public Void call() throws IOException {
+      GZIPInputStream in = new GZIPInputStream(mIn);
+      try {
+        byte[] buffer = new byte[1024];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+          mOut.write(buffer, 0, count);
+        }
+      } finally {
+        in.close();
+        mOut.close();
+      }
+      return null;
+    }
+  }
+}
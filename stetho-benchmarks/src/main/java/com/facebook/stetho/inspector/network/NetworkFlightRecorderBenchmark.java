@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.annotation.Nullable;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What the {@link NetworkFlightRecorder} adds to the request path for a typical request with
+ * no body: its request, response, data and finished events, each with a realistic set of
+ * headers, recorded into a buffer that is already full so that every record also evicts.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NetworkFlightRecorderBenchmark {
+  private static final String REQUEST_ID = "1234";
+  private static final String URL = "https://graph.example.com/v2.0/me/feed?fields=id,message";
+
+  private static final String[] REQUEST_HEADERS = {
+      "Accept", "application/json",
+      "Accept-Encoding", "gzip",
+      "Accept-Language", "en-US",
+      "Authorization", "OAuth 0123456789abcdef0123456789abcdef",
+      "Connection", "keep-alive",
+      "Host", "graph.example.com",
+      "User-Agent", "ExampleApp/1.0 (Linux; Android 11)",
+  };
+
+  private static final String[] RESPONSE_HEADERS = {
+      "Cache-Control", "private, no-cache, no-store, must-revalidate",
+      "Content-Encoding", "gzip",
+      "Content-Length", "5321",
+      "Content-Type", "application/json; charset=UTF-8",
+      "Date", "Mon, 01 Jan 2024 00:00:00 GMT",
+      "Vary", "Accept-Encoding",
+  };
+
+  private NetworkFlightRecorder mRecorder;
+  private FakeRequest mRequest;
+  private FakeResponse mResponse;
+  private long mTimestamp;
+
+  @Setup
+  public void setup() {
+    mRecorder = new NetworkFlightRecorder(
+        new FakeContext(),
+        NetworkFlightRecorder.DEFAULT_BUFFER_BYTES,
+        NetworkFlightRecorder.DEFAULT_MAX_BODY_BYTES);
+    mRequest = new FakeRequest();
+    mResponse = new FakeResponse();
+    for (int i = 0; i < NetworkFlightRecorder.DEFAULT_BUFFER_BYTES / 256; i++) {
+      recordRequest();
+    }
+  }
+
+  @Benchmark
+  public long recordRequest() {
+    long timestamp = mTimestamp++;
+    mRecorder.recordRequestWillBeSent(mRequest, null /* body */, timestamp);
+    mRecorder.recordResponseReceived(mResponse, timestamp);
+    mRecorder.recordDataReceived(REQUEST_ID, timestamp, 21000, 5321);
+    mRecorder.recordLoadingFinished(REQUEST_ID, timestamp);
+    return timestamp;
+  }
+
+  private static class FakeContext extends ContextWrapper {
+    public FakeContext() {
+      super(null);
+    }
+
+    @Override
+    public Context getApplicationContext() {
+      return this;
+    }
+  }
+
+  private static class FakeHeaders implements NetworkEventReporter.InspectorHeaders {
+    private final String[] mHeaders;
+
+    public FakeHeaders(String[] headers) {
+      mHeaders = headers;
+    }
+
+    @Override
+    public int headerCount() {
+      return mHeaders.length / 2;
+    }
+
+    @Override
+    public String headerName(int index) {
+      return mHeaders[index * 2];
+    }
+
+    @Override
+    public String headerValue(int index) {
+      return mHeaders[index * 2 + 1];
+    }
+
+    @Nullable
+    @Override
+    public String firstHeaderValue(String name) {
+      return null;
+    }
+  }
+
+  private static class FakeRequest
+      extends FakeHeaders
+      implements NetworkEventReporter.InspectorRequest {
+    public FakeRequest() {
+      super(REQUEST_HEADERS);
+    }
+
+    @Override
+    public String id() {
+      return REQUEST_ID;
+    }
+
+    @Override
+    public String friendlyName() {
+      return "OkHttp";
+    }
+
+    @Nullable
+    @Override
+    public Integer friendlyNameExtra() {
+      return null;
+    }
+
+    @Override
+    public String url() {
+      return URL;
+    }
+
+    @Override
+    public String method() {
+      return "GET";
+    }
+
+    @Nullable
+    @Override
+    public byte[] body() {
+      return null;
+    }
+  }
+
+  private static class FakeResponse
+      extends FakeHeaders
+      implements NetworkEventReporter.InspectorResponse {
+    public FakeResponse() {
+      super(RESPONSE_HEADERS);
+    }
+
+    @Override
+    public String requestId() {
+      return REQUEST_ID;
+    }
+
+    @Override
+    public int statusCode() {
+      return 200;
+    }
+
+    @Override
+    public String reasonPhrase() {
+      return "OK";
+    }
+
+    @Override
+    public String url() {
+      return URL;
+    }
+
+    @Override
+    public boolean connectionReused() {
+      return true;
+    }
+
+    @Override
+    public int connectionId() {
+      return 1;
+    }
+
+    @Override
+    public boolean fromDiskCache() {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Measures the cost the interceptor adds to the app's own reads of a response body: tee-ing
+ * into the body file (replaced here by a discarding stream) with and without gzip
+ * decompression.  Compare against {@link #readDirect} for the baseline cost of the read loop.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ResponseHandlingInputStreamBenchmark {
+  private static final String REQUEST_ID = "1";
+
+  @Param({"16384", "1048576"})
+  public int bodySize;
+
+  private final byte[] mReadBuffer = new byte[8192];
+  private byte[] mBody;
+  private byte[] mGzippedBody;
+
+  @Setup
+  public void setup() throws IOException {
+    // Repetitive JSON-like text compresses roughly like a real API response.
+    StringBuilder body = new StringBuilder(bodySize);
+    for (int i = 0; body.length() < bodySize; i++) {
+      body.append("{\"id\":").append(i).append(",\"name\":\"item ").append(i).append("\"},");
+    }
+    mBody = body.substring(0, bodySize).getBytes("UTF-8");
+
+    ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+    GZIPOutputStream gzipOut = new GZIPOutputStream(gzipped);
+    gzipOut.write(mBody);
+    gzipOut.close();
+    mGzippedBody = gzipped.toByteArray();
+  }
+
+  @Benchmark
+  public long readDirect() throws IOException {
+    return drain(new ByteArrayInputStream(mBody));
+  }
+
+  @Benchmark
+  public long readIdentity() throws IOException {
+    return drain(DecompressionHelper.teeInputWithDecompression(
+        null /* peerManager */,
+        REQUEST_ID,
+        new ByteArrayInputStream(mBody),
+        new DiscardingOutputStream(),
+        null /* contentEncoding */,
+        new NoopResponseHandler()));
+  }
+
+  @Benchmark
+  public long readGzip() throws IOException {
+    return drain(DecompressionHelper.teeInputWithDecompression(
+        null /* peerManager */,
+        REQUEST_ID,
+        new ByteArrayInputStream(mGzippedBody),
+        new DiscardingOutputStream(),
+        DecompressionHelper.GZIP_ENCODING,
+        new NoopResponseHandler()));
+  }
+
+  private long drain(InputStream in) throws IOException {
+    long total = 0;
+    try {
+      int count;
+      while ((count = in.read(mReadBuffer)) != -1) {
+        total += count;
+      }
+    } finally {
+      in.close();
+    }
+    return total;
+  }
+
+  private static class DiscardingOutputStream extends OutputStream {
+    @Override
+    public void write(int oneByte) {
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int count) {
+    }
+  }
+
+  private static class NoopResponseHandler implements ResponseHandler {
+    @Override
+    public void onRead(int numBytes) {
+    }
+
+    @Override
+    public void onReadDecoded(int numBytes) {
+    }
+
+    @Override
+    public void onEOF() {
+    }
+
+    @Override
+    public void onError(IOException e) {
+    }
+  }
+}
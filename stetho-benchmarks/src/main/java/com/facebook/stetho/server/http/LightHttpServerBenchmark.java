@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.server.http;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures parsing of the request line and headers of the WebSocket upgrade request that
+ * Chrome sends for every new DevTools session.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LightHttpServerBenchmark {
+  private static final byte[] UPGRADE_REQUEST = (
+      "GET /inspector HTTP/1.1\r\n" +
+      "Host: localhost:9222\r\n" +
+      "Connection: Upgrade\r\n" +
+      "Pragma: no-cache\r\n" +
+      "Cache-Control: no-cache\r\n" +
+      "User-Agent: Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 " +
+          "(KHTML, like Gecko) Chrome/86.0.4240.75 Safari/537.36\r\n" +
+      "Upgrade: websocket\r\n" +
+      "Origin: devtools://devtools\r\n" +
+      "Sec-WebSocket-Version: 13\r\n" +
+      "Accept-Encoding: gzip, deflate, br\r\n" +
+      "Accept-Language: en-US,en;q=0.9\r\n" +
+      "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n" +
+      "Sec-WebSocket-Extensions: permessage-deflate; client_max_window_bits\r\n" +
+      "\r\n").getBytes();
+
+  private final LightHttpRequest mRequest = new LightHttpRequest();
+
+  @Benchmark
+  public LightHttpRequest readRequestMessage() throws IOException {
+    LightHttpServer.HttpMessageReader reader = new LightHttpServer.HttpMessageReader(
+        new BufferedInputStream(new ByteArrayInputStream(UPGRADE_REQUEST)));
+    return LightHttpServer.readRequestMessage(mRequest, reader);
+  }
+}
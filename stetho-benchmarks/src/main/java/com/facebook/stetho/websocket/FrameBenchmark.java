@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.websocket;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures decoding of masked client frames (as sent by DevTools) and encoding of unmasked
+ * server frames, for a typical small command and for a large message.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FrameBenchmark {
+  @Param({"128", "65536"})
+  public int payloadSize;
+
+  private byte[] mEncodedMaskedFrame;
+  private Frame mFrameToWrite;
+  private final ByteArrayOutputStream mOut = new ByteArrayOutputStream();
+
+  @Setup
+  public void setup() {
+    Random random = new Random(0);
+    byte[] payload = new byte[payloadSize];
+    random.nextBytes(payload);
+    byte[] maskingKey = new byte[4];
+    random.nextBytes(maskingKey);
+    mEncodedMaskedFrame = encodeMaskedTextFrame(payload, maskingKey);
+    mFrameToWrite = FrameHelper.createBinaryFrame(payload);
+  }
+
+  @Benchmark
+  public Frame readFrom() throws IOException {
+    Frame frame = new Frame();
+    frame.readFrom(new BufferedInputStream(new ByteArrayInputStream(mEncodedMaskedFrame)));
+    return frame;
+  }
+
+  @Benchmark
+  public int writeTo() throws IOException {
+    mOut.reset();
+    BufferedOutputStream output = new BufferedOutputStream(mOut);
+    mFrameToWrite.writeTo(output);
+    output.flush();
+    return mOut.size();
+  }
+
+  /**
+   * {@link Frame#writeTo} does not support masking so client frames are encoded by hand.
+   */
+  private static byte[] encodeMaskedTextFrame(byte[] payload, byte[] maskingKey) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(payload.length + 14);
+    out.write(0x80 | Frame.OPCODE_TEXT_FRAME);
+    int length = payload.length;
+    if (length <= 125) {
+      out.write(0x80 | length);
+    } else if (length <= 0xffff) {
+      out.write(0x80 | 126);
+      out.write(length >> 8);
+      out.write(length);
+    } else {
+      out.write(0x80 | 127);
+      for (int shift = 56; shift >= 0; shift -= 8) {
+        out.write((int) ((long) length >> shift));
+      }
+    }
+    out.write(maskingKey, 0, maskingKey.length);
+    for (int i = 0; i < length; i++) {
+      out.write(payload[i] ^ maskingKey[i % 4]);
+    }
+    return out.toByteArray();
+  }
+}
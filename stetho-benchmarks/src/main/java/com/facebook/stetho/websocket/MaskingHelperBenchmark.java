@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.websocket;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link MaskingHelper#unmask} in isolation, against the byte-at-a-time loop it
+ * replaced.  Unmasking is its own inverse so the payload is simply toggled in place on each
+ * invocation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MaskingHelperBenchmark {
+  @Param({"128", "65536"})
+  public int payloadSize;
+
+  private final byte[] mMaskingKey = new byte[4];
+  private byte[] mPayload;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(0);
+    random.nextBytes(mMaskingKey);
+    mPayload = new byte[payloadSize];
+    random.nextBytes(mPayload);
+  }
+
+  @Benchmark
+  public byte[] unmask() {
+    MaskingHelper.unmask(mMaskingKey, mPayload, 0, mPayload.length);
+    return mPayload;
+  }
+
+  @Benchmark
+  public byte[] unmaskBytewise() {
+    byte[] key = mMaskingKey;
+    byte[] data = mPayload;
+    int offset = 0;
+    int count = data.length;
+    int index = 0;
+    while (count-- > 0) {
+      data[offset++] ^= key[index++ % key.length];
+    }
+    return mPayload;
+  }
+}
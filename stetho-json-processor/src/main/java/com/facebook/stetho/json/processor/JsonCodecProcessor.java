@@ -0,0 +1,492 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.json.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates a {@code JsonCodec} for every class declaring {@code @JsonProperty} fields so that
+ * {@code ObjectMapper} can convert it without reflection.  Classes which cannot be referenced
+ * from generated code in the same package (private, generic, abstract, local) are skipped and
+ * continue to use the reflective path at runtime.
+ * <p/>
+ * The generated code deliberately mirrors the semantics of the reflective implementation:
+ * only annotated public fields are written, absent optional values are omitted, and all public
+ * fields are read.  Anything more complicated than a primitive, boxed primitive, string or enum
+ * is delegated back to {@code ObjectMapper} so that runtime subclasses behave identically.
+ */
+public class JsonCodecProcessor extends AbstractProcessor {
+  private static final String JSON_PROPERTY = "com.facebook.stetho.json.annotation.JsonProperty";
+  private static final String JSON_VALUE = "com.facebook.stetho.json.annotation.JsonValue";
+  private static final String CODEC_INTERFACE = "com.facebook.stetho.json.JsonCodec";
+  private static final String OBJECT_MAPPER = "com.facebook.stetho.json.ObjectMapper";
+  private static final String JSON_WRITER = "com.facebook.stetho.json.JsonWriter";
+  private static final String CODEC_SUFFIX = "$$JsonCodec";
+
+  private final Set<String> mGenerated = new HashSet<>();
+
+  private Elements mElements;
+  private Types mTypes;
+  private Filer mFiler;
+  private Messager mMessager;
+
+  @Override
+  public synchronized void init(ProcessingEnvironment processingEnv) {
+    super.init(processingEnv);
+    mElements = processingEnv.getElementUtils();
+    mTypes = processingEnv.getTypeUtils();
+    mFiler = processingEnv.getFiler();
+    mMessager = processingEnv.getMessager();
+  }
+
+  @Override
+  public Set<String> getSupportedAnnotationTypes() {
+    return Collections.singleton(JSON_PROPERTY);
+  }
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+    TypeElement jsonProperty = mElements.getTypeElement(JSON_PROPERTY);
+    if (jsonProperty == null) {
+      return false;
+    }
+    Set<TypeElement> types = new LinkedHashSet<>();
+    for (Element element : roundEnv.getElementsAnnotatedWith(jsonProperty)) {
+      if (element.getKind() == ElementKind.FIELD) {
+        types.add((TypeElement) element.getEnclosingElement());
+      }
+    }
+    for (TypeElement type : types) {
+      String qualifiedName = type.getQualifiedName().toString();
+      if (mGenerated.contains(qualifiedName) || !isEligible(type)) {
+        continue;
+      }
+      mGenerated.add(qualifiedName);
+      try {
+        generateCodec(type);
+      } catch (IOException e) {
+        mMessager.printMessage(
+            Diagnostic.Kind.ERROR,
+            "Unable to generate JsonCodec: " + e,
+            type);
+      }
+    }
+    return false;
+  }
+
+  private boolean isEligible(TypeElement type) {
+    if (type.getKind() != ElementKind.CLASS) {
+      return false;
+    }
+    if (type.getModifiers().contains(Modifier.ABSTRACT) ||
+        !type.getTypeParameters().isEmpty()) {
+      return false;
+    }
+    NestingKind nesting = type.getNestingKind();
+    if (nesting == NestingKind.LOCAL || nesting == NestingKind.ANONYMOUS) {
+      return false;
+    }
+    return isAccessible(type.asType(), getPackage(type));
+  }
+
+  private void generateCodec(TypeElement type) throws IOException {
+    PackageElement pkg = getPackage(type);
+    String packageName = pkg.getQualifiedName().toString();
+    String typeName = type.getQualifiedName().toString();
+    String codecSimpleName = getBinarySimpleName(type).replace('$', '_') + CODEC_SUFFIX;
+    String codecName = packageName.isEmpty() ?
+        codecSimpleName :
+        packageName + "." + codecSimpleName;
+
+    List<VariableElement> fields = getPublicInstanceFields(type);
+
+    JavaFileObject file = mFiler.createSourceFile(codecName, type);
+    Writer out = file.openWriter();
+    try {
+      PrintWriter w = new PrintWriter(out);
+      w.println("// Generated by stetho-json-processor from " + typeName + ".  Do not edit.");
+      if (!packageName.isEmpty()) {
+        w.println("package " + packageName + ";");
+      }
+      w.println();
+      w.println("public final class " + codecSimpleName);
+      w.println("    implements " + CODEC_INTERFACE + "<" + typeName + "> {");
+      w.println("  @Override");
+      w.println("  public void write(");
+      w.println("      " + OBJECT_MAPPER + " mapper,");
+      w.println("      " + JSON_WRITER + " writer,");
+      w.println("      " + typeName + " value) throws java.io.IOException {");
+      w.println("    writer.beginObject();");
+      for (VariableElement field : fields) {
+        AnnotationMirror property = getAnnotation(field, JSON_PROPERTY);
+        if (property != null) {
+          emitWriteField(w, pkg, field, isRequired(property));
+        }
+      }
+      w.println("    writer.endObject();");
+      w.println("  }");
+      w.println();
+      w.println("  @Override");
+      w.println("  @SuppressWarnings(\"unchecked\")");
+      w.println("  public " + typeName + " read(");
+      w.println("      " + OBJECT_MAPPER + " mapper,");
+      w.println("      org.json.JSONObject jsonObject) throws org.json.JSONException {");
+      if (canReadDirectly(type, pkg, fields)) {
+        w.println("    " + typeName + " instance = new " + typeName + "();");
+        for (VariableElement field : fields) {
+          emitReadField(w, type, field);
+        }
+        w.println("    return instance;");
+      } else {
+        w.println("    return mapper.readObjectReflectively(jsonObject, " + typeName + ".class);");
+      }
+      w.println("  }");
+      w.println("}");
+      w.flush();
+    } finally {
+      out.close();
+    }
+  }
+
+  private void emitWriteField(
+      PrintWriter w,
+      PackageElement pkg,
+      VariableElement field,
+      boolean required) {
+    String name = field.getSimpleName().toString();
+    String access = "value." + name;
+    TypeMirror type = field.asType();
+    String quotedName = quote(name);
+
+    if (type.getKind().isPrimitive()) {
+      w.println("    writer.name(" + quotedName + ");");
+      w.println("    writer.value(" + primitiveWriteExpression(type.getKind(), access) + ");");
+      return;
+    }
+
+    String localType = isAccessible(type, pkg) ? type.toString() : "java.lang.Object";
+    w.println("    {");
+    w.println("      " + localType + " fieldValue = " + access + ";");
+    if (required) {
+      // Required values are always present, as an explicit null if need be.
+      w.println("      writer.name(" + quotedName + ");");
+      w.println("      if (fieldValue != null) {");
+      w.println("        " + referenceWriteStatement(type, pkg, "fieldValue"));
+      w.println("      } else {");
+      w.println("        writer.nullValue();");
+      w.println("      }");
+    } else {
+      w.println("      if (fieldValue != null) {");
+      w.println("        writer.name(" + quotedName + ");");
+      w.println("        " + referenceWriteStatement(type, pkg, "fieldValue"));
+      w.println("      }");
+    }
+    w.println("    }");
+  }
+
+  private static String primitiveWriteExpression(TypeKind kind, String access) {
+    switch (kind) {
+      case CHAR:
+        return "String.valueOf(" + access + ")";
+      default:
+        return access;
+    }
+  }
+
+  private String referenceWriteStatement(TypeMirror type, PackageElement pkg, String local) {
+    if (type.getKind() == TypeKind.DECLARED && isAccessible(type, pkg)) {
+      TypeElement element = (TypeElement) ((DeclaredType) type).asElement();
+      String name = element.getQualifiedName().toString();
+      switch (name) {
+        case "java.lang.String":
+          return "writer.value(" + local + ");";
+        case "java.lang.Boolean":
+          return "writer.value(" + local + ".booleanValue());";
+        case "java.lang.Integer":
+        case "java.lang.Long":
+        case "java.lang.Short":
+        case "java.lang.Byte":
+          return "writer.value(" + local + ".longValue());";
+        case "java.lang.Double":
+          return "writer.value(" + local + ".doubleValue());";
+        case "java.lang.Float":
+          return "writer.value(" + local + ".floatValue());";
+        case "java.lang.Character":
+          return "writer.value(" + local + ".toString());";
+      }
+      if (element.getKind() == ElementKind.ENUM) {
+        ExecutableElement jsonValue = findJsonValueMethod(element);
+        if (jsonValue != null) {
+          String call = local + "." + jsonValue.getSimpleName() + "()";
+          TypeMirror returnType = jsonValue.getReturnType();
+          if (returnType.getKind().isPrimitive()) {
+            return "writer.value(" + primitiveWriteExpression(returnType.getKind(), call) + ");";
+          } else if (isString(returnType)) {
+            return "writer.value(" + call + ");";
+          } else {
+            return "mapper.writeValue(writer, " + call + ");";
+          }
+        }
+      }
+    }
+    return "mapper.writeValue(writer, " + local + ");";
+  }
+
+  private void emitReadField(PrintWriter w, TypeElement owner, VariableElement field) {
+    String name = field.getSimpleName().toString();
+    String quotedName = quote(name);
+    TypeMirror type = field.asType();
+    String erasure = mTypes.erasure(type).toString();
+    String readCall = "mapper.readField(jsonObject, " + quotedName + ", " + erasure + ".class, " +
+        getListElementTypeLiteral(type) + ")";
+
+    if (type.getKind().isPrimitive()) {
+      String boxed = mTypes.boxedClass((javax.lang.model.type.PrimitiveType) type)
+          .getQualifiedName().toString();
+      w.println("    {");
+      w.println("      Object fieldValue = " + readCall + ";");
+      w.println("      if (!(fieldValue instanceof " + boxed + ")) {");
+      w.println("        throw new IllegalArgumentException(");
+      w.println("            " + quote("Class: " + owner.getSimpleName() + " Field: " + name +
+          " type ") + " + (fieldValue != null ? fieldValue.getClass().getName() : null));");
+      w.println("      }");
+      w.println("      instance." + name + " = (" + boxed + ") fieldValue;");
+      w.println("    }");
+    } else {
+      w.println("    instance." + name + " = (" + type + ") " + readCall + ";");
+    }
+  }
+
+  private String getListElementTypeLiteral(TypeMirror type) {
+    TypeElement list = mElements.getTypeElement("java.util.List");
+    if (type.getKind() != TypeKind.DECLARED ||
+        !mTypes.isAssignable(mTypes.erasure(type), mTypes.erasure(list.asType()))) {
+      return "null";
+    }
+    List<? extends TypeMirror> args = ((DeclaredType) type).getTypeArguments();
+    if (args.size() != 1) {
+      return "null";
+    }
+    TypeMirror arg = args.get(0);
+    if (arg.getKind() != TypeKind.DECLARED ||
+        !((DeclaredType) arg).getTypeArguments().isEmpty()) {
+      return "null";
+    }
+    return arg + ".class";
+  }
+
+  /**
+   * Reading requires a reachable no-arg constructor and assignable, nameable fields.  Anything
+   * else is left to the reflective path so that error behaviour stays the same.
+   */
+  private boolean canReadDirectly(
+      TypeElement type,
+      PackageElement pkg,
+      List<VariableElement> fields) {
+    if (type.getNestingKind() == NestingKind.MEMBER &&
+        !type.getModifiers().contains(Modifier.STATIC)) {
+      return false;
+    }
+    boolean hasNoArgConstructor = false;
+    for (ExecutableElement constructor :
+        ElementFilter.constructorsIn(type.getEnclosedElements())) {
+      if (constructor.getParameters().isEmpty() &&
+          !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+        hasNoArgConstructor = true;
+      }
+    }
+    if (!hasNoArgConstructor) {
+      return false;
+    }
+    for (VariableElement field : fields) {
+      if (field.getModifiers().contains(Modifier.FINAL) ||
+          !isAccessible(field.asType(), pkg)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Public, non-static fields including those inherited from superclasses, mirroring
+   * {@code Class#getFields()}.
+   */
+  private List<VariableElement> getPublicInstanceFields(TypeElement type) {
+    List<VariableElement> fields = new ArrayList<>();
+    Set<String> seenNames = new HashSet<>();
+    TypeElement current = type;
+    while (current != null &&
+        !current.getQualifiedName().contentEquals("java.lang.Object")) {
+      for (VariableElement field : ElementFilter.fieldsIn(current.getEnclosedElements())) {
+        Set<Modifier> modifiers = field.getModifiers();
+        if (modifiers.contains(Modifier.PUBLIC) &&
+            !modifiers.contains(Modifier.STATIC) &&
+            seenNames.add(field.getSimpleName().toString())) {
+          fields.add(field);
+        }
+      }
+      TypeMirror superclass = current.getSuperclass();
+      current = superclass.getKind() == TypeKind.DECLARED ?
+          (TypeElement) ((DeclaredType) superclass).asElement() :
+          null;
+    }
+    return fields;
+  }
+
+  private ExecutableElement findJsonValueMethod(TypeElement type) {
+    for (ExecutableElement method : ElementFilter.methodsIn(type.getEnclosedElements())) {
+      if (getAnnotation(method, JSON_VALUE) != null &&
+          method.getModifiers().contains(Modifier.PUBLIC) &&
+          !method.getModifiers().contains(Modifier.STATIC) &&
+          method.getParameters().isEmpty()) {
+        return method;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Whether {@code type} can be named from generated code living in {@code pkg}.
+   */
+  private boolean isAccessible(TypeMirror type, PackageElement pkg) {
+    switch (type.getKind()) {
+      case BOOLEAN:
+      case BYTE:
+      case SHORT:
+      case INT:
+      case LONG:
+      case CHAR:
+      case FLOAT:
+      case DOUBLE:
+        return true;
+      case ARRAY:
+        return isAccessible(((ArrayType) type).getComponentType(), pkg);
+      case WILDCARD:
+        WildcardType wildcard = (WildcardType) type;
+        TypeMirror bound = wildcard.getExtendsBound() != null ?
+            wildcard.getExtendsBound() :
+            wildcard.getSuperBound();
+        return bound == null || isAccessible(bound, pkg);
+      case DECLARED:
+        DeclaredType declared = (DeclaredType) type;
+        for (Element e = declared.asElement();
+             e != null && e.getKind() != ElementKind.PACKAGE;
+             e = e.getEnclosingElement()) {
+          Set<Modifier> modifiers = e.getModifiers();
+          if (modifiers.contains(Modifier.PRIVATE)) {
+            return false;
+          }
+          if (!modifiers.contains(Modifier.PUBLIC) && !getPackage(e).equals(pkg)) {
+            return false;
+          }
+        }
+        for (TypeMirror arg : declared.getTypeArguments()) {
+          if (!isAccessible(arg, pkg)) {
+            return false;
+          }
+        }
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private boolean isString(TypeMirror type) {
+    return type.getKind() == TypeKind.DECLARED &&
+        ((TypeElement) ((DeclaredType) type).asElement())
+            .getQualifiedName().contentEquals("java.lang.String");
+  }
+
+  private PackageElement getPackage(Element element) {
+    return mElements.getPackageOf(element);
+  }
+
+  /**
+   * Simple name as it appears in the binary name, e.g. {@code Network$DataReceivedParams}.
+   */
+  private String getBinarySimpleName(TypeElement type) {
+    String binaryName = mElements.getBinaryName(type).toString();
+    String packageName = getPackage(type).getQualifiedName().toString();
+    return packageName.isEmpty() ? binaryName : binaryName.substring(packageName.length() + 1);
+  }
+
+  private static AnnotationMirror getAnnotation(Element element, String annotationName) {
+    for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+      TypeElement annotationType = (TypeElement) mirror.getAnnotationType().asElement();
+      if (annotationType.getQualifiedName().contentEquals(annotationName)) {
+        return mirror;
+      }
+    }
+    return null;
+  }
+
+  private static boolean isRequired(AnnotationMirror property) {
+    for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry :
+        property.getElementValues().entrySet()) {
+      if (entry.getKey().getSimpleName().contentEquals("required")) {
+        return Boolean.TRUE.equals(entry.getValue().getValue());
+      }
+    }
+    return false;
+  }
+
+  private static String quote(String value) {
+    StringBuilder b = new StringBuilder(value.length() + 2);
+    b.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        b.append('\\');
+      }
+      b.append(c);
+    }
+    b.append('"');
+    return b.toString();
+  }
+}
@@ -21,6 +21,7 @@ import com.facebook.stetho.dumpapp.DumperPlugin;
 import com.facebook.stetho.dumpapp.plugins.CrashDumperPlugin;
 import com.facebook.stetho.dumpapp.plugins.FilesDumperPlugin;
 import com.facebook.stetho.dumpapp.plugins.HprofDumperPlugin;
+import com.facebook.stetho.dumpapp.plugins.NetworkDumperPlugin;
 import com.facebook.stetho.dumpapp.plugins.SharedPreferencesDumperPlugin;
 import com.facebook.stetho.inspector.DevtoolsSocketHandler;
 import com.facebook.stetho.inspector.console.RuntimeReplFactory;
@@ -54,6 +55,7 @@ import com.facebook.stetho.inspector.protocol.module.Runtime;
 import com.facebook.stetho.inspector.protocol.module.Worker;
 import com.facebook.stetho.inspector.runtime.RhinoDetectingRuntimeReplFactory;
 import com.facebook.stetho.server.AddressNameHelper;
+import com.facebook.stetho.server.ConnectionWorkerPool;
 import com.facebook.stetho.server.LazySocketHandler;
 import com.facebook.stetho.server.LocalSocketServer;
 import com.facebook.stetho.server.ProtocolDetectingSocketHandler;
@@ -224,6 +226,7 @@ public class Stetho {
       provideIfDesired(new SharedPreferencesDumperPlugin(mContext));
       provideIfDesired(new CrashDumperPlugin());
       provideIfDesired(new FilesDumperPlugin(mContext));
+      provideIfDesired(new NetworkDumperPlugin());
       return mDelegate.finish();
     }
   }
@@ -440,13 +443,22 @@ public class Stetho {
     @Nullable
     protected abstract Iterable<ChromeDevtoolsDomain> getInspectorModules();
 
+    /**
+     * Provide the worker pool which bounds how many dumpapp and DevTools connections are
+     * serviced concurrently.  Defaults to {@link ConnectionWorkerPool#ConnectionWorkerPool()}.
+     */
+    protected ConnectionWorkerPool getConnectionWorkerPool() {
+      return new ConnectionWorkerPool();
+    }
+
     final void start() {
       // Note that _devtools_remote is a magic suffix understood by Chrome which causes
       // the discovery process to begin.
       LocalSocketServer server = new LocalSocketServer(
           "main",
           AddressNameHelper.createCustomAddress("_devtools_remote"),
-          new LazySocketHandler(new RealSocketHandlerFactory()));
+          new LazySocketHandler(new RealSocketHandlerFactory()),
+          getConnectionWorkerPool());
 
       ServerManager serverManager = new ServerManager(server);
       serverManager.start();
@@ -499,6 +511,7 @@ public class Stetho {
 
     @Nullable DumperPluginsProvider mDumperPlugins;
     @Nullable InspectorModulesProvider mInspectorModules;
+    @Nullable ConnectionWorkerPool mConnectionWorkerPool;
 
     private InitializerBuilder(Context context) {
       mContext = context.getApplicationContext();
@@ -527,6 +540,16 @@ public class Stetho {
       return this;
     }
 
+    /**
+     * Bound the number of connections (dumpapp invocations, DevTools tabs, discovery requests)
+     * that are serviced concurrently and how many more may wait for a free worker.  Keep a
+     * reference to the pool to monitor active and queued connection counts.
+     */
+    public InitializerBuilder connectionWorkerPool(ConnectionWorkerPool pool) {
+      mConnectionWorkerPool = Util.throwIfNull(pool);
+      return this;
+    }
+
     public Initializer build() {
       return new BuilderBasedInitializer(this);
     }
@@ -535,11 +558,13 @@ public class Stetho {
   private static class BuilderBasedInitializer extends Initializer {
     @Nullable private final DumperPluginsProvider mDumperPlugins;
     @Nullable private final InspectorModulesProvider mInspectorModules;
+    @Nullable private final ConnectionWorkerPool mConnectionWorkerPool;
 
     private BuilderBasedInitializer(InitializerBuilder b) {
       super(b.mContext);
       mDumperPlugins = b.mDumperPlugins;
       mInspectorModules = b.mInspectorModules;
+      mConnectionWorkerPool = b.mConnectionWorkerPool;
     }
 
     @Nullable
@@ -553,5 +578,12 @@ public class Stetho {
     protected Iterable<ChromeDevtoolsDomain> getInspectorModules() {
       return mInspectorModules != null ? mInspectorModules.get() : null;
     }
+
+    @Override
+    protected ConnectionWorkerPool getConnectionWorkerPool() {
+      return mConnectionWorkerPool != null ?
+          mConnectionWorkerPool :
+          super.getConnectionWorkerPool();
+    }
   }
 }
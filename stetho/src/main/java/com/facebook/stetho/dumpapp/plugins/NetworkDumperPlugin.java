@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.dumpapp.plugins;
+
+import android.os.SystemClock;
+import com.facebook.stetho.dumpapp.ArgsHelper;
+import com.facebook.stetho.dumpapp.DumpException;
+import com.facebook.stetho.dumpapp.DumpUsageException;
+import com.facebook.stetho.dumpapp.DumperContext;
+import com.facebook.stetho.dumpapp.DumperPlugin;
+import com.facebook.stetho.inspector.network.HarExporter;
+import com.facebook.stetho.inspector.network.NetworkEventReporterImpl;
+import com.facebook.stetho.inspector.network.NetworkFlightRecorder;
+import com.facebook.stetho.inspector.network.NetworkPeerManager;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Iterator;
+
+/**
+ * Exports the network traffic held by the {@link NetworkFlightRecorder}, if one has been
+ * installed with {@link NetworkEventReporterImpl#setFlightRecorder}.  The archive is streamed
+ * to stdout as it is written, so large captures can be redirected straight to a file:
+ * <pre>
+ *   scripts/dumpapp network har --host example.com &gt; capture.har
+ * </pre>
+ */
+public class NetworkDumperPlugin implements DumperPlugin {
+  private static final String NAME = "network";
+
+  public NetworkDumperPlugin() {
+  }
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public void dump(DumperContext dumpContext) throws DumpException {
+    Iterator<String> argsIter = dumpContext.getArgsAsList().iterator();
+
+    String command = ArgsHelper.nextOptionalArg(argsIter, null);
+    if ("har".equals(command)) {
+      doHar(dumpContext.getStdout(), argsIter);
+    } else {
+      doUsage(dumpContext.getStdout());
+      if (command != null) {
+        throw new DumpUsageException("Unknown command: " + command);
+      }
+    }
+  }
+
+  private void doHar(PrintStream output, Iterator<String> argsIter) throws DumpException {
+    NetworkFlightRecorder recorder =
+        ((NetworkEventReporterImpl) NetworkEventReporterImpl.get()).getFlightRecorder();
+    if (recorder == null) {
+      throw new DumpException(
+          "Network traffic is not being recorded, see NetworkEventReporterImpl#setFlightRecorder");
+    }
+    NetworkPeerManager peerManager = NetworkPeerManager.getInstanceOrNull();
+    HarExporter exporter = new HarExporter(
+        recorder,
+        peerManager != null ? peerManager.getResponseBodyFileManager() : null);
+
+    long now = SystemClock.elapsedRealtime();
+    long startMs = Long.MIN_VALUE;
+    long endMs = Long.MAX_VALUE;
+    while (argsIter.hasNext()) {
+      String option = argsIter.next();
+      if ("--since".equals(option)) {
+        startMs = now - parseSeconds(ArgsHelper.nextArg(argsIter, "Expected <seconds>"));
+      } else if ("--until".equals(option)) {
+        endMs = now - parseSeconds(ArgsHelper.nextArg(argsIter, "Expected <seconds>"));
+      } else if ("--host".equals(option)) {
+        exporter.addHost(ArgsHelper.nextArg(argsIter, "Expected <host>"));
+      } else if ("--mime".equals(option)) {
+        exporter.addMimeType(ArgsHelper.nextArg(argsIter, "Expected <mime-type>"));
+      } else {
+        throw new DumpUsageException("Unknown option: " + option);
+      }
+    }
+    if (startMs > endMs) {
+      throw new DumpUsageException("--since must be further back than --until");
+    }
+    exporter.setTimeWindow(startMs, endMs);
+
+    try {
+      exporter.writeTo(output);
+    } catch (IOException e) {
+      throw new DumpException("Failure writing HAR: " + e.getMessage());
+    }
+    // PrintStream swallows write errors (e.g. the client going away), only recording them.
+    if (output.checkError()) {
+      throw new DumpException("Failure writing HAR");
+    }
+  }
+
+  private static long parseSeconds(String seconds) throws DumpUsageException {
+    try {
+      long value = Long.parseLong(seconds);
+      if (value >= 0) {
+        return value * 1000;
+      }
+    } catch (NumberFormatException e) {
+      // Fall through.
+    }
+    throw new DumpUsageException("Invalid number of seconds: " + seconds);
+  }
+
+  private void doUsage(PrintStream writer) {
+    final String cmdName = "dumpapp " + NAME;
+
+    String usagePrefix = "Usage: " + cmdName + " ";
+    writer.println(usagePrefix + "har [--since <seconds>] [--until <seconds>] " +
+        "[--host <host>]... [--mime <mime-type>]...");
+    writer.println();
+    writer.println(cmdName + " har: Write the recorded network traffic to stdout as HAR 1.2");
+    writer.println("    --since <seconds>: Only requests started at most this many seconds ago");
+    writer.println("    --until <seconds>: Only requests started at least this many seconds ago");
+    writer.println("    --host <host>: Only requests to this host or its subdomains");
+    writer.println("    --mime <mime-type>: Only responses of this type, such as image/*");
+    writer.println();
+    writer.println("Requires a NetworkFlightRecorder to have been installed, see");
+    writer.println("NetworkEventReporterImpl#setFlightRecorder.");
+  }
+}
@@ -7,7 +7,11 @@
 
 package com.facebook.stetho.inspector;
 
+import javax.annotation.Nullable;
+
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -18,15 +22,19 @@ import com.facebook.stetho.common.LogRedirector;
 import com.facebook.stetho.common.Util;
 import com.facebook.stetho.inspector.jsonrpc.JsonRpcException;
 import com.facebook.stetho.inspector.jsonrpc.JsonRpcPeer;
+import com.facebook.stetho.inspector.jsonrpc.JsonRpcResult;
+import com.facebook.stetho.inspector.jsonrpc.JsonRpcResultCallback;
 import com.facebook.stetho.inspector.jsonrpc.PendingRequest;
 import com.facebook.stetho.inspector.jsonrpc.protocol.JsonRpcError;
 import com.facebook.stetho.inspector.jsonrpc.protocol.JsonRpcRequest;
 import com.facebook.stetho.inspector.jsonrpc.protocol.JsonRpcResponse;
 import com.facebook.stetho.inspector.protocol.ChromeDevtoolsDomain;
+import com.facebook.stetho.json.JsonWriter;
 import com.facebook.stetho.json.ObjectMapper;
 import com.facebook.stetho.websocket.CloseCodes;
 import com.facebook.stetho.websocket.SimpleEndpoint;
 import com.facebook.stetho.websocket.SimpleSession;
+import com.facebook.stetho.websocket.TextMessageWriter;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -114,40 +122,105 @@ public class ChromeDevtoolsServer implements SimpleEndpoint {
     }
   }
 
-  private void handleRemoteRequest(JsonRpcPeer peer, JSONObject requestNode)
+  private void handleRemoteRequest(final JsonRpcPeer peer, JSONObject requestNode)
       throws MessageHandlingException {
-    JsonRpcRequest request;
+    final JsonRpcRequest request;
     request = mObjectMapper.convertValue(
         requestNode,
         JsonRpcRequest.class);
 
-    JSONObject result = null;
-    JSONObject error = null;
+    // May complete on another thread if the method belongs to an AsyncChromeDevtoolsDomain.
+    mMethodDispatcher.dispatch(peer,
+        request.method,
+        request.params,
+        new JsonRpcResultCallback() {
+          @Override
+          public void onSuccess(@Nullable JsonRpcResult result) {
+            if (request.id != null) {
+              sendResponseSafely(peer, request.id, result, null /* error */);
+            } else if (result instanceof Closeable) {
+              closeQuietly((Closeable) result);
+            }
+          }
+
+          @Override
+          public void onFailure(JsonRpcException e) {
+            logDispatchException(e);
+            if (request.id != null) {
+              sendResponseSafely(peer, request.id, null /* result */, e.getErrorMessage());
+            }
+          }
+        });
+  }
+
+  private void sendResponseSafely(
+      JsonRpcPeer peer,
+      long id,
+      @Nullable JsonRpcResult result,
+      @Nullable JsonRpcError error) {
     try {
-      result = mMethodDispatcher.dispatch(peer,
-          request.method,
-          request.params);
-    } catch (JsonRpcException e) {
-      logDispatchException(e);
-      error = mObjectMapper.convertValue(e.getErrorMessage(), JSONObject.class);
-    }
-    if (request.id != null) {
-      JsonRpcResponse response = new JsonRpcResponse();
-      response.id = request.id;
-      response.result = result;
-      response.error = error;
-      JSONObject jsonObject = mObjectMapper.convertValue(response, JSONObject.class);
-      String responseString;
       try {
-        responseString = jsonObject.toString();
+        sendResponse(peer, id, result, error);
       } catch (OutOfMemoryError e) {
-        // JSONStringer can cause an OOM when the Json to handle is too big.
-        response.result = null;
-        response.error = mObjectMapper.convertValue(e.getMessage(), JSONObject.class);
-        jsonObject = mObjectMapper.convertValue(response, JSONObject.class);
-        responseString = jsonObject.toString();
+        // The result can be too big to encode (e.g. a huge DOM).  Nothing was sent
+        // and the partially encoded buffer is discarded, so report the failure instead.
+        sendResponse(
+            peer,
+            id,
+            null /* result */,
+            new JsonRpcError(
+                JsonRpcError.ErrorCode.INTERNAL_ERROR,
+                e.toString(),
+                null /* data */));
+      }
+    } catch (IOException e) {
+      LogRedirector.w(TAG, "Unable to encode response", e);
+      closeSafely(
+          peer.getWebSocket(),
+          CloseCodes.UNEXPECTED_CONDITION,
+          e.getClass().getSimpleName());
+    }
+  }
+
+  /**
+   * Streams the equivalent of a {@link JsonRpcResponse} directly into the outgoing frame.
+   * Results that are {@link Closeable} hold on to something like an open file, and are sent
+   * with {@link SimpleSession#sendStreamingText} which always closes them.
+   */
+  private void sendResponse(
+      JsonRpcPeer peer,
+      final long id,
+      @Nullable final JsonRpcResult result,
+      @Nullable final JsonRpcError error) throws IOException {
+    TextMessageWriter messageWriter = new TextMessageWriter() {
+      @Override
+      public void writeTo(OutputStream out) throws IOException {
+        JsonWriter writer = new JsonWriter(out);
+        writer.beginObject();
+        writer.name("id").value(id);
+        if (error != null) {
+          writer.name("error");
+          mObjectMapper.writeValue(writer, error);
+        } else {
+          writer.name("result");
+          mObjectMapper.writeValue(writer, result);
+        }
+        writer.endObject();
+        writer.flush();
       }
-      peer.getWebSocket().sendText(responseString);
+    };
+    if (result instanceof Closeable) {
+      peer.getWebSocket().sendStreamingText(messageWriter, (Closeable) result);
+    } else {
+      peer.getWebSocket().sendText(messageWriter);
+    }
+  }
+
+  private static void closeQuietly(Closeable closeable) {
+    try {
+      closeable.close();
+    } catch (IOException e) {
+      LogRedirector.w(TAG, "Unable to release unsent result", e);
     }
   }
 
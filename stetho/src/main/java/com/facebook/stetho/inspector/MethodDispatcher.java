@@ -16,19 +16,23 @@ import java.lang.reflect.Method;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.facebook.stetho.common.ExceptionUtil;
+import com.facebook.stetho.common.LogUtil;
 import com.facebook.stetho.common.Util;
 import com.facebook.stetho.inspector.jsonrpc.JsonRpcException;
 import com.facebook.stetho.inspector.jsonrpc.JsonRpcPeer;
 import com.facebook.stetho.inspector.jsonrpc.JsonRpcResult;
+import com.facebook.stetho.inspector.jsonrpc.JsonRpcResultCallback;
 import com.facebook.stetho.inspector.jsonrpc.protocol.EmptyResult;
 import com.facebook.stetho.inspector.jsonrpc.protocol.JsonRpcError;
+import com.facebook.stetho.inspector.protocol.AsyncChromeDevtoolsDomain;
 import com.facebook.stetho.inspector.protocol.ChromeDevtoolsDomain;
 import com.facebook.stetho.inspector.protocol.ChromeDevtoolsMethod;
 import com.facebook.stetho.json.ObjectMapper;
 
-import org.json.JSONException;
 import org.json.JSONObject;
 
 @ThreadSafe
@@ -53,54 +57,130 @@ public class MethodDispatcher {
     return mMethods.get(methodName);
   }
 
-  public JSONObject dispatch(JsonRpcPeer peer, String methodName, @Nullable JSONObject params)
-      throws JsonRpcException {
-    MethodDispatchHelper dispatchHelper = findMethodDispatcher(methodName);
+  /**
+   * Invoke the handler for {@code methodName} and report its outcome to {@code callback}.
+   * Methods of an {@link AsyncChromeDevtoolsDomain} are run on that domain's executor; all
+   * others are run on the calling thread, in which case unexpected exceptions propagate to the
+   * caller.  Handlers that accept a {@link JsonRpcResultCallback} may complete at any later
+   * time and from any thread.
+   */
+  public void dispatch(
+      final JsonRpcPeer peer,
+      final String methodName,
+      @Nullable final JSONObject params,
+      JsonRpcResultCallback callback) {
+    final MethodDispatchHelper dispatchHelper = findMethodDispatcher(methodName);
     if (dispatchHelper == null) {
-      throw new JsonRpcException(new JsonRpcError(JsonRpcError.ErrorCode.METHOD_NOT_FOUND,
+      callback.onFailure(new JsonRpcException(new JsonRpcError(
+          JsonRpcError.ErrorCode.METHOD_NOT_FOUND,
           "Not implemented: " + methodName,
-          null /* data */));
+          null /* data */)));
+      return;
     }
-    try {
-      return dispatchHelper.invoke(peer, params);
-    } catch (InvocationTargetException e) {
-      Throwable cause = e.getCause();
-      ExceptionUtil.propagateIfInstanceOf(cause, JsonRpcException.class);
-      throw ExceptionUtil.propagate(cause);
-    } catch (IllegalAccessException e) {
-      throw new RuntimeException(e);
-    } catch (JSONException e) {
-      throw new JsonRpcException(new JsonRpcError(JsonRpcError.ErrorCode.INTERNAL_ERROR,
-          e.toString(),
-          null /* data */));
+    final SingleResultCallback resultCallback = new SingleResultCallback(methodName, callback);
+    Executor executor = dispatchHelper.getExecutor();
+    if (executor == null) {
+      dispatchHelper.invoke(peer, params, resultCallback);
+    } else {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            dispatchHelper.invoke(peer, params, resultCallback);
+          } catch (RuntimeException e) {
+            // There's no caller left to propagate to, so fail the request instead of the thread.
+            LogUtil.e(e, "Unexpected exception in %s", methodName);
+            resultCallback.onFailure(new JsonRpcException(new JsonRpcError(
+                JsonRpcError.ErrorCode.INTERNAL_ERROR,
+                e.toString(),
+                null /* data */)));
+          }
+        }
+      });
     }
   }
 
   private static class MethodDispatchHelper {
-    private final ObjectMapper mObjectMapper;
     private final ChromeDevtoolsDomain mInstance;
     private final Method mMethod;
+    private final boolean mTakesCallback;
 
-    public MethodDispatchHelper(ObjectMapper objectMapper,
-        ChromeDevtoolsDomain instance,
-        Method method) {
-      mObjectMapper = objectMapper;
+    public MethodDispatchHelper(ChromeDevtoolsDomain instance, Method method) {
       mInstance = instance;
       mMethod = method;
+      mTakesCallback = method.getParameterTypes().length == 3;
     }
 
-    public JSONObject invoke(JsonRpcPeer peer, @Nullable JSONObject params)
-        throws InvocationTargetException, IllegalAccessException, JSONException, JsonRpcException {
-      Object internalResult = mMethod.invoke(mInstance, peer, params);
-      if (internalResult == null || internalResult instanceof EmptyResult) {
-        return new JSONObject();
-      } else {
-        JsonRpcResult convertableResult = (JsonRpcResult)internalResult;
-        return mObjectMapper.convertValue(convertableResult, JSONObject.class);
+    @Nullable
+    public Executor getExecutor() {
+      if (mInstance instanceof AsyncChromeDevtoolsDomain) {
+        return ((AsyncChromeDevtoolsDomain) mInstance).getMethodExecutor();
+      }
+      return null;
+    }
+
+    public void invoke(
+        JsonRpcPeer peer,
+        @Nullable JSONObject params,
+        JsonRpcResultCallback callback) {
+      try {
+        if (mTakesCallback) {
+          mMethod.invoke(mInstance, peer, params, callback);
+        } else {
+          callback.onSuccess((JsonRpcResult) mMethod.invoke(mInstance, peer, params));
+        }
+      } catch (InvocationTargetException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof JsonRpcException) {
+          callback.onFailure((JsonRpcException) cause);
+        } else {
+          throw ExceptionUtil.propagate(cause);
+        }
+      } catch (IllegalAccessException e) {
+        throw new RuntimeException(e);
       }
     }
   }
 
+  /**
+   * Guards against handlers completing more than once and substitutes {@link EmptyResult} for
+   * a null result.
+   */
+  private static class SingleResultCallback implements JsonRpcResultCallback {
+    private static final JsonRpcResult EMPTY_RESULT = new EmptyResult();
+
+    private final String mMethodName;
+    private final JsonRpcResultCallback mDelegate;
+    private final AtomicBoolean mCompleted = new AtomicBoolean();
+
+    public SingleResultCallback(String methodName, JsonRpcResultCallback delegate) {
+      mMethodName = methodName;
+      mDelegate = delegate;
+    }
+
+    @Override
+    public void onSuccess(@Nullable JsonRpcResult result) {
+      if (markCompleted()) {
+        mDelegate.onSuccess(result != null ? result : EMPTY_RESULT);
+      }
+    }
+
+    @Override
+    public void onFailure(JsonRpcException e) {
+      if (markCompleted()) {
+        mDelegate.onFailure(e);
+      }
+    }
+
+    private boolean markCompleted() {
+      if (mCompleted.getAndSet(true)) {
+        LogUtil.w("%s completed more than once, ignoring", mMethodName);
+        return false;
+      }
+      return true;
+    }
+  }
+
   private static Map<String, MethodDispatchHelper> buildDispatchTable(
       ObjectMapper objectMapper,
       Iterable<ChromeDevtoolsDomain> domainHandlers) {
@@ -112,10 +192,7 @@ public class MethodDispatcher {
 
       for (Method method : handlerClass.getMethods()) {
         if (isDevtoolsMethod(method)) {
-          MethodDispatchHelper dispatchHelper = new MethodDispatchHelper(
-              objectMapper,
-              domainHandler,
-              method);
+          MethodDispatchHelper dispatchHelper = new MethodDispatchHelper(domainHandler, method);
           methods.put(domainName + "." + method.getName(), dispatchHelper);
         }
       }
@@ -136,8 +213,8 @@ public class MethodDispatcher {
     } else {
       Class<?> args[] = method.getParameterTypes();
       String methodName = method.getDeclaringClass().getSimpleName() + "." + method.getName();
-      Util.throwIfNot(args.length == 2,
-          "%s: expected 2 args, got %s",
+      Util.throwIfNot(args.length == 2 || args.length == 3,
+          "%s: expected 2 or 3 args, got %s",
           methodName,
           args.length);
       Util.throwIfNot(args[0].equals(JsonRpcPeer.class),
@@ -150,7 +227,16 @@ public class MethodDispatcher {
           args[1].getName());
 
       Class<?> returnType = method.getReturnType();
-      if (!returnType.equals(void.class)) {
+      if (args.length == 3) {
+        Util.throwIfNot(args[2].equals(JsonRpcResultCallback.class),
+            "%s: expected 3rd arg of JsonRpcResultCallback, got %s",
+            methodName,
+            args[2].getName());
+        Util.throwIfNot(returnType.equals(void.class),
+            "%s: expected void return type with JsonRpcResultCallback, got %s",
+            methodName,
+            returnType.getName());
+      } else if (!returnType.equals(void.class)) {
         Util.throwIfNot(JsonRpcResult.class.isAssignableFrom(returnType),
             "%s: expected JsonRpcResult return type, got %s",
             methodName,
@@ -10,6 +10,7 @@ package com.facebook.stetho.inspector.database;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteException;
 
 import com.facebook.stetho.inspector.protocol.module.Database;
@@ -60,6 +61,16 @@ public class ContentProviderDatabaseDriver
       String query,
       ExecuteResultHandler<Database.ExecuteSQLResponse> handler) throws SQLiteException {
 
+    Cursor cursor = openQuery(databaseDesc, query);
+    try {
+      return handler.handleSelect(cursor);
+    } finally {
+      cursor.close();
+    }
+  }
+
+  @Override
+  public Cursor openQuery(ContentProviderDatabaseDescriptor databaseDesc, String query) {
     // resolve table name from query
     String tableName = fetchTableName(query);
 
@@ -69,17 +80,19 @@ public class ContentProviderDatabaseDriver
 
     // execute the query
     ContentResolver contentResolver = mContext.getContentResolver();
+    String[] projection = contentProviderSchema.getProjection();
     Cursor cursor = contentResolver.query(
         contentProviderSchema.getUri(),
-        contentProviderSchema.getProjection(),
+        projection,
         null,
         null,
         null);
-    try {
-      return handler.handleSelect(cursor);
-    } finally {
-      cursor.close();
+    if (cursor == null) {
+      // The provider couldn't be reached.  A null result from openQuery would mean the query
+      // doesn't return rows, so report it as empty instead.
+      cursor = new MatrixCursor(projection != null ? projection : new String[0]);
     }
+    return cursor;
   }
 
   /**
@@ -7,29 +7,138 @@
 
 package com.facebook.stetho.inspector.database;
 
+import android.annotation.TargetApi;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
+import android.os.Build;
+import android.os.SystemClock;
+import android.system.ErrnoException;
+import android.system.Os;
 
 import com.facebook.stetho.inspector.database.SQLiteDatabaseCompat.SQLiteOpenOptions;
+import com.facebook.stetho.inspector.protocol.DomainExecutors;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Opens the requested database using
  * {@link SQLiteDatabase#openDatabase(String, SQLiteDatabase.CursorFactory, int)} directly.
  *
+ * <p>Connections are cached per database file rather than opened for every request, and closed
+ * after {@link #IDLE_CONNECTION_TIMEOUT_MS} of disuse or when the file is deleted or replaced.
+ * Each returned {@link SQLiteDatabase} carries its own reference, so callers must still
+ * {@link SQLiteDatabase#close()} it when done.  Databases the app already has open can be
+ * shared instead with {@link #registerOpenDatabase}.</p>
+ *
  * <p>It is intended that this class be subclassed to enable/disable features via
  * {@link #determineOpenOptions(File)}</p>
  */
+@ThreadSafe
 public class DefaultDatabaseConnectionProvider implements DatabaseConnectionProvider {
+  /**
+   * Long enough to cover a burst of requests from the DevTools UI, short enough that we don't
+   * hold connections (and their page cache) in the app's process long after the UI is closed.
+   */
+  private static final long IDLE_CONNECTION_TIMEOUT_MS = 30 * 1000;
+
+  private static final long FILE_MISSING = -1;
+  private static final long FILE_IDENTITY_UNKNOWN = 0;
+
+  @GuardedBy("this")
+  private final HashMap<File, CachedConnection> mConnections = new HashMap<>();
+
+  @GuardedBy("this")
+  private ScheduledExecutorService mEvictionExecutor;
+
+  @GuardedBy("this")
+  private boolean mIsEvictionScheduled;
+
+  private final Runnable mEvictIdleConnections = new Runnable() {
+    @Override
+    public void run() {
+      evictIdleConnections();
+    }
+  };
+
   public DefaultDatabaseConnectionProvider() {
   }
 
   @Override
   public SQLiteDatabase openDatabase(File databaseFile) throws SQLiteException {
-    return performOpen(
-        databaseFile,
-        determineOpenOptions(databaseFile));
+    CachedConnection stale = null;
+    try {
+      synchronized (this) {
+        CachedConnection cached = mConnections.get(databaseFile);
+        if (cached != null) {
+          if (cached.isUsable() && cached.tryAcquire()) {
+            return cached.database;
+          }
+          mConnections.remove(databaseFile);
+          stale = cached;
+        }
+
+        SQLiteDatabase database = performOpen(
+            databaseFile,
+            determineOpenOptions(databaseFile));
+        cached = new CachedConnection(databaseFile, database, true /* owned */);
+        // One reference for the cache, one for the caller.
+        cached.tryAcquire();
+        mConnections.put(databaseFile, cached);
+        scheduleEvictionLocked();
+        return database;
+      }
+    } finally {
+      if (stale != null) {
+        stale.release();
+      }
+    }
+  }
+
+  /**
+   * Share a database connection the app already has open (such as one obtained from
+   * {@link android.database.sqlite.SQLiteOpenHelper}) instead of opening a second one to the
+   * same file.  The connection is never closed by this provider, nor evicted for being idle:
+   * it is forgotten only once the app closes it, its file is deleted or replaced, or it is
+   * passed to {@link #unregisterOpenDatabase}.
+   */
+  public void registerOpenDatabase(SQLiteDatabase database) {
+    File databaseFile = new File(database.getPath());
+    CachedConnection previous;
+    synchronized (this) {
+      previous = mConnections.put(
+          databaseFile,
+          new CachedConnection(databaseFile, database, false /* owned */));
+      scheduleEvictionLocked();
+    }
+    if (previous != null) {
+      previous.release();
+    }
+  }
+
+  public void unregisterOpenDatabase(SQLiteDatabase database) {
+    File databaseFile = new File(database.getPath());
+    synchronized (this) {
+      CachedConnection cached = mConnections.get(databaseFile);
+      if (cached != null && cached.database == database) {
+        mConnections.remove(databaseFile);
+      }
+    }
+  }
+
+  /**
+   * Close all connections opened by this provider now rather than waiting for them to become
+   * idle.  Connections shared with {@link #registerOpenDatabase} are kept.
+   */
+  public void closeIdleConnections() {
+    evictConnections(Long.MAX_VALUE /* now */);
   }
 
   /**
@@ -66,4 +175,122 @@ public class DefaultDatabaseConnectionProvider implements DatabaseConnectionProv
     compatInstance.enableFeatures(options, db);
     return db;
   }
+
+  @GuardedBy("this")
+  private void scheduleEvictionLocked() {
+    if (!mIsEvictionScheduled && !mConnections.isEmpty()) {
+      if (mEvictionExecutor == null) {
+        mEvictionExecutor = DomainExecutors.newSerialScheduledExecutor("DatabaseConnections");
+      }
+      mIsEvictionScheduled = true;
+      mEvictionExecutor.schedule(
+          mEvictIdleConnections,
+          IDLE_CONNECTION_TIMEOUT_MS,
+          TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private void evictIdleConnections() {
+    synchronized (this) {
+      mIsEvictionScheduled = false;
+    }
+    evictConnections(SystemClock.elapsedRealtime());
+    synchronized (this) {
+      scheduleEvictionLocked();
+    }
+  }
+
+  private void evictConnections(long now) {
+    ArrayList<CachedConnection> evicted = new ArrayList<>();
+    synchronized (this) {
+      Iterator<CachedConnection> iter = mConnections.values().iterator();
+      while (iter.hasNext()) {
+        CachedConnection cached = iter.next();
+        // Shared connections cost us nothing to keep, and the app registered them so that we
+        // would use them rather than open our own.
+        boolean isIdle = cached.isOwned() &&
+            now - cached.getLastUsedTimeMs() >= IDLE_CONNECTION_TIMEOUT_MS;
+        if (isIdle || !cached.isUsable()) {
+          iter.remove();
+          evicted.add(cached);
+        }
+      }
+    }
+    // Connections still in use by a caller (e.g. an open cursor) stay open until released.
+    for (int i = 0, N = evicted.size(); i < N; i++) {
+      evicted.get(i).release();
+    }
+  }
+
+  /**
+   * Identifies the file behind a path so that a database that was deleted or replaced (e.g. by
+   * the app restoring a backup) is noticed and reopened.
+   */
+  private static long getFileIdentity(File file) {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+      return getInode(file);
+    }
+    return file.exists() ? FILE_IDENTITY_UNKNOWN : FILE_MISSING;
+  }
+
+  @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+  private static long getInode(File file) {
+    try {
+      return Os.stat(file.getPath()).st_ino;
+    } catch (ErrnoException e) {
+      return FILE_MISSING;
+    }
+  }
+
+  private static class CachedConnection {
+    public final File file;
+    public final SQLiteDatabase database;
+    private final boolean mOwned;
+    private final long mFileIdentity;
+    private volatile long mLastUsedTimeMs;
+
+    public CachedConnection(File file, SQLiteDatabase database, boolean owned) {
+      this.file = file;
+      this.database = database;
+      mOwned = owned;
+      mFileIdentity = getFileIdentity(file);
+      mLastUsedTimeMs = SystemClock.elapsedRealtime();
+    }
+
+    public boolean isOwned() {
+      return mOwned;
+    }
+
+    public long getLastUsedTimeMs() {
+      return mLastUsedTimeMs;
+    }
+
+    public boolean isUsable() {
+      return database.isOpen() && getFileIdentity(file) == mFileIdentity;
+    }
+
+    /**
+     * Take a reference on behalf of a caller, which is released by its
+     * {@link SQLiteDatabase#close()}.
+     */
+    public boolean tryAcquire() {
+      try {
+        database.acquireReference();
+      } catch (IllegalStateException e) {
+        // Closed from under us, most likely by the app for a shared connection.
+        return false;
+      }
+      mLastUsedTimeMs = SystemClock.elapsedRealtime();
+      return true;
+    }
+
+    /**
+     * Drop the cache's own reference.  Shared connections belong to the app and hold none.
+     */
+    public void release() {
+      if (mOwned) {
+        database.close();
+      }
+    }
+  }
 }
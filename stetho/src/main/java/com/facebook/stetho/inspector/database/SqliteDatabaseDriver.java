@@ -10,6 +10,8 @@ package com.facebook.stetho.inspector.database;
 import android.annotation.TargetApi;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteStatement;
@@ -23,10 +25,13 @@ import com.facebook.stetho.inspector.protocol.module.DatabaseDriver2;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 
 @ThreadSafe
@@ -42,6 +47,27 @@ public class SqliteDatabaseDriver
   private final DatabaseFilesProvider mDatabaseFilesProvider;
   private final DatabaseConnectionProvider mDatabaseConnectionProvider;
 
+  /**
+   * Table names by database file, reused until {@code PRAGMA schema_version} says the schema
+   * has changed (SQLite bumps it on every CREATE, DROP and ALTER).
+   */
+  @GuardedBy("mTableNamesCache")
+  private final HashMap<File, CachedTableNames> mTableNamesCache = new HashMap<>();
+
+  /**
+   * Result of {@link #getDatabaseNames}, reused until the provider lists a different set of
+   * files.  The provider is still asked each time since that's how new databases are found.
+   */
+  private final Object mDatabaseNamesLock = new Object();
+
+  @GuardedBy("mDatabaseNamesLock")
+  @Nullable
+  private List<File> mDatabaseNamesFiles;
+
+  @GuardedBy("mDatabaseNamesLock")
+  @Nullable
+  private List<SqliteDatabaseDescriptor> mDatabaseNames;
+
   /**
    * Constructs the object with a {@link DatabaseFilesProvider} that supplies the database files
    * from {@link Context#databaseList()}.
@@ -87,14 +113,24 @@ public class SqliteDatabaseDriver
 
   @Override
   public List<SqliteDatabaseDescriptor> getDatabaseNames() {
-    ArrayList<SqliteDatabaseDescriptor> databases = new ArrayList<>();
     List<File> potentialDatabaseFiles = mDatabaseFilesProvider.getDatabaseFiles();
-    Collections.sort(potentialDatabaseFiles);
-    Iterable<File> tidiedList = tidyDatabaseList(potentialDatabaseFiles);
-    for (File database : tidiedList) {
+    synchronized (mDatabaseNamesLock) {
+      if (mDatabaseNames != null && potentialDatabaseFiles.equals(mDatabaseNamesFiles)) {
+        return mDatabaseNames;
+      }
+    }
+    List<File> sortedFiles = new ArrayList<>(potentialDatabaseFiles);
+    Collections.sort(sortedFiles);
+    ArrayList<SqliteDatabaseDescriptor> databases = new ArrayList<>();
+    for (File database : tidyDatabaseList(sortedFiles)) {
       databases.add(new SqliteDatabaseDescriptor(database));
     }
-    return databases;
+    List<SqliteDatabaseDescriptor> databaseNames = Collections.unmodifiableList(databases);
+    synchronized (mDatabaseNamesLock) {
+      mDatabaseNamesFiles = new ArrayList<>(potentialDatabaseFiles);
+      mDatabaseNames = databaseNames;
+    }
+    return databaseNames;
   }
 
   /**
@@ -132,22 +168,39 @@ public class SqliteDatabaseDriver
       throws SQLiteException {
     SQLiteDatabase database = openDatabase(databaseDesc);
     try {
-      Cursor cursor = database.rawQuery("SELECT name FROM sqlite_master WHERE type IN (?, ?)",
-          new String[] { "table", "view" });
-      try {
-        List<String> tableNames = new ArrayList<String>();
-        while (cursor.moveToNext()) {
-          tableNames.add(cursor.getString(0));
+      long schemaVersion = DatabaseUtils.longForQuery(database, "PRAGMA schema_version", null);
+      synchronized (mTableNamesCache) {
+        CachedTableNames cached = mTableNamesCache.get(databaseDesc.file);
+        if (cached != null && cached.schemaVersion == schemaVersion) {
+          return cached.tableNames;
         }
-        return tableNames;
-      } finally {
-        cursor.close();
       }
+      List<String> tableNames = Collections.unmodifiableList(queryTableNames(database));
+      synchronized (mTableNamesCache) {
+        mTableNamesCache.put(
+            databaseDesc.file,
+            new CachedTableNames(schemaVersion, tableNames));
+      }
+      return tableNames;
     } finally {
       database.close();
     }
   }
 
+  private static List<String> queryTableNames(SQLiteDatabase database) {
+    Cursor cursor = database.rawQuery("SELECT name FROM sqlite_master WHERE type IN (?, ?)",
+        new String[] { "table", "view" });
+    try {
+      List<String> tableNames = new ArrayList<String>();
+      while (cursor.moveToNext()) {
+        tableNames.add(cursor.getString(0));
+      }
+      return tableNames;
+    } finally {
+      cursor.close();
+    }
+  }
+
   public Database.ExecuteSQLResponse executeSQL(
       SqliteDatabaseDescriptor databaseDesc,
       String query,
@@ -176,6 +229,45 @@ public class SqliteDatabaseDriver
     }
   }
 
+  @Nullable
+  @Override
+  public Cursor openQuery(SqliteDatabaseDescriptor databaseDesc, String query)
+      throws SQLiteException {
+    Util.throwIfNull(query);
+    if (!isSelect(getFirstWord(query).toUpperCase())) {
+      return null;
+    }
+    final SQLiteDatabase database = openDatabase(databaseDesc);
+    try {
+      // The cursor refills its window from the database as it is scrolled, so the database is
+      // kept open until the cursor is closed.
+      return new CursorWrapper(database.rawQuery(query, null)) {
+        @Override
+        public void close() {
+          try {
+            super.close();
+          } finally {
+            database.close();
+          }
+        }
+      };
+    } catch (RuntimeException e) {
+      database.close();
+      throw e;
+    }
+  }
+
+  private static boolean isSelect(String firstWordUpperCase) {
+    switch (firstWordUpperCase) {
+      case "SELECT":
+      case "PRAGMA":
+      case "EXPLAIN":
+        return true;
+      default:
+        return false;
+    }
+  }
+
   private static String getFirstWord(String s) {
     s = s.trim();
     int firstSpace = s.indexOf(' ');
@@ -228,6 +320,16 @@ public class SqliteDatabaseDriver
     return mDatabaseConnectionProvider.openDatabase(databaseDesc.file);
   }
 
+  private static class CachedTableNames {
+    public final long schemaVersion;
+    public final List<String> tableNames;
+
+    public CachedTableNames(long schemaVersion, List<String> tableNames) {
+      this.schemaVersion = schemaVersion;
+      this.tableNames = tableNames;
+    }
+  }
+
   static class SqliteDatabaseDescriptor implements DatabaseDescriptor {
     public final File file;
 
@@ -11,7 +11,6 @@ import android.os.SystemClock;
 import com.facebook.stetho.common.Accumulator;
 import com.facebook.stetho.common.ArrayListAccumulator;
 import com.facebook.stetho.common.LogUtil;
-import com.facebook.stetho.common.Util;
 import com.facebook.stetho.inspector.helper.ObjectIdMapper;
 import com.facebook.stetho.inspector.helper.ThreadBoundProxy;
 
@@ -20,15 +19,43 @@ import javax.annotation.concurrent.GuardedBy;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Queue;
-import java.util.regex.Pattern;
+import java.util.Set;
 
 public final class Document extends ThreadBoundProxy {
+  /**
+   * Sub-tree changes are usually reported in bursts (e.g. a RecyclerView binding a screenful of
+   * items), so they are collected for a short while before the affected sub-trees are re-read.
+   */
+  private static final long SUBTREE_UPDATE_DELAY_MS = 100;
+
+  /**
+   * Time spent reading the tree per UI thread message, leaving the rest of a 60fps frame for the
+   * app.
+   */
+  private static final long UPDATE_SLICE_BUDGET_MS = 8;
+
+  /**
+   * Reading the clock for every element would be a measurable part of the traversal.
+   */
+  private static final int ELEMENTS_PER_CLOCK_CHECK = 32;
+
+  /**
+   * Time from the end of one full update to the start of the next, matching the poll interval of
+   * AndroidDocumentProvider.  Without it a tree that takes longer to read than the poll interval
+   * would be re-read back to back, since the next poll would already be waiting by the time the
+   * previous update finished.
+   */
+  private static final long MIN_FULL_UPDATE_INTERVAL_MS = 5000;
+
   private final DocumentProviderFactory mFactory;
   private final ObjectIdMapper mObjectIdMapper;
+  private final DocumentSearchIndex mSearchIndex;
   private final Queue<Object> mCachedUpdateQueue;
 
   private DocumentProvider mDocumentProvider;
@@ -38,6 +65,39 @@ public final class Document extends ThreadBoundProxy {
   private ArrayListAccumulator<Object> mCachedChildrenAccumulator;
   private AttributeListAccumulator mCachedAttributeAccumulator;
 
+  /**
+   * Elements reported through {@link DocumentProviderListener#onSubtreePossiblyChanged} since
+   * the last update, in the order they were reported.
+   */
+  private final ArrayList<Object> mDirtyElements = new ArrayList<>();
+  private final Set<Object> mDirtyElementsSet =
+      Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+  private boolean mIsSubtreeUpdatePosted;
+
+  @Nullable
+  private SlicedUpdate mSlicedUpdate;
+  private boolean mIsFullUpdateRequested;
+  private long mLastFullUpdateFinishedTimeMs;
+  private boolean mIsFullUpdatePosted;
+  private final Runnable mFullUpdateRunnable = new Runnable() {
+    @Override
+    public void run() {
+      mIsFullUpdatePosted = false;
+      if (mShadowDocument != null) {
+        updateTree();
+      }
+    }
+  };
+  private final Runnable mSubtreeUpdateRunnable = new Runnable() {
+    @Override
+    public void run() {
+      mIsSubtreeUpdatePosted = false;
+      if (mShadowDocument != null) {
+        updateDirtySubtrees();
+      }
+    }
+  };
+
   @GuardedBy("this")
   private int mReferenceCounter;
 
@@ -46,6 +106,7 @@ public final class Document extends ThreadBoundProxy {
 
     mFactory = factory;
     mObjectIdMapper = new DocumentObjectIdMapper();
+    mSearchIndex = new DocumentSearchIndex();
     mReferenceCounter = 0;
     mUpdateListeners = new UpdateListenerCollection();
     mCachedUpdateQueue = new ArrayDeque<>();
@@ -72,7 +133,10 @@ public final class Document extends ThreadBoundProxy {
       @Override
       public void run() {
         mShadowDocument = new ShadowDocument(mDocumentProvider.getRootElement());
-        createShadowDocumentUpdate().commit();
+        createShadowDocumentUpdate(
+            Collections.singletonList(mDocumentProvider.getRootElement())).commit();
+        mSearchIndex.commitStaged();
+        mLastFullUpdateFinishedTimeMs = SystemClock.uptimeMillis();
         mDocumentProvider.setListener(new ProviderListener());
       }
     });
@@ -84,8 +148,15 @@ public final class Document extends ThreadBoundProxy {
       @Override
       public void run() {
         mDocumentProvider.setListener(null);
+        removeCallbacks(mSubtreeUpdateRunnable);
+        mIsSubtreeUpdatePosted = false;
+        removeCallbacks(mFullUpdateRunnable);
+        mIsFullUpdatePosted = false;
+        clearDirtyElements();
+        cancelSlicedUpdate();
         mShadowDocument = null;
         mObjectIdMapper.clear();
+        mSearchIndex.clear();
         mDocumentProvider.dispose();
         mDocumentProvider = null;
       }
@@ -188,44 +259,42 @@ public final class Document extends ThreadBoundProxy {
     return rootElement;
   }
 
-  public void findMatchingElements(String query, Accumulator<Integer> matchedIds) {
-    verifyThreadAccess();
-
-    final Pattern queryPattern = Pattern.compile(Pattern.quote(query), Pattern.CASE_INSENSITIVE);
-    final Object rootElement = mDocumentProvider.getRootElement();
-
-    findMatches(rootElement, queryPattern, matchedIds);
+  /**
+   * Find elements which, for every word of {@code query}, have a word in their node name or
+   * attributes that starts with it, ignoring case (see {@link DocumentSearchIndex}).  Unlike
+   * most methods here this may be called from any thread: it consults an index that is
+   * maintained as the document is updated rather than walking the tree.
+   */
+  public void findMatchingElements(
+      String query,
+      int maxResults,
+      Accumulator<Integer> matchedIds) {
+    // We don't call verifyThreadAccess(), keeping searches off the UI thread is the point.
+    mSearchIndex.search(query, maxResults, matchedIds);
   }
 
-  private void findMatches(Object element, Pattern queryPattern, Accumulator<Integer> matchedIds) {
-    final ElementInfo info = mShadowDocument.getElementInfo(element);
-
-    for (int i = 0, size = info.children.size(); i < size; i++) {
-      final Object childElement = info.children.get(i);
-
-      if (doesElementMatch(childElement, queryPattern)) {
-        matchedIds.store(mObjectIdMapper.getIdForObject(childElement));
-      }
-
-      findMatches(childElement, queryPattern, matchedIds);
+  private void indexElement(int nodeId, Object element, NodeDescriptor descriptor) {
+    // The root element is not a search result, matching what DevTools does for the document.
+    // Elements that were indexed before are kept up to date by reindexElement() instead.
+    if (element == mShadowDocument.getRootElement() || mSearchIndex.contains(nodeId)) {
+      return;
     }
-  }
-
-  private boolean doesElementMatch(Object element, Pattern queryPattern) {
     AttributeListAccumulator accumulator = acquireCachedAttributeAccumulator();
-    NodeDescriptor descriptor = mDocumentProvider.getNodeDescriptor(element);
-
     descriptor.getAttributes(element, accumulator);
+    mSearchIndex.stage(nodeId, descriptor.getNodeName(element), accumulator);
+    releaseCachedAttributeAccumulator(accumulator);
+  }
 
-    for (int i = 0, N = accumulator.size(); i < N; i++) {
-      if (queryPattern.matcher(accumulator.get(i)).find()) {
-        releaseCachedAttributeAccumulator(accumulator);
-        return true;
-      }
+  private void reindexElement(Object element) {
+    int nodeId = mObjectIdMapper.getIdForObject(element, -1);
+    if (nodeId < 0 || !mSearchIndex.contains(nodeId)) {
+      return;
     }
-
+    NodeDescriptor descriptor = mDocumentProvider.getNodeDescriptor(element);
+    AttributeListAccumulator accumulator = acquireCachedAttributeAccumulator();
+    descriptor.getAttributes(element, accumulator);
+    mSearchIndex.update(nodeId, descriptor.getNodeName(element), accumulator);
     releaseCachedAttributeAccumulator(accumulator);
-    return queryPattern.matcher(descriptor.getNodeName(element)).find();
   }
 
   private ChildEventingList acquireChildEventingList(
@@ -257,7 +326,7 @@ public final class Document extends ThreadBoundProxy {
       accumulator = new AttributeListAccumulator();
     }
 
-    mCachedChildrenAccumulator = null;
+    mCachedAttributeAccumulator = null;
 
     return accumulator;
   }
@@ -286,7 +355,11 @@ public final class Document extends ThreadBoundProxy {
     }
   }
 
-  private ShadowDocument.Update createShadowDocumentUpdate() {
+  /**
+   * Re-read the given elements and everything below them in one go.  Elements outside of these
+   * sub-trees keep what the {@link ShadowDocument} already knows about them.
+   */
+  private ShadowDocument.Update createShadowDocumentUpdate(List<Object> subtreeRoots) {
     verifyThreadAccess();
 
     if (mDocumentProvider.getRootElement() != mShadowDocument.getRootElement()) {
@@ -296,12 +369,37 @@ public final class Document extends ThreadBoundProxy {
     ArrayListAccumulator<Object> childrenAccumulator = acquireChildrenAccumulator();
 
     ShadowDocument.UpdateBuilder updateBuilder = mShadowDocument.beginUpdate();
-    mCachedUpdateQueue.add(mDocumentProvider.getRootElement());
+    mCachedUpdateQueue.addAll(subtreeRoots);
+    readQueuedElements(updateBuilder, childrenAccumulator, Long.MAX_VALUE);
+
+    releaseChildrenAccumulator(childrenAccumulator);
+
+    return updateBuilder.build();
+  }
 
+  /**
+   * Breadth-first traversal from the elements in {@link #mCachedUpdateQueue}, which acts as the
+   * cursor that allows the traversal to be resumed across several slices.
+   *
+   * @return True if the queue was drained, false if {@code deadlineMs} was reached first.
+   */
+  private boolean readQueuedElements(
+      ShadowDocument.UpdateBuilder updateBuilder,
+      ArrayListAccumulator<Object> childrenAccumulator,
+      long deadlineMs) {
+    int elementsSinceClockCheck = 0;
     while (!mCachedUpdateQueue.isEmpty()) {
+      if (++elementsSinceClockCheck == ELEMENTS_PER_CLOCK_CHECK) {
+        elementsSinceClockCheck = 0;
+        if (SystemClock.uptimeMillis() >= deadlineMs) {
+          return false;
+        }
+      }
+
       final Object element = mCachedUpdateQueue.remove();
       NodeDescriptor descriptor = mDocumentProvider.getNodeDescriptor(element);
-      mObjectIdMapper.putObject(element);
+      int nodeId = mObjectIdMapper.putObject(element);
+      indexElement(nodeId, element, descriptor);
       descriptor.getChildren(element, childrenAccumulator);
 
       for (int i = 0, size = childrenAccumulator.size(); i < size; ++i) {
@@ -327,28 +425,184 @@ public final class Document extends ThreadBoundProxy {
       updateBuilder.setElementChildren(element, childrenAccumulator);
       childrenAccumulator.clear();
     }
+    return true;
+  }
 
-    releaseChildrenAccumulator(childrenAccumulator);
+  private void updateTree() {
+    if (mSlicedUpdate != null) {
+      mIsFullUpdateRequested = true;
+      return;
+    }
+    mIsFullUpdateRequested = false;
+    long delayMs =
+        mLastFullUpdateFinishedTimeMs + MIN_FULL_UPDATE_INTERVAL_MS - SystemClock.uptimeMillis();
+    if (delayMs > 0) {
+      if (!mIsFullUpdatePosted) {
+        mIsFullUpdatePosted = true;
+        postDelayed(mFullUpdateRunnable, delayMs);
+      }
+      return;
+    }
+    // A full update subsumes any pending sub-tree updates.
+    clearDirtyElements();
+    startSlicedUpdate(
+        Collections.singletonList(mDocumentProvider.getRootElement()),
+        true /* isFullUpdate */,
+        "updateTree");
+  }
 
-    return updateBuilder.build();
+  private void onSubtreePossiblyChanged(Object element) {
+    if (mDirtyElementsSet.add(element)) {
+      mDirtyElements.add(element);
+    }
+    if (!mIsSubtreeUpdatePosted) {
+      mIsSubtreeUpdatePosted = true;
+      postDelayed(mSubtreeUpdateRunnable, SUBTREE_UPDATE_DELAY_MS);
+    }
   }
 
-  private void updateTree() {
-    long startTimeMs = SystemClock.elapsedRealtime();
+  private void updateDirtySubtrees() {
+    if (mSlicedUpdate != null) {
+      // Picked up again once the current update completes.
+      return;
+    }
+    ArrayList<Object> subtreeRoots = new ArrayList<>(mDirtyElements.size());
+    for (int i = 0, N = mDirtyElements.size(); i < N; ++i) {
+      Object element = mDirtyElements.get(i);
+      // Elements we don't know about yet will be picked up when their parent is re-read, and
+      // sub-trees of other dirty elements will be re-read along with them.
+      if (mShadowDocument.getElementInfo(element) != null && !hasDirtyAncestor(element)) {
+        subtreeRoots.add(element);
+      }
+    }
+    clearDirtyElements();
 
-    ShadowDocument.Update docUpdate = createShadowDocumentUpdate();
-    boolean isEmpty = docUpdate.isEmpty();
-    if (isEmpty) {
-      docUpdate.abandon();
-    } else {
-      applyDocumentUpdate(docUpdate);
+    if (!subtreeRoots.isEmpty()) {
+      startSlicedUpdate(subtreeRoots, false /* isFullUpdate */, "updateDirtySubtrees");
     }
+  }
 
-    long deltaMs = SystemClock.elapsedRealtime() - startTimeMs;
-    LogUtil.d(
-        "Document.updateTree() completed in %s ms%s",
-        Long.toString(deltaMs),
-        isEmpty ? " (no changes)" : "");
+  private boolean hasDirtyAncestor(Object element) {
+    ElementInfo info = mShadowDocument.getElementInfo(element);
+    while (info != null && info.parentElement != null) {
+      if (mDirtyElementsSet.contains(info.parentElement)) {
+        return true;
+      }
+      info = mShadowDocument.getElementInfo(info.parentElement);
+    }
+    return false;
+  }
+
+  private void clearDirtyElements() {
+    mDirtyElements.clear();
+    mDirtyElementsSet.clear();
+  }
+
+  private void startSlicedUpdate(List<Object> subtreeRoots, boolean isFullUpdate, String reason) {
+    verifyThreadAccess();
+
+    if (mDocumentProvider.getRootElement() != mShadowDocument.getRootElement()) {
+      throw new IllegalStateException();
+    }
+
+    mSlicedUpdate = new SlicedUpdate(
+        mShadowDocument.beginUpdate(),
+        acquireChildrenAccumulator(),
+        subtreeRoots.size(),
+        isFullUpdate,
+        reason);
+    mCachedUpdateQueue.addAll(subtreeRoots);
+    mSlicedUpdate.run();
+  }
+
+  private void cancelSlicedUpdate() {
+    if (mSlicedUpdate != null) {
+      removeCallbacks(mSlicedUpdate);
+      mCachedUpdateQueue.clear();
+      mSlicedUpdate.updateBuilder.build().abandon();
+      mSearchIndex.discardStaged();
+      releaseChildrenAccumulator(mSlicedUpdate.childrenAccumulator);
+      mSlicedUpdate = null;
+    }
+    mIsFullUpdateRequested = false;
+  }
+
+  private void onSlicedUpdateFinished(boolean wasFullUpdate) {
+    if (wasFullUpdate) {
+      mLastFullUpdateFinishedTimeMs = SystemClock.uptimeMillis();
+    }
+    if (mIsFullUpdateRequested) {
+      // Deferred by MIN_FULL_UPDATE_INTERVAL_MS if the update that just finished was a full one.
+      // Sub-trees reported until then are still re-read as usual.
+      updateTree();
+    }
+    if (mSlicedUpdate == null && !mDirtyElements.isEmpty() && !mIsSubtreeUpdatePosted) {
+      mIsSubtreeUpdatePosted = true;
+      postDelayed(mSubtreeUpdateRunnable, SUBTREE_UPDATE_DELAY_MS);
+    }
+  }
+
+  /**
+   * Reads the tree in slices of at most {@link #UPDATE_SLICE_BUDGET_MS} so that large
+   * hierarchies don't stall the UI thread for several frames in a row.  Each slice is posted
+   * as a regular message, which lets the Choreographer's frame callbacks run in between.  The
+   * {@link ShadowDocument} is only modified when the finished update is committed, so readers
+   * never observe a partially updated tree.
+   */
+  private final class SlicedUpdate implements Runnable {
+    public final ShadowDocument.UpdateBuilder updateBuilder;
+    public final ArrayListAccumulator<Object> childrenAccumulator;
+    private final int mSubtreeCount;
+    private final boolean mIsFullUpdate;
+    private final String mReason;
+    private final long mStartTimeMs = SystemClock.elapsedRealtime();
+    private int mSliceCount;
+
+    public SlicedUpdate(
+        ShadowDocument.UpdateBuilder updateBuilder,
+        ArrayListAccumulator<Object> childrenAccumulator,
+        int subtreeCount,
+        boolean isFullUpdate,
+        String reason) {
+      this.updateBuilder = updateBuilder;
+      this.childrenAccumulator = childrenAccumulator;
+      mSubtreeCount = subtreeCount;
+      mIsFullUpdate = isFullUpdate;
+      mReason = reason;
+    }
+
+    @Override
+    public void run() {
+      ++mSliceCount;
+      long deadlineMs = SystemClock.uptimeMillis() + UPDATE_SLICE_BUDGET_MS;
+      if (!readQueuedElements(updateBuilder, childrenAccumulator, deadlineMs)) {
+        postDelayed(this, 0);
+        return;
+      }
+
+      mSlicedUpdate = null;
+      releaseChildrenAccumulator(childrenAccumulator);
+
+      ShadowDocument.Update docUpdate = updateBuilder.build();
+      boolean isEmpty = docUpdate.isEmpty();
+      if (isEmpty) {
+        docUpdate.abandon();
+        mSearchIndex.commitStaged();
+      } else {
+        applyDocumentUpdate(docUpdate);
+      }
+
+      long deltaMs = SystemClock.elapsedRealtime() - mStartTimeMs;
+      LogUtil.d(
+          "Document.%s() re-read %s sub-tree(s) in %s ms over %s slice(s)%s",
+          mReason,
+          Integer.toString(mSubtreeCount),
+          Long.toString(deltaMs),
+          Integer.toString(mSliceCount),
+          isEmpty ? " (no changes)" : "");
+
+      onSlicedUpdateFinished(mIsFullUpdate);
+    }
   }
 
   private void applyDocumentUpdate(final ShadowDocument.Update docUpdate) {
@@ -369,21 +623,20 @@ public final class Document extends ThreadBoundProxy {
     // storing the element Objects. However, HashSet wraps HashMap and we would have a lot more
     // allocations (Map.Entry, iterator during stage 3) and thus GC pressure.
     // Using SparseArray wouldn't be good because it ensures sorted ordering as you go, but we don't
-    // need that during stage 1. Using ArrayList with int boxing is fine because the Integers are
-    // already boxed inside of mObjectIdMapper and we make sure to reuse that allocation.
-    final ArrayList<Integer> garbageElementIds = new ArrayList<>();
+    // need that during stage 1. A plain int list avoids boxing each id.
+    final IntList garbageElementIds = new IntList();
 
     docUpdate.getGarbageElements(new Accumulator<Object>() {
       @Override
       public void store(Object element) {
-        Integer nodeId = Util.throwIfNull(mObjectIdMapper.getIdForObject(element));
+        int nodeId = getMappedId(element);
         ElementInfo newElementInfo = docUpdate.getElementInfo(element);
 
         // Only raise onChildNodeRemoved for the root of a disconnected tree. The remainder of the
         // sub-tree is included automatically, so we don't need to send events for those.
         if (newElementInfo.parentElement == null) {
           ElementInfo oldElementInfo = mShadowDocument.getElementInfo(element);
-          int parentNodeId = mObjectIdMapper.getIdForObject(oldElementInfo.parentElement);
+          int parentNodeId = getMappedId(oldElementInfo.parentElement);
           mUpdateListeners.onChildNodeRemoved(parentNodeId, nodeId);
         }
 
@@ -391,7 +644,7 @@ public final class Document extends ThreadBoundProxy {
       }
     });
 
-    Collections.sort(garbageElementIds);
+    garbageElementIds.sort();
 
     // Stage 2: remove all elements that have been reparented. Otherwise we get into trouble if we
     // transmit an event to insert under the new parent before we've transmitted an event to remove
@@ -400,10 +653,10 @@ public final class Document extends ThreadBoundProxy {
     docUpdate.getChangedElements(new Accumulator<Object>() {
       @Override
       public void store(Object element) {
-        Integer nodeId = Util.throwIfNull(mObjectIdMapper.getIdForObject(element));
+        int nodeId = getMappedId(element);
 
         // Skip garbage elements
-        if (Collections.binarySearch(garbageElementIds, nodeId) >= 0) {
+        if (garbageElementIds.binarySearch(nodeId) >= 0) {
           return;
         }
 
@@ -415,16 +668,19 @@ public final class Document extends ThreadBoundProxy {
 
         final ElementInfo newElementInfo = docUpdate.getElementInfo(element);
         if (newElementInfo.parentElement != oldElementInfo.parentElement) {
-          int parentNodeId = mObjectIdMapper.getIdForObject(oldElementInfo.parentElement);
+          int parentNodeId = getMappedId(oldElementInfo.parentElement);
           mUpdateListeners.onChildNodeRemoved(parentNodeId, nodeId);
         }
       }
     });
 
-    // Stage 3: unhook garbage elements
+    // Stage 3: unhook garbage elements, and bring the search index up to date with the elements
+    // that were added or removed.
     for (int i = 0, N = garbageElementIds.size(); i < N; ++i) {
       mObjectIdMapper.removeObjectById(garbageElementIds.get(i));
+      mSearchIndex.stageRemoval(garbageElementIds.get(i));
     }
+    mSearchIndex.commitStaged();
 
     // Stage 4: transmit all other changes to our listener. This includes inserting reparented
     // elements that we removed in the 2nd stage.
@@ -492,6 +748,17 @@ public final class Document extends ThreadBoundProxy {
     docUpdate.commit();
   }
 
+  /**
+   * Id of an element which must already be mapped.
+   */
+  private int getMappedId(Object element) {
+    int id = mObjectIdMapper.getIdForObject(element, -1);
+    if (id == -1) {
+      throw new NullPointerException("No id mapped for " + element);
+    }
+    return id;
+  }
+
   private static void updateListenerChildren(
       ChildEventingList listenerChildren,
       List<Object> newChildren,
@@ -559,7 +826,7 @@ public final class Document extends ThreadBoundProxy {
 
       mParentNodeId = (mParentElement == null)
           ? -1
-          : mObjectIdMapper.getIdForObject(mParentElement);
+          : getMappedId(mParentElement);
 
       mDocumentView = documentView;
     }
@@ -577,7 +844,7 @@ public final class Document extends ThreadBoundProxy {
 
       int previousNodeId = (previousElement == null)
           ? -1
-          : mObjectIdMapper.getIdForObject(previousElement);
+          : getMappedId(previousElement);
 
       add(index, element);
 
@@ -591,7 +858,7 @@ public final class Document extends ThreadBoundProxy {
 
     public void removeWithEvent(int index) {
       Object element = remove(index);
-      int nodeId = mObjectIdMapper.getIdForObject(element);
+      int nodeId = getMappedId(element);
       mUpdateListeners.onChildNodeRemoved(mParentNodeId, nodeId);
     }
   }
@@ -718,16 +985,24 @@ public final class Document extends ThreadBoundProxy {
       updateTree();
     }
 
+    @Override
+    public void onSubtreePossiblyChanged(Object element) {
+      verifyThreadAccess();
+      Document.this.onSubtreePossiblyChanged(element);
+    }
+
     @Override
     public void onAttributeModified(Object element, String name, String value) {
       verifyThreadAccess();
       mUpdateListeners.onAttributeModified(element, name, value);
+      reindexElement(element);
     }
 
     @Override
     public void onAttributeRemoved(Object element, String name) {
       verifyThreadAccess();
       mUpdateListeners.onAttributeRemoved(element, name);
+      reindexElement(element);
     }
 
     @Override
@@ -737,6 +1012,37 @@ public final class Document extends ThreadBoundProxy {
     }
   }
 
+  /**
+   * Just enough of a growable int array for {@link #applyDocumentUpdate}.
+   */
+  private static final class IntList {
+    private int[] mValues = new int[16];
+    private int mSize;
+
+    public void add(int value) {
+      if (mSize == mValues.length) {
+        mValues = Arrays.copyOf(mValues, mSize * 2);
+      }
+      mValues[mSize++] = value;
+    }
+
+    public int size() {
+      return mSize;
+    }
+
+    public int get(int index) {
+      return mValues[index];
+    }
+
+    public void sort() {
+      Arrays.sort(mValues, 0, mSize);
+    }
+
+    public int binarySearch(int value) {
+      return Arrays.binarySearch(mValues, 0, mSize, value);
+    }
+  }
+
   public static final class AttributeListAccumulator
     extends ArrayList<String> implements AttributeAccumulator {
 
@@ -8,8 +8,17 @@
 package com.facebook.stetho.inspector.elements;
 
 public interface DocumentProviderListener {
+  /**
+   * Anything in the document may have changed.  The listener will re-read the entire tree.
+   */
   void onPossiblyChanged();
 
+  /**
+   * Only the children of {@code element}, and their sub-trees, may have changed.  Calls are
+   * coalesced by the listener so it is fine to report the same element repeatedly.
+   */
+  void onSubtreePossiblyChanged(Object element);
+
   void onAttributeModified(
       Object element,
       String name,
@@ -0,0 +1,359 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.elements;
+
+import android.util.SparseArray;
+import com.facebook.stetho.common.Accumulator;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Inverted index from the words in every element's node name, attribute names and attribute
+ * values to the ids of the nodes they appear in.  Words are split on anything that isn't a
+ * letter or digit, and camel case words are also indexed from each hump, so that
+ * {@code "AppCompatButton"} can be found by searching for {@code "button"}.
+ * <p/>
+ * The index is maintained on the UI thread as elements are read (see {@link Document}) and
+ * published as an immutable {@link Snapshot} through a volatile field, so
+ * {@link #search} never blocks, or is blocked by, the UI thread.  Entries read during an update
+ * are staged and only become visible once the corresponding {@link ShadowDocument.Update} is
+ * applied.
+ */
+@ThreadSafe
+final class DocumentSearchIndex {
+  private volatile Snapshot mSnapshot = Snapshot.EMPTY;
+
+  // Only accessed from the UI thread.
+  private final SparseArray<String[]> mNodeTokens = new SparseArray<>();
+  private final TreeMap<String, int[]> mPostings = new TreeMap<>();
+  private final SparseArray<String[]> mStagedTokens = new SparseArray<>();
+  private final SparseArray<String[]> mUpdatedTokens = new SparseArray<>();
+  private final HashSet<String> mTokenBuilder = new HashSet<>();
+
+  /**
+   * Whether {@code nodeId} has been indexed, or is staged to be.  Nodes that are already indexed
+   * don't need to be re-read on every update, changes to their attributes arrive through
+   * {@link #update} instead.
+   */
+  public boolean contains(int nodeId) {
+    int index = mStagedTokens.indexOfKey(nodeId);
+    if (index >= 0) {
+      return mStagedTokens.valueAt(index) != null;
+    }
+    return mNodeTokens.get(nodeId) != null;
+  }
+
+  /**
+   * Record the words of an element, to be published by {@link #commitStaged()}.
+   *
+   * @param attributes Alternating attribute names and values.
+   */
+  public void stage(int nodeId, String nodeName, List<String> attributes) {
+    mStagedTokens.put(nodeId, tokenize(nodeName, attributes));
+  }
+
+  /**
+   * Drop an element from the index once {@link #commitStaged()} is called.
+   */
+  public void stageRemoval(int nodeId) {
+    mStagedTokens.put(nodeId, null);
+  }
+
+  public void discardStaged() {
+    mStagedTokens.clear();
+  }
+
+  /**
+   * Publish the staged entries, along with any {@link #update}s since the last commit.
+   */
+  public void commitStaged() {
+    for (int i = 0, N = mUpdatedTokens.size(); i < N; ++i) {
+      int nodeId = mUpdatedTokens.keyAt(i);
+      // A removal staged since takes precedence.
+      if (mStagedTokens.indexOfKey(nodeId) < 0) {
+        mStagedTokens.put(nodeId, mUpdatedTokens.valueAt(i));
+      }
+    }
+    mUpdatedTokens.clear();
+
+    if (mStagedTokens.size() > 0) {
+      apply(mStagedTokens);
+      mStagedTokens.clear();
+    }
+  }
+
+  /**
+   * Re-index an element whose attributes changed outside of an update.  Unlike staged entries
+   * this survives {@link #discardStaged()}, but it is still only published by the next
+   * {@link #commitStaged()} so that a burst of changes (e.g. typing into an EditText) costs a
+   * single rebuild of the snapshot.
+   */
+  public void update(int nodeId, String nodeName, List<String> attributes) {
+    String[] tokens = tokenize(nodeName, attributes);
+    if (mStagedTokens.indexOfKey(nodeId) >= 0) {
+      mStagedTokens.put(nodeId, tokens);
+    } else {
+      mUpdatedTokens.put(nodeId, tokens);
+    }
+  }
+
+  public void clear() {
+    mNodeTokens.clear();
+    mPostings.clear();
+    mStagedTokens.clear();
+    mUpdatedTokens.clear();
+    mSnapshot = Snapshot.EMPTY;
+  }
+
+  /**
+   * Find the nodes which, for every word of {@code query}, have a word starting with it,
+   * ignoring case.  Results are stored in node id order.
+   */
+  public void search(String query, int maxResults, Accumulator<Integer> matchedIds) {
+    HashSet<String> words = new HashSet<>();
+    addWords(query, false /* splitCamelCase */, words);
+    if (words.isEmpty()) {
+      return;
+    }
+
+    Snapshot snapshot = mSnapshot;
+    int[] matches = null;
+    for (String word : words) {
+      int[] nodeIds = snapshot.findPrefix(word);
+      matches = (matches == null) ? nodeIds : intersect(matches, nodeIds);
+      if (matches.length == 0) {
+        return;
+      }
+    }
+
+    for (int i = 0, N = Math.min(matches.length, maxResults); i < N; ++i) {
+      matchedIds.store(matches[i]);
+    }
+  }
+
+  /**
+   * Apply the token changes of each node in {@code changes} (null meaning removal), rewriting
+   * the postings of each affected word once, and publish a new {@link Snapshot}.
+   */
+  private void apply(SparseArray<String[]> changes) {
+    Map<String, IntList> added = new HashMap<>();
+    Map<String, IntList> removed = new HashMap<>();
+    for (int i = 0, N = changes.size(); i < N; ++i) {
+      int nodeId = changes.keyAt(i);
+      String[] newTokens = changes.valueAt(i);
+      String[] oldTokens = mNodeTokens.get(nodeId);
+      if (oldTokens != null) {
+        for (String token : oldTokens) {
+          getIntList(removed, token).add(nodeId);
+        }
+      }
+      if (newTokens != null) {
+        for (String token : newTokens) {
+          getIntList(added, token).add(nodeId);
+        }
+        mNodeTokens.put(nodeId, newTokens);
+      } else {
+        mNodeTokens.remove(nodeId);
+      }
+    }
+
+    HashSet<String> touched = new HashSet<>(added.keySet());
+    touched.addAll(removed.keySet());
+    for (String token : touched) {
+      int[] postings = merge(mPostings.get(token), added.get(token), removed.get(token));
+      if (postings.length > 0) {
+        mPostings.put(token, postings);
+      } else {
+        mPostings.remove(token);
+      }
+    }
+
+    mSnapshot = new Snapshot(
+        mPostings.keySet().toArray(new String[mPostings.size()]),
+        mPostings.values().toArray(new int[mPostings.size()][]));
+  }
+
+  private String[] tokenize(String nodeName, List<String> attributes) {
+    HashSet<String> tokens = mTokenBuilder;
+    tokens.clear();
+    addWords(nodeName, true /* splitCamelCase */, tokens);
+    for (int i = 0, N = attributes.size(); i < N; ++i) {
+      addWords(attributes.get(i), true /* splitCamelCase */, tokens);
+    }
+    String[] result = tokens.toArray(new String[tokens.size()]);
+    tokens.clear();
+    return result;
+  }
+
+  private static void addWords(String text, boolean splitCamelCase, HashSet<String> words) {
+    int start = -1;
+    for (int i = 0, N = text.length(); i <= N; ++i) {
+      boolean isWordChar = i < N && Character.isLetterOrDigit(text.charAt(i));
+      if (isWordChar && start < 0) {
+        start = i;
+      } else if (!isWordChar && start >= 0) {
+        words.add(text.substring(start, i).toLowerCase(Locale.US));
+        if (splitCamelCase) {
+          for (int j = start + 1; j < i; ++j) {
+            if (Character.isUpperCase(text.charAt(j))
+                && Character.isLowerCase(text.charAt(j - 1))) {
+              words.add(text.substring(j, i).toLowerCase(Locale.US));
+            }
+          }
+        }
+        start = -1;
+      }
+    }
+  }
+
+  private static IntList getIntList(Map<String, IntList> map, String token) {
+    IntList list = map.get(token);
+    if (list == null) {
+      list = new IntList();
+      map.put(token, list);
+    }
+    return list;
+  }
+
+  /**
+   * @return The sorted ids of {@code postings} with {@code removed} taken out and {@code added}
+   *     put in.  A node that is re-indexed appears in both, and is kept.
+   */
+  private static int[] merge(
+      @Nullable int[] postings,
+      @Nullable IntList added,
+      @Nullable IntList removed) {
+    int[] addedIds = added != null ? added.toSortedArray() : IntList.EMPTY;
+    int[] removedIds = removed != null ? removed.toSortedArray() : IntList.EMPTY;
+    int[] oldIds = postings != null ? postings : IntList.EMPTY;
+
+    int[] result = new int[oldIds.length + addedIds.length];
+    int count = 0;
+    int i = 0;
+    int j = 0;
+    int k = 0;
+    while (i < oldIds.length || j < addedIds.length) {
+      int next;
+      if (j == addedIds.length || (i < oldIds.length && oldIds[i] < addedIds[j])) {
+        next = oldIds[i++];
+        while (k < removedIds.length && removedIds[k] < next) {
+          ++k;
+        }
+        if (k < removedIds.length && removedIds[k] == next) {
+          continue;
+        }
+      } else {
+        next = addedIds[j++];
+        if (i < oldIds.length && oldIds[i] == next) {
+          ++i;
+        }
+      }
+      result[count++] = next;
+    }
+    return count == result.length ? result : Arrays.copyOf(result, count);
+  }
+
+  private static int[] intersect(int[] a, int[] b) {
+    int[] result = new int[Math.min(a.length, b.length)];
+    int count = 0;
+    for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+      if (a[i] < b[j]) {
+        ++i;
+      } else if (a[i] > b[j]) {
+        ++j;
+      } else {
+        result[count++] = a[i];
+        ++i;
+        ++j;
+      }
+    }
+    return Arrays.copyOf(result, count);
+  }
+
+  /**
+   * Immutable view of the index: the sorted list of words and, for each, the sorted ids of the
+   * nodes it appears in.
+   */
+  private static final class Snapshot {
+    public static final Snapshot EMPTY = new Snapshot(new String[0], new int[0][]);
+
+    private final String[] mTokens;
+    private final int[][] mPostings;
+
+    public Snapshot(String[] tokens, int[][] postings) {
+      mTokens = tokens;
+      mPostings = postings;
+    }
+
+    /**
+     * @return The sorted ids of the nodes with a word starting with {@code prefix}.
+     */
+    public int[] findPrefix(String prefix) {
+      int index = Arrays.binarySearch(mTokens, prefix);
+      int start = index >= 0 ? index : -index - 1;
+      int end = start;
+      while (end < mTokens.length && mTokens[end].startsWith(prefix)) {
+        ++end;
+      }
+
+      if (end - start == 1) {
+        return mPostings[start];
+      }
+      IntList nodeIds = new IntList();
+      for (int i = start; i < end; ++i) {
+        nodeIds.addAll(mPostings[i]);
+      }
+      return nodeIds.toSortedArray();
+    }
+  }
+
+  private static final class IntList {
+    public static final int[] EMPTY = new int[0];
+
+    private int[] mValues = new int[4];
+    private int mSize;
+
+    public void add(int value) {
+      if (mSize == mValues.length) {
+        mValues = Arrays.copyOf(mValues, mSize * 2);
+      }
+      mValues[mSize++] = value;
+    }
+
+    public void addAll(int[] values) {
+      if (mSize + values.length > mValues.length) {
+        mValues = Arrays.copyOf(mValues, Math.max(mSize * 2, mSize + values.length));
+      }
+      System.arraycopy(values, 0, mValues, mSize, values.length);
+      mSize += values.length;
+    }
+
+    /**
+     * @return The distinct values in ascending order.
+     */
+    public int[] toSortedArray() {
+      Arrays.sort(mValues, 0, mSize);
+      int count = 0;
+      for (int i = 0; i < mSize; ++i) {
+        if (count == 0 || mValues[count - 1] != mValues[i]) {
+          mValues[count++] = mValues[i];
+        }
+      }
+      return Arrays.copyOf(mValues, count);
+    }
+  }
+}
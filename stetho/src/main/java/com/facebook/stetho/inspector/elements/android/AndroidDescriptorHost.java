@@ -14,4 +14,9 @@ import javax.annotation.Nullable;
 interface AndroidDescriptorHost extends Descriptor.Host {
   @Nullable
   HighlightableDescriptor getHighlightableDescriptor(@Nullable Object element);
+
+  /**
+   * @see com.facebook.stetho.inspector.elements.DocumentProviderListener#onSubtreePossiblyChanged
+   */
+  void onSubtreePossiblyChanged(Object element);
 }
@@ -53,12 +53,11 @@ final class AndroidDocumentProvider extends ThreadBoundProxy
   private final InspectModeHandler mInspectModeHandler;
   private @Nullable DocumentProviderListener mListener;
 
-  // We don't yet have an an implementation for reliably detecting fine-grained changes in the
-  // View tree. So, for now at least, we have a timer that runs every so often and just reports
-  // that we changed. Our listener will then read the entire Document from us and transmit the
-  // changes to Chrome. Detecting, reporting, and traversing fine-grained changes is a future work
-  // item (see Issue #210).
-  private static final long REPORT_CHANGED_INTERVAL_MS = 1000;
+  // We report that everything possibly changed every so often, which makes our listener diff the
+  // whole View tree. Changes within a window are reported as they happen through
+  // onSubtreePossiblyChanged() (see ViewGroupDescriptor), so this poll is only a safety net for
+  // what that can't observe (e.g. new root views from WindowManager) and runs infrequently.
+  private static final long REPORT_CHANGED_INTERVAL_MS = 5000;
   private boolean mIsReportChangesTimerPosted = false;
   private final Runnable mReportChangesTimer = new Runnable() {
     @Override
@@ -245,6 +244,13 @@ final class AndroidDocumentProvider extends ThreadBoundProxy
     return highlightableDescriptor;
   }
 
+  @Override
+  public void onSubtreePossiblyChanged(Object element) {
+    if (mListener != null) {
+      mListener.onSubtreePossiblyChanged(element);
+    }
+  }
+
   private void getWindows(final Accumulator<Window> accumulator) {
     Descriptor appDescriptor = getDescriptor(mApplication);
     if (appDescriptor != null) {
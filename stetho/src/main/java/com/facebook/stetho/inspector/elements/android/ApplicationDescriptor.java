@@ -14,6 +14,7 @@ import android.view.View;
 import com.facebook.stetho.common.Accumulator;
 import com.facebook.stetho.common.Util;
 import com.facebook.stetho.inspector.elements.AbstractChainedDescriptor;
+import com.facebook.stetho.inspector.elements.Descriptor;
 import com.facebook.stetho.inspector.elements.NodeType;
 import com.facebook.stetho.inspector.elements.android.window.WindowRootViewCompat;
 
@@ -104,6 +105,13 @@ final class ApplicationDescriptor extends AbstractChainedDescriptor<Application>
       mElement = null;
     }
 
+    private void reportChildrenChanged() {
+      Descriptor.Host host = getHost();
+      if (mElement != null && host instanceof AndroidDescriptorHost) {
+        ((AndroidDescriptorHost) host).onSubtreePossiblyChanged(mElement);
+      }
+    }
+
     public List<WeakReference<Activity>> getActivitiesList() {
       return mActivityTracker.getActivitiesView();
     }
@@ -111,12 +119,12 @@ final class ApplicationDescriptor extends AbstractChainedDescriptor<Application>
     private final ActivityTracker.Listener mListener = new ActivityTracker.Listener() {
       @Override
       public void onActivityAdded(Activity activity) {
-        // TODO: once we have the ability to report fine-grained updates, do that here
+        reportChildrenChanged();
       }
 
       @Override
       public void onActivityRemoved(Activity activity) {
-        // TODO: once we have the ability to report fine-grained updates, do that here
+        reportChildrenChanged();
       }
     };
   }
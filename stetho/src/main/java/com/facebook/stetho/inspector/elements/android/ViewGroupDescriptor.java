@@ -8,15 +8,23 @@
 package com.facebook.stetho.inspector.elements.android;
 
 import android.graphics.Rect;
+import android.os.Build;
+import android.os.SystemClock;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 
 import com.facebook.stetho.common.Accumulator;
+import com.facebook.stetho.common.LogUtil;
+import com.facebook.stetho.common.ReflectionUtil;
 import com.facebook.stetho.common.android.FragmentCompatUtil;
 import com.facebook.stetho.inspector.elements.AbstractChainedDescriptor;
+import com.facebook.stetho.inspector.elements.Descriptor;
 
 import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Map;
 import java.util.WeakHashMap;
 
@@ -34,7 +42,95 @@ final class ViewGroupDescriptor extends AbstractChainedDescriptor<ViewGroup>
   private final Map<View, Object> mViewToElementMap =
       Collections.synchronizedMap(new WeakHashMap<View, Object>());
 
+  /**
+   * ViewGroup only supports a single {@link ViewGroup.OnHierarchyChangeListener}, and some
+   * framework classes (e.g. RadioGroup) install their own, so we chain to the existing listener
+   * by accessing the field directly.  {@link ViewGroup#setOnHierarchyChangeListener} can't be
+   * used for this because subclasses may override it to wrap the listener we pass in.
+   * <p>
+   * The field is hidden API, and from Android P on it is on the restricted list for apps that
+   * target P or later, so we only look for it up to {@link #MAX_HIERARCHY_LISTENER_SDK}.  Newer
+   * releases watch each window's {@link ViewTreeObserver} instead (see
+   * {@link TreeObserverContext}).
+   */
+  @Nullable
+  private final Field mOnHierarchyChangeListenerField;
+
+  // @VisibleForTesting
+  static final int MAX_HIERARCHY_LISTENER_SDK = Build.VERSION_CODES.O_MR1;
+
+  /**
+   * Minimum time between two reports caused by {@link ViewTreeObserver.OnDrawListener}, which
+   * can fire every frame while something animates.
+   */
+  private static final long DRAW_REPORT_INTERVAL_MS = 1000;
+
+  private final Map<ViewGroup, ElementContext> mElementToContextMap =
+      Collections.synchronizedMap(new IdentityHashMap<ViewGroup, ElementContext>());
+
+  private final Map<ViewGroup, TreeObserverContext> mRootToTreeObserverContextMap =
+      Collections.synchronizedMap(new IdentityHashMap<ViewGroup, TreeObserverContext>());
+
   public ViewGroupDescriptor() {
+    this(findOnHierarchyChangeListenerField(Build.VERSION.SDK_INT));
+  }
+
+  // @VisibleForTesting
+  ViewGroupDescriptor(@Nullable Field onHierarchyChangeListenerField) {
+    mOnHierarchyChangeListenerField = onHierarchyChangeListenerField;
+  }
+
+  // @VisibleForTesting
+  @Nullable
+  static Field findOnHierarchyChangeListenerField(int sdkInt) {
+    if (sdkInt > MAX_HIERARCHY_LISTENER_SDK) {
+      return null;
+    }
+    Field field = ReflectionUtil.tryGetDeclaredField(
+        ViewGroup.class,
+        "mOnHierarchyChangeListener");
+    if (field != null) {
+      try {
+        field.setAccessible(true);
+      } catch (SecurityException e) {
+        LogUtil.d(e, "Could not access ViewGroup.mOnHierarchyChangeListener");
+        return null;
+      }
+    }
+    return field;
+  }
+
+  @Override
+  protected void onHook(ViewGroup element) {
+    if (mOnHierarchyChangeListenerField != null) {
+      ElementContext context = new ElementContext();
+      context.hook(element);
+      mElementToContextMap.put(element, context);
+    } else if (!(element.getParent() instanceof View)) {
+      // The ViewTreeObserver is shared by the whole window, so only its root needs to watch it.
+      TreeObserverContext context = new TreeObserverContext();
+      context.hook(element);
+      mRootToTreeObserverContextMap.put(element, context);
+    }
+  }
+
+  @Override
+  protected void onUnhook(ViewGroup element) {
+    ElementContext context = mElementToContextMap.remove(element);
+    if (context != null) {
+      context.unhook();
+    }
+    TreeObserverContext treeObserverContext = mRootToTreeObserverContextMap.remove(element);
+    if (treeObserverContext != null) {
+      treeObserverContext.unhook();
+    }
+  }
+
+  private void reportSubtreePossiblyChanged(ViewGroup element) {
+    Descriptor.Host host = getHost();
+    if (host instanceof AndroidDescriptorHost) {
+      ((AndroidDescriptorHost) host).onSubtreePossiblyChanged(element);
+    }
   }
 
   @Override
@@ -122,4 +218,118 @@ final class ViewGroupDescriptor extends AbstractChainedDescriptor<ViewGroup>
       return element;
     }
   }
+
+  private final class ElementContext implements ViewGroup.OnHierarchyChangeListener {
+    private ViewGroup mElement;
+    @Nullable private ViewGroup.OnHierarchyChangeListener mPreviousListener;
+
+    public void hook(ViewGroup element) {
+      mElement = element;
+      mPreviousListener = (ViewGroup.OnHierarchyChangeListener)
+          ReflectionUtil.getFieldValue(mOnHierarchyChangeListenerField, element);
+      setListener(element, this);
+    }
+
+    public void unhook() {
+      if (mElement != null) {
+        // If the app replaced us in the meantime then it has already dropped the previous
+        // listener itself, and we must not clobber its replacement.
+        if (ReflectionUtil.getFieldValue(mOnHierarchyChangeListenerField, mElement) == this) {
+          setListener(mElement, mPreviousListener);
+        }
+        mElement = null;
+        mPreviousListener = null;
+      }
+    }
+
+    @Override
+    public void onChildViewAdded(View parent, View child) {
+      if (mPreviousListener != null) {
+        mPreviousListener.onChildViewAdded(parent, child);
+      }
+      reportChildrenChanged();
+    }
+
+    @Override
+    public void onChildViewRemoved(View parent, View child) {
+      if (mPreviousListener != null) {
+        mPreviousListener.onChildViewRemoved(parent, child);
+      }
+      reportChildrenChanged();
+    }
+
+    private void reportChildrenChanged() {
+      if (mElement != null) {
+        reportSubtreePossiblyChanged(mElement);
+      }
+    }
+
+    private void setListener(
+        ViewGroup element,
+        @Nullable ViewGroup.OnHierarchyChangeListener listener) {
+      try {
+        mOnHierarchyChangeListenerField.set(element, listener);
+      } catch (IllegalAccessException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+  /**
+   * Watches the {@link ViewTreeObserver} of a window's root view for layout passes and draws,
+   * either of which means something below the root may have changed.  Unlike
+   * {@link ElementContext} this only uses public API, but it can't tell which part of the window
+   * changed, so the whole window is reported.
+   */
+  private final class TreeObserverContext implements ViewTreeObserver.OnGlobalLayoutListener {
+    private ViewGroup mElement;
+
+    // OnDrawListener was added in API 16, so it lives in its own class that is only loaded there.
+    @Nullable private DrawListener mDrawListener;
+
+    public void hook(ViewGroup element) {
+      mElement = element;
+      ViewTreeObserver observer = element.getViewTreeObserver();
+      observer.addOnGlobalLayoutListener(this);
+      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+        mDrawListener = new DrawListener();
+        observer.addOnDrawListener(mDrawListener);
+      }
+    }
+
+    @SuppressWarnings("deprecation")
+    public void unhook() {
+      if (mElement != null) {
+        ViewTreeObserver observer = mElement.getViewTreeObserver();
+        if (observer.isAlive()) {
+          observer.removeGlobalOnLayoutListener(this);
+          if (mDrawListener != null) {
+            observer.removeOnDrawListener(mDrawListener);
+          }
+        }
+        mElement = null;
+        mDrawListener = null;
+      }
+    }
+
+    @Override
+    public void onGlobalLayout() {
+      if (mElement != null) {
+        reportSubtreePossiblyChanged(mElement);
+      }
+    }
+
+    private final class DrawListener implements ViewTreeObserver.OnDrawListener {
+      private long mLastReportTime;
+
+      @Override
+      public void onDraw() {
+        long now = SystemClock.uptimeMillis();
+        if (mElement != null && now - mLastReportTime >= DRAW_REPORT_INTERVAL_MS) {
+          mLastReportTime = now;
+          reportSubtreePossiblyChanged(mElement);
+        }
+      }
+    }
+  }
 }
@@ -30,6 +30,7 @@ import com.facebook.stetho.inspector.jsonrpc.PendingRequestCallback;
  */
 public class ChromePeerManager {
   private static final String TAG = "ChromePeerManager";
+  private static final JsonRpcPeer[] NO_PEERS = new JsonRpcPeer[0];
 
   /**
    * Set of registered peers, mapped to the disconnect receiver for automatic unregistration
@@ -39,11 +40,11 @@ public class ChromePeerManager {
   private final Map<JsonRpcPeer, DisconnectReceiver> mReceivingPeers = new HashMap<>();
 
   /**
-   * This should be set to null anytime mReceivingPeers is changed. It should always be
-   * retrieved by calling getReceivingPeersSnapshot().
+   * Immutable copy of the keys of mReceivingPeers, replaced (while holding the lock) anytime
+   * mReceivingPeers is changed.  Readers on the event reporting hot path use it without
+   * locking.
    */
-  @GuardedBy("this")
-  private JsonRpcPeer[] mReceivingPeersSnapshot;
+  private volatile JsonRpcPeer[] mReceivingPeersSnapshot = NO_PEERS;
 
   @GuardedBy("this")
   private PeerRegistrationListener mListener;
@@ -75,7 +76,7 @@ public class ChromePeerManager {
     DisconnectReceiver disconnectReceiver = new UnregisterOnDisconnect(peer);
     peer.registerDisconnectReceiver(disconnectReceiver);
     mReceivingPeers.put(peer, disconnectReceiver);
-    mReceivingPeersSnapshot = null;
+    updateReceivingPeersSnapshot();
     if (mListener != null) {
       mListener.onPeerRegistered(peer);
     }
@@ -89,23 +90,22 @@ public class ChromePeerManager {
    */
   public synchronized void removePeer(JsonRpcPeer peer) {
     if (mReceivingPeers.remove(peer) != null) {
-      mReceivingPeersSnapshot = null;
+      updateReceivingPeersSnapshot();
       if (mListener != null) {
         mListener.onPeerUnregistered(peer);
       }
     }
   }
 
-  public synchronized boolean hasRegisteredPeers() {
-    return !mReceivingPeers.isEmpty();
+  public boolean hasRegisteredPeers() {
+    return mReceivingPeersSnapshot.length > 0;
   }
 
-  private synchronized JsonRpcPeer[] getReceivingPeersSnapshot() {
-    if (mReceivingPeersSnapshot == null) {
-      mReceivingPeersSnapshot = mReceivingPeers.keySet().toArray(
-          new JsonRpcPeer[mReceivingPeers.size()]);
-    }
-    return mReceivingPeersSnapshot;
+  @GuardedBy("this")
+  private void updateReceivingPeersSnapshot() {
+    mReceivingPeersSnapshot = mReceivingPeers.isEmpty()
+        ? NO_PEERS
+        : mReceivingPeers.keySet().toArray(new JsonRpcPeer[mReceivingPeers.size()]);
   }
 
   public void sendNotificationToPeers(String method,
@@ -123,7 +123,11 @@ public class ChromePeerManager {
   private void sendMessageToPeers(String method,
       Object params,
       @Nullable PendingRequestCallback callback) {
-    JsonRpcPeer[] peers = getReceivingPeersSnapshot();
+    JsonRpcPeer[] peers = mReceivingPeersSnapshot;
+    if (callback == null && peers.length > 1) {
+      sendEncodedNotificationToPeers(peers, method, params);
+      return;
+    }
     for (JsonRpcPeer peer : peers) {
       try {
         peer.invokeMethod(method, params, callback);
@@ -133,6 +137,24 @@ public class ChromePeerManager {
     }
   }
 
+  /**
+   * Notifications carry no per-peer request id, so encode them once and copy the same bytes
+   * to every peer rather than converting {@code params} for each one.
+   */
+  private static void sendEncodedNotificationToPeers(
+      JsonRpcPeer[] peers,
+      String method,
+      Object params) {
+    byte[] encoded = peers[0].encodeNotification(method, params);
+    for (JsonRpcPeer peer : peers) {
+      try {
+        peer.sendEncodedNotification(method, encoded);
+      } catch (NotYetConnectedException e) {
+        LogRedirector.e(TAG, "Error delivering data to Chrome", e);
+      }
+    }
+  }
+
   private class UnregisterOnDisconnect implements DisconnectReceiver {
     private final JsonRpcPeer mPeer;
 
@@ -7,80 +7,107 @@
 
 package com.facebook.stetho.inspector.helper;
 
-import android.util.SparseArray;
-
-import java.util.IdentityHashMap;
-import java.util.Map;
-
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
 
+/**
+ * Assigns stable integer ids to objects (compared by identity) and maps them back.
+ * <p/>
+ * Both directions are stored in open-addressing hash tables of primitive arrays, so lookups
+ * neither box nor allocate.  Writes are serialized on {@link #mSync} while reads take no lock:
+ * slots are never reused until the table is rebuilt (removed entries become tombstones), so a
+ * racing reader never sees a mismatched pair, but it is only as current as the last write it
+ * observed.  It may miss an entry that is concurrently being added, and it may still find one
+ * that is concurrently being removed.  Callers that must not act on a removed entry should
+ * check again while synchronized with the writers (e.g. on the thread that removes entries).
+ */
+@ThreadSafe
 public class ObjectIdMapper {
+  private static final int MIN_CAPACITY = 64;
+
+  /**
+   * Marks a removed slot in {@link Table#keys}.
+   */
+  private static final Object REMOVED_KEY = new Object();
+
+  /**
+   * Marks a removed slot in {@link Table#ids}.  Ids start at 1 so 0 is free to mean "empty".
+   */
+  private static final int REMOVED_ID = -1;
+
   protected final Object mSync = new Object();
 
   @GuardedBy("mSync")
   private int mNextId = 1;
 
-  @GuardedBy("mSync")
-  private final Map<Object, Integer> mObjectToIdMap = new IdentityHashMap<Object, Integer>();
-
-  @GuardedBy("mSync")
-  private SparseArray<Object> mIdToObjectMap = new SparseArray<Object>();
+  /**
+   * Mutated in place while holding {@link #mSync}, and re-assigned after every mutation so that
+   * the volatile write publishes it to lock-free readers.
+   */
+  private volatile Table mTable = new Table(MIN_CAPACITY);
 
   public void clear() {
-    SparseArray<Object> idToObjectMap;
+    Table table;
     synchronized (mSync) {
-      idToObjectMap = mIdToObjectMap;
-      mObjectToIdMap.clear();
-      mIdToObjectMap = new SparseArray<Object>();
+      table = mTable;
+      mTable = new Table(MIN_CAPACITY);
     }
 
-    int size = idToObjectMap.size();
-    for (int i = 0; i < size; ++i) {
-      int id = idToObjectMap.keyAt(i);
-      Object object = idToObjectMap.valueAt(i);
-      onUnmapped(object, id);
+    // The old table is no longer written to, so it's safe to walk without the lock.
+    for (int i = 0, N = table.ids.length; i < N; ++i) {
+      int id = table.ids[i];
+      if (id > 0) {
+        onUnmapped(table.objects[i], id);
+      }
     }
   }
 
   public boolean containsId(int id) {
-    synchronized (mSync) {
-      return mIdToObjectMap.get(id) != null;
-    }
+    return mTable.getObjectForId(id) != null;
   }
 
   public boolean containsObject(Object object) {
-    synchronized (mSync) {
-      return mObjectToIdMap.containsKey(object);
-    }
+    return mTable.getIdForObject(object) > 0;
   }
 
   @Nullable
   public Object getObjectForId(int id) {
-    synchronized (mSync) {
-      return mIdToObjectMap.get(id);
-    }
+    return mTable.getObjectForId(id);
   }
 
   @Nullable
   public Integer getIdForObject(Object object) {
-    synchronized (mSync) {
-      return mObjectToIdMap.get(object);
-    }
+    int id = mTable.getIdForObject(object);
+    return id > 0 ? id : null;
+  }
+
+  /**
+   * Variant of {@link #getIdForObject(Object)} which does not box.
+   *
+   * @return The id mapped to {@code object}, or {@code defaultId} if there is none.
+   */
+  public int getIdForObject(Object object, int defaultId) {
+    int id = mTable.getIdForObject(object);
+    return id > 0 ? id : defaultId;
   }
 
   public int putObject(Object object) {
-    Integer id;
+    int id;
 
     synchronized (mSync) {
-      id = mObjectToIdMap.get(object);
-      if (id != null) {
+      Table table = mTable;
+      id = table.getIdForObject(object);
+      if (id > 0) {
         return id;
       }
 
       id = mNextId++;
-      mObjectToIdMap.put(object, id);
-      mIdToObjectMap.put(id, object);
+      if (table.needsRebuild()) {
+        table = table.rebuild();
+      }
+      table.put(object, id);
+      mTable = table;
     }
 
     onMapped(object, id);
@@ -92,13 +119,14 @@ public class ObjectIdMapper {
     Object object;
 
     synchronized (mSync) {
-      object = mIdToObjectMap.get(id);
+      Table table = mTable;
+      object = table.getObjectForId(id);
       if (object == null) {
         return null;
       }
 
-      mIdToObjectMap.remove(id);
-      mObjectToIdMap.remove(object);
+      table.remove(object, id);
+      mTable = table;
     }
 
     onUnmapped(object, id);
@@ -107,15 +135,17 @@ public class ObjectIdMapper {
 
   @Nullable
   public Integer removeObject(Object object) {
-    Integer id;
+    int id;
 
     synchronized (mSync) {
-      id = mObjectToIdMap.remove(object);
-      if (id == null) {
+      Table table = mTable;
+      id = table.getIdForObject(object);
+      if (id <= 0) {
         return null;
       }
 
-      mIdToObjectMap.remove(id);
+      table.remove(object, id);
+      mTable = table;
     }
 
     onUnmapped(object, id);
@@ -124,7 +154,7 @@ public class ObjectIdMapper {
 
   public int size() {
     synchronized (mSync) {
-      return mObjectToIdMap.size();
+      return mTable.size;
     }
   }
 
@@ -133,4 +163,141 @@ public class ObjectIdMapper {
 
   protected void onUnmapped(Object object, int id) {
   }
+
+  /**
+   * Two linear-probing hash tables of the same capacity: {@link #keys}/{@link #keyIds} maps
+   * objects to ids and {@link #ids}/{@link #objects} maps ids to objects.  A slot only ever goes
+   * from empty, to occupied, to removed, which is what makes unlocked reads safe.  The table is
+   * kept at most half full (counting removed slots) so probe sequences are short and always end
+   * at an empty slot.
+   */
+  private static final class Table {
+    private final int mMask;
+
+    public final Object[] keys;
+    public final int[] keyIds;
+    public final int[] ids;
+    public final Object[] objects;
+
+    @GuardedBy("mSync")
+    public int size;
+
+    @GuardedBy("mSync")
+    private int mUsedSlots;
+
+    public Table(int capacity) {
+      mMask = capacity - 1;
+      keys = new Object[capacity];
+      keyIds = new int[capacity];
+      ids = new int[capacity];
+      objects = new Object[capacity];
+    }
+
+    /**
+     * @return The id for {@code object}, or 0 if there is none.
+     */
+    public int getIdForObject(Object object) {
+      int i = hashObject(object) & mMask;
+      while (true) {
+        Object key = keys[i];
+        if (key == null) {
+          return 0;
+        }
+        if (key == object) {
+          return keyIds[i];
+        }
+        i = (i + 1) & mMask;
+      }
+    }
+
+    @Nullable
+    public Object getObjectForId(int id) {
+      if (id <= 0) {
+        return null;
+      }
+      int i = hashId(id) & mMask;
+      while (true) {
+        int key = ids[i];
+        if (key == 0) {
+          return null;
+        }
+        if (key == id) {
+          return objects[i];
+        }
+        i = (i + 1) & mMask;
+      }
+    }
+
+    public boolean needsRebuild() {
+      return (mUsedSlots + 1) * 2 > keys.length;
+    }
+
+    /**
+     * Copy the live entries into a new table sized for them, dropping removed slots.
+     */
+    public Table rebuild() {
+      int capacity = MIN_CAPACITY;
+      while (capacity < (size + 1) * 4) {
+        capacity <<= 1;
+      }
+      Table table = new Table(capacity);
+      for (int i = 0, N = ids.length; i < N; ++i) {
+        if (ids[i] > 0) {
+          table.put(objects[i], ids[i]);
+        }
+      }
+      return table;
+    }
+
+    public void put(Object object, int id) {
+      // Values are written before keys so that a racing reader which observes the key sees
+      // either the value or the initial 0/null, both of which read as "not found".
+      int i = hashObject(object) & mMask;
+      while (keys[i] != null) {
+        i = (i + 1) & mMask;
+      }
+      keyIds[i] = id;
+      keys[i] = object;
+
+      int j = hashId(id) & mMask;
+      while (ids[j] != 0) {
+        j = (j + 1) & mMask;
+      }
+      objects[j] = object;
+      ids[j] = id;
+
+      ++size;
+      ++mUsedSlots;
+    }
+
+    public void remove(Object object, int id) {
+      int i = hashObject(object) & mMask;
+      while (keys[i] != object) {
+        i = (i + 1) & mMask;
+      }
+      keys[i] = REMOVED_KEY;
+
+      int j = hashId(id) & mMask;
+      while (ids[j] != id) {
+        j = (j + 1) & mMask;
+      }
+      ids[j] = REMOVED_ID;
+      objects[j] = null;
+
+      --size;
+    }
+
+    private static int hashObject(Object object) {
+      return mix(System.identityHashCode(object));
+    }
+
+    private static int hashId(int id) {
+      return mix(id);
+    }
+
+    private static int mix(int h) {
+      h *= 0x9e3779b9;
+      return h ^ (h >>> 16);
+    }
+  }
 }
@@ -11,23 +11,49 @@ import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.channels.NotYetConnectedException;
 import java.util.HashMap;
 import java.util.Map;
 
 import android.database.Observable;
 
-import com.facebook.stetho.inspector.jsonrpc.protocol.JsonRpcRequest;
+import com.facebook.stetho.common.ExceptionUtil;
 import com.facebook.stetho.common.Util;
+import com.facebook.stetho.json.JsonWriter;
 import com.facebook.stetho.json.ObjectMapper;
 import com.facebook.stetho.websocket.SimpleSession;
-
-import org.json.JSONObject;
+import com.facebook.stetho.websocket.TextMessageWriter;
 
 @ThreadSafe
 public class JsonRpcPeer {
+  /**
+   * Decides which outgoing notifications may be discarded if the peer is not draining the
+   * socket fast enough.  Messages not deemed droppable are never discarded; instead the
+   * sender blocks until there is room.
+   *
+   * @see SimpleSession#sendText(TextMessageWriter, boolean)
+   */
+  public interface DropPolicy {
+    boolean isDroppable(String method);
+  }
+
+  /**
+   * Drops {@code Network.dataReceived}, which only reports incremental progress that is
+   * superseded by the eventual {@code Network.loadingFinished}.
+   */
+  public static final DropPolicy DEFAULT_DROP_POLICY = new DropPolicy() {
+    @Override
+    public boolean isDroppable(String method) {
+      return "Network.dataReceived".equals(method);
+    }
+  };
+
   private final SimpleSession mPeer;
   private final ObjectMapper mObjectMapper;
+  private volatile DropPolicy mDropPolicy = DEFAULT_DROP_POLICY;
 
   @GuardedBy("this")
   private long mNextRequestId;
@@ -46,21 +72,85 @@ public class JsonRpcPeer {
     return mPeer;
   }
 
-  public void invokeMethod(String method, Object paramsObject,
+  public void setDropPolicy(DropPolicy dropPolicy) {
+    mDropPolicy = Util.throwIfNull(dropPolicy);
+  }
+
+  public void invokeMethod(final String method, final Object paramsObject,
       @Nullable PendingRequestCallback callback)
       throws NotYetConnectedException {
     Util.throwIfNull(method);
 
-    Long requestId = (callback != null) ? preparePendingRequest(callback) : null;
+    final Long requestId = (callback != null) ? preparePendingRequest(callback) : null;
+
+    // Requests awaiting a response must always be delivered.
+    boolean droppable = requestId == null && mDropPolicy.isDroppable(method);
+
+    // Streams the equivalent of a JsonRpcRequest straight into the outgoing frame without
+    // building an intermediate JSONObject or String for either the envelope or the params.
+    try {
+      mPeer.sendText(new TextMessageWriter() {
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+          writeMessage(out, requestId, method, paramsObject);
+        }
+      }, droppable);
+    } catch (IOException e) {
+      // Only the in-memory encoding above can throw.
+      throw ExceptionUtil.propagate(e);
+    }
+  }
+
+  /**
+   * Encode a notification once so that it can be delivered to any number of peers sharing this
+   * peer's {@link ObjectMapper} with {@link #sendEncodedNotification}.
+   */
+  public byte[] encodeNotification(String method, @Nullable Object paramsObject) {
+    Util.throwIfNull(method);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try {
+      writeMessage(out, null /* requestId */, method, paramsObject);
+    } catch (IOException e) {
+      throw ExceptionUtil.propagate(e);
+    }
+    return out.toByteArray();
+  }
 
-    // magic, can basically convert anything for some amount of runtime overhead...
-    JSONObject params = mObjectMapper.convertValue(paramsObject, JSONObject.class);
+  /**
+   * Send a notification previously encoded by {@link #encodeNotification}.  The bytes are
+   * copied into the outgoing frame as-is.
+   */
+  public void sendEncodedNotification(String method, final byte[] encodedNotification)
+      throws NotYetConnectedException {
+    try {
+      mPeer.sendText(new TextMessageWriter() {
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+          out.write(encodedNotification);
+        }
+      }, mDropPolicy.isDroppable(method));
+    } catch (IOException e) {
+      throw ExceptionUtil.propagate(e);
+    }
+  }
 
-    JsonRpcRequest message = new JsonRpcRequest(requestId, method, params);
-    String requestString;
-    JSONObject jsonObject = mObjectMapper.convertValue(message, JSONObject.class);
-    requestString = jsonObject.toString();
-    mPeer.sendText(requestString);
+  private void writeMessage(
+      OutputStream out,
+      @Nullable Long requestId,
+      String method,
+      @Nullable Object paramsObject) throws IOException {
+    JsonWriter writer = new JsonWriter(out);
+    writer.beginObject();
+    if (requestId != null) {
+      writer.name("id").value(requestId);
+    }
+    writer.name("method").value(method);
+    if (paramsObject != null) {
+      writer.name("params");
+      mObjectMapper.writeValue(writer, paramsObject);
+    }
+    writer.endObject();
+    writer.flush();
   }
 
   public void registerDisconnectReceiver(DisconnectReceiver callback) {
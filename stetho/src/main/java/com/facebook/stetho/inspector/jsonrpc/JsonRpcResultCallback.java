@@ -0,0 +1,24 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.jsonrpc;
+
+import javax.annotation.Nullable;
+
+/**
+ * Completion callback for asynchronous {@link com.facebook.stetho.inspector.protocol.ChromeDevtoolsMethod}
+ * handlers.  A handler declared as {@code void foo(JsonRpcPeer, JSONObject, JsonRpcResultCallback)}
+ * may return immediately and invoke exactly one of these methods later, from any thread.
+ */
+public interface JsonRpcResultCallback {
+  /**
+   * @param result Result to send to the peer, or null for an empty result.
+   */
+  void onSuccess(@Nullable JsonRpcResult result);
+
+  void onFailure(JsonRpcException e);
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+/**
+ * Decides how much of each response body is kept for {@code Network.getResponseBody}.  By
+ * default every body is stored (up to {@link ResponseBodyFileManager#getMaxBodyBytes()}), which
+ * for apps streaming media doubles the I/O done for those responses.  Install a policy with
+ * {@link NetworkEventReporterImpl#setBodyCapturePolicy} to keep less.
+ * <p/>
+ * Responses whose body isn't captured are still reported in full, with their sizes and
+ * timings; the app's stream is then passed through without being copied anywhere.
+ *
+ * @see RuleBasedBodyCapturePolicy
+ */
+public interface BodyCapturePolicy {
+  /**
+   * Keep the whole body, subject to the limits of the {@link ResponseBodyFileManager}.
+   */
+  int CAPTURE_ALL = Integer.MAX_VALUE;
+
+  /**
+   * Keep none of the body, only the metadata reported in the Network events.
+   */
+  int CAPTURE_NONE = 0;
+
+  /**
+   * Called when the response headers are reported, on the thread reporting them, so this must
+   * be quick and thread safe.
+   *
+   * @return The number of bytes of the body to keep, from {@link #CAPTURE_NONE} to
+   *     {@link #CAPTURE_ALL}.  Gzipped bodies are stored compressed, and limited as such.
+   */
+  int getCaptureLimit(NetworkEventReporter.InspectorResponse response);
+}
@@ -21,6 +21,15 @@ public class DecompressionHelper {
   static final String GZIP_ENCODING = "gzip";
   static final String DEFLATE_ENCODING = "deflate";
 
+  /**
+   * Whether a body in this encoding can be captured still compressed, with
+   * {@link #teeInputWithDeferredDecompression}, and decompressed only when it is requested.
+   * Deflate has no trailer to read the decoded size from, so it is always decompressed inline.
+   */
+  public static boolean canDeferDecompression(@Nullable String contentEncoding) {
+    return GZIP_ENCODING.equals(contentEncoding);
+  }
+
   public static InputStream teeInputWithDecompression(
       NetworkPeerManager peerManager,
       String requestId,
@@ -60,4 +69,31 @@ public class DecompressionHelper {
         peerManager,
         responseHandler);
   }
+
+  /**
+   * Like {@link #teeInputWithDecompression} but copies the body to {@code compressedOutput} as
+   * it was received, leaving the decompression to whoever reads it back.  The decoded size is
+   * still reported to {@link ResponseHandler#onReadDecoded}, from the gzip trailer.
+   *
+   * @param contentEncoding An encoding for which {@link #canDeferDecompression} is true.
+   */
+  public static InputStream teeInputWithDeferredDecompression(
+      NetworkPeerManager peerManager,
+      String requestId,
+      InputStream availableInputStream,
+      OutputStream compressedOutput,
+      String contentEncoding,
+      ResponseHandler responseHandler) {
+    if (!canDeferDecompression(contentEncoding)) {
+      throw new IllegalArgumentException("Unsupported encoding: " + contentEncoding);
+    }
+    GzipTrailerSizeOutputStream sizeCounter = new GzipTrailerSizeOutputStream(compressedOutput);
+    return new ResponseHandlingInputStream(
+        availableInputStream,
+        requestId,
+        sizeCounter,
+        sizeCounter,
+        peerManager,
+        responseHandler);
+  }
 }
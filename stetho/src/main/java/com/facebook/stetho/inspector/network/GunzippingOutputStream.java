@@ -7,98 +7,323 @@
 
 package com.facebook.stetho.inspector.network;
 
-import com.facebook.stetho.common.ExceptionUtil;
-import com.facebook.stetho.common.Util;
-
+import java.io.EOFException;
 import java.io.FilterOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.zip.GZIPInputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
 
 /**
  * An {@link OutputStream} filter which decompresses gzip data before it is written to the
  * specified destination output stream.  This is functionally equivalent to
- * {@link java.util.zip.InflaterOutputStream} but provides gzip header awareness.  The
- * implementation however is very different to avoid actually interpreting the gzip header.
+ * {@link java.util.zip.InflaterOutputStream} but provides gzip header awareness.
+ * <p/>
+ * Decompression happens inline in {@link #write}: the gzip header and trailer (RFC1952) are
+ * parsed by a small state machine that picks up wherever the previous write left off, and the
+ * DEFLATE data in between is fed straight to an {@link Inflater}.  This costs the writer, which
+ * is typically the app's network thread, no more than the decompression itself.  Like
+ * {@link java.util.zip.GZIPInputStream}, concatenated members are decompressed in sequence and
+ * anything after the last one that isn't a gzip header is ignored.
  */
 class GunzippingOutputStream extends FilterOutputStream {
-  private final Future<Void> mCopyFuture;
+  private static final int GZIP_MAGIC = 0x8b1f;
+  private static final int CM_DEFLATE = 8;
+
+  private static final int FHCRC = 1 << 1;
+  private static final int FEXTRA = 1 << 2;
+  private static final int FNAME = 1 << 3;
+  private static final int FCOMMENT = 1 << 4;
+
+  /**
+   * ID1, ID2, CM, FLG, MTIME (4), XFL, OS.
+   */
+  private static final int HEADER_SIZE = 10;
+
+  /**
+   * CRC32 and ISIZE, both little-endian.
+   */
+  private static final int TRAILER_SIZE = 8;
+
+  private static final int STATE_HEADER = 0;
+  private static final int STATE_EXTRA_LENGTH = 1;
+  private static final int STATE_EXTRA = 2;
+  private static final int STATE_NAME = 3;
+  private static final int STATE_COMMENT = 4;
+  private static final int STATE_HEADER_CRC = 5;
+  private static final int STATE_INFLATE = 6;
+  private static final int STATE_TRAILER = 7;
+  /** Between members, where the stream may validly end. */
+  private static final int STATE_MEMBER_END = 8;
+  /** Trailing garbage after the last member. */
+  private static final int STATE_IGNORE = 9;
+
+  private static final int BUFFER_SIZE = 8192;
+
+  private final Inflater mInflater = new Inflater(true /* nowrap */);
+  private final CRC32 mCrc = new CRC32();
+  private final byte[] mBuffer = new byte[BUFFER_SIZE];
+  private final byte[] mOneByte = new byte[1];
 
-  private static final ExecutorService sExecutor = Executors.newCachedThreadPool();
+  /**
+   * Collects the fixed size fields, which may arrive split across writes.
+   */
+  private final byte[] mField = new byte[HEADER_SIZE];
+  private int mFieldLength;
 
-  public static GunzippingOutputStream create(OutputStream finalOut) throws IOException {
-    PipedInputStream pipeIn = new PipedInputStream();
-    PipedOutputStream pipeOut = new PipedOutputStream(pipeIn);
+  private int mState = STATE_HEADER;
+  private int mFlags;
+  private int mExtraRemaining;
 
-    Future<Void> copyFuture = sExecutor.submit(
-        new GunzippingCallable(pipeIn, finalOut));
+  /**
+   * Uncompressed size of the current member, modulo 2^32 as in ISIZE.
+   */
+  private int mMemberSize;
 
-    return new GunzippingOutputStream(pipeOut, copyFuture);
+  private boolean mHasCompletedMember;
+  private boolean mClosed;
+
+  public static GunzippingOutputStream create(OutputStream finalOut) {
+    return new GunzippingOutputStream(finalOut);
   }
 
-  private GunzippingOutputStream(OutputStream out, Future<Void> copyFuture) throws IOException {
+  private GunzippingOutputStream(OutputStream out) {
     super(out);
-    mCopyFuture = copyFuture;
   }
 
   @Override
-  public void close() throws IOException {
-    boolean success = false;
-    try {
-      super.close();
-      success = true;
-    } finally {
-      try {
-        getAndRethrow(mCopyFuture);
-      } catch (IOException e) {
-        if (success) {
-          throw e;
+  public void write(int oneByte) throws IOException {
+    mOneByte[0] = (byte) oneByte;
+    write(mOneByte, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] buffer, int offset, int count) throws IOException {
+    if (mClosed) {
+      throw new IOException("Stream closed");
+    }
+    while (count > 0) {
+      int consumed = process(buffer, offset, count);
+      offset += consumed;
+      count -= consumed;
+    }
+  }
+
+  /**
+   * Advance the state machine over a prefix of the input.
+   *
+   * @return The number of bytes consumed, at least 1.
+   */
+  private int process(byte[] buffer, int offset, int count) throws IOException {
+    switch (mState) {
+      case STATE_HEADER:
+        return readHeader(buffer, offset, count);
+      case STATE_EXTRA_LENGTH: {
+        int consumed = fillField(buffer, offset, count, 2);
+        mCrc.update(buffer, offset, consumed);
+        if (mFieldLength == 2) {
+          mExtraRemaining = readUInt16(mField, 0);
+          mFieldLength = 0;
+          mState = STATE_EXTRA;
+          if (mExtraRemaining == 0) {
+            advanceHeader();
+          }
         }
+        return consumed;
+      }
+      case STATE_EXTRA: {
+        int consumed = Math.min(count, mExtraRemaining);
+        mCrc.update(buffer, offset, consumed);
+        mExtraRemaining -= consumed;
+        if (mExtraRemaining == 0) {
+          advanceHeader();
+        }
+        return consumed;
+      }
+      case STATE_NAME:
+      case STATE_COMMENT:
+        return skipZeroTerminated(buffer, offset, count);
+      case STATE_HEADER_CRC: {
+        int consumed = fillField(buffer, offset, count, 2);
+        if (mFieldLength == 2) {
+          mFieldLength = 0;
+          if (readUInt16(mField, 0) != (int) (mCrc.getValue() & 0xffff)) {
+            return onBadHeader("Corrupt GZIP header", consumed);
+          }
+          advanceHeader();
+        }
+        return consumed;
+      }
+      case STATE_INFLATE:
+        return inflate(buffer, offset, count);
+      case STATE_TRAILER:
+        return readTrailer(buffer, offset, count);
+      case STATE_MEMBER_END:
+        mState = STATE_HEADER;
+        return readHeader(buffer, offset, count);
+      case STATE_IGNORE:
+        return count;
+      default:
+        throw new IllegalStateException("state=" + mState);
+    }
+  }
+
+  private int readHeader(byte[] buffer, int offset, int count) throws IOException {
+    if (mFieldLength == 0) {
+      // Until the compressed data begins this is the header's CRC, for FHCRC.
+      mCrc.reset();
+    }
+    int consumed = fillField(buffer, offset, count, HEADER_SIZE);
+    mCrc.update(buffer, offset, consumed);
+    if (mFieldLength >= 2 && readUInt16(mField, 0) != GZIP_MAGIC) {
+      return onBadHeader("Not in GZIP format", consumed);
+    }
+    if (mFieldLength == HEADER_SIZE) {
+      if ((mField[2] & 0xff) != CM_DEFLATE) {
+        return onBadHeader("Unsupported compression method", consumed);
       }
+      mFlags = mField[3] & 0xff;
+      mFieldLength = 0;
+      mInflater.reset();
+      mMemberSize = 0;
+      advanceHeader();
+    }
+    return consumed;
+  }
+
+  /**
+   * A malformed first header is an error, but anything after a complete member that doesn't
+   * start another one is ignored, the way {@link java.util.zip.GZIPInputStream} does.
+   */
+  private int onBadHeader(String message, int consumed) throws IOException {
+    if (!mHasCompletedMember) {
+      throw new ZipException(message);
+    }
+    mFieldLength = 0;
+    mState = STATE_IGNORE;
+    return consumed;
+  }
+
+  /**
+   * Move past the current header field to the next one present in {@link #mFlags}, or to the
+   * compressed data once there are none left.  Fields always appear in this order.
+   */
+  private void advanceHeader() {
+    switch (mState) {
+      case STATE_HEADER:
+        if ((mFlags & FEXTRA) != 0) {
+          mState = STATE_EXTRA_LENGTH;
+          break;
+        }
+        // fall through
+      case STATE_EXTRA:
+        if ((mFlags & FNAME) != 0) {
+          mState = STATE_NAME;
+          break;
+        }
+        // fall through
+      case STATE_NAME:
+        if ((mFlags & FCOMMENT) != 0) {
+          mState = STATE_COMMENT;
+          break;
+        }
+        // fall through
+      case STATE_COMMENT:
+        if ((mFlags & FHCRC) != 0) {
+          mState = STATE_HEADER_CRC;
+          break;
+        }
+        // fall through
+      default:
+        mState = STATE_INFLATE;
+        mCrc.reset();
+        break;
     }
   }
 
-  private static <T> T getAndRethrow(Future<T> future) throws IOException {
-    while (true) {
-      try {
-        return future.get();
-      } catch (InterruptedException e) {
-        // Continue...
-      } catch (ExecutionException e) {
-        Throwable cause = e.getCause();
-        ExceptionUtil.propagateIfInstanceOf(cause, IOException.class);
-        ExceptionUtil.propagate(cause);
+  private int skipZeroTerminated(byte[] buffer, int offset, int count) {
+    for (int i = 0; i < count; i++) {
+      if (buffer[offset + i] == 0) {
+        mCrc.update(buffer, offset, i + 1);
+        advanceHeader();
+        return i + 1;
       }
     }
+    mCrc.update(buffer, offset, count);
+    return count;
   }
 
-  private static class GunzippingCallable implements Callable<Void> {
-    private final InputStream mIn;
-    private final OutputStream mOut;
+  private int inflate(byte[] buffer, int offset, int count) throws IOException {
+    mInflater.setInput(buffer, offset, count);
+    try {
+      while (true) {
+        int n = mInflater.inflate(mBuffer, 0, mBuffer.length);
+        if (n > 0) {
+          mCrc.update(mBuffer, 0, n);
+          mMemberSize += n;
+          out.write(mBuffer, 0, n);
+        } else if (mInflater.finished()) {
+          mState = STATE_TRAILER;
+          return count - mInflater.getRemaining();
+        } else if (mInflater.needsInput()) {
+          return count;
+        } else if (mInflater.needsDictionary()) {
+          throw new ZipException("Preset dictionaries are not supported");
+        }
+      }
+    } catch (DataFormatException e) {
+      String message = e.getMessage();
+      throw new ZipException(message != null ? message : "Invalid ZLIB data format");
+    }
+  }
 
-    public GunzippingCallable(InputStream in, OutputStream out) {
-      mIn = in;
-      mOut = out;
+  private int readTrailer(byte[] buffer, int offset, int count) throws IOException {
+    int consumed = fillField(buffer, offset, count, TRAILER_SIZE);
+    if (mFieldLength == TRAILER_SIZE) {
+      mFieldLength = 0;
+      long crc = readUInt16(mField, 0) | ((long) readUInt16(mField, 2) << 16);
+      int size = readUInt16(mField, 4) | (readUInt16(mField, 6) << 16);
+      if (crc != mCrc.getValue() || size != mMemberSize) {
+        throw new ZipException("Corrupt GZIP trailer");
+      }
+      mHasCompletedMember = true;
+      mState = STATE_MEMBER_END;
     }
+    return consumed;
+  }
 
-    @Override
-    public Void call() throws IOException {
-      GZIPInputStream in = new GZIPInputStream(mIn);
-      try {
-        Util.copy(in, mOut, new byte[1024]);
-      } finally {
-        in.close();
-        mOut.close();
+  /**
+   * Append to {@link #mField} until it holds {@code size} bytes.
+   */
+  private int fillField(byte[] buffer, int offset, int count, int size) {
+    int consumed = Math.min(count, size - mFieldLength);
+    System.arraycopy(buffer, offset, mField, mFieldLength, consumed);
+    mFieldLength += consumed;
+    return consumed;
+  }
+
+  private static int readUInt16(byte[] buffer, int offset) {
+    return (buffer[offset] & 0xff) | ((buffer[offset + 1] & 0xff) << 8);
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (mClosed) {
+      return;
+    }
+    mClosed = true;
+    try {
+      boolean inHeader = mState < STATE_INFLATE;
+      if (mState == STATE_INFLATE ||
+          mState == STATE_TRAILER ||
+          (inHeader && !mHasCompletedMember)) {
+        throw new EOFException("Unexpected end of ZLIB input stream");
       }
-      return null;
+    } finally {
+      mInflater.end();
+      out.close();
     }
   }
 }
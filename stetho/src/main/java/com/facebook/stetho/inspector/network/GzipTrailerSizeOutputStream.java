@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Passes gzip data through untouched and, once closed, reports the uncompressed size from the
+ * ISIZE field of the gzip trailer (RFC1952) as its {@link #getCount()}.  This lets
+ * {@link ResponseHandlingInputStream} report the decoded size of a body which is stored
+ * compressed without inflating it.
+ * <p/>
+ * The count is 0 until {@link #close()}, as any earlier value would be read from the middle of
+ * the compressed data.  ISIZE is the size modulo 2^32 and only covers the last member of the
+ * stream, which for the single member bodies sent over HTTP is the whole thing.
+ */
+class GzipTrailerSizeOutputStream extends CountingOutputStream {
+  /**
+   * 10 byte header, at least 2 bytes of DEFLATE data (an empty final block), 8 byte trailer.
+   */
+  private static final int MIN_GZIP_SIZE = 20;
+
+  /**
+   * The last 4 bytes written, oldest first.
+   */
+  private final byte[] mTail = new byte[4];
+  private long mWritten;
+  private boolean mClosed;
+
+  public GzipTrailerSizeOutputStream(OutputStream out) {
+    super(out);
+  }
+
+  @Override
+  public long getCount() {
+    if (!mClosed || mWritten < MIN_GZIP_SIZE) {
+      return 0;
+    }
+    return (mTail[0] & 0xffL) |
+        ((mTail[1] & 0xffL) << 8) |
+        ((mTail[2] & 0xffL) << 16) |
+        ((mTail[3] & 0xffL) << 24);
+  }
+
+  @Override
+  public void write(int oneByte) throws IOException {
+    out.write(oneByte);
+    System.arraycopy(mTail, 1, mTail, 0, mTail.length - 1);
+    mTail[mTail.length - 1] = (byte) oneByte;
+    mWritten++;
+  }
+
+  @Override
+  public void write(byte[] buffer, int offset, int length) throws IOException {
+    out.write(buffer, offset, length);
+    int kept = Math.min(length, mTail.length);
+    System.arraycopy(mTail, kept, mTail, 0, mTail.length - kept);
+    System.arraycopy(buffer, offset + length - kept, mTail, mTail.length - kept, kept);
+    mWritten += length;
+  }
+
+  @Override
+  public void close() throws IOException {
+    mClosed = true;
+    super.close();
+  }
+}
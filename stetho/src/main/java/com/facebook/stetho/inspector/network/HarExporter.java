@@ -0,0 +1,566 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import android.net.Uri;
+import android.os.SystemClock;
+import com.facebook.stetho.common.LogRedirector;
+import com.facebook.stetho.common.Utf8Charset;
+import com.facebook.stetho.common.Util;
+import com.facebook.stetho.json.JsonWriter;
+
+import javax.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Writes the requests held by a {@link NetworkFlightRecorder} as a HAR 1.2 archive.  Each entry
+ * is written as soon as its request completes in the replayed recording, and response bodies
+ * are streamed from the {@link ResponseBodyFileManager}, so only the requests in flight at any
+ * one point of the recording are ever held in memory.
+ * <p/>
+ * Requests whose start has already been evicted from the recording are left out.  Those still
+ * in flight at the end of it are written last, with whatever they had received so far.
+ */
+public class HarExporter {
+  private static final String TAG = "HarExporter";
+
+  private final NetworkFlightRecorder mRecorder;
+  @Nullable
+  private final ResponseBodyFileManager mBodyFileManager;
+
+  private long mStartMs = Long.MIN_VALUE;
+  private long mEndMs = Long.MAX_VALUE;
+  private final ArrayList<String> mHosts = new ArrayList<>();
+  @Nullable
+  private MimeMatcher<Boolean> mMimeTypes;
+
+  /**
+   * @param bodyFileManager Where to find the bodies of responses received while a peer was
+   *     attached, or null to include only the bodies the recorder captured itself.
+   */
+  public HarExporter(
+      NetworkFlightRecorder recorder,
+      @Nullable ResponseBodyFileManager bodyFileManager) {
+    mRecorder = Util.throwIfNull(recorder);
+    mBodyFileManager = bodyFileManager;
+  }
+
+  /**
+   * Only include requests which started within this window, given in the
+   * {@link SystemClock#elapsedRealtime()} time base.
+   */
+  public HarExporter setTimeWindow(long startMs, long endMs) {
+    Util.throwIfNot(startMs <= endMs, "Window must not end before it starts");
+    mStartMs = startMs;
+    mEndMs = endMs;
+    return this;
+  }
+
+  /**
+   * Only include requests to {@code host} or any of its subdomains.  When called several times
+   * requests to any of the hosts are included.
+   */
+  public HarExporter addHost(String host) {
+    mHosts.add(host.toLowerCase(Locale.US));
+    return this;
+  }
+
+  /**
+   * Only include responses of a MIME type, such as "image/*" or "application/json".  When called
+   * several times responses matching any of the types are included.  Requests which failed
+   * before receiving a response are left out.
+   */
+  public HarExporter addMimeType(String mimeTypeExpression) {
+    if (mMimeTypes == null) {
+      mMimeTypes = new MimeMatcher<>();
+    }
+    mMimeTypes.addRule(mimeTypeExpression, Boolean.TRUE);
+    return this;
+  }
+
+  /**
+   * Write the archive to {@code out}, which is flushed but not closed.
+   */
+  public void writeTo(OutputStream out) throws IOException {
+    writeTo(out, System.currentTimeMillis() - SystemClock.elapsedRealtime());
+  }
+
+  // @VisibleForTesting
+  void writeTo(OutputStream out, long wallClockOffsetMs) throws IOException {
+    JsonWriter writer = new JsonWriter(out);
+    writer.beginObject();
+    writer.name("log").beginObject();
+    writer.name("version").value("1.2");
+    writer.name("creator").beginObject()
+        .name("name").value("Stetho")
+        .name("version").value("")
+        .endObject();
+    writer.name("entries").beginArray();
+    EntryWriter entryWriter = new EntryWriter(writer, wallClockOffsetMs);
+    try {
+      mRecorder.replay(entryWriter);
+    } catch (WriteFailedException e) {
+      throw e.getCause();
+    }
+    entryWriter.writeInFlight();
+    writer.endArray();
+    writer.endObject();
+    writer.endObject();
+    writer.flush();
+  }
+
+  private boolean isInWindow(long timestampMs) {
+    return timestampMs >= mStartMs && timestampMs <= mEndMs;
+  }
+
+  private boolean matchesHost(String url) {
+    if (mHosts.isEmpty()) {
+      return true;
+    }
+    String host = Uri.parse(url).getHost();
+    if (host == null) {
+      return false;
+    }
+    host = host.toLowerCase(Locale.US);
+    for (int i = 0, N = mHosts.size(); i < N; i++) {
+      String filter = mHosts.get(i);
+      if (host.equals(filter) ||
+          (host.endsWith(filter) && host.charAt(host.length() - filter.length() - 1) == '.')) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean matchesMimeType(@Nullable NetworkEventReporter.InspectorResponse response) {
+    if (mMimeTypes == null) {
+      return true;
+    }
+    if (response == null) {
+      return false;
+    }
+    String contentType = response.firstHeaderValue("Content-Type");
+    return contentType != null && mMimeTypes.match(stripContentExtras(contentType)) != null;
+  }
+
+  private static String stripContentExtras(String contentType) {
+    int index = contentType.indexOf(';');
+    return (index >= 0 ? contentType.substring(0, index) : contentType).trim();
+  }
+
+  /**
+   * What has been replayed so far of a request which is yet to be written.
+   */
+  private static class Entry {
+    public final NetworkEventReporter.InspectorRequest request;
+    @Nullable public final byte[] requestBody;
+    public final long startMs;
+    public long lastMs;
+
+    @Nullable public NetworkEventReporter.InspectorResponse response;
+    public long responseMs;
+    public long dataLength;
+    public long encodedDataLength;
+
+    @Nullable public byte[] responseBody;
+    public boolean responseBodyBase64Encoded;
+    public boolean responseBodyGzipped;
+    public boolean responseBodyTruncated;
+
+    public boolean completed;
+    @Nullable public String errorText;
+
+    public Entry(
+        NetworkEventReporter.InspectorRequest request,
+        @Nullable byte[] requestBody,
+        long startMs) {
+      this.request = request;
+      this.requestBody = requestBody;
+      this.startMs = startMs;
+      this.lastMs = startMs;
+    }
+  }
+
+  private class EntryWriter implements NetworkFlightRecorder.Listener {
+    private final JsonWriter mWriter;
+    private final long mWallClockOffsetMs;
+    private final SimpleDateFormat mDateFormat =
+        new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+
+    /**
+     * Requests started but not yet written, in the order they started.
+     */
+    private final LinkedHashMap<String, Entry> mInFlight = new LinkedHashMap<>();
+
+    public EntryWriter(JsonWriter writer, long wallClockOffsetMs) {
+      mWriter = writer;
+      mWallClockOffsetMs = wallClockOffsetMs;
+      mDateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+
+    @Override
+    public void onRequestWillBeSent(
+        NetworkEventReporter.InspectorRequest request,
+        @Nullable byte[] body,
+        long timestampMs) {
+      Entry previous = mInFlight.remove(request.id());
+      if (previous != null) {
+        writeEntry(previous);
+      }
+      if (isInWindow(timestampMs) && matchesHost(request.url())) {
+        mInFlight.put(request.id(), new Entry(request, body, timestampMs));
+      }
+    }
+
+    @Override
+    public void onResponseReceived(
+        NetworkEventReporter.InspectorResponse response,
+        long timestampMs) {
+      Entry entry = mInFlight.get(response.requestId());
+      if (entry != null) {
+        if (matchesMimeType(response)) {
+          entry.response = response;
+          entry.responseMs = timestampMs;
+          entry.lastMs = timestampMs;
+        } else {
+          mInFlight.remove(response.requestId());
+        }
+      }
+    }
+
+    @Override
+    public void onDataReceived(
+        String requestId,
+        long timestampMs,
+        int dataLength,
+        int encodedDataLength) {
+      Entry entry = mInFlight.get(requestId);
+      if (entry != null) {
+        entry.dataLength += dataLength;
+        entry.encodedDataLength += encodedDataLength;
+        entry.lastMs = timestampMs;
+      }
+    }
+
+    @Override
+    public void onLoadingFinished(String requestId, long timestampMs) {
+      Entry entry = mInFlight.remove(requestId);
+      if (entry != null) {
+        entry.completed = true;
+        entry.lastMs = timestampMs;
+        writeEntry(entry);
+      }
+    }
+
+    @Override
+    public void onLoadingFailed(String requestId, long timestampMs, String errorText) {
+      Entry entry = mInFlight.remove(requestId);
+      if (entry != null) {
+        entry.completed = true;
+        entry.errorText = errorText;
+        entry.lastMs = timestampMs;
+        writeEntry(entry);
+      }
+    }
+
+    @Override
+    public void onResponseBody(
+        String requestId,
+        boolean base64Encode,
+        boolean gzipped,
+        byte[] body,
+        boolean truncated) {
+      Entry entry = mInFlight.get(requestId);
+      if (entry != null) {
+        entry.responseBody = body;
+        entry.responseBodyBase64Encoded = base64Encode;
+        entry.responseBodyGzipped = gzipped;
+        entry.responseBodyTruncated = truncated;
+      }
+    }
+
+    public void writeInFlight() throws IOException {
+      try {
+        for (Entry entry : mInFlight.values()) {
+          writeEntry(entry);
+        }
+      } catch (WriteFailedException e) {
+        throw e.getCause();
+      }
+      mInFlight.clear();
+    }
+
+    private void writeEntry(Entry entry) {
+      if (!matchesMimeType(entry.response)) {
+        return;
+      }
+      try {
+        writeEntryUnchecked(entry);
+      } catch (IOException e) {
+        throw new WriteFailedException(e);
+      }
+    }
+
+    private void writeEntryUnchecked(Entry entry) throws IOException {
+      JsonWriter writer = mWriter;
+      long waitMs = (entry.response != null ? entry.responseMs : entry.lastMs) - entry.startMs;
+      long receiveMs = entry.response != null ? entry.lastMs - entry.responseMs : 0;
+
+      writer.beginObject();
+      writer.name("startedDateTime").value(
+          mDateFormat.format(new Date(entry.startMs + mWallClockOffsetMs)));
+      writer.name("time").value(waitMs + receiveMs);
+      writeRequest(entry);
+      writeResponse(entry);
+      writer.name("cache").beginObject().endObject();
+      writer.name("timings").beginObject()
+          .name("blocked").value(-1)
+          .name("dns").value(-1)
+          .name("connect").value(-1)
+          .name("send").value(0)
+          .name("wait").value(waitMs)
+          .name("receive").value(receiveMs)
+          .endObject();
+      if (entry.response != null) {
+        writer.name("connection").value(String.valueOf(entry.response.connectionId()));
+      }
+      if (entry.errorText != null) {
+        writer.name("comment").value(entry.errorText);
+      } else if (!entry.completed) {
+        writer.name("comment").value("Incomplete");
+      }
+      writer.endObject();
+    }
+
+    private void writeRequest(Entry entry) throws IOException {
+      JsonWriter writer = mWriter;
+      NetworkEventReporter.InspectorRequest request = entry.request;
+      writer.name("request").beginObject();
+      writer.name("method").value(request.method());
+      writer.name("url").value(request.url());
+      writer.name("httpVersion").value("");
+      writer.name("cookies").beginArray().endArray();
+      writeHeaders(request);
+      writeQueryString(request.url());
+      if (entry.requestBody != null) {
+        String contentType = request.firstHeaderValue("Content-Type");
+        writer.name("postData").beginObject()
+            .name("mimeType").value(contentType != null ? contentType : "")
+            .name("text").value(Utf8Charset.decodeUTF8(entry.requestBody))
+            .endObject();
+      }
+      writer.name("headersSize").value(-1);
+      long bodySize;
+      if (entry.requestBody == null) {
+        bodySize = 0;
+      } else if (entry.requestBody.length < mRecorder.getMaxBodyBytes()) {
+        bodySize = entry.requestBody.length;
+      } else {
+        // Possibly cut off by the recorder.
+        bodySize = -1;
+      }
+      writer.name("bodySize").value(bodySize);
+      writer.endObject();
+    }
+
+    private void writeResponse(Entry entry) throws IOException {
+      JsonWriter writer = mWriter;
+      NetworkEventReporter.InspectorResponse response = entry.response;
+      writer.name("response").beginObject();
+      writer.name("status").value(response != null ? response.statusCode() : 0);
+      writer.name("statusText").value(response != null ? response.reasonPhrase() : "");
+      writer.name("httpVersion").value("");
+      writer.name("cookies").beginArray().endArray();
+      if (response != null) {
+        writeHeaders(response);
+      } else {
+        writer.name("headers").beginArray().endArray();
+      }
+
+      String contentType = response != null ? response.firstHeaderValue("Content-Type") : null;
+      writer.name("content").beginObject();
+      writer.name("size").value(entry.dataLength);
+      writer.name("mimeType").value(contentType != null ? contentType : "x-unknown");
+      if (response != null) {
+        writeContentText(entry);
+      }
+      writer.endObject();
+
+      String location = response != null ? response.firstHeaderValue("Location") : null;
+      writer.name("redirectURL").value(location != null ? location : "");
+      writer.name("headersSize").value(-1);
+      writer.name("bodySize").value(entry.encodedDataLength > 0 ? entry.encodedDataLength : -1);
+      writer.endObject();
+    }
+
+    private void writeHeaders(NetworkEventReporter.InspectorHeaders headers) throws IOException {
+      JsonWriter writer = mWriter;
+      writer.name("headers").beginArray();
+      for (int i = 0, N = headers.headerCount(); i < N; i++) {
+        writer.beginObject()
+            .name("name").value(headers.headerName(i))
+            .name("value").value(headers.headerValue(i))
+            .endObject();
+      }
+      writer.endArray();
+    }
+
+    private void writeQueryString(String url) throws IOException {
+      JsonWriter writer = mWriter;
+      writer.name("queryString").beginArray();
+      int start = url.indexOf('?');
+      if (start >= 0) {
+        int end = url.indexOf('#', start);
+        String query = url.substring(start + 1, end >= 0 ? end : url.length());
+        for (String parameter : query.split("&")) {
+          if (parameter.length() == 0) {
+            continue;
+          }
+          int equals = parameter.indexOf('=');
+          writer.beginObject()
+              .name("name").value(
+                  decodeQueryComponent(equals >= 0 ? parameter.substring(0, equals) : parameter))
+              .name("value").value(
+                  equals >= 0 ? decodeQueryComponent(parameter.substring(equals + 1)) : "")
+              .endObject();
+        }
+      }
+      writer.endArray();
+    }
+
+    /**
+     * Adds {@code text} (and {@code encoding} and {@code comment} if needed) to the response
+     * content, from the body the recorder captured or else from the body store.
+     */
+    private void writeContentText(Entry entry) throws IOException {
+      JsonWriter writer = mWriter;
+      String requestId = entry.request.id();
+      boolean truncated;
+      if (entry.responseBody != null) {
+        truncated = entry.responseBodyTruncated;
+        if (entry.responseBodyBase64Encoded) {
+          writer.name("text").base64Value(entry.responseBody, 0, entry.responseBody.length);
+          writer.name("encoding").value("base64");
+        } else {
+          InputStream in = new ByteArrayInputStream(entry.responseBody);
+          if (entry.responseBodyGzipped) {
+            try {
+              in = new GZIPInputStream(in);
+            } catch (IOException e) {
+              LogRedirector.w(TAG, "Failed to inflate response body for request " + requestId, e);
+              return;
+            }
+          }
+          writer.name("text").value(
+              new InputStreamReader(new SafeInputStream(in, requestId), Utf8Charset.NAME));
+        }
+      } else if (mBodyFileManager != null) {
+        ResponseBodyData bodyData;
+        try {
+          bodyData = mBodyFileManager.openFile(requestId);
+        } catch (FileNotFoundException e) {
+          // Not captured, or since evicted.
+          return;
+        } catch (IOException e) {
+          LogRedirector.w(TAG, "Failed to open response body for request " + requestId, e);
+          return;
+        }
+        truncated = bodyData.truncated;
+        if (bodyData.dataStream != null) {
+          try {
+            writer.name("text").value(
+                new InputStreamReader(
+                    new SafeInputStream(bodyData.dataStream, requestId),
+                    Utf8Charset.NAME));
+          } finally {
+            bodyData.dataStream.close();
+          }
+        } else {
+          writer.name("text").value(bodyData.data);
+        }
+        if (bodyData.base64Encoded) {
+          writer.name("encoding").value("base64");
+        }
+      } else {
+        return;
+      }
+      if (truncated) {
+        writer.name("comment").value("Truncated");
+      }
+    }
+  }
+
+  private static String decodeQueryComponent(String component) {
+    try {
+      return URLDecoder.decode(component, Utf8Charset.NAME);
+    } catch (IllegalArgumentException e) {
+      // Malformed escape, keep it as is.
+      return component;
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Failing to read a body halfway through would leave invalid JSON behind, so end the body
+   * early instead.  This also covers gzipped bodies cut off by the capture limits, which end
+   * without their trailer.
+   */
+  private static class SafeInputStream extends FilterInputStream {
+    private final String mRequestId;
+
+    public SafeInputStream(InputStream in, String requestId) {
+      super(in);
+      mRequestId = requestId;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) {
+      try {
+        return in.read(buffer, offset, count);
+      } catch (EOFException e) {
+        return -1;
+      } catch (IOException e) {
+        LogRedirector.w(TAG, "Failed to read response body for request " + mRequestId, e);
+        return -1;
+      }
+    }
+  }
+
+  /**
+   * Carries an {@link IOException} out of the {@link NetworkFlightRecorder.Listener} callbacks,
+   * aborting the replay.
+   */
+  private static class WriteFailedException extends RuntimeException {
+    public WriteFailedException(IOException cause) {
+      super(cause);
+    }
+
+    @Override
+    public IOException getCause() {
+      return (IOException) super.getCause();
+    }
+  }
+}
@@ -8,8 +8,11 @@
 package com.facebook.stetho.inspector.network;
 
 import android.os.SystemClock;
+import com.facebook.stetho.common.LogRedirector;
 import com.facebook.stetho.common.Utf8Charset;
 import com.facebook.stetho.inspector.console.CLog;
+import com.facebook.stetho.inspector.jsonrpc.JsonRpcPeer;
+import com.facebook.stetho.inspector.protocol.DomainExecutors;
 import com.facebook.stetho.inspector.protocol.module.Console;
 import com.facebook.stetho.inspector.protocol.module.Network;
 import com.facebook.stetho.inspector.protocol.module.Page;
@@ -18,10 +21,17 @@ import org.json.JSONObject;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.NotYetConnectedException;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -31,11 +41,81 @@ import java.util.concurrent.atomic.AtomicInteger;
  * implementation will be automatically wired up to them.
  */
 public class NetworkEventReporterImpl implements NetworkEventReporter {
+  private static final String TAG = "NetworkEventReporterImpl";
+
+  /**
+   * Default maximum time that {@code Network.dataReceived} progress for a request is held back
+   * before being reported.
+   */
+  public static final long DEFAULT_DATA_COALESCING_WINDOW_MS = 100;
+
+  /**
+   * Default maximum number of bytes of {@code Network.dataReceived} progress for a request that
+   * are held back before being reported.
+   */
+  public static final int DEFAULT_DATA_COALESCING_WINDOW_BYTES = 64 * 1024;
+
+  /**
+   * Upper bound on the number of requests with held back progress.  Beyond this progress is
+   * reported without coalescing until requests finish, fail or are abandoned.
+   */
+  private static final int MAX_COALESCING_REQUESTS = 256;
+
+  /**
+   * Requests which neither finish nor fail (for instance because the app never reads or closes
+   * the response) stop holding a coalescing slot after this long without progress.
+   */
+  private static final long ABANDONED_REQUEST_TIMEOUT_MS = 60 * 1000;
+
+  /**
+   * Likewise for requests with a {@link BodyCapturePolicy} decision awaiting their response
+   * stream.  Once this many are pending, decisions older than
+   * {@link #ABANDONED_REQUEST_TIMEOUT_MS} are dropped to make room, and if that isn't enough no
+   * body is captured for the response, since we can't know how much the policy would allow.
+   */
+  private static final int MAX_PENDING_CAPTURE_LIMITS = 256;
+
   private final AtomicInteger mNextRequestId = new AtomicInteger(0);
   @Nullable
   private ResourceTypeHelper mResourceTypeHelper;
 
-  private static NetworkEventReporter sInstance;
+  private final ConcurrentHashMap<String, DataAccumulator> mPendingData =
+      new ConcurrentHashMap<>();
+  private volatile long mDataCoalescingWindowMs = DEFAULT_DATA_COALESCING_WINDOW_MS;
+  private volatile int mDataCoalescingWindowBytes = DEFAULT_DATA_COALESCING_WINDOW_BYTES;
+
+  /**
+   * Reports progress held back for requests that go quiet before their window fills, and drops
+   * abandoned requests from {@link #mPendingData}.
+   */
+  @GuardedBy("mPendingData")
+  @Nullable
+  private ScheduledExecutorService mFlushExecutor;
+
+  @GuardedBy("mPendingData")
+  private boolean mIsFlushScheduled;
+
+  private final Runnable mFlushPendingDataRunnable = new Runnable() {
+    @Override
+    public void run() {
+      flushExpiredData();
+    }
+  };
+
+  @Nullable
+  private volatile BodyCapturePolicy mBodyCapturePolicy;
+
+  /**
+   * Capture limits decided in {@link #responseHeadersReceived} for use by
+   * {@link #interpretResponseStream}, while a policy is installed.
+   */
+  private final ConcurrentHashMap<String, CaptureLimit> mCaptureLimits =
+      new ConcurrentHashMap<>();
+
+  @Nullable
+  private volatile NetworkFlightRecorder mFlightRecorder;
+
+  private static NetworkEventReporterImpl sInstance;
 
   private NetworkEventReporterImpl() {
   }
@@ -51,10 +131,75 @@ public class NetworkEventReporterImpl implements NetworkEventReporter {
     return sInstance;
   }
 
+  /**
+   * Configure how {@link #dataReceived} and {@link #dataSent} calls are coalesced into
+   * {@code Network.dataReceived} events.  Progress for a request is reported once either limit
+   * is reached, and always before the request finishes or fails.  Pass 0 for both to report
+   * every call individually.
+   *
+   * @param windowMs Maximum time to hold back progress.
+   * @param windowBytes Maximum number of bytes to hold back.
+   */
+  public void setDataCoalescingWindow(long windowMs, int windowBytes) {
+    mDataCoalescingWindowMs = windowMs;
+    mDataCoalescingWindowBytes = windowBytes;
+  }
+
+  /**
+   * Decide per response how much of its body to keep for {@code Network.getResponseBody}.
+   *
+   * @param policy The policy, or null to capture every body (the default).
+   */
+  public void setBodyCapturePolicy(@Nullable BodyCapturePolicy policy) {
+    mBodyCapturePolicy = policy;
+    mCaptureLimits.clear();
+  }
+
+  /**
+   * Record network events even while no peer is attached, for replay to the first one that
+   * enables the Network domain.  Note that this keeps {@link #isEnabled()} true, so the network
+   * stack integrations report every request.
+   *
+   * @param recorder The recorder, or null to stop recording (the default).
+   */
+  public void setFlightRecorder(@Nullable NetworkFlightRecorder recorder) {
+    mFlightRecorder = recorder;
+  }
+
+  @Nullable
+  public NetworkFlightRecorder getFlightRecorder() {
+    return mFlightRecorder;
+  }
+
+  /**
+   * Called by {@link NetworkPeerManager} when the first peer enables the Network domain.  The
+   * recorded events are sent to {@code peer} before {@code registerPeer} makes it receive live
+   * ones, and each event is sent exactly once (see {@link NetworkFlightRecorder#replay(
+   * NetworkFlightRecorder.Listener, Runnable)}).  Recorded bodies are restored afterwards, once
+   * no lock is held.
+   */
+  static void replayFlightRecording(
+      NetworkPeerManager peerManager,
+      JsonRpcPeer peer,
+      Runnable registerPeer) {
+    NetworkEventReporterImpl reporter;
+    synchronized (NetworkEventReporterImpl.class) {
+      reporter = sInstance;
+    }
+    NetworkFlightRecorder recorder = reporter != null ? reporter.mFlightRecorder : null;
+    if (recorder == null) {
+      registerPeer.run();
+      return;
+    }
+    FlightRecordingReplayer replayer = reporter.new FlightRecordingReplayer(peerManager, peer);
+    recorder.replay(replayer, registerPeer);
+    replayer.restoreResponseBodies();
+  }
+
   @Override
   public boolean isEnabled() {
     NetworkPeerManager peerManager = getPeerManagerIfEnabled();
-    return peerManager != null;
+    return peerManager != null || mFlightRecorder != null;
   }
 
   @Nullable
@@ -69,93 +214,173 @@ public class NetworkEventReporterImpl implements NetworkEventReporter {
   @Override
   public void requestWillBeSent(InspectorRequest request) {
     NetworkPeerManager peerManager = getPeerManagerIfEnabled();
+    NetworkFlightRecorder recorder = mFlightRecorder;
+    if (peerManager == null && recorder == null) {
+      return;
+    }
+    long now = stethoNow();
+    byte[] body = peerManager != null || recorder.getMaxBodyBytes() > 0
+        ? readBody(peerManager, request)
+        : null;
+    if (recorder != null) {
+      // Whether to send the event live is decided along with recording it, so that it isn't
+      // also replayed to a peer that is added meanwhile.
+      synchronized (recorder) {
+        recorder.recordRequestWillBeSent(request, body, now);
+        peerManager = getPeerManagerIfEnabled();
+      }
+    }
     if (peerManager != null) {
-      Network.Request requestJSON = new Network.Request();
-      requestJSON.url = request.url();
-      requestJSON.method = request.method();
-      requestJSON.headers = formatHeadersAsJSON(request);
-      requestJSON.postData = readBodyAsString(peerManager, request);
-
-      // Hack to use the initiator of SCRIPT to generate a fake call stack that includes
-      // the request's "friendly" name.
-      String requestFriendlyName = request.friendlyName();
-      Integer requestPriority = request.friendlyNameExtra();
-      Network.Initiator initiatorJSON = new Network.Initiator();
-      initiatorJSON.type = Network.InitiatorType.SCRIPT;
-      initiatorJSON.stackTrace = new ArrayList<Console.CallFrame>();
-      initiatorJSON.stackTrace.add(new Console.CallFrame(requestFriendlyName,
-          requestFriendlyName,
-          requestPriority != null ? requestPriority : 0 /* lineNumber */,
-          0 /* columnNumber */));
-
-      Network.RequestWillBeSentParams params = new Network.RequestWillBeSentParams();
-      params.requestId = request.id();
-      params.frameId = "1";
-      params.loaderId = "1";
-      params.documentURL = request.url();
-      params.request = requestJSON;
-      params.timestamp = stethoNow() / 1000.0;
-      params.initiator = initiatorJSON;
-      params.redirectResponse = null;
+      peerManager.sendNotificationToPeers(
+          "Network.requestWillBeSent",
+          createRequestWillBeSentParams(request, body, now));
+    }
+  }
 
-      // Type is now required as of at least WebKit Inspector rev @188492.  If you don't send
-      // it, Chrome will refuse to draw the row in the Network tab until the response is
-      // received (providing the type).  This delay is very noticable on slow networks.
-      params.type = Page.ResourceType.OTHER;
+  private static Network.RequestWillBeSentParams createRequestWillBeSentParams(
+      InspectorRequest request,
+      @Nullable byte[] body,
+      long timestampMs) {
+    Network.Request requestJSON = new Network.Request();
+    requestJSON.url = request.url();
+    requestJSON.method = request.method();
+    requestJSON.headers = formatHeadersAsJSON(request);
+    requestJSON.postData = body != null ? new String(body, Utf8Charset.INSTANCE) : null;
 
-      peerManager.sendNotificationToPeers("Network.requestWillBeSent", params);
-    }
+    // Hack to use the initiator of SCRIPT to generate a fake call stack that includes
+    // the request's "friendly" name.
+    String requestFriendlyName = request.friendlyName();
+    Integer requestPriority = request.friendlyNameExtra();
+    Network.Initiator initiatorJSON = new Network.Initiator();
+    initiatorJSON.type = Network.InitiatorType.SCRIPT;
+    initiatorJSON.stackTrace = new ArrayList<Console.CallFrame>();
+    initiatorJSON.stackTrace.add(new Console.CallFrame(requestFriendlyName,
+        requestFriendlyName,
+        requestPriority != null ? requestPriority : 0 /* lineNumber */,
+        0 /* columnNumber */));
+
+    Network.RequestWillBeSentParams params = new Network.RequestWillBeSentParams();
+    params.requestId = request.id();
+    params.frameId = "1";
+    params.loaderId = "1";
+    params.documentURL = request.url();
+    params.request = requestJSON;
+    params.timestamp = timestampMs / 1000.0;
+    params.initiator = initiatorJSON;
+    params.redirectResponse = null;
+
+    // Type is now required as of at least WebKit Inspector rev @188492.  If you don't send
+    // it, Chrome will refuse to draw the row in the Network tab until the response is
+    // received (providing the type).  This delay is very noticable on slow networks.
+    params.type = Page.ResourceType.OTHER;
+    return params;
   }
 
   @Nullable
-  private static String readBodyAsString(
-      NetworkPeerManager peerManager,
+  private static byte[] readBody(
+      @Nullable NetworkPeerManager peerManager,
       InspectorRequest request) {
     try {
-      byte[] body = request.body();
-      if (body != null) {
-        return new String(body, Utf8Charset.INSTANCE);
-      }
+      return request.body();
     } catch (IOException | OutOfMemoryError e) {
-      CLog.writeToConsole(
-          peerManager,
-          Console.MessageLevel.WARNING,
-          Console.MessageSource.NETWORK,
-          "Could not reproduce POST body: " + e);
+      if (peerManager != null) {
+        CLog.writeToConsole(
+            peerManager,
+            Console.MessageLevel.WARNING,
+            Console.MessageSource.NETWORK,
+            "Could not reproduce POST body: " + e);
+      }
+      return null;
     }
-    return null;
   }
 
   @Override
   public void responseHeadersReceived(InspectorResponse response) {
     NetworkPeerManager peerManager = getPeerManagerIfEnabled();
+    NetworkFlightRecorder recorder = mFlightRecorder;
+    if (peerManager == null && recorder == null) {
+      return;
+    }
+    long now = stethoNow();
+    if (recorder != null) {
+      synchronized (recorder) {
+        recorder.recordResponseReceived(response, now);
+        peerManager = getPeerManagerIfEnabled();
+      }
+    }
     if (peerManager != null) {
-      Network.Response responseJSON = new Network.Response();
-      responseJSON.url = response.url();
-      responseJSON.status = response.statusCode();
-      responseJSON.statusText = response.reasonPhrase();
-      responseJSON.headers = formatHeadersAsJSON(response);
-      String contentType = getContentType(response);
-      responseJSON.mimeType = contentType != null ?
-          getResourceTypeHelper().stripContentExtras(contentType) :
-          "application/octet-stream";
-      responseJSON.connectionReused = response.connectionReused();
-      responseJSON.connectionId = response.connectionId();
-      responseJSON.fromDiskCache = response.fromDiskCache();
-      Network.ResponseReceivedParams receivedParams = new Network.ResponseReceivedParams();
-      receivedParams.requestId = response.requestId();
-      receivedParams.frameId = "1";
-      receivedParams.loaderId = "1";
-      receivedParams.timestamp = stethoNow() / 1000.0;
-      receivedParams.response = responseJSON;
-      AsyncPrettyPrinter asyncPrettyPrinter =
-          initAsyncPrettyPrinterForResponse(response, peerManager);
-      receivedParams.type =
-          determineResourceType(asyncPrettyPrinter, contentType, getResourceTypeHelper());
-      peerManager.sendNotificationToPeers("Network.responseReceived", receivedParams);
+      peerManager.sendNotificationToPeers(
+          "Network.responseReceived",
+          createResponseReceivedParams(peerManager, response, now));
+    }
+    decideCaptureLimit(response);
+  }
+
+  private Network.ResponseReceivedParams createResponseReceivedParams(
+      NetworkPeerManager peerManager,
+      InspectorResponse response,
+      long timestampMs) {
+    Network.Response responseJSON = new Network.Response();
+    responseJSON.url = response.url();
+    responseJSON.status = response.statusCode();
+    responseJSON.statusText = response.reasonPhrase();
+    responseJSON.headers = formatHeadersAsJSON(response);
+    String contentType = getContentType(response);
+    responseJSON.mimeType = contentType != null ?
+        getResourceTypeHelper().stripContentExtras(contentType) :
+        "application/octet-stream";
+    responseJSON.connectionReused = response.connectionReused();
+    responseJSON.connectionId = response.connectionId();
+    responseJSON.fromDiskCache = response.fromDiskCache();
+    Network.ResponseReceivedParams receivedParams = new Network.ResponseReceivedParams();
+    receivedParams.requestId = response.requestId();
+    receivedParams.frameId = "1";
+    receivedParams.loaderId = "1";
+    receivedParams.timestamp = timestampMs / 1000.0;
+    receivedParams.response = responseJSON;
+    AsyncPrettyPrinter asyncPrettyPrinter =
+        initAsyncPrettyPrinterForResponse(response, peerManager);
+    receivedParams.type =
+        determineResourceType(asyncPrettyPrinter, contentType, getResourceTypeHelper());
+    return receivedParams;
+  }
+
+  private void decideCaptureLimit(InspectorResponse response) {
+    BodyCapturePolicy policy = mBodyCapturePolicy;
+    if (policy != null) {
+      int limit = policy.getCaptureLimit(response);
+      long now = SystemClock.elapsedRealtime();
+      if (mCaptureLimits.size() >= MAX_PENDING_CAPTURE_LIMITS) {
+        removeAbandonedCaptureLimits(now);
+      }
+      if (mCaptureLimits.size() < MAX_PENDING_CAPTURE_LIMITS) {
+        mCaptureLimits.put(response.requestId(), new CaptureLimit(limit, now));
+      }
+    }
+  }
+
+  private void removeAbandonedCaptureLimits(long now) {
+    Iterator<CaptureLimit> iter = mCaptureLimits.values().iterator();
+    while (iter.hasNext()) {
+      if (now - iter.next().decidedAtMs >= ABANDONED_REQUEST_TIMEOUT_MS) {
+        iter.remove();
+      }
     }
   }
 
+  private int getCaptureLimit(String requestId) {
+    CaptureLimit captureLimit = mCaptureLimits.remove(requestId);
+    if (captureLimit != null) {
+      return captureLimit.limit;
+    }
+    // Either no policy is installed, or there were too many pending decisions to keep this one
+    // (or the policy was installed after the response arrived), in which case capture nothing
+    // rather than more than the policy might allow.
+    return mBodyCapturePolicy == null
+        ? BodyCapturePolicy.CAPTURE_ALL
+        : BodyCapturePolicy.CAPTURE_NONE;
+  }
+
   @Nullable
   private static AsyncPrettyPrinter initAsyncPrettyPrinterForResponse(
       InspectorResponse response,
@@ -210,11 +435,31 @@ public class NetworkEventReporterImpl implements NetworkEventReporter {
       @Nullable InputStream availableInputStream,
       ResponseHandler responseHandler) {
     NetworkPeerManager peerManager = getPeerManagerIfEnabled();
+    NetworkFlightRecorder recorder = mFlightRecorder;
+    boolean recordOnly = peerManager == null && recorder != null;
+    if (recordOnly) {
+      // There are no peers to report errors to, but the streams need a peer manager anyway.
+      peerManager = NetworkPeerManager.getOrCreateInstance(recorder.getContext());
+    }
     if (peerManager != null) {
+      int maxBodyBytes = getCaptureLimit(requestId);
       if (availableInputStream == null) {
         responseHandler.onEOF();
         return null;
       }
+      if (recordOnly) {
+        maxBodyBytes = Math.min(maxBodyBytes, recorder.getMaxBodyBytes());
+      }
+      if (maxBodyBytes == BodyCapturePolicy.CAPTURE_NONE) {
+        // Still report the reads, but leave the body where it is.
+        return new ResponseHandlingInputStream(
+            availableInputStream,
+            requestId,
+            null /* outputStream */,
+            null /* decompressedCounter */,
+            peerManager,
+            responseHandler);
+      }
       Page.ResourceType resourceType =
           contentType != null ?
               getResourceTypeHelper().determineResourceType(contentType) :
@@ -227,11 +472,31 @@ public class NetworkEventReporterImpl implements NetworkEventReporter {
         base64Encode = true;
       }
 
+      // Gzipped bodies are stored as received and only decompressed if they are looked at.
+      boolean deferDecompression =
+          !base64Encode && DecompressionHelper.canDeferDecompression(contentEncoding);
+
       try {
-        OutputStream fileOutputStream =
-            peerManager.getResponseBodyFileManager().openResponseBodyFile(
+        OutputStream fileOutputStream = recordOnly
+            ? recorder.openResponseBody(
                 requestId,
-                base64Encode);
+                base64Encode,
+                deferDecompression,
+                maxBodyBytes)
+            : peerManager.getResponseBodyFileManager().openResponseBodyFile(
+                requestId,
+                base64Encode,
+                deferDecompression,
+                maxBodyBytes);
+        if (deferDecompression) {
+          return DecompressionHelper.teeInputWithDeferredDecompression(
+              peerManager,
+              requestId,
+              availableInputStream,
+              fileOutputStream,
+              contentEncoding,
+              responseHandler);
+        }
         return DecompressionHelper.teeInputWithDecompression(
             peerManager,
             requestId,
@@ -261,32 +526,69 @@ public class NetworkEventReporterImpl implements NetworkEventReporter {
   }
 
   private void loadingFinished(String requestId) {
+    mCaptureLimits.remove(requestId);
     NetworkPeerManager peerManager = getPeerManagerIfEnabled();
+    NetworkFlightRecorder recorder = mFlightRecorder;
+    long now = stethoNow();
+    if (recorder != null) {
+      synchronized (recorder) {
+        recorder.recordLoadingFinished(requestId, now);
+        peerManager = getPeerManagerIfEnabled();
+      }
+    }
+    flushPendingData(peerManager, requestId);
     if (peerManager != null) {
-      Network.LoadingFinishedParams finishedParams = new Network.LoadingFinishedParams();
-      finishedParams.requestId = requestId;
-      finishedParams.timestamp = stethoNow() / 1000.0;
-      peerManager.sendNotificationToPeers("Network.loadingFinished", finishedParams);
+      peerManager.sendNotificationToPeers(
+          "Network.loadingFinished",
+          createLoadingFinishedParams(requestId, now));
     }
   }
 
+  private static Network.LoadingFinishedParams createLoadingFinishedParams(
+      String requestId,
+      long timestampMs) {
+    Network.LoadingFinishedParams finishedParams = new Network.LoadingFinishedParams();
+    finishedParams.requestId = requestId;
+    finishedParams.timestamp = timestampMs / 1000.0;
+    return finishedParams;
+  }
+
   @Override
   public void responseReadFailed(String requestId, String errorText) {
     loadingFailed(requestId, errorText);
   }
 
   private void loadingFailed(String requestId, String errorText) {
+    mCaptureLimits.remove(requestId);
     NetworkPeerManager peerManager = getPeerManagerIfEnabled();
+    NetworkFlightRecorder recorder = mFlightRecorder;
+    long now = stethoNow();
+    if (recorder != null) {
+      synchronized (recorder) {
+        recorder.recordLoadingFailed(requestId, now, errorText);
+        peerManager = getPeerManagerIfEnabled();
+      }
+    }
+    flushPendingData(peerManager, requestId);
     if (peerManager != null) {
-      Network.LoadingFailedParams failedParams = new Network.LoadingFailedParams();
-      failedParams.requestId = requestId;
-      failedParams.timestamp = stethoNow() / 1000.0;
-      failedParams.errorText = errorText;
-      failedParams.type = Page.ResourceType.OTHER;
-      peerManager.sendNotificationToPeers("Network.loadingFailed", failedParams);
+      peerManager.sendNotificationToPeers(
+          "Network.loadingFailed",
+          createLoadingFailedParams(requestId, now, errorText));
     }
   }
 
+  private static Network.LoadingFailedParams createLoadingFailedParams(
+      String requestId,
+      long timestampMs,
+      String errorText) {
+    Network.LoadingFailedParams failedParams = new Network.LoadingFailedParams();
+    failedParams.requestId = requestId;
+    failedParams.timestamp = timestampMs / 1000.0;
+    failedParams.errorText = errorText;
+    failedParams.type = Page.ResourceType.OTHER;
+    return failedParams;
+  }
+
   @Override
   public void dataSent(
       String requestId,
@@ -303,15 +605,195 @@ public class NetworkEventReporterImpl implements NetworkEventReporter {
       String requestId,
       int dataLength,
       int encodedDataLength) {
-    NetworkPeerManager peerManager = getPeerManagerIfEnabled();
+    long now = stethoNow();
+    NetworkFlightRecorder recorder = mFlightRecorder;
+    NetworkPeerManager peerManager;
+    if (recorder != null) {
+      synchronized (recorder) {
+        recorder.recordDataReceived(requestId, now, dataLength, encodedDataLength);
+        peerManager = getPeerManagerIfEnabled();
+      }
+    } else {
+      peerManager = getPeerManagerIfEnabled();
+    }
     if (peerManager != null) {
-      Network.DataReceivedParams dataReceivedParams = new Network.DataReceivedParams();
-      dataReceivedParams.requestId = requestId;
-      dataReceivedParams.timestamp = stethoNow() / 1000.0;
-      dataReceivedParams.dataLength = dataLength;
-      dataReceivedParams.encodedDataLength = encodedDataLength;
-      peerManager.sendNotificationToPeers("Network.dataReceived", dataReceivedParams);
+      DataAccumulator accumulator = getDataAccumulator(requestId);
+      if (accumulator == null) {
+        sendDataReceived(peerManager, requestId, now, dataLength, encodedDataLength);
+        return;
+      }
+      int pendingDataLength = dataLength;
+      int pendingEncodedDataLength = encodedDataLength;
+      boolean flush;
+      synchronized (accumulator) {
+        if (accumulator.removed) {
+          // Expired (or finished) concurrently, report this progress directly.
+          flush = true;
+        } else {
+          accumulator.add(now, dataLength, encodedDataLength);
+          flush = accumulator.isWindowFull(
+              now,
+              mDataCoalescingWindowMs,
+              mDataCoalescingWindowBytes);
+          if (flush) {
+            pendingDataLength = accumulator.dataLength;
+            pendingEncodedDataLength = accumulator.encodedDataLength;
+            accumulator.reset();
+          }
+        }
+      }
+      if (flush) {
+        sendDataReceived(
+            peerManager,
+            requestId,
+            now,
+            pendingDataLength,
+            pendingEncodedDataLength);
+      } else {
+        scheduleFlush();
+      }
+    }
+  }
+
+  /**
+   * Returns the accumulator for {@code requestId}, creating it if necessary, or null if
+   * progress should be reported immediately.
+   */
+  @Nullable
+  private DataAccumulator getDataAccumulator(String requestId) {
+    if (mDataCoalescingWindowMs <= 0 && mDataCoalescingWindowBytes <= 0) {
+      return null;
+    }
+    DataAccumulator accumulator = mPendingData.get(requestId);
+    if (accumulator == null) {
+      if (mPendingData.size() >= MAX_COALESCING_REQUESTS) {
+        return null;
+      }
+      accumulator = new DataAccumulator();
+      DataAccumulator existing = mPendingData.putIfAbsent(requestId, accumulator);
+      if (existing != null) {
+        accumulator = existing;
+      }
+    }
+    return accumulator;
+  }
+
+  private void flushPendingData(@Nullable NetworkPeerManager peerManager, String requestId) {
+    DataAccumulator accumulator = mPendingData.remove(requestId);
+    if (accumulator != null) {
+      long lastUpdate;
+      int pendingDataLength;
+      int pendingEncodedDataLength;
+      synchronized (accumulator) {
+        accumulator.removed = true;
+        lastUpdate = accumulator.lastUpdate;
+        pendingDataLength = accumulator.dataLength;
+        pendingEncodedDataLength = accumulator.encodedDataLength;
+        accumulator.reset();
+      }
+      if (peerManager != null && (pendingDataLength > 0 || pendingEncodedDataLength > 0)) {
+        sendDataReceived(
+            peerManager,
+            requestId,
+            lastUpdate,
+            pendingDataLength,
+            pendingEncodedDataLength);
+      }
+    }
+  }
+
+  private void scheduleFlush() {
+    synchronized (mPendingData) {
+      scheduleFlushLocked(mDataCoalescingWindowMs);
+    }
+  }
+
+  @GuardedBy("mPendingData")
+  private void scheduleFlushLocked(long delayMs) {
+    if (!mIsFlushScheduled && !mPendingData.isEmpty()) {
+      if (mFlushExecutor == null) {
+        mFlushExecutor = DomainExecutors.newSerialScheduledExecutor("NetworkDataCoalescing");
+      }
+      mIsFlushScheduled = true;
+      mFlushExecutor.schedule(
+          mFlushPendingDataRunnable,
+          Math.max(delayMs, 1),
+          TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Report progress whose window has elapsed without further data arriving to fill it, and
+   * forget requests that have been quiet for {@link #ABANDONED_REQUEST_TIMEOUT_MS}.
+   */
+  private void flushExpiredData() {
+    synchronized (mPendingData) {
+      mIsFlushScheduled = false;
     }
+    long now = stethoNow();
+    long windowMs = mDataCoalescingWindowMs;
+    long nextDelayMs = ABANDONED_REQUEST_TIMEOUT_MS;
+    NetworkPeerManager peerManager = getPeerManagerIfEnabled();
+    Iterator<Map.Entry<String, DataAccumulator>> iter = mPendingData.entrySet().iterator();
+    while (iter.hasNext()) {
+      Map.Entry<String, DataAccumulator> entry = iter.next();
+      DataAccumulator accumulator = entry.getValue();
+      long lastUpdate;
+      int pendingDataLength = 0;
+      int pendingEncodedDataLength = 0;
+      synchronized (accumulator) {
+        lastUpdate = accumulator.lastUpdate;
+        if (accumulator.hasPendingData()) {
+          if (now - accumulator.windowStart >= windowMs) {
+            pendingDataLength = accumulator.dataLength;
+            pendingEncodedDataLength = accumulator.encodedDataLength;
+            accumulator.reset();
+          } else {
+            nextDelayMs = Math.min(nextDelayMs, accumulator.windowStart + windowMs - now);
+          }
+        } else if (now - lastUpdate >= ABANDONED_REQUEST_TIMEOUT_MS) {
+          accumulator.removed = true;
+          iter.remove();
+        } else {
+          nextDelayMs = Math.min(nextDelayMs, lastUpdate + ABANDONED_REQUEST_TIMEOUT_MS - now);
+        }
+      }
+      if (peerManager != null && (pendingDataLength > 0 || pendingEncodedDataLength > 0)) {
+        sendDataReceived(
+            peerManager,
+            entry.getKey(),
+            lastUpdate,
+            pendingDataLength,
+            pendingEncodedDataLength);
+      }
+    }
+    synchronized (mPendingData) {
+      scheduleFlushLocked(nextDelayMs);
+    }
+  }
+
+  private static void sendDataReceived(
+      NetworkPeerManager peerManager,
+      String requestId,
+      long timestamp,
+      int dataLength,
+      int encodedDataLength) {
+    peerManager.sendNotificationToPeers(
+        "Network.dataReceived",
+        createDataReceivedParams(requestId, timestamp, dataLength, encodedDataLength));
+  }
+
+  private static Network.DataReceivedParams createDataReceivedParams(
+      String requestId,
+      long timestamp,
+      int dataLength,
+      int encodedDataLength) {
+    Network.DataReceivedParams dataReceivedParams = new Network.DataReceivedParams();
+    dataReceivedParams.requestId = requestId;
+    dataReceivedParams.timestamp = timestamp / 1000.0;
+    dataReceivedParams.dataLength = dataLength;
+    dataReceivedParams.encodedDataLength = encodedDataLength;
+    return dataReceivedParams;
   }
 
   @Override
@@ -460,4 +942,175 @@ public class NetworkEventReporterImpl implements NetworkEventReporter {
   private static long stethoNow() {
     return SystemClock.elapsedRealtime();
   }
+
+  /**
+   * The most body bytes {@link BodyCapturePolicy} allows for a response, kept from when the
+   * response is reported until its body is read.
+   */
+  private static class CaptureLimit {
+    public final int limit;
+    public final long decidedAtMs;
+
+    public CaptureLimit(int limit, long decidedAtMs) {
+      this.limit = limit;
+      this.decidedAtMs = decidedAtMs;
+    }
+  }
+
+  /**
+   * Progress for a single request that has not yet been reported.
+   */
+  private static class DataAccumulator {
+    public long windowStart;
+    public long lastUpdate;
+    public int dataLength;
+    public int encodedDataLength;
+
+    /**
+     * Set once this has been taken out of {@link #mPendingData}, after which progress must be
+     * reported directly rather than held back here.
+     */
+    public boolean removed;
+
+    public void add(long now, int dataLength, int encodedDataLength) {
+      if (this.dataLength == 0 && this.encodedDataLength == 0) {
+        windowStart = now;
+      }
+      lastUpdate = now;
+      this.dataLength += dataLength;
+      this.encodedDataLength += encodedDataLength;
+    }
+
+    public boolean isWindowFull(long now, long windowMs, int windowBytes) {
+      return now - windowStart >= windowMs ||
+          dataLength >= windowBytes ||
+          encodedDataLength >= windowBytes;
+    }
+
+    public boolean hasPendingData() {
+      return dataLength > 0 || encodedDataLength > 0;
+    }
+
+    public void reset() {
+      dataLength = 0;
+      encodedDataLength = 0;
+    }
+  }
+
+  /**
+   * Sends the recorded events to a single peer, rebuilding the messages the way they would have
+   * been sent live.
+   */
+  private class FlightRecordingReplayer implements NetworkFlightRecorder.Listener {
+    private final NetworkPeerManager mPeerManager;
+    private final JsonRpcPeer mPeer;
+    private final ArrayList<RecordedBody> mBodies = new ArrayList<>();
+    private boolean mDisconnected;
+
+    public FlightRecordingReplayer(NetworkPeerManager peerManager, JsonRpcPeer peer) {
+      mPeerManager = peerManager;
+      mPeer = peer;
+    }
+
+    @Override
+    public void onRequestWillBeSent(
+        InspectorRequest request,
+        @Nullable byte[] body,
+        long timestampMs) {
+      send("Network.requestWillBeSent", createRequestWillBeSentParams(request, body, timestampMs));
+    }
+
+    @Override
+    public void onResponseReceived(InspectorResponse response, long timestampMs) {
+      send(
+          "Network.responseReceived",
+          createResponseReceivedParams(mPeerManager, response, timestampMs));
+    }
+
+    @Override
+    public void onDataReceived(
+        String requestId,
+        long timestampMs,
+        int dataLength,
+        int encodedDataLength) {
+      send(
+          "Network.dataReceived",
+          createDataReceivedParams(requestId, timestampMs, dataLength, encodedDataLength));
+    }
+
+    @Override
+    public void onLoadingFinished(String requestId, long timestampMs) {
+      send("Network.loadingFinished", createLoadingFinishedParams(requestId, timestampMs));
+    }
+
+    @Override
+    public void onLoadingFailed(String requestId, long timestampMs, String errorText) {
+      send(
+          "Network.loadingFailed",
+          createLoadingFailedParams(requestId, timestampMs, errorText));
+    }
+
+    @Override
+    public void onResponseBody(
+        String requestId,
+        boolean base64Encode,
+        boolean gzipped,
+        byte[] body,
+        boolean truncated) {
+      // Part of the replay may run while holding locks, so leave the writing for later.
+      mBodies.add(new RecordedBody(requestId, base64Encode, gzipped, body, truncated));
+    }
+
+    public void restoreResponseBodies() {
+      ResponseBodyFileManager fileManager = mPeerManager.getResponseBodyFileManager();
+      for (RecordedBody body : mBodies) {
+        try {
+          fileManager.restoreResponseBody(
+              body.requestId,
+              body.base64Encode,
+              body.gzipped,
+              body.body,
+              body.truncated);
+        } catch (IOException e) {
+          LogRedirector.w(
+              TAG,
+              "Could not restore recorded body for request " + body.requestId,
+              e);
+        }
+      }
+      mBodies.clear();
+    }
+
+    private void send(String method, Object params) {
+      if (mDisconnected) {
+        return;
+      }
+      try {
+        mPeer.invokeMethod(method, params, null /* callback */);
+      } catch (NotYetConnectedException e) {
+        mDisconnected = true;
+      }
+    }
+  }
+
+  private static class RecordedBody {
+    public final String requestId;
+    public final boolean base64Encode;
+    public final boolean gzipped;
+    public final byte[] body;
+    public final boolean truncated;
+
+    public RecordedBody(
+        String requestId,
+        boolean base64Encode,
+        boolean gzipped,
+        byte[] body,
+        boolean truncated) {
+      this.requestId = requestId;
+      this.base64Encode = base64Encode;
+      this.gzipped = gzipped;
+      this.body = body;
+      this.truncated = truncated;
+    }
+  }
 }
@@ -0,0 +1,756 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import android.content.Context;
+import com.facebook.stetho.common.Util;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Keeps the most recent network events in a fixed size buffer, whether or not DevTools is
+ * attached, so that requests made before anyone opened chrome://inspect (typically those at
+ * startup) can be replayed to the first peer that enables the Network domain.  Install with
+ * {@link NetworkEventReporterImpl#setFlightRecorder}.
+ * <p/>
+ * Events are stored as compact binary records in a single byte array, oldest first, and the
+ * oldest are dropped to make room for new ones.  Recording an event encodes the fields it
+ * needs without building any of the JSON that is sent to DevTools; that only happens on replay.
+ * <p/>
+ * Optionally the beginning of each response body read while no peer is attached is recorded
+ * too, within the same budget.  Bodies read while a peer is attached go to the
+ * {@link ResponseBodyFileManager} as usual, which is cleared when the last peer goes away, so
+ * later sessions replay those responses without a body.
+ */
+@ThreadSafe
+public class NetworkFlightRecorder {
+  public static final int DEFAULT_BUFFER_BYTES = 1024 * 1024;
+  public static final int DEFAULT_MAX_BODY_BYTES = 16 * 1024;
+
+  private static final byte TYPE_REQUEST_WILL_BE_SENT = 1;
+  private static final byte TYPE_RESPONSE_RECEIVED = 2;
+  private static final byte TYPE_DATA_RECEIVED = 3;
+  private static final byte TYPE_LOADING_FINISHED = 4;
+  private static final byte TYPE_LOADING_FAILED = 5;
+  private static final byte TYPE_RESPONSE_BODY = 6;
+
+  private static final int BODY_FLAG_BASE64_ENCODED = 1;
+  private static final int BODY_FLAG_GZIPPED = 1 << 1;
+  private static final int BODY_FLAG_TRUNCATED = 1 << 2;
+
+  /**
+   * Each record is preceded by its length.
+   */
+  private static final int LENGTH_SIZE = 4;
+
+  /**
+   * Bounds how long {@link #replay(Listener, Runnable)} chases new records before delivering
+   * the rest while holding the lock.
+   */
+  private static final int MAX_CATCH_UP_PASSES = 3;
+
+  private final Context mContext;
+  private final int mMaxBodyBytes;
+
+  @GuardedBy("this")
+  private final byte[] mBuffer;
+
+  /**
+   * Offset of the oldest record.
+   */
+  @GuardedBy("this")
+  private int mStart;
+
+  @GuardedBy("this")
+  private int mSize;
+
+  /**
+   * Number of records in the buffer.
+   */
+  @GuardedBy("this")
+  private int mCount;
+
+  /**
+   * Number of records ever appended, which makes the newest record's sequence number
+   * {@code mSequence - 1} and the oldest one's {@code mSequence - mCount}.
+   */
+  @GuardedBy("this")
+  private long mSequence;
+
+  @GuardedBy("this")
+  private final RecordWriter mWriter = new RecordWriter();
+
+  public NetworkFlightRecorder(Context context) {
+    this(context, DEFAULT_BUFFER_BYTES, DEFAULT_MAX_BODY_BYTES);
+  }
+
+  /**
+   * @param bufferBytes Budget for all recorded events, including bodies.
+   * @param maxBodyBytes Record at most this many bytes of each request and response body, or 0
+   *     to record none.  Gzipped response bodies are recorded compressed.
+   */
+  public NetworkFlightRecorder(Context context, int bufferBytes, int maxBodyBytes) {
+    Util.throwIfNot(bufferBytes > 0 && maxBodyBytes >= 0, "Invalid limits");
+    mContext = context.getApplicationContext();
+    mBuffer = new byte[bufferBytes];
+    mMaxBodyBytes = maxBodyBytes;
+  }
+
+  Context getContext() {
+    return mContext;
+  }
+
+  public int getMaxBodyBytes() {
+    return mMaxBodyBytes;
+  }
+
+  /**
+   * Drop everything recorded so far.
+   */
+  public synchronized void clear() {
+    mStart = 0;
+    mSize = 0;
+    mCount = 0;
+  }
+
+  synchronized void recordRequestWillBeSent(
+      NetworkEventReporter.InspectorRequest request,
+      @Nullable byte[] body,
+      long timestampMs) {
+    RecordWriter writer = startRecord(TYPE_REQUEST_WILL_BE_SENT, request.id(), timestampMs);
+    writer.writeString(request.url());
+    writer.writeString(request.method());
+    writer.writeString(request.friendlyName());
+    Integer friendlyNameExtra = request.friendlyNameExtra();
+    writer.writeByte(friendlyNameExtra != null ? 1 : 0);
+    writer.writeInt(friendlyNameExtra != null ? friendlyNameExtra : 0);
+    writeHeaders(writer, request);
+    if (body != null) {
+      writer.writeBytes(body, 0, Math.min(body.length, mMaxBodyBytes));
+    } else {
+      writer.writeInt(-1);
+    }
+    finishRecord();
+  }
+
+  synchronized void recordResponseReceived(
+      NetworkEventReporter.InspectorResponse response,
+      long timestampMs) {
+    RecordWriter writer =
+        startRecord(TYPE_RESPONSE_RECEIVED, response.requestId(), timestampMs);
+    writer.writeString(response.url());
+    writer.writeInt(response.statusCode());
+    writer.writeString(response.reasonPhrase());
+    writer.writeByte(response.connectionReused() ? 1 : 0);
+    writer.writeInt(response.connectionId());
+    writer.writeByte(response.fromDiskCache() ? 1 : 0);
+    writeHeaders(writer, response);
+    finishRecord();
+  }
+
+  synchronized void recordDataReceived(
+      String requestId,
+      long timestampMs,
+      int dataLength,
+      int encodedDataLength) {
+    RecordWriter writer = startRecord(TYPE_DATA_RECEIVED, requestId, timestampMs);
+    writer.writeInt(dataLength);
+    writer.writeInt(encodedDataLength);
+    finishRecord();
+  }
+
+  synchronized void recordLoadingFinished(String requestId, long timestampMs) {
+    startRecord(TYPE_LOADING_FINISHED, requestId, timestampMs);
+    finishRecord();
+  }
+
+  synchronized void recordLoadingFailed(String requestId, long timestampMs, String errorText) {
+    RecordWriter writer = startRecord(TYPE_LOADING_FAILED, requestId, timestampMs);
+    writer.writeString(errorText);
+    finishRecord();
+  }
+
+  /**
+   * @return A stream for the response body, which keeps the first {@code maxBodyBytes} (and no
+   *     more than {@link #getMaxBodyBytes()}) and records them when it is closed.
+   */
+  OutputStream openResponseBody(
+      String requestId,
+      boolean base64Encode,
+      boolean gzipped,
+      int maxBodyBytes) {
+    int flags = (base64Encode ? BODY_FLAG_BASE64_ENCODED : 0) | (gzipped ? BODY_FLAG_GZIPPED : 0);
+    return new BodyBuffer(requestId, flags, Math.min(maxBodyBytes, mMaxBodyBytes));
+  }
+
+  private synchronized void recordResponseBody(
+      String requestId,
+      int flags,
+      byte[] body,
+      int length) {
+    RecordWriter writer = startRecord(TYPE_RESPONSE_BODY, requestId, 0 /* timestampMs */);
+    writer.writeByte(flags);
+    writer.writeBytes(body, 0, length);
+    finishRecord();
+  }
+
+  @GuardedBy("this")
+  private RecordWriter startRecord(byte type, String requestId, long timestampMs) {
+    RecordWriter writer = mWriter;
+    writer.reset();
+    writer.writeByte(type);
+    writer.writeString(requestId);
+    writer.writeLong(timestampMs);
+    return writer;
+  }
+
+  private static void writeHeaders(
+      RecordWriter writer,
+      NetworkEventReporter.InspectorHeaders headers) {
+    int count = headers.headerCount();
+    writer.writeInt(count);
+    for (int i = 0; i < count; i++) {
+      writer.writeString(headers.headerName(i));
+      writer.writeString(headers.headerValue(i));
+    }
+  }
+
+  /**
+   * Append the record in {@link #mWriter}, dropping the oldest records to make room.
+   */
+  @GuardedBy("this")
+  private void finishRecord() {
+    int length = mWriter.size();
+    int recordSize = LENGTH_SIZE + length;
+    if (recordSize > mBuffer.length) {
+      return;
+    }
+    while (mBuffer.length - mSize < recordSize) {
+      int dropped = LENGTH_SIZE + readRingInt(mStart);
+      mStart = (mStart + dropped) % mBuffer.length;
+      mSize -= dropped;
+      mCount--;
+    }
+    int end = (mStart + mSize) % mBuffer.length;
+    for (int i = 0; i < LENGTH_SIZE; i++) {
+      mBuffer[(end + i) % mBuffer.length] = (byte) (length >>> (24 - 8 * i));
+    }
+    copyIntoRing(mWriter.getBuffer(), length, (end + LENGTH_SIZE) % mBuffer.length);
+    mSize += recordSize;
+    mCount++;
+    mSequence++;
+  }
+
+  @GuardedBy("this")
+  private int readRingInt(int offset) {
+    int value = 0;
+    for (int i = 0; i < LENGTH_SIZE; i++) {
+      value = (value << 8) | (mBuffer[(offset + i) % mBuffer.length] & 0xff);
+    }
+    return value;
+  }
+
+  @GuardedBy("this")
+  private void copyIntoRing(byte[] source, int length, int offset) {
+    int firstPart = Math.min(length, mBuffer.length - offset);
+    System.arraycopy(source, 0, mBuffer, offset, firstPart);
+    System.arraycopy(source, firstPart, mBuffer, 0, length - firstPart);
+  }
+
+  /**
+   * Deliver the recorded events to {@code listener}, oldest first.
+   */
+  void replay(Listener listener) {
+    byte[] records;
+    synchronized (this) {
+      records = copyRecordsSince(0);
+    }
+    deliver(records, listener);
+  }
+
+  /**
+   * Like {@link #replay(Listener)}, but keeps going until {@code listener} has seen every
+   * record, and runs {@code onCaughtUp} while no new record can be made.  Whoever records an
+   * event must decide whether to also send it live while holding this recorder's lock, so an
+   * event is either replayed or sent live after {@code onCaughtUp} but never both.
+   * <p/>
+   * Records are delivered in passes, each picking up what was recorded during the previous one.
+   * Only the last pass, which is at most the {@link #MAX_CATCH_UP_PASSES}th, holds the lock.
+   */
+  void replay(Listener listener, Runnable onCaughtUp) {
+    long sequence = 0;
+    for (int pass = 1; ; pass++) {
+      byte[] records;
+      synchronized (this) {
+        records = copyRecordsSince(sequence);
+        sequence = mSequence;
+        if (records.length == 0 || pass == MAX_CATCH_UP_PASSES) {
+          deliver(records, listener);
+          onCaughtUp.run();
+          return;
+        }
+      }
+      deliver(records, listener);
+    }
+  }
+
+  /**
+   * @return The records with a sequence number of at least {@code sequence}, or all of them if
+   *     some of those have been dropped since.
+   */
+  @GuardedBy("this")
+  private byte[] copyRecordsSince(long sequence) {
+    int offset = mStart;
+    int size = mSize;
+    for (long skip = sequence - (mSequence - mCount); skip > 0; skip--) {
+      int recordSize = LENGTH_SIZE + readRingInt(offset);
+      offset = (offset + recordSize) % mBuffer.length;
+      size -= recordSize;
+    }
+    byte[] records = new byte[size];
+    int firstPart = Math.min(size, mBuffer.length - offset);
+    System.arraycopy(mBuffer, offset, records, 0, firstPart);
+    System.arraycopy(mBuffer, 0, records, firstPart, size - firstPart);
+    return records;
+  }
+
+  private static void deliver(byte[] records, Listener listener) {
+    RecordReader reader = new RecordReader(records);
+    while (reader.hasRemaining()) {
+      int length = reader.readInt();
+      int next = reader.position() + length;
+      replayRecord(reader, listener);
+      reader.seek(next);
+    }
+  }
+
+  private static void replayRecord(RecordReader reader, Listener listener) {
+    byte type = reader.readByte();
+    String requestId = reader.readString();
+    long timestampMs = reader.readLong();
+    switch (type) {
+      case TYPE_REQUEST_WILL_BE_SENT: {
+        RecordedRequest request = new RecordedRequest(requestId);
+        request.url = reader.readString();
+        request.method = reader.readString();
+        request.friendlyName = reader.readString();
+        boolean hasFriendlyNameExtra = reader.readByte() != 0;
+        int friendlyNameExtra = reader.readInt();
+        request.friendlyNameExtra = hasFriendlyNameExtra ? friendlyNameExtra : null;
+        request.headers = readHeaders(reader);
+        byte[] body = reader.readBytes();
+        listener.onRequestWillBeSent(request, body, timestampMs);
+        break;
+      }
+      case TYPE_RESPONSE_RECEIVED: {
+        RecordedResponse response = new RecordedResponse(requestId);
+        response.url = reader.readString();
+        response.statusCode = reader.readInt();
+        response.reasonPhrase = reader.readString();
+        response.connectionReused = reader.readByte() != 0;
+        response.connectionId = reader.readInt();
+        response.fromDiskCache = reader.readByte() != 0;
+        response.headers = readHeaders(reader);
+        listener.onResponseReceived(response, timestampMs);
+        break;
+      }
+      case TYPE_DATA_RECEIVED:
+        listener.onDataReceived(requestId, timestampMs, reader.readInt(), reader.readInt());
+        break;
+      case TYPE_LOADING_FINISHED:
+        listener.onLoadingFinished(requestId, timestampMs);
+        break;
+      case TYPE_LOADING_FAILED:
+        listener.onLoadingFailed(requestId, timestampMs, reader.readString());
+        break;
+      case TYPE_RESPONSE_BODY: {
+        int flags = reader.readByte();
+        byte[] body = reader.readBytes();
+        listener.onResponseBody(
+            requestId,
+            (flags & BODY_FLAG_BASE64_ENCODED) != 0,
+            (flags & BODY_FLAG_GZIPPED) != 0,
+            body,
+            (flags & BODY_FLAG_TRUNCATED) != 0);
+        break;
+      }
+      default:
+        throw new IllegalStateException("Unknown record type " + type);
+    }
+  }
+
+  private static String[] readHeaders(RecordReader reader) {
+    String[] headers = new String[reader.readInt() * 2];
+    for (int i = 0; i < headers.length; i++) {
+      headers[i] = reader.readString();
+    }
+    return headers;
+  }
+
+  /**
+   * Receives the recorded events on {@link #replay}.
+   */
+  interface Listener {
+    void onRequestWillBeSent(
+        NetworkEventReporter.InspectorRequest request,
+        @Nullable byte[] body,
+        long timestampMs);
+
+    void onResponseReceived(NetworkEventReporter.InspectorResponse response, long timestampMs);
+
+    void onDataReceived(
+        String requestId,
+        long timestampMs,
+        int dataLength,
+        int encodedDataLength);
+
+    void onLoadingFinished(String requestId, long timestampMs);
+
+    void onLoadingFailed(String requestId, long timestampMs, String errorText);
+
+    void onResponseBody(
+        String requestId,
+        boolean base64Encode,
+        boolean gzipped,
+        byte[] body,
+        boolean truncated);
+  }
+
+  /**
+   * Keeps the beginning of a response body and records it on close.
+   */
+  private class BodyBuffer extends ByteArrayOutputStream {
+    private final String mRequestId;
+    private final int mMaxBytes;
+    private int mFlags;
+    private boolean mClosed;
+
+    public BodyBuffer(String requestId, int flags, int maxBytes) {
+      mRequestId = requestId;
+      mFlags = flags;
+      mMaxBytes = maxBytes;
+    }
+
+    @Override
+    public synchronized void write(int oneByte) {
+      if (count < mMaxBytes) {
+        super.write(oneByte);
+      } else {
+        mFlags |= BODY_FLAG_TRUNCATED;
+      }
+    }
+
+    @Override
+    public synchronized void write(byte[] buffer, int offset, int length) {
+      int allowed = Math.min(length, mMaxBytes - count);
+      if (allowed > 0) {
+        super.write(buffer, offset, allowed);
+      }
+      if (allowed < length) {
+        mFlags |= BODY_FLAG_TRUNCATED;
+      }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+      if (!mClosed) {
+        mClosed = true;
+        recordResponseBody(mRequestId, mFlags, buf, count);
+      }
+    }
+  }
+
+  /**
+   * Growable scratch buffer a record is encoded into before it is copied into the ring.
+   * Strings are stored as their length in chars followed by the chars in modified UTF-8 (as in
+   * {@link java.io.DataOutput#writeUTF}), without the 64KB limit.
+   */
+  private static class RecordWriter {
+    private byte[] mBuffer = new byte[256];
+    private int mSize;
+
+    public void reset() {
+      mSize = 0;
+    }
+
+    public int size() {
+      return mSize;
+    }
+
+    public byte[] getBuffer() {
+      return mBuffer;
+    }
+
+    public void writeByte(int value) {
+      ensureCapacity(1);
+      mBuffer[mSize++] = (byte) value;
+    }
+
+    public void writeInt(int value) {
+      ensureCapacity(4);
+      mBuffer[mSize++] = (byte) (value >>> 24);
+      mBuffer[mSize++] = (byte) (value >>> 16);
+      mBuffer[mSize++] = (byte) (value >>> 8);
+      mBuffer[mSize++] = (byte) value;
+    }
+
+    public void writeLong(long value) {
+      writeInt((int) (value >>> 32));
+      writeInt((int) value);
+    }
+
+    public void writeString(@Nullable String value) {
+      if (value == null) {
+        writeInt(-1);
+        return;
+      }
+      int length = value.length();
+      writeInt(length);
+      ensureCapacity(length * 3);
+      byte[] buffer = mBuffer;
+      int size = mSize;
+      for (int i = 0; i < length; i++) {
+        char c = value.charAt(i);
+        if (c != 0 && c < 0x80) {
+          buffer[size++] = (byte) c;
+        } else if (c < 0x800) {
+          buffer[size++] = (byte) (0xc0 | (c >> 6));
+          buffer[size++] = (byte) (0x80 | (c & 0x3f));
+        } else {
+          buffer[size++] = (byte) (0xe0 | (c >> 12));
+          buffer[size++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+          buffer[size++] = (byte) (0x80 | (c & 0x3f));
+        }
+      }
+      mSize = size;
+    }
+
+    public void writeBytes(byte[] value, int offset, int length) {
+      writeInt(length);
+      ensureCapacity(length);
+      System.arraycopy(value, offset, mBuffer, mSize, length);
+      mSize += length;
+    }
+
+    private void ensureCapacity(int extra) {
+      if (mSize + extra > mBuffer.length) {
+        byte[] newBuffer = new byte[Math.max(mBuffer.length * 2, mSize + extra)];
+        System.arraycopy(mBuffer, 0, newBuffer, 0, mSize);
+        mBuffer = newBuffer;
+      }
+    }
+  }
+
+  private static class RecordReader {
+    private final byte[] mBuffer;
+    private int mPosition;
+
+    public RecordReader(byte[] buffer) {
+      mBuffer = buffer;
+    }
+
+    public boolean hasRemaining() {
+      return mPosition < mBuffer.length;
+    }
+
+    public int position() {
+      return mPosition;
+    }
+
+    public void seek(int position) {
+      mPosition = position;
+    }
+
+    public byte readByte() {
+      return mBuffer[mPosition++];
+    }
+
+    public int readInt() {
+      return ((mBuffer[mPosition++] & 0xff) << 24) |
+          ((mBuffer[mPosition++] & 0xff) << 16) |
+          ((mBuffer[mPosition++] & 0xff) << 8) |
+          (mBuffer[mPosition++] & 0xff);
+    }
+
+    public long readLong() {
+      return ((long) readInt() << 32) | (readInt() & 0xffffffffL);
+    }
+
+    @Nullable
+    public String readString() {
+      int length = readInt();
+      if (length < 0) {
+        return null;
+      }
+      char[] chars = new char[length];
+      for (int i = 0; i < length; i++) {
+        int b = mBuffer[mPosition++] & 0xff;
+        if (b < 0x80) {
+          chars[i] = (char) b;
+        } else if (b < 0xe0) {
+          chars[i] = (char) (((b & 0x1f) << 6) | (mBuffer[mPosition++] & 0x3f));
+        } else {
+          int b2 = mBuffer[mPosition++] & 0x3f;
+          chars[i] = (char) (((b & 0x0f) << 12) | (b2 << 6) | (mBuffer[mPosition++] & 0x3f));
+        }
+      }
+      return new String(chars);
+    }
+
+    @Nullable
+    public byte[] readBytes() {
+      int length = readInt();
+      if (length < 0) {
+        return null;
+      }
+      byte[] value = new byte[length];
+      System.arraycopy(mBuffer, mPosition, value, 0, length);
+      mPosition += length;
+      return value;
+    }
+  }
+
+  private static class RecordedHeaders implements NetworkEventReporter.InspectorHeaders {
+    /**
+     * Alternating names and values.
+     */
+    public String[] headers;
+
+    @Override
+    public int headerCount() {
+      return headers.length / 2;
+    }
+
+    @Override
+    public String headerName(int index) {
+      return headers[index * 2];
+    }
+
+    @Override
+    public String headerValue(int index) {
+      return headers[index * 2 + 1];
+    }
+
+    @Nullable
+    @Override
+    public String firstHeaderValue(String name) {
+      for (int i = 0; i < headers.length; i += 2) {
+        if (name.equalsIgnoreCase(headers[i])) {
+          return headers[i + 1];
+        }
+      }
+      return null;
+    }
+  }
+
+  private static class RecordedRequest
+      extends RecordedHeaders
+      implements NetworkEventReporter.InspectorRequest {
+    private final String mId;
+    public String url;
+    public String method;
+    public String friendlyName;
+    @Nullable public Integer friendlyNameExtra;
+
+    public RecordedRequest(String id) {
+      mId = id;
+    }
+
+    @Override
+    public String id() {
+      return mId;
+    }
+
+    @Override
+    public String friendlyName() {
+      return friendlyName;
+    }
+
+    @Nullable
+    @Override
+    public Integer friendlyNameExtra() {
+      return friendlyNameExtra;
+    }
+
+    @Override
+    public String url() {
+      return url;
+    }
+
+    @Override
+    public String method() {
+      return method;
+    }
+
+    /**
+     * The recorded body is passed to {@link Listener#onRequestWillBeSent} instead.
+     */
+    @Nullable
+    @Override
+    public byte[] body() {
+      return null;
+    }
+  }
+
+  private static class RecordedResponse
+      extends RecordedHeaders
+      implements NetworkEventReporter.InspectorResponse {
+    private final String mRequestId;
+    public String url;
+    public int statusCode;
+    public String reasonPhrase;
+    public boolean connectionReused;
+    public int connectionId;
+    public boolean fromDiskCache;
+
+    public RecordedResponse(String requestId) {
+      mRequestId = requestId;
+    }
+
+    @Override
+    public String requestId() {
+      return mRequestId;
+    }
+
+    @Override
+    public int statusCode() {
+      return statusCode;
+    }
+
+    @Override
+    public String reasonPhrase() {
+      return reasonPhrase;
+    }
+
+    @Override
+    public String url() {
+      return url;
+    }
+
+    @Override
+    public boolean connectionReused() {
+      return connectionReused;
+    }
+
+    @Override
+    public int connectionId() {
+      return connectionId;
+    }
+
+    @Override
+    public boolean fromDiskCache() {
+      return fromDiskCache;
+    }
+  }
+}
@@ -13,11 +13,20 @@ import android.content.Context;
 import com.facebook.stetho.common.Util;
 import com.facebook.stetho.inspector.helper.ChromePeerManager;
 import com.facebook.stetho.inspector.helper.PeersRegisteredListener;
+import com.facebook.stetho.inspector.jsonrpc.JsonRpcPeer;
 
 public class NetworkPeerManager extends ChromePeerManager {
   private static NetworkPeerManager sInstance;
 
   private final ResponseBodyFileManager mResponseBodyFileManager;
+
+  /**
+   * Held while a peer is added, so that only the first one is replayed the
+   * {@link NetworkFlightRecorder}'s events.  Any others already share the body store and pretty
+   * printers set up for it.
+   */
+  private final Object mAddPeerLock = new Object();
+
   private AsyncPrettyPrinterInitializer mPrettyPrinterInitializer;
   private AsyncPrettyPrinterRegistry mAsyncPrettyPrinterRegistry;
 
@@ -55,14 +64,37 @@ public class NetworkPeerManager extends ChromePeerManager {
     mPrettyPrinterInitializer = Util.throwIfNull(initializer);
   }
 
+  @Override
+  public boolean addPeer(final JsonRpcPeer peer) {
+    synchronized (mAddPeerLock) {
+      if (hasRegisteredPeers()) {
+        return super.addPeer(peer);
+      }
+      // Replayed responses are typed using the pretty printers.
+      initPrettyPrinterRegistry();
+      NetworkEventReporterImpl.replayFlightRecording(this, peer, new Runnable() {
+        @Override
+        public void run() {
+          NetworkPeerManager.super.addPeer(peer);
+        }
+      });
+      // With no peers registered, this one can't have been already.
+      return true;
+    }
+  }
+
+  private synchronized void initPrettyPrinterRegistry() {
+    if (mAsyncPrettyPrinterRegistry == null && mPrettyPrinterInitializer != null) {
+      mAsyncPrettyPrinterRegistry = new AsyncPrettyPrinterRegistry();
+      mPrettyPrinterInitializer.populatePrettyPrinters(mAsyncPrettyPrinterRegistry);
+    }
+  }
+
   private final PeersRegisteredListener mTempFileCleanup = new PeersRegisteredListener() {
     @Override
     protected void onFirstPeerRegistered() {
       AsyncPrettyPrinterExecutorHolder.ensureInitialized();
-      if (mAsyncPrettyPrinterRegistry == null && mPrettyPrinterInitializer != null) {
-        mAsyncPrettyPrinterRegistry = new AsyncPrettyPrinterRegistry();
-        mPrettyPrinterInitializer.populatePrettyPrinters(mAsyncPrettyPrinterRegistry);
-      }
+      initPrettyPrinterRegistry();
       mResponseBodyFileManager.cleanupFiles();
     }
 
@@ -7,11 +7,35 @@
 
 package com.facebook.stetho.inspector.network;
 
+import javax.annotation.Nullable;
+
+import java.io.InputStream;
+
 /**
  * Special file data necessary to comply with the Chrome DevTools instance which doesn't let
  * us just naively base64 encode everything.
  */
 public class ResponseBodyData {
   public String data;
+
+  /**
+   * UTF-8 body content set by {@link ResponseBodyFileManager#openFile} in place of
+   * {@link #data}.  The caller is responsible for closing it.
+   */
+  @Nullable
+  public InputStream dataStream;
+
   public boolean base64Encoded;
+
+  /**
+   * True if the body exceeded {@link ResponseBodyFileManager#getMaxBodyBytes()}, or the limit
+   * set by the {@link BodyCapturePolicy}, and {@link #data} only contains its beginning.
+   */
+  public boolean truncated;
+
+  /**
+   * The number of bytes a {@link #truncated} body was cut off at.  Gzipped bodies are limited
+   * before decompression.
+   */
+  public int truncatedSize;
 }
@@ -7,15 +7,24 @@
 
 package com.facebook.stetho.inspector.network;
 
+import javax.annotation.concurrent.GuardedBy;
+
 import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
@@ -23,6 +32,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.zip.GZIPInputStream;
 
 import android.content.Context;
 import android.util.Base64;
@@ -34,21 +44,111 @@ import com.facebook.stetho.common.Util;
 
 /**
  * Manages temporary files created by {@link ChromeHttpFlowObserver} to serve request bodies.
+ * <p/>
+ * Storage is bounded: each body is truncated to {@link #getMaxBodyBytes()} and once the
+ * bodies on disk exceed {@link #getMaxTotalBytes()} the least recently used ones are deleted.
+ * An in-memory index tracks what is stored so that {@link #readFile} can explain why a body
+ * is missing or incomplete.
+ * <p/>
+ * Gzipped bodies may be stored as they came off the wire (see
+ * {@link #openResponseBodyFile(String, boolean, boolean, int)}), which keeps decompression off the
+ * app's network thread and takes less space on disk.  They are decompressed as they are read
+ * back, which only happens if the body is actually requested.
  */
 public class ResponseBodyFileManager {
   private static final String TAG = "ResponseBodyFileManager";
   private static final String FILENAME_PREFIX = "network-response-body-";
   private static final int PRETTY_PRINT_TIMEOUT_SEC = 10;
+  private static final int GZIP_BUFFER_SIZE = 8192;
+
+  /**
+   * Bits of the first byte of each file, which describes the body that follows.
+   */
+  private static final int FLAG_BASE64_ENCODED = 1;
+  private static final int FLAG_GZIPPED = 1 << 1;
+
+  public static final long DEFAULT_MAX_TOTAL_BYTES = 32 * 1024 * 1024;
+  public static final int DEFAULT_MAX_BODY_BYTES = 4 * 1024 * 1024;
+
+  /**
+   * Number of evicted request ids remembered so that a later {@link #readFile} can report the
+   * eviction rather than failing with a generic error.
+   */
+  private static final int MAX_REMEMBERED_EVICTIONS = 1000;
 
   private final Context mContext;
   private final Map<String, AsyncPrettyPrinter> mRequestIdMap = Collections.synchronizedMap(
       new HashMap<String, AsyncPrettyPrinter>());
 
+  /**
+   * Stored bodies in access order, least recently used first.
+   */
+  @GuardedBy("this")
+  private final LinkedHashMap<String, BodyEntry> mEntries =
+      new LinkedHashMap<>(16, 0.75f, true /* accessOrder */);
+
+  @GuardedBy("this")
+  private final LinkedHashMap<String, Boolean> mEvictedRequestIds =
+      new LinkedHashMap<String, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+          return size() > MAX_REMEMBERED_EVICTIONS;
+        }
+      };
+
+  @GuardedBy("this")
+  private long mTotalBytes;
+
+  @GuardedBy("this")
+  private long mMaxTotalBytes = DEFAULT_MAX_TOTAL_BYTES;
+
+  @GuardedBy("this")
+  private int mMaxBodyBytes = DEFAULT_MAX_BODY_BYTES;
+
   public ResponseBodyFileManager(Context context) {
     mContext = context;
   }
 
+  /**
+   * Configure the storage limits, evicting immediately if the new total is exceeded.
+   *
+   * @param maxTotalBytes Budget for all stored bodies combined.
+   * @param maxBodyBytes Bodies are truncated after this many bytes, decoded except for those
+   *     stored gzipped.
+   */
+  public void setLimits(long maxTotalBytes, int maxBodyBytes) {
+    Util.throwIfNot(maxTotalBytes > 0 && maxBodyBytes > 0, "Limits must be positive");
+    List<File> evicted;
+    synchronized (this) {
+      mMaxTotalBytes = maxTotalBytes;
+      mMaxBodyBytes = maxBodyBytes;
+      evicted = evictLocked(null /* exclude */);
+    }
+    deleteFiles(evicted);
+  }
+
+  public synchronized long getMaxTotalBytes() {
+    return mMaxTotalBytes;
+  }
+
+  public synchronized int getMaxBodyBytes() {
+    return mMaxBodyBytes;
+  }
+
+  /**
+   * Total size on disk of the bodies currently stored.
+   */
+  public synchronized long getTotalBytes() {
+    return mTotalBytes;
+  }
+
   public void cleanupFiles() {
+    synchronized (this) {
+      mEntries.clear();
+      mEvictedRequestIds.clear();
+      mTotalBytes = 0;
+    }
+    mRequestIdMap.clear();
     for (File file : mContext.getFilesDir().listFiles()) {
       if (file.getName().startsWith(FILENAME_PREFIX)) {
         if (!file.delete()) {
@@ -60,27 +160,71 @@ public class ResponseBodyFileManager {
   }
 
   public ResponseBodyData readFile(String requestId) throws IOException {
+    ResponseBodyData bodyData = openFile(requestId);
+    if (bodyData.dataStream != null) {
+      InputStream in = bodyData.dataStream;
+      try {
+        bodyData.data = Util.readAsUTF8(in);
+        bodyData.dataStream = null;
+      } finally {
+        in.close();
+      }
+    }
+    return bodyData;
+  }
+
+  /**
+   * Like {@link #readFile} but leaves the body in {@link ResponseBodyData#dataStream} so that it
+   * can be encoded without first being read into memory.  Bodies which have an
+   * {@link AsyncPrettyPrinter} registered are still returned in {@link ResponseBodyData#data}.
+   */
+  public ResponseBodyData openFile(String requestId) throws IOException {
+    boolean truncated;
+    int truncatedSize;
+    synchronized (this) {
+      BodyEntry entry = mEntries.get(requestId);
+      if (entry == null) {
+        if (mEvictedRequestIds.containsKey(requestId)) {
+          throw new FileNotFoundException("Response body for request " + requestId +
+              " was evicted to stay within the " + mMaxTotalBytes + " byte body store limit");
+        }
+        throw new FileNotFoundException("No response body stored for request " + requestId);
+      }
+      truncated = entry.truncated;
+      truncatedSize = entry.maxBodyBytes;
+    }
     InputStream in = mContext.openFileInput(getFilename(requestId));
+    boolean success = false;
     try {
-      int firstByte = in.read();
-      if (firstByte == -1) {
-        throw new EOFException("Failed to read base64Encode byte");
+      int flags = in.read();
+      if (flags == -1) {
+        throw new EOFException("Failed to read flags byte");
       }
       ResponseBodyData bodyData = new ResponseBodyData();
-      bodyData.base64Encoded = firstByte != 0;
+      bodyData.base64Encoded = (flags & FLAG_BASE64_ENCODED) != 0;
+      bodyData.truncated = truncated;
+      bodyData.truncatedSize = truncatedSize;
+      if ((flags & FLAG_GZIPPED) != 0) {
+        in = new GZIPInputStream(in, GZIP_BUFFER_SIZE);
+        if (truncated) {
+          in = new TruncatedInputStream(in);
+        }
+      }
 
       AsyncPrettyPrinter asyncPrettyPrinter = mRequestIdMap.get(requestId);
       if (asyncPrettyPrinter != null) {
-        // TODO: this line blocks for up to 10 seconds and create problems as described
-        // in issue #243 allow asynchronous dispatch for MethodDispatcher
+        // This blocks for up to PRETTY_PRINT_TIMEOUT_SEC but only stalls the Network domain's
+        // method executor (see issue #243).
         bodyData.data = prettyPrintContentWithTimeOut(asyncPrettyPrinter, in);
       } else {
-        bodyData.data = Util.readAsUTF8(in);
+        bodyData.dataStream = in;
+        success = true;
       }
       return bodyData;
-
     } finally {
-      in.close();
+      if (!success) {
+        in.close();
+      }
     }
   }
 
@@ -111,12 +255,133 @@ public class ResponseBodyFileManager {
 
   public OutputStream openResponseBodyFile(String requestId, boolean base64Encode)
       throws IOException {
-    OutputStream out = mContext.openFileOutput(getFilename(requestId), Context.MODE_PRIVATE);
-    out.write(base64Encode ? 1 : 0);
-    if (base64Encode) {
-      return new Base64OutputStream(out, Base64.DEFAULT);
-    } else {
-      return out;
+    return openResponseBodyFile(
+        requestId,
+        base64Encode,
+        false /* gzipped */,
+        Integer.MAX_VALUE /* maxBodyBytes */);
+  }
+
+  /**
+   * @param base64Encode Whether the body is binary and should be stored base64 encoded.
+   * @param gzipped Whether the body will be written still gzipped, to be decompressed when it is
+   *     read back.  This can't be combined with {@code base64Encode}.
+   * @param maxBodyBytes Truncate this body after this many bytes, if that is less than
+   *     {@link #getMaxBodyBytes()}.
+   */
+  public OutputStream openResponseBodyFile(
+      String requestId,
+      boolean base64Encode,
+      boolean gzipped,
+      int maxBodyBytes) throws IOException {
+    return openBodyOutputStream(requestId, base64Encode, gzipped, maxBodyBytes);
+  }
+
+  private BodyOutputStream openBodyOutputStream(
+      String requestId,
+      boolean base64Encode,
+      boolean gzipped,
+      int maxBodyBytes) throws IOException {
+    Util.throwIfNot(!(base64Encode && gzipped), "Gzipped bodies cannot be base64 encoded");
+    BodyEntry entry = new BodyEntry(requestId);
+    BodyEntry previous;
+    synchronized (this) {
+      previous = mEntries.put(requestId, entry);
+      if (previous != null) {
+        mTotalBytes -= previous.size;
+      }
+      mEvictedRequestIds.remove(requestId);
+      maxBodyBytes = Math.min(maxBodyBytes, mMaxBodyBytes);
+    }
+    CountingOutputStream fileOut = new CountingOutputStream(
+        mContext.openFileOutput(getFilename(requestId), Context.MODE_PRIVATE));
+    fileOut.write((base64Encode ? FLAG_BASE64_ENCODED : 0) | (gzipped ? FLAG_GZIPPED : 0));
+    OutputStream out = base64Encode
+        ? new Base64OutputStream(fileOut, Base64.DEFAULT)
+        : fileOut;
+    return new BodyOutputStream(out, fileOut, entry, maxBodyBytes);
+  }
+
+  /**
+   * Store a body captured by the {@link NetworkFlightRecorder} before any peer was attached.
+   */
+  void restoreResponseBody(
+      String requestId,
+      boolean base64Encode,
+      boolean gzipped,
+      byte[] body,
+      boolean truncated) throws IOException {
+    BodyOutputStream out = openBodyOutputStream(
+        requestId,
+        base64Encode,
+        gzipped,
+        body.length);
+    try {
+      out.write(body);
+      if (truncated) {
+        out.markTruncated();
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  private void onBodyWritten(
+      BodyEntry entry,
+      long sizeOnDisk,
+      boolean truncated,
+      int maxBodyBytes) {
+    List<File> evicted;
+    synchronized (this) {
+      if (mEntries.get(entry.requestId) != entry) {
+        // Evicted or replaced while being written.
+        return;
+      }
+      entry.size = sizeOnDisk;
+      entry.truncated = truncated;
+      entry.maxBodyBytes = maxBodyBytes;
+      entry.written = true;
+      mTotalBytes += sizeOnDisk;
+      evicted = evictLocked(entry);
+    }
+    deleteFiles(evicted);
+  }
+
+  /**
+   * Remove least recently used entries until the store is within budget.  {@code exclude} (the
+   * entry just written) is only removed if it alone exceeds the budget.  Bodies still being
+   * written are skipped: they don't count towards the budget yet, and removing them would
+   * delete the file out from under the writer.
+   *
+   * @return Files to delete once the lock is released.
+   */
+  @GuardedBy("this")
+  private List<File> evictLocked(BodyEntry exclude) {
+    List<File> evicted = new ArrayList<>();
+    Iterator<BodyEntry> iter = mEntries.values().iterator();
+    while (mTotalBytes > mMaxTotalBytes && iter.hasNext()) {
+      BodyEntry next = iter.next();
+      if (!next.written) {
+        continue;
+      }
+      if (next == exclude && mTotalBytes - next.size <= mMaxTotalBytes) {
+        continue;
+      }
+      iter.remove();
+      mTotalBytes -= next.size;
+      mEvictedRequestIds.put(next.requestId, Boolean.TRUE);
+      mRequestIdMap.remove(next.requestId);
+      evicted.add(mContext.getFileStreamPath(getFilename(next.requestId)));
+    }
+    return evicted;
+  }
+
+  private static void deleteFiles(List<File> files) {
+    for (int i = 0, N = files.size(); i < N; i++) {
+      File file = files.get(i);
+      if (!file.delete()) {
+        LogRedirector.w(TAG, "Failed to delete " + file.getAbsolutePath());
+      }
     }
   }
 
@@ -167,4 +432,115 @@ public class ResponseBodyFileManager {
       return out.toString("UTF-8");
     }
   }
+
+  /**
+   * A gzipped body cut off by the per-body cap ends without its trailer, which is reported as
+   * the end of the body rather than an error.
+   */
+  private static class TruncatedInputStream extends FilterInputStream {
+    public TruncatedInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      try {
+        return in.read();
+      } catch (EOFException e) {
+        return -1;
+      }
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+      try {
+        return in.read(buffer, offset, count);
+      } catch (EOFException e) {
+        return -1;
+      }
+    }
+  }
+
+  private static class BodyEntry {
+    public final String requestId;
+
+    /**
+     * Size on disk, only known once the body has been completely written.
+     */
+    public long size;
+    public boolean truncated;
+
+    /**
+     * The limit that applied to this body, which may be lower than {@link #getMaxBodyBytes()}.
+     */
+    public int maxBodyBytes;
+    public boolean written;
+
+    public BodyEntry(String requestId) {
+      this.requestId = requestId;
+    }
+  }
+
+  /**
+   * Silently discards everything beyond the per-body cap so that the app's own stream is not
+   * disturbed, and records the final size in the index on close.
+   */
+  private class BodyOutputStream extends FilterOutputStream {
+    private final CountingOutputStream mFileOut;
+    private final BodyEntry mEntry;
+    private final int mMaxBodyBytes;
+    private int mWritten;
+    private boolean mTruncated;
+    private boolean mClosed;
+
+    public BodyOutputStream(
+        OutputStream out,
+        CountingOutputStream fileOut,
+        BodyEntry entry,
+        int maxBodyBytes) {
+      super(out);
+      mFileOut = fileOut;
+      mEntry = entry;
+      mMaxBodyBytes = maxBodyBytes;
+    }
+
+    @Override
+    public void write(int oneByte) throws IOException {
+      if (mWritten < mMaxBodyBytes) {
+        out.write(oneByte);
+        mWritten++;
+      } else {
+        mTruncated = true;
+      }
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+      int allowed = Math.min(length, mMaxBodyBytes - mWritten);
+      if (allowed > 0) {
+        out.write(buffer, offset, allowed);
+        mWritten += allowed;
+      }
+      if (allowed < length) {
+        mTruncated = true;
+      }
+    }
+
+    public void markTruncated() {
+      mTruncated = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (mClosed) {
+        return;
+      }
+      mClosed = true;
+      try {
+        super.close();
+      } finally {
+        onBodyWritten(mEntry, mFileOut.getCount(), mTruncated, mMaxBodyBytes);
+      }
+    }
+  }
 }
@@ -34,13 +34,14 @@ public final class ResponseHandlingInputStream extends FilterInputStream {
   private static final int BUFFER_SIZE = 1024;
 
   private final String mRequestId;
-  private final OutputStream mOutputStream;
+  @Nullable private final OutputStream mOutputStream;
   @Nullable private final CountingOutputStream mDecompressedCounter;
   private final ChromePeerManager mNetworkPeerManager;
   private final ResponseHandler mResponseHandler;
 
   /**
    * This stream will no longer be usable if {@link #close()} has been called on this stream.
+   * Without an output stream there is nothing to close, so this starts out true.
    */
   @GuardedBy("this")
   private boolean mClosed;
@@ -57,7 +58,8 @@ public final class ResponseHandlingInputStream extends FilterInputStream {
   /**
    * @param inputStream
    * @param requestId the requestId to use when we call the {@link NetworkEventReporter}
-   * @param outputStream stream to write to.
+   * @param outputStream stream to write to, or null to only report the reads (the body is then
+   *     passed through without being copied).
    * @param decompressedCounter Optional decompressing counting output stream which
    *     can be queried after each write to determine the number of decompressed bytes
    *     yielded.  Used to implement {@link ResponseHandler#onReadDecoded(int)}.
@@ -69,7 +71,7 @@ public final class ResponseHandlingInputStream extends FilterInputStream {
   public ResponseHandlingInputStream(
       InputStream inputStream,
       String requestId,
-      OutputStream outputStream,
+      @Nullable OutputStream outputStream,
       @Nullable CountingOutputStream decompressedCounter,
       ChromePeerManager networkPeerManager,
       ResponseHandler responseHandler) {
@@ -79,7 +81,7 @@ public final class ResponseHandlingInputStream extends FilterInputStream {
     mDecompressedCounter = decompressedCounter;
     mNetworkPeerManager = networkPeerManager;
     mResponseHandler = responseHandler;
-    mClosed = false;
+    mClosed = outputStream == null;
   }
 
   private synchronized int checkEOF(int n) {
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import com.facebook.stetho.common.Util;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * {@link BodyCapturePolicy} configured with rules on the response's MIME type, declared
+ * {@code Content-Length} and URL, plus a sampling rate.  The MIME type rules work like a
+ * {@link MimeMatcher}: only the first one added that matches applies.  Beyond that every
+ * matching rule applies, so the most restrictive of the MIME type, {@code Content-Length} and
+ * URL limits wins.  For example, to skip video and keep only the start of responses larger
+ * than 1MB:
+ * <pre>
+ *   new RuleBasedBodyCapturePolicy.Builder()
+ *       .mimeType("video/*", BodyCapturePolicy.CAPTURE_NONE)
+ *       .contentLengthAbove(1024 * 1024, 64 * 1024)
+ *       .build();
+ * </pre>
+ */
+@ThreadSafe
+public class RuleBasedBodyCapturePolicy implements BodyCapturePolicy {
+  private final int mDefaultLimit;
+  private final MimeMatcher<Integer> mMimeTypeLimits;
+  private final Pattern[] mUrlPatterns;
+  private final int[] mUrlLimits;
+  private final long mContentLengthThreshold;
+  private final int mContentLengthLimit;
+  private final double mSampleRate;
+  private final Random mRandom = new Random();
+
+  private RuleBasedBodyCapturePolicy(Builder builder) {
+    mDefaultLimit = builder.mDefaultLimit;
+    mMimeTypeLimits = builder.mMimeTypeLimits;
+    mUrlPatterns = builder.mUrlPatterns.toArray(new Pattern[builder.mUrlPatterns.size()]);
+    mUrlLimits = new int[mUrlPatterns.length];
+    for (int i = 0; i < mUrlLimits.length; i++) {
+      mUrlLimits[i] = builder.mUrlLimits.get(i);
+    }
+    mContentLengthThreshold = builder.mContentLengthThreshold;
+    mContentLengthLimit = builder.mContentLengthLimit;
+    mSampleRate = builder.mSampleRate;
+  }
+
+  @Override
+  public int getCaptureLimit(NetworkEventReporter.InspectorResponse response) {
+    if (mSampleRate < 1 && !isSampled()) {
+      return CAPTURE_NONE;
+    }
+    int limit = mDefaultLimit;
+
+    String contentType = response.firstHeaderValue("Content-Type");
+    if (contentType != null) {
+      Integer mimeTypeLimit = mMimeTypeLimits.match(stripContentExtras(contentType));
+      if (mimeTypeLimit != null) {
+        limit = Math.min(limit, mimeTypeLimit);
+      }
+    }
+
+    if (mContentLengthThreshold >= 0) {
+      long contentLength = parseContentLength(response.firstHeaderValue("Content-Length"));
+      if (contentLength > mContentLengthThreshold) {
+        limit = Math.min(limit, mContentLengthLimit);
+      }
+    }
+
+    if (mUrlPatterns.length > 0) {
+      String url = response.url();
+      for (int i = 0; i < mUrlPatterns.length; i++) {
+        if (mUrlLimits[i] < limit && mUrlPatterns[i].matcher(url).find()) {
+          limit = mUrlLimits[i];
+        }
+      }
+    }
+
+    return limit;
+  }
+
+  private boolean isSampled() {
+    synchronized (mRandom) {
+      return mRandom.nextDouble() < mSampleRate;
+    }
+  }
+
+  private static String stripContentExtras(String contentType) {
+    int index = contentType.indexOf(';');
+    return (index >= 0 ? contentType.substring(0, index) : contentType).trim();
+  }
+
+  /**
+   * @return The declared length, or -1 if it is absent or malformed.
+   */
+  private static long parseContentLength(@Nullable String contentLength) {
+    if (contentLength != null) {
+      try {
+        return Long.parseLong(contentLength.trim());
+      } catch (NumberFormatException e) {
+        // Fall through.
+      }
+    }
+    return -1;
+  }
+
+  public static class Builder {
+    private int mDefaultLimit = CAPTURE_ALL;
+    private final MimeMatcher<Integer> mMimeTypeLimits = new MimeMatcher<>();
+    private final List<Pattern> mUrlPatterns = new ArrayList<>();
+    private final List<Integer> mUrlLimits = new ArrayList<>();
+    private long mContentLengthThreshold = -1;
+    private int mContentLengthLimit = CAPTURE_ALL;
+    private double mSampleRate = 1;
+
+    /**
+     * Limit for responses that no rule restricts further.  Defaults to
+     * {@link BodyCapturePolicy#CAPTURE_ALL}.
+     */
+    public Builder defaultLimit(int limit) {
+      mDefaultLimit = checkLimit(limit);
+      return this;
+    }
+
+    /**
+     * Limit responses of a MIME type, such as "video/*" or "image/webp".  Where several of these
+     * rules match only the first one added applies.
+     */
+    public Builder mimeType(String mimeTypeExpression, int limit) {
+      mMimeTypeLimits.addRule(mimeTypeExpression, checkLimit(limit));
+      return this;
+    }
+
+    /**
+     * Limit responses whose URL contains a match for {@code urlPattern}.
+     */
+    public Builder url(Pattern urlPattern, int limit) {
+      mUrlPatterns.add(Util.throwIfNull(urlPattern));
+      mUrlLimits.add(checkLimit(limit));
+      return this;
+    }
+
+    /**
+     * Limit responses which declare a {@code Content-Length} larger than {@code threshold}.
+     * Bodies of unknown length aren't affected, but are still subject to the
+     * {@link ResponseBodyFileManager}'s own limits.
+     */
+    public Builder contentLengthAbove(long threshold, int limit) {
+      Util.throwIfNot(threshold >= 0, "Threshold must not be negative");
+      mContentLengthThreshold = threshold;
+      mContentLengthLimit = checkLimit(limit);
+      return this;
+    }
+
+    /**
+     * Capture bodies for only this fraction of responses, chosen at random.  The rest are
+     * reported without a body.
+     */
+    public Builder sampleRate(double rate) {
+      Util.throwIfNot(rate >= 0 && rate <= 1, "Sample rate must be between 0 and 1");
+      mSampleRate = rate;
+      return this;
+    }
+
+    public RuleBasedBodyCapturePolicy build() {
+      return new RuleBasedBodyCapturePolicy(this);
+    }
+
+    private static int checkLimit(int limit) {
+      Util.throwIfNot(limit >= 0, "Limit must not be negative");
+      return limit;
+    }
+  }
+}
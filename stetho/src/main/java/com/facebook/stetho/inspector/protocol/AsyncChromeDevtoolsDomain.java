@@ -0,0 +1,21 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.protocol;
+
+import java.util.concurrent.Executor;
+
+/**
+ * {@link ChromeDevtoolsDomain} whose methods are dispatched on their own {@link Executor} rather
+ * than the WebSocket read thread, so that slow work (database queries, reading response bodies,
+ * etc) does not stall requests to other domains on the same connection.  Methods are still
+ * invoked in the order they were received if the executor is serial, as returned by
+ * {@link DomainExecutors#newSerialExecutor}.
+ */
+public interface AsyncChromeDevtoolsDomain extends ChromeDevtoolsDomain {
+  Executor getMethodExecutor();
+}
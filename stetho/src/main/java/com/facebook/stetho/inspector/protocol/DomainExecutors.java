@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.protocol;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+public final class DomainExecutors {
+  private static final long IDLE_THREAD_TIMEOUT_MS = 30 * 1000;
+
+  private DomainExecutors() {
+  }
+
+  /**
+   * Single daemon thread executor suitable for {@link AsyncChromeDevtoolsDomain#getMethodExecutor()}.
+   * The thread is only alive while there is work to do.
+   */
+  public static Executor newSerialExecutor(String domainName) {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(
+        1 /* corePoolSize */,
+        1 /* maximumPoolSize */,
+        IDLE_THREAD_TIMEOUT_MS,
+        TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<Runnable>(),
+        newThreadFactory(domainName));
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  /**
+   * Variant of {@link #newSerialExecutor} for domains which also need to run delayed work (such
+   * as expiring idle state) on the same thread as their methods.
+   */
+  public static ScheduledExecutorService newSerialScheduledExecutor(String domainName) {
+    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(
+        1 /* corePoolSize */,
+        newThreadFactory(domainName));
+    executor.setKeepAliveTime(IDLE_THREAD_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  private static ThreadFactory newThreadFactory(final String domainName) {
+    return new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "StethoDomain-" + domainName);
+        t.setDaemon(true);
+        return t;
+      }
+    };
+  }
+}
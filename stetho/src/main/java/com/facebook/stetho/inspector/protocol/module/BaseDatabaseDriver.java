@@ -11,6 +11,8 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteException;
 
+import javax.annotation.Nullable;
+
 import java.util.List;
 
 /**
@@ -48,6 +50,21 @@ public abstract class BaseDatabaseDriver<DESC> {
       ExecuteResultHandler<Database.ExecuteSQLResponse> handler)
       throws SQLiteException;
 
+  /**
+   * Run a query whose rows are read by the caller after this returns, possibly over several
+   * requests, rather than from within {@link ExecuteResultHandler#handleSelect}.  Closing the
+   * returned cursor must release anything that was held open for it.
+   * <p>
+   * The default implementation returns null, in which case {@link #executeSQL} is used.
+   *
+   * @return The result cursor, or null if {@code query} does not return rows or this driver does
+   *     not support it.
+   */
+  @Nullable
+  public Cursor openQuery(DESC database, String query) throws SQLiteException {
+    return null;
+  }
+
   public interface ExecuteResultHandler<RESULT> {
     RESULT handleRawQuery() throws SQLiteException;
 
@@ -8,6 +8,7 @@
 package com.facebook.stetho.inspector.protocol.module;
 
 import android.graphics.Color;
+import android.os.SystemClock;
 import com.facebook.stetho.common.Accumulator;
 import com.facebook.stetho.common.ArrayListAccumulator;
 import com.facebook.stetho.common.LogUtil;
@@ -31,18 +32,38 @@ import com.facebook.stetho.json.annotation.JsonProperty;
 import org.json.JSONObject;
 
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class DOM implements ChromeDevtoolsDomain {
+  /**
+   * DevTools discards the previous search as the query changes, but a client that goes away
+   * mid-search won't, so only the most recent searches are kept around.
+   */
+  private static final int MAX_SEARCH_RESULTS = 8;
+
+  /**
+   * Results are only fetched shortly after the search; anything older is stale anyway.
+   */
+  private static final long SEARCH_RESULT_TTL_MS = 5 * 60 * 1000;
+
+  /**
+   * More matches than anyone would step through, and a single search result can't grow without
+   * bound for a query like "a".
+   */
+  private static final int MAX_MATCHES_PER_SEARCH = 1000;
+
   private final ObjectMapper mObjectMapper;
   private final Document mDocument;
-  private final Map<String, List<Integer>> mSearchResults;
+  @GuardedBy("mSearchResults")
+  private final LinkedHashMap<String, SearchResult> mSearchResults;
   private final AtomicInteger mResultCounter;
   private final ChromePeerManager mPeerManager;
   private final DocumentUpdateListener mListener;
@@ -53,8 +74,12 @@ public class DOM implements ChromeDevtoolsDomain {
   public DOM(Document document) {
     mObjectMapper = new ObjectMapper();
     mDocument = Util.throwIfNull(document);
-    mSearchResults = Collections.synchronizedMap(
-      new HashMap<String, List<Integer>>());
+    mSearchResults = new LinkedHashMap<String, SearchResult>() {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, SearchResult> eldest) {
+        return size() > MAX_SEARCH_RESULTS;
+      }
+    };
     mResultCounter = new AtomicInteger(0);
     mPeerManager = new ChromePeerManager();
     mPeerManager.setListener(new PeerManagerListener());
@@ -196,18 +221,17 @@ public class DOM implements ChromeDevtoolsDomain {
 
     final ArrayListAccumulator<Integer> resultNodeIds = new ArrayListAccumulator<>();
 
-    mDocument.postAndWait(new Runnable() {
-      @Override
-      public void run() {
-        mDocument.findMatchingElements(request.query, resultNodeIds);
-      }
-    });
+    // Runs against the document's search index on this thread, so the UI thread is not involved.
+    mDocument.findMatchingElements(request.query, MAX_MATCHES_PER_SEARCH, resultNodeIds);
 
     // Each search action has a unique ID so that
     // it can be queried later.
     final String searchId = String.valueOf(mResultCounter.getAndIncrement());
 
-    mSearchResults.put(searchId, resultNodeIds);
+    synchronized (mSearchResults) {
+      removeExpiredSearchResultsLocked();
+      mSearchResults.put(searchId, new SearchResult(resultNodeIds));
+    }
 
     final PerformSearchResponse response = new PerformSearchResponse();
     response.searchId = searchId;
@@ -227,14 +251,21 @@ public class DOM implements ChromeDevtoolsDomain {
       return null;
     }
 
-    final List<Integer> results = mSearchResults.get(request.searchId);
+    final List<Integer> results;
+    synchronized (mSearchResults) {
+      removeExpiredSearchResultsLocked();
+      SearchResult searchResult = mSearchResults.get(request.searchId);
+      results = searchResult != null ? searchResult.nodeIds : null;
+    }
 
     if (results == null) {
       LogUtil.w("\"" + request.searchId + "\" is not a valid reference to a search result");
       return null;
     }
 
-    final List<Integer> resultsRange = results.subList(request.fromIndex, request.toIndex);
+    final int toIndex = Math.min(request.toIndex, results.size());
+    final int fromIndex = Math.min(Math.max(request.fromIndex, 0), toIndex);
+    final List<Integer> resultsRange = results.subList(fromIndex, toIndex);
 
     final GetSearchResultsResponse response = new GetSearchResultsResponse();
     response.nodeIds = resultsRange;
@@ -249,7 +280,22 @@ public class DOM implements ChromeDevtoolsDomain {
       DiscardSearchResultsRequest.class);
 
     if (request.searchId != null) {
-      mSearchResults.remove(request.searchId);
+      synchronized (mSearchResults) {
+        mSearchResults.remove(request.searchId);
+      }
+    }
+  }
+
+  @GuardedBy("mSearchResults")
+  private void removeExpiredSearchResultsLocked() {
+    long now = SystemClock.elapsedRealtime();
+    Iterator<SearchResult> iter = mSearchResults.values().iterator();
+    while (iter.hasNext()) {
+      // Insertion ordered, so everything after the first live entry is live too.
+      if (now - iter.next().createdAtMs < SEARCH_RESULT_TTL_MS) {
+        break;
+      }
+      iter.remove();
     }
   }
 
@@ -398,18 +444,29 @@ public class DOM implements ChromeDevtoolsDomain {
 
     @Override
     protected synchronized void onLastPeerUnregistered() {
-      mSearchResults.clear();
+      synchronized (mSearchResults) {
+        mSearchResults.clear();
+      }
       mDocument.removeUpdateListener(mListener);
       mDocument.release();
     }
   }
 
-  private static class GetDocumentResponse implements JsonRpcResult {
+  private static class SearchResult {
+    public final List<Integer> nodeIds;
+    public final long createdAtMs = SystemClock.elapsedRealtime();
+
+    public SearchResult(List<Integer> nodeIds) {
+      this.nodeIds = nodeIds;
+    }
+  }
+
+  static class GetDocumentResponse implements JsonRpcResult {
     @JsonProperty(required = true)
     public Node root;
   }
 
-  private static class Node implements JsonRpcResult {
+  static class Node implements JsonRpcResult {
     @JsonProperty(required = true)
     public int nodeId;
 
@@ -435,7 +492,7 @@ public class DOM implements ChromeDevtoolsDomain {
     public List<String> attributes;
   }
 
-  private static class AttributeModifiedEvent {
+  static class AttributeModifiedEvent {
     @JsonProperty(required = true)
     public int nodeId;
 
@@ -446,7 +503,7 @@ public class DOM implements ChromeDevtoolsDomain {
     public String value;
   }
 
-  private static class AttributeRemovedEvent {
+  static class AttributeRemovedEvent {
     @JsonProperty(required = true)
     public int nodeId;
 
@@ -454,7 +511,7 @@ public class DOM implements ChromeDevtoolsDomain {
     public String name;
   }
 
-  private static class ChildNodeInsertedEvent {
+  static class ChildNodeInsertedEvent {
     @JsonProperty(required = true)
     public int parentNodeId;
 
@@ -465,7 +522,7 @@ public class DOM implements ChromeDevtoolsDomain {
     public Node node;
   }
 
-  private static class ChildNodeRemovedEvent {
+  static class ChildNodeRemovedEvent {
     @JsonProperty(required = true)
     public int parentNodeId;
 
@@ -473,7 +530,7 @@ public class DOM implements ChromeDevtoolsDomain {
     public int nodeId;
   }
 
-  private static class HighlightNodeRequest {
+  static class HighlightNodeRequest {
     @JsonProperty(required = true)
     public HighlightConfig highlightConfig;
 
@@ -484,17 +541,17 @@ public class DOM implements ChromeDevtoolsDomain {
     public String objectId;
   }
 
-  private static class HighlightConfig {
+  static class HighlightConfig {
     @JsonProperty
     public RGBAColor contentColor;
   }
 
-  private static class InspectNodeRequestedEvent {
+  static class InspectNodeRequestedEvent {
     @JsonProperty
     public int nodeId;
   }
 
-  private static class SetInspectModeEnabledRequest {
+  static class SetInspectModeEnabledRequest {
     @JsonProperty(required = true)
     public boolean enabled;
 
@@ -505,7 +562,7 @@ public class DOM implements ChromeDevtoolsDomain {
     public HighlightConfig highlightConfig;
   }
 
-  private static class RGBAColor {
+  static class RGBAColor {
     @JsonProperty(required = true)
     public int r;
 
@@ -531,7 +588,7 @@ public class DOM implements ChromeDevtoolsDomain {
     }
   }
 
-  private static class ResolveNodeRequest {
+  static class ResolveNodeRequest {
     @JsonProperty(required = true)
     public int nodeId;
 
@@ -539,7 +596,7 @@ public class DOM implements ChromeDevtoolsDomain {
     public String objectGroup;
   }
 
-  private static class SetAttributesAsTextRequest {
+  static class SetAttributesAsTextRequest {
     @JsonProperty(required = true)
     public int nodeId;
 
@@ -547,12 +604,12 @@ public class DOM implements ChromeDevtoolsDomain {
     public String text;
   }
 
-  private static class ResolveNodeResponse implements JsonRpcResult {
+  static class ResolveNodeResponse implements JsonRpcResult {
     @JsonProperty(required = true)
     public Runtime.RemoteObject object;
   }
 
-  private static class PerformSearchRequest {
+  static class PerformSearchRequest {
     @JsonProperty(required = true)
     public String query;
 
@@ -560,7 +617,7 @@ public class DOM implements ChromeDevtoolsDomain {
     public Boolean includeUserAgentShadowDOM;
   }
 
-  private static class PerformSearchResponse implements JsonRpcResult {
+  static class PerformSearchResponse implements JsonRpcResult {
     @JsonProperty(required = true)
     public String searchId;
 
@@ -568,7 +625,7 @@ public class DOM implements ChromeDevtoolsDomain {
     public int resultCount;
   }
 
-  private static class GetSearchResultsRequest {
+  static class GetSearchResultsRequest {
     @JsonProperty(required = true)
     public String searchId;
 
@@ -579,12 +636,12 @@ public class DOM implements ChromeDevtoolsDomain {
     public int toIndex;
   }
 
-  private static class GetSearchResultsResponse implements JsonRpcResult {
+  static class GetSearchResultsResponse implements JsonRpcResult {
     @JsonProperty(required = true)
     public List<Integer> nodeIds;
   }
 
-  private static class DiscardSearchResultsRequest {
+  static class DiscardSearchResultsRequest {
     @JsonProperty(required = true)
     public String searchId;
   }
@@ -174,7 +174,7 @@ public class DOMStorage implements ChromeDevtoolsDomain {
     public boolean isLocalStorage;
   }
 
-  private static class GetDOMStorageItemsResult implements JsonRpcResult {
+  static class GetDOMStorageItemsResult implements JsonRpcResult {
     @JsonProperty(required = true)
     public List<List<String>> entries;
   }
@@ -10,6 +10,7 @@ package com.facebook.stetho.inspector.protocol.module;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteException;
+import android.os.SystemClock;
 import android.util.SparseArray;
 
 import com.facebook.stetho.common.LogUtil;
@@ -21,23 +22,34 @@ import com.facebook.stetho.inspector.jsonrpc.JsonRpcException;
 import com.facebook.stetho.inspector.jsonrpc.JsonRpcPeer;
 import com.facebook.stetho.inspector.jsonrpc.JsonRpcResult;
 import com.facebook.stetho.inspector.jsonrpc.protocol.JsonRpcError;
-import com.facebook.stetho.inspector.protocol.ChromeDevtoolsDomain;
+import com.facebook.stetho.inspector.protocol.AsyncChromeDevtoolsDomain;
 import com.facebook.stetho.inspector.protocol.ChromeDevtoolsMethod;
+import com.facebook.stetho.inspector.protocol.DomainExecutors;
+import com.facebook.stetho.json.JsonWritable;
+import com.facebook.stetho.json.JsonWriter;
 import com.facebook.stetho.json.ObjectMapper;
 import com.facebook.stetho.json.annotation.JsonProperty;
 
 import org.json.JSONObject;
 
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 
-public class Database implements ChromeDevtoolsDomain {
+public class Database implements AsyncChromeDevtoolsDomain {
   /**
    * The protocol doesn't offer an efficient means of pagination or anything like that so
    * we'll just cap the result list to some arbitrarily large number that I think folks will
@@ -48,6 +60,19 @@ public class Database implements ChromeDevtoolsDomain {
    */
   private static final int MAX_EXECUTE_RESULTS = 250;
 
+  /**
+   * Upper bound on {@code pageSize} for paginated queries, which keeps any one response (and
+   * the memory needed to send it) bounded.
+   */
+  private static final int MAX_PAGE_SIZE = 1000;
+
+  /**
+   * Cursors of a paginated query are kept open between pages.  Each one pins a database
+   * connection and a cursor window, so only a few are kept per peer and abandoned ones expire.
+   */
+  private static final int MAX_OPEN_QUERIES_PER_PEER = 4;
+  private static final long OPEN_QUERY_IDLE_TIMEOUT_MS = 60 * 1000;
+
   /**
    * Maximum length of a BLOB field before we stop trying to interpret it and just
    * return {@link #UNKNOWN_BLOB_LABEL}
@@ -63,6 +88,9 @@ public class Database implements ChromeDevtoolsDomain {
   private final ChromePeerManager mChromePeerManager;
   private final DatabasePeerRegistrationListener mPeerListener;
   private final ObjectMapper mObjectMapper;
+  private final ScheduledExecutorService mMethodExecutor =
+      DomainExecutors.newSerialScheduledExecutor("Database");
+  private final OpenQueries mOpenQueries = new OpenQueries();
 
   /**
    * Constructs the object.
@@ -70,11 +98,19 @@ public class Database implements ChromeDevtoolsDomain {
   public Database() {
     mDatabaseDrivers = new ArrayList<>();
     mChromePeerManager = new ChromePeerManager();
-    mPeerListener = new DatabasePeerRegistrationListener(mDatabaseDrivers);
+    mPeerListener = new DatabasePeerRegistrationListener(mDatabaseDrivers, mOpenQueries);
     mChromePeerManager.setListener(mPeerListener);
     mObjectMapper = new ObjectMapper();
   }
 
+  /**
+   * Queries issued from the console can be arbitrarily slow.
+   */
+  @Override
+  public Executor getMethodExecutor() {
+    return mMethodExecutor;
+  }
+
   public void add(DatabaseDriver2 databaseDriver) {
     mDatabaseDrivers.add(databaseDriver);
   }
@@ -112,6 +148,14 @@ public class Database implements ChromeDevtoolsDomain {
     }
   }
 
+  /**
+   * Run a statement and respond with its result.  Query results are normally capped at
+   * {@link #MAX_EXECUTE_RESULTS} rows.  If the request includes a {@code pageSize} (a Stetho
+   * extension) and more rows remain after the first page, the response also carries a
+   * {@code cursorId} and {@code hasMore}, and further pages are read with {@link #fetchRows}.
+   * If the cursor fails while a page is read, that page ends with the rows read so far, carries
+   * a {@code sqlError}, and the query is closed.
+   */
   @ChromeDevtoolsMethod
   public JsonRpcResult executeSQL(JsonRpcPeer peer, JSONObject params) {
     ExecuteSQLRequest request = mObjectMapper.convertValue(params,
@@ -121,6 +165,24 @@ public class Database implements ChromeDevtoolsDomain {
         mPeerListener.getDatabaseDescriptorHolder(request.databaseId);
 
     try {
+      Cursor cursor = holder.driver.openQuery(holder.descriptor, request.query);
+      if (cursor != null) {
+        try {
+          // The statement may not actually run until the cursor first fills its window, so do
+          // that here where a failure can still be reported as sqlError.
+          cursor.getCount();
+        } catch (RuntimeException e) {
+          cursor.close();
+          throw e;
+        }
+        boolean paginated = request.pageSize != null;
+        OpenQuery query = mOpenQueries.add(peer, cursor, paginated);
+        return new QueryPageResponse(
+            query,
+            true /* includeColumnNames */,
+            paginated ? clampPageSize(request.pageSize) : MAX_EXECUTE_RESULTS);
+      }
+
       return holder.driver.executeSQL(
           holder.descriptor,
           request.query,
@@ -171,6 +233,40 @@ public class Database implements ChromeDevtoolsDomain {
     }
   }
 
+  /**
+   * Read the next page of a query started by {@link #executeSQL} with a {@code pageSize}.
+   */
+  @ChromeDevtoolsMethod
+  public JsonRpcResult fetchRows(JsonRpcPeer peer, JSONObject params) throws JsonRpcException {
+    FetchRowsRequest request = mObjectMapper.convertValue(params, FetchRowsRequest.class);
+    OpenQuery query = mOpenQueries.get(peer, request.cursorId);
+    if (query == null) {
+      throw new JsonRpcException(
+          new JsonRpcError(
+              JsonRpcError.ErrorCode.INVALID_PARAMS,
+              "No open query " + request.cursorId + " (it may have expired)",
+              null /* data */));
+    }
+    return new QueryPageResponse(query, false /* includeColumnNames */,
+        clampPageSize(request.pageSize));
+  }
+
+  /**
+   * Close a paginated query before all of its rows were read.
+   */
+  @ChromeDevtoolsMethod
+  public void releaseCursor(JsonRpcPeer peer, JSONObject params) {
+    ReleaseCursorRequest request = mObjectMapper.convertValue(params, ReleaseCursorRequest.class);
+    OpenQuery query = mOpenQueries.get(peer, request.cursorId);
+    if (query != null) {
+      mOpenQueries.close(query);
+    }
+  }
+
+  private static int clampPageSize(int pageSize) {
+    return Math.max(1, Math.min(pageSize, MAX_PAGE_SIZE));
+  }
+
   /**
    * Flatten all columns and all rows of a cursor to a single array.  The array cannot be
    * interpreted meaningfully without the number of columns.
@@ -184,27 +280,10 @@ public class Database implements ChromeDevtoolsDomain {
     Util.throwIfNot(limit >= 0);
     ArrayList<String> flatList = new ArrayList<>();
     final int numColumns = cursor.getColumnCount();
+    final String[] values = new String[numColumns];
     for (int row = 0; row < limit && cursor.moveToNext(); row++) {
-      for (int column = 0; column < numColumns; column++) {
-        switch (cursor.getType(column)) {
-          case Cursor.FIELD_TYPE_NULL:
-            flatList.add(null);
-            break;
-          case Cursor.FIELD_TYPE_INTEGER:
-            flatList.add(String.valueOf(cursor.getLong(column)));
-            break;
-          case Cursor.FIELD_TYPE_FLOAT:
-            flatList.add(String.valueOf(cursor.getDouble(column)));
-            break;
-          case Cursor.FIELD_TYPE_BLOB:
-            flatList.add(blobToString(cursor.getBlob(column)));
-            break;
-          case Cursor.FIELD_TYPE_STRING:
-          default:
-            flatList.add(cursor.getString(column));
-            break;
-        }
-      }
+      readRow(cursor, values);
+      flatList.addAll(Arrays.asList(values));
     }
     if (!cursor.isAfterLast()) {
       for (int column = 0; column < numColumns; column++) {
@@ -214,6 +293,32 @@ public class Database implements ChromeDevtoolsDomain {
     return flatList;
   }
 
+  /**
+   * Read the current row of {@code cursor}, converting each column value to a string.
+   */
+  private static void readRow(Cursor cursor, String[] row) {
+    for (int column = 0; column < row.length; column++) {
+      switch (cursor.getType(column)) {
+        case Cursor.FIELD_TYPE_NULL:
+          row[column] = null;
+          break;
+        case Cursor.FIELD_TYPE_INTEGER:
+          row[column] = String.valueOf(cursor.getLong(column));
+          break;
+        case Cursor.FIELD_TYPE_FLOAT:
+          row[column] = String.valueOf(cursor.getDouble(column));
+          break;
+        case Cursor.FIELD_TYPE_BLOB:
+          row[column] = blobToString(cursor.getBlob(column));
+          break;
+        case Cursor.FIELD_TYPE_STRING:
+        default:
+          row[column] = cursor.getString(column);
+          break;
+      }
+    }
+  }
+
   private static String blobToString(byte[] blob) {
     if (blob.length <= MAX_BLOB_LENGTH) {
       if (fastIsAscii(blob)) {
@@ -236,9 +341,300 @@ public class Database implements ChromeDevtoolsDomain {
     return true;
   }
 
+  /**
+   * A query whose cursor is read by one or more {@link QueryPageResponse}s.
+   */
+  @ThreadSafe
+  private static class OpenQuery {
+    public final String id;
+    public final JsonRpcPeer peer;
+    public final boolean paginated;
+
+    @GuardedBy("this")
+    private final Cursor mCursor;
+
+    @GuardedBy("this")
+    private boolean mClosed;
+
+    @GuardedBy("this")
+    @Nullable
+    private Error mReadError;
+
+    private volatile long mLastAccessTimeMs;
+
+    public OpenQuery(String id, JsonRpcPeer peer, Cursor cursor, boolean paginated) {
+      this.id = id;
+      this.peer = peer;
+      this.paginated = paginated;
+      mCursor = cursor;
+      touch();
+    }
+
+    public long getLastAccessTimeMs() {
+      return mLastAccessTimeMs;
+    }
+
+    public void touch() {
+      mLastAccessTimeMs = SystemClock.elapsedRealtime();
+    }
+
+    public synchronized String[] getColumnNames() {
+      return mCursor.getColumnNames();
+    }
+
+    /**
+     * Write up to {@code maxRows} rows as flattened column values.  If reading from the cursor
+     * fails, the rows read so far are kept and the failure is available from
+     * {@link #getReadError}.
+     *
+     * @return Whether rows remain after those written.
+     */
+    public synchronized boolean writeRows(JsonWriter writer, int maxRows) throws IOException {
+      if (mClosed) {
+        return false;
+      }
+      String[] row = new String[mCursor.getColumnCount()];
+      for (int i = 0; i < maxRows; i++) {
+        try {
+          if (!mCursor.moveToNext()) {
+            return false;
+          }
+          readRow(mCursor, row);
+        } catch (RuntimeException e) {
+          // Failing halfway through would leave a partially written message, so end the
+          // results early and report the error alongside them.
+          onReadFailed(e);
+          return false;
+        }
+        for (int column = 0; column < row.length; column++) {
+          if (row[column] != null) {
+            writer.value(row[column]);
+          } else {
+            writer.nullValue();
+          }
+        }
+      }
+      try {
+        return !mCursor.isLast() && !mCursor.isAfterLast();
+      } catch (RuntimeException e) {
+        onReadFailed(e);
+        return false;
+      }
+    }
+
+    @Nullable
+    public synchronized Error getReadError() {
+      return mReadError;
+    }
+
+    @GuardedBy("this")
+    private void onReadFailed(RuntimeException e) {
+      LogUtil.e(e, "Failed to read query results");
+      mReadError = new Error();
+      mReadError.code = 0;
+      mReadError.message = e.getMessage();
+    }
+
+    public synchronized void close() {
+      if (!mClosed) {
+        mClosed = true;
+        mCursor.close();
+      }
+    }
+  }
+
+  /**
+   * Open queries by id, ordered from least to most recently used.
+   */
+  @ThreadSafe
+  private class OpenQueries {
+    private final AtomicInteger mNextId = new AtomicInteger();
+
+    @GuardedBy("this")
+    private final LinkedHashMap<String, OpenQuery> mQueries =
+        new LinkedHashMap<>(16, 0.75f, true /* accessOrder */);
+
+    @GuardedBy("this")
+    private boolean mIsExpirationScheduled;
+
+    private final Runnable mExpireIdleQueries = new Runnable() {
+      @Override
+      public void run() {
+        expireIdleQueries();
+      }
+    };
+
+    public OpenQuery add(JsonRpcPeer peer, Cursor cursor, boolean paginated) {
+      OpenQuery query = new OpenQuery(
+          String.valueOf(mNextId.incrementAndGet()),
+          peer,
+          cursor,
+          paginated);
+      OpenQuery evicted = null;
+      synchronized (this) {
+        int peerQueryCount = 0;
+        OpenQuery leastRecentlyUsed = null;
+        for (OpenQuery other : mQueries.values()) {
+          if (other.peer == peer) {
+            if (leastRecentlyUsed == null) {
+              leastRecentlyUsed = other;
+            }
+            peerQueryCount++;
+          }
+        }
+        if (peerQueryCount >= MAX_OPEN_QUERIES_PER_PEER) {
+          evicted = mQueries.remove(leastRecentlyUsed.id);
+        }
+        mQueries.put(query.id, query);
+        scheduleExpirationLocked();
+      }
+      if (evicted != null) {
+        evicted.close();
+      }
+      return query;
+    }
+
+    @Nullable
+    public OpenQuery get(JsonRpcPeer peer, String id) {
+      OpenQuery query;
+      synchronized (this) {
+        query = mQueries.get(id);
+      }
+      if (query == null || query.peer != peer) {
+        return null;
+      }
+      query.touch();
+      return query;
+    }
+
+    public void close(OpenQuery query) {
+      synchronized (this) {
+        mQueries.remove(query.id);
+      }
+      query.close();
+    }
+
+    public void closeAll(JsonRpcPeer peer) {
+      ArrayList<OpenQuery> closed = new ArrayList<>();
+      synchronized (this) {
+        Iterator<OpenQuery> iter = mQueries.values().iterator();
+        while (iter.hasNext()) {
+          OpenQuery query = iter.next();
+          if (query.peer == peer) {
+            iter.remove();
+            closed.add(query);
+          }
+        }
+      }
+      for (int i = 0, N = closed.size(); i < N; i++) {
+        closed.get(i).close();
+      }
+    }
+
+    @GuardedBy("this")
+    private void scheduleExpirationLocked() {
+      if (!mIsExpirationScheduled && !mQueries.isEmpty()) {
+        mIsExpirationScheduled = true;
+        mMethodExecutor.schedule(
+            mExpireIdleQueries,
+            OPEN_QUERY_IDLE_TIMEOUT_MS,
+            TimeUnit.MILLISECONDS);
+      }
+    }
+
+    private void expireIdleQueries() {
+      long now = SystemClock.elapsedRealtime();
+      ArrayList<OpenQuery> expired = new ArrayList<>();
+      synchronized (this) {
+        mIsExpirationScheduled = false;
+        Iterator<OpenQuery> iter = mQueries.values().iterator();
+        while (iter.hasNext()) {
+          OpenQuery query = iter.next();
+          if (now - query.getLastAccessTimeMs() >= OPEN_QUERY_IDLE_TIMEOUT_MS) {
+            iter.remove();
+            expired.add(query);
+          }
+        }
+        scheduleExpirationLocked();
+      }
+      for (int i = 0, N = expired.size(); i < N; i++) {
+        expired.get(i).close();
+      }
+    }
+  }
+
+  /**
+   * Writes rows straight from the cursor into the outgoing message, without first collecting
+   * them into a list of strings.  Queries that aren't paginated, or have no rows left, are closed
+   * once written.
+   */
+  private class QueryPageResponse implements JsonRpcResult, JsonWritable {
+    private final OpenQuery mQuery;
+    private final boolean mIncludeColumnNames;
+    private final int mPageSize;
+
+    public QueryPageResponse(OpenQuery query, boolean includeColumnNames, int pageSize) {
+      mQuery = query;
+      mIncludeColumnNames = includeColumnNames;
+      mPageSize = pageSize;
+    }
+
+    @Override
+    public void writeTo(JsonWriter writer) throws IOException {
+      boolean hasMore = false;
+      try {
+        writer.beginObject();
+        if (mIncludeColumnNames) {
+          writer.name("columnNames");
+          writer.beginArray();
+          String[] columnNames = mQuery.getColumnNames();
+          for (int i = 0; i < columnNames.length; i++) {
+            writer.value(columnNames[i]);
+          }
+          writer.endArray();
+        }
+        writer.name("values");
+        writer.beginArray();
+        hasMore = mQuery.writeRows(writer, mPageSize);
+        if (hasMore && !mQuery.paginated) {
+          for (int i = 0, N = mQuery.getColumnNames().length; i < N; i++) {
+            writer.value("{truncated}");
+          }
+        }
+        writer.endArray();
+        Error readError = mQuery.getReadError();
+        if (readError != null) {
+          writer.name("sqlError");
+          writer.beginObject();
+          writer.name("message");
+          writer.value(readError.message);
+          writer.name("code");
+          writer.value(readError.code);
+          writer.endObject();
+        }
+        if (mQuery.paginated) {
+          if (hasMore) {
+            writer.name("cursorId");
+            writer.value(mQuery.id);
+          }
+          writer.name("hasMore");
+          writer.value(hasMore);
+        }
+        writer.endObject();
+      } finally {
+        if (hasMore && mQuery.paginated) {
+          mQuery.touch();
+        } else {
+          mOpenQueries.close(mQuery);
+        }
+      }
+    }
+  }
+
   @ThreadSafe
   private static class DatabasePeerRegistrationListener extends PeersRegisteredListener {
     private final List<DatabaseDriver2> mDatabaseDrivers;
+    private final OpenQueries mOpenQueries;
 
     @GuardedBy("this")
     private final SparseArray<DatabaseDescriptorHolder> mDatabaseHolders = new SparseArray<>();
@@ -246,8 +642,11 @@ public class Database implements ChromeDevtoolsDomain {
     @GuardedBy("this")
     private final ObjectIdMapper mDatabaseIdMapper = new ObjectIdMapper();
 
-    private DatabasePeerRegistrationListener(List<DatabaseDriver2> databaseDrivers) {
+    private DatabasePeerRegistrationListener(
+        List<DatabaseDriver2> databaseDrivers,
+        OpenQueries openQueries) {
       mDatabaseDrivers = databaseDrivers;
+      mOpenQueries = openQueries;
     }
 
     public DatabaseDescriptorHolder getDatabaseDescriptorHolder(String databaseId) {
@@ -294,7 +693,7 @@ public class Database implements ChromeDevtoolsDomain {
 
     @Override
     protected synchronized void onPeerRemoved(JsonRpcPeer peer) {
-      // Nothing to do on each peer removal...
+      mOpenQueries.closeAll(peer);
     }
   }
 
@@ -308,12 +707,12 @@ public class Database implements ChromeDevtoolsDomain {
     }
   }
 
-  private static class GetDatabaseTableNamesRequest {
+  static class GetDatabaseTableNamesRequest {
     @JsonProperty(required = true)
     public String databaseId;
   }
 
-  private static class GetDatabaseTableNamesResponse implements JsonRpcResult {
+  static class GetDatabaseTableNamesResponse implements JsonRpcResult {
     @JsonProperty(required = true)
     public List<String> tableNames;
   }
@@ -324,6 +723,25 @@ public class Database implements ChromeDevtoolsDomain {
 
     @JsonProperty(required = true)
     public String query;
+
+    /**
+     * Stetho extension: read results in pages of this many rows, see {@link #fetchRows}.
+     */
+    @JsonProperty
+    public Integer pageSize;
+  }
+
+  static class FetchRowsRequest {
+    @JsonProperty(required = true)
+    public String cursorId;
+
+    @JsonProperty(required = true)
+    public int pageSize;
+  }
+
+  static class ReleaseCursorRequest {
+    @JsonProperty(required = true)
+    public String cursorId;
   }
 
   public static class ExecuteSQLResponse implements JsonRpcResult {
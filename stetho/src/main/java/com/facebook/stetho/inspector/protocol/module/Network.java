@@ -7,12 +7,19 @@
 
 package com.facebook.stetho.inspector.protocol.module;
 
+import java.io.Closeable;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 import android.content.Context;
 
+import com.facebook.stetho.common.LogRedirector;
 import com.facebook.stetho.common.Util;
+import com.facebook.stetho.inspector.console.CLog;
 import com.facebook.stetho.inspector.jsonrpc.JsonRpcException;
 import com.facebook.stetho.inspector.jsonrpc.JsonRpcPeer;
 import com.facebook.stetho.inspector.jsonrpc.JsonRpcResult;
@@ -21,23 +28,36 @@ import com.facebook.stetho.inspector.network.AsyncPrettyPrinterInitializer;
 import com.facebook.stetho.inspector.network.NetworkPeerManager;
 import com.facebook.stetho.inspector.network.ResponseBodyData;
 import com.facebook.stetho.inspector.network.ResponseBodyFileManager;
-import com.facebook.stetho.inspector.protocol.ChromeDevtoolsDomain;
+import com.facebook.stetho.inspector.protocol.AsyncChromeDevtoolsDomain;
 import com.facebook.stetho.inspector.protocol.ChromeDevtoolsMethod;
+import com.facebook.stetho.inspector.protocol.DomainExecutors;
+import com.facebook.stetho.json.JsonWritable;
+import com.facebook.stetho.json.JsonWriter;
 import com.facebook.stetho.json.annotation.JsonProperty;
 import com.facebook.stetho.json.annotation.JsonValue;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
-public class Network implements ChromeDevtoolsDomain {
+public class Network implements AsyncChromeDevtoolsDomain {
   private final NetworkPeerManager mNetworkPeerManager;
   private final ResponseBodyFileManager mResponseBodyFileManager;
+  private final Executor mMethodExecutor = DomainExecutors.newSerialExecutor("Network");
 
   public Network(Context context) {
     mNetworkPeerManager = NetworkPeerManager.getOrCreateInstance(context);
     mResponseBodyFileManager = mNetworkPeerManager.getResponseBodyFileManager();
   }
 
+  /**
+   * {@link #getResponseBody} reads from disk and may wait on a pretty printer, neither of which
+   * should hold up other domains.
+   */
+  @Override
+  public Executor getMethodExecutor() {
+    return mMethodExecutor;
+  }
+
   @ChromeDevtoolsMethod
   public void enable(JsonRpcPeer peer, JSONObject params) {
     mNetworkPeerManager.addPeer(peer);
@@ -70,17 +90,30 @@ public class Network implements ChromeDevtoolsDomain {
     }
   }
 
-  private GetResponseBodyResponse readResponseBody(String requestId)
+  private JsonRpcResult readResponseBody(String requestId)
       throws IOException, JsonRpcException {
-    GetResponseBodyResponse response = new GetResponseBodyResponse();
     ResponseBodyData bodyData;
     try {
-      bodyData = mResponseBodyFileManager.readFile(requestId);
+      bodyData = mResponseBodyFileManager.openFile(requestId);
     } catch (OutOfMemoryError e) {
       throw new JsonRpcException(new JsonRpcError(JsonRpcError.ErrorCode.INTERNAL_ERROR,
           e.toString(),
           null /* data */));
     }
+    if (bodyData.truncated) {
+      CLog.writeToConsole(
+          Console.MessageLevel.WARNING,
+          Console.MessageSource.NETWORK,
+          "Response body for request " + requestId + " was truncated to at most " +
+              bodyData.truncatedSize + " bytes");
+    }
+    if (bodyData.dataStream != null) {
+      return new StreamingResponseBodyResponse(
+          requestId,
+          bodyData.dataStream,
+          bodyData.base64Encoded);
+    }
+    GetResponseBodyResponse response = new GetResponseBodyResponse();
     response.body = bodyData.data;
     response.base64Encoded = bodyData.base64Encoded;
     return response;
@@ -98,7 +131,7 @@ public class Network implements ChromeDevtoolsDomain {
     mNetworkPeerManager.setPrettyPrinterInitializer(initializer);
   }
 
-  private static class GetResponseBodyResponse implements JsonRpcResult {
+  static class GetResponseBodyResponse implements JsonRpcResult {
     @JsonProperty(required = true)
     public String body;
 
@@ -106,6 +139,65 @@ public class Network implements ChromeDevtoolsDomain {
     public boolean base64Encoded;
   }
 
+  /**
+   * Equivalent of {@link GetResponseBodyResponse} which escapes the stored body straight from
+   * the file into the outgoing message rather than first reading it into a {@link String}.
+   * Being {@link Closeable}, it is sent as a fragmented message written as the file is read,
+   * and closed whether or not it is ever sent.
+   */
+  private static class StreamingResponseBodyResponse
+      implements JsonRpcResult, JsonWritable, Closeable {
+    private static final String TAG = "StreamingResponseBody";
+
+    private final String mRequestId;
+    private final InputStream mBody;
+    private final boolean mBase64Encoded;
+
+    public StreamingResponseBodyResponse(
+        String requestId,
+        InputStream body,
+        boolean base64Encoded) {
+      mRequestId = requestId;
+      mBody = body;
+      mBase64Encoded = base64Encoded;
+    }
+
+    @Override
+    public void writeTo(JsonWriter writer) throws IOException {
+      writer.beginObject();
+      writer.name("body");
+      writer.value(new InputStreamReader(new SafeInputStream(mBody), "UTF-8"));
+      writer.name("base64Encoded");
+      writer.value(mBase64Encoded);
+      writer.endObject();
+    }
+
+    @Override
+    public void close() throws IOException {
+      mBody.close();
+    }
+
+    /**
+     * Failing to read the file halfway through would leave a partially written message that
+     * can only be recovered by closing the session, so end the body early instead.
+     */
+    private class SafeInputStream extends FilterInputStream {
+      public SafeInputStream(InputStream in) {
+        super(in);
+      }
+
+      @Override
+      public int read(byte[] buffer, int offset, int count) {
+        try {
+          return in.read(buffer, offset, count);
+        } catch (IOException e) {
+          LogRedirector.w(TAG, "Failed to read response body for request " + mRequestId, e);
+          return -1;
+        }
+      }
+    }
+  }
+
   public static class RequestWillBeSentParams {
     @JsonProperty(required = true)
     public String requestId;
@@ -16,12 +16,15 @@ import com.facebook.stetho.inspector.jsonrpc.JsonRpcResult;
 import com.facebook.stetho.inspector.protocol.ChromeDevtoolsDomain;
 import com.facebook.stetho.inspector.protocol.ChromeDevtoolsMethod;
 import com.facebook.stetho.inspector.screencast.ScreencastDispatcher;
+import com.facebook.stetho.json.JsonWritable;
+import com.facebook.stetho.json.JsonWriter;
 import com.facebook.stetho.json.ObjectMapper;
 import com.facebook.stetho.json.annotation.JsonProperty;
 import com.facebook.stetho.json.annotation.JsonValue;
 
 import org.json.JSONObject;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
@@ -166,6 +169,8 @@ public class Page implements ChromeDevtoolsDomain {
     if (mScreencastDispatcher == null) {
       mScreencastDispatcher = new ScreencastDispatcher();
       mScreencastDispatcher.startScreencast(peer, request);
+    } else {
+      mScreencastDispatcher.updateRequest(request);
     }
   }
 
@@ -179,8 +184,11 @@ public class Page implements ChromeDevtoolsDomain {
 
   @ChromeDevtoolsMethod
   public void screencastFrameAck(JsonRpcPeer peer, JSONObject params) {
-    // Nothing to do here, just need to make sure Chrome doesn't get an error that this method
-    // isn't implemented
+    ScreencastFrameAckRequest request = mObjectMapper.convertValue(
+        params, ScreencastFrameAckRequest.class);
+    if (mScreencastDispatcher != null) {
+      mScreencastDispatcher.onFrameAck(request.sessionId);
+    }
   }
 
   @ChromeDevtoolsMethod
@@ -199,12 +207,12 @@ public class Page implements ChromeDevtoolsDomain {
   public void setShowViewportSizeOnResize(JsonRpcPeer peer, JSONObject params) {
   }
 
-  private static class GetResourceTreeParams implements JsonRpcResult {
+  static class GetResourceTreeParams implements JsonRpcResult {
     @JsonProperty(required = true)
     public FrameResourceTree frameTree;
   }
 
-  private static class FrameResourceTree {
+  static class FrameResourceTree {
     @JsonProperty(required = true)
     public Frame frame;
 
@@ -215,7 +223,7 @@ public class Page implements ChromeDevtoolsDomain {
     public List<Resource> resources;
   }
 
-  private static class Frame {
+  static class Frame {
     @JsonProperty(required = true)
     public String id;
 
@@ -264,12 +272,12 @@ public class Page implements ChromeDevtoolsDomain {
     }
   }
 
-  private static class ExecutionContextCreatedParams {
+  static class ExecutionContextCreatedParams {
     @JsonProperty(required = true)
     public ExecutionContextDescription context;
   }
 
-  private static class ExecutionContextDescription {
+  static class ExecutionContextDescription {
     @JsonProperty(required = true)
     public String frameId;
 
@@ -277,12 +285,34 @@ public class Page implements ChromeDevtoolsDomain {
     public int id;
   }
 
-  public static class ScreencastFrameEvent {
-    @JsonProperty(required = true)
-    public String data;
-
-    @JsonProperty(required = true)
+  /**
+   * Base64 encodes the compressed image straight into the outgoing message instead of first
+   * building it as a {@link String}, which for a large frame would be copied several times.
+   */
+  public static class ScreencastFrameEvent implements JsonWritable {
+    public byte[] data;
+    public int dataLength;
     public ScreencastFrameEventMetadata metadata;
+    public int sessionId;
+
+    @Override
+    public void writeTo(JsonWriter writer) throws IOException {
+      writer.beginObject();
+      writer.name("data");
+      writer.base64Value(data, 0, dataLength);
+      writer.name("metadata");
+      writer.beginObject();
+      writer.name("pageScaleFactor").value(metadata.pageScaleFactor);
+      writer.name("offsetTop").value(metadata.offsetTop);
+      writer.name("deviceWidth").value(metadata.deviceWidth);
+      writer.name("deviceHeight").value(metadata.deviceHeight);
+      writer.name("scrollOffsetX").value(metadata.scrollOffsetX);
+      writer.name("scrollOffsetY").value(metadata.scrollOffsetY);
+      writer.endObject();
+      writer.name("sessionId");
+      writer.value(sessionId);
+      writer.endObject();
+    }
   }
 
   public static class ScreencastFrameEventMetadata {
@@ -309,6 +339,16 @@ public class Page implements ChromeDevtoolsDomain {
     public int maxWidth;
     @JsonProperty
     public int maxHeight;
+    @JsonProperty
+    public int everyNthFrame;
+  }
+
+  public static class ScreencastFrameAckRequest {
+    /**
+     * The {@link ScreencastFrameEvent#sessionId} being acknowledged.  Older clients omit it.
+     */
+    @JsonProperty
+    public int sessionId;
   }
 
 
@@ -432,7 +432,7 @@ public class Runtime implements ChromeDevtoolsDomain {
     }
   }
 
-  private static class CallFunctionOnRequest {
+  static class CallFunctionOnRequest {
     @JsonProperty
     public String objectId;
 
@@ -452,7 +452,7 @@ public class Runtime implements ChromeDevtoolsDomain {
     public Boolean generatePreview;
   }
 
-  private static class CallFunctionOnResponse implements JsonRpcResult {
+  static class CallFunctionOnResponse implements JsonRpcResult {
     @JsonProperty
     public RemoteObject result;
 
@@ -460,7 +460,7 @@ public class Runtime implements ChromeDevtoolsDomain {
     public Boolean wasThrown;
   }
 
-  private static class CallArgument {
+  static class CallArgument {
     @JsonProperty(required = false)
     public Object value;
 
@@ -471,7 +471,7 @@ public class Runtime implements ChromeDevtoolsDomain {
     public ObjectType type;
   }
 
-  private static class GetPropertiesRequest implements JsonRpcResult {
+  static class GetPropertiesRequest implements JsonRpcResult {
     @JsonProperty(required = true)
     public boolean ownProperties;
 
@@ -479,12 +479,12 @@ public class Runtime implements ChromeDevtoolsDomain {
     public String objectId;
   }
 
-  private static class GetPropertiesResponse implements JsonRpcResult {
+  static class GetPropertiesResponse implements JsonRpcResult {
     @JsonProperty(required = true)
     public List<PropertyDescriptor> result;
   }
 
-  private static class EvaluateRequest implements JsonRpcResult {
+  static class EvaluateRequest implements JsonRpcResult {
     @JsonProperty(required = true)
     public String objectGroup;
 
@@ -492,7 +492,7 @@ public class Runtime implements ChromeDevtoolsDomain {
     public String expression;
   }
 
-  private static class EvaluateResponse implements JsonRpcResult {
+  static class EvaluateResponse implements JsonRpcResult {
     @JsonProperty(required = true)
     public RemoteObject result;
 
@@ -503,7 +503,7 @@ public class Runtime implements ChromeDevtoolsDomain {
     public ExceptionDetails exceptionDetails;
   }
 
-  private static class ExceptionDetails {
+  static class ExceptionDetails {
     @JsonProperty(required = true)
     public String text;
   }
@@ -528,7 +528,7 @@ public class Runtime implements ChromeDevtoolsDomain {
     public String objectId;
   }
 
-  private static class PropertyDescriptor {
+  static class PropertyDescriptor {
     @JsonProperty(required = true)
     public String name;
 
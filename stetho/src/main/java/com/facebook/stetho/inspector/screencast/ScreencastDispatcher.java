@@ -7,44 +7,70 @@
 
 package com.facebook.stetho.inspector.screencast;
 
+import android.annotation.TargetApi;
 import android.app.Activity;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Matrix;
 import android.graphics.RectF;
+import android.os.Build;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
-import android.util.Base64;
-import android.util.Base64OutputStream;
+import android.os.SystemClock;
+import android.view.PixelCopy;
 import android.view.View;
+import android.view.ViewTreeObserver;
+import android.view.Window;
 import com.facebook.stetho.common.LogUtil;
 import com.facebook.stetho.inspector.elements.android.ActivityTracker;
 import com.facebook.stetho.inspector.jsonrpc.JsonRpcPeer;
 import com.facebook.stetho.inspector.protocol.module.Page;
 
+import javax.annotation.Nullable;
+
 import java.io.ByteArrayOutputStream;
 
+/**
+ * Captures the top activity's window and sends it as {@code Page.screencastFrame} events.
+ * <p/>
+ * On Oreo and up the window is read back with {@link PixelCopy}, which scales on the GPU and
+ * delivers to the screencast thread without occupying the main thread.  Older releases fall
+ * back to a software {@link View#draw} on the main thread.  Either way the image is compressed
+ * and base64 encoded on the screencast thread, the latter straight into the outgoing message.
+ * <p/>
+ * A frame is only captured when the view tree has redrawn since the last one, and frames are
+ * paced by the client's {@code Page.screencastFrameAck} (see {@link ScreencastFlowControl}).
+ */
 public final class ScreencastDispatcher {
-  private static final long FRAME_DELAY = 200l;
-
   private final Handler mMainHandler = new Handler(Looper.getMainLooper());
-  private final BitmapFetchRunnable mBitmapFetchRunnable = new BitmapFetchRunnable();
+  private final CaptureRunnable mCaptureRunnable = new CaptureRunnable();
+  private final EncodeRunnable mEncodeRunnable = new EncodeRunnable();
+  private final CaptureFinishedRunnable mCaptureFinishedRunnable = new CaptureFinishedRunnable();
   private final ActivityTracker mActivityTracker = ActivityTracker.get();
-  private final EventDispatchRunnable mEventDispatchRunnable = new EventDispatchRunnable();
+  private final ScreencastFlowControl mFlowControl = new ScreencastFlowControl();
   private final RectF mTempSrc = new RectF();
   private final RectF mTempDst = new RectF();
 
-  private boolean mIsRunning;
-  private Handler mBackgroundHandler;
+  private volatile boolean mIsRunning;
   private JsonRpcPeer mPeer;
+  private volatile Page.StartScreencastRequest mRequest;
   private HandlerThread mHandlerThread;
+  private Handler mBackgroundHandler;
+
+  // Only accessed from the main thread.
+  @Nullable private View mTrackedView;
+  @Nullable private InvalidationTracker mInvalidationTracker;
+  private boolean mIsDirty;
+  private boolean mIsCapturePending;
   private Bitmap mBitmap;
   private Canvas mCanvas;
-  private Page.StartScreencastRequest mRequest;
-  private ByteArrayOutputStream mStream;
-  private Page.ScreencastFrameEvent mEvent = new Page.ScreencastFrameEvent();
-  private Page.ScreencastFrameEventMetadata mMetadata = new Page.ScreencastFrameEventMetadata();
+
+  // Only accessed from the screencast thread.
+  private final FrameBuffer mFrameBuffer = new FrameBuffer();
+  private final Page.ScreencastFrameEvent mEvent = new Page.ScreencastFrameEvent();
+  private final Page.ScreencastFrameEventMetadata mMetadata =
+      new Page.ScreencastFrameEventMetadata();
 
   public ScreencastDispatcher() {
   }
@@ -56,97 +82,264 @@ public final class ScreencastDispatcher {
     mHandlerThread.start();
     mPeer = peer;
     mIsRunning = true;
-    mStream = new ByteArrayOutputStream();
     mBackgroundHandler = new Handler(mHandlerThread.getLooper());
-    mMainHandler.postDelayed(mBitmapFetchRunnable, FRAME_DELAY);
+    mMainHandler.postDelayed(mCaptureRunnable, mFlowControl.getFrameDelayMs(request.everyNthFrame));
+  }
+
+  /**
+   * Apply new parameters from a repeated {@code Page.startScreencast} to the running screencast.
+   * A new size takes effect with the next frame.
+   */
+  public void updateRequest(Page.StartScreencastRequest request) {
+    mRequest = request;
   }
 
   public void stopScreencast() {
     LogUtil.d("Stopping screencast");
-    mBackgroundHandler.post(new CancellationRunnable());
+    mIsRunning = false;
+    mMainHandler.post(new CancellationRunnable());
+  }
+
+  /**
+   * @param sessionId The acknowledged frame, or 0 if the client didn't say which.
+   */
+  public void onFrameAck(int sessionId) {
+    mFlowControl.onFrameAck(sessionId, SystemClock.uptimeMillis());
   }
 
-  private class BitmapFetchRunnable implements Runnable {
+  private class CaptureRunnable implements Runnable {
     @Override
     public void run() {
-      updateScreenBitmap();
-      mBackgroundHandler.post(mEventDispatchRunnable.withEndAction(this));
-    }
-
-    private void updateScreenBitmap() {
       if (!mIsRunning) {
         return;
       }
+      Page.StartScreencastRequest request = mRequest;
+      if (!mIsCapturePending && mFlowControl.canSendFrame(SystemClock.uptimeMillis())) {
+        captureFrame(request);
+      }
+      mMainHandler.postDelayed(this, mFlowControl.getFrameDelayMs(request.everyNthFrame));
+    }
+
+    private void captureFrame(Page.StartScreencastRequest request) {
       Activity activity = mActivityTracker.tryGetTopActivity();
       if (activity == null) {
         return;
       }
-      // This stuff needs to happen in the UI thread
-      View rootView = activity.getWindow().getDecorView();
+      Window window = activity.getWindow();
+      View rootView = window.getDecorView();
+      trackInvalidations(rootView);
+      int viewWidth = rootView.getWidth();
+      int viewHeight = rootView.getHeight();
+      if (viewWidth == 0 || viewHeight == 0) {
+        return;
+      }
+      boolean usePixelCopy = Build.VERSION.SDK_INT >= Build.VERSION_CODES.O;
+      boolean resized;
       try {
-        if (mBitmap == null) {
-          int viewWidth = rootView.getWidth();
-          int viewHeight = rootView.getHeight();
-          float scale = Math.min((float) mRequest.maxWidth / (float) viewWidth,
-              (float) mRequest.maxHeight / (float) viewHeight);
-          int destWidth = (int) (viewWidth * scale);
-          int destHeight = (int) (viewHeight * scale);
-          mBitmap = Bitmap.createBitmap(destWidth, destHeight, Bitmap.Config.RGB_565);
-          mCanvas = new Canvas(mBitmap);
-          Matrix matrix = new Matrix();
-          mTempSrc.set(0, 0, viewWidth, viewHeight);
-          mTempDst.set(0, 0, destWidth, destHeight);
-          matrix.setRectToRect(mTempSrc, mTempDst, Matrix.ScaleToFit.CENTER);
-          mCanvas.setMatrix(matrix);
-        }
-        rootView.draw(mCanvas);
+        resized = prepareBitmap(request, viewWidth, viewHeight, usePixelCopy);
       } catch (OutOfMemoryError e) {
         LogUtil.w("Out of memory trying to allocate screencast Bitmap.");
+        return;
+      }
+      // A new maxWidth/maxHeight needs a new frame even if nothing on screen changed.
+      if (!mIsDirty && !resized) {
+        return;
+      }
+
+      mIsDirty = mInvalidationTracker == null;
+      mIsCapturePending = true;
+      mEncodeRunnable.bitmap = mBitmap;
+      if (usePixelCopy &&
+          PixelCopyHelper.request(window, mBitmap, mBackgroundHandler, mEncodeRunnable)) {
+        return;
+      }
+      // This stuff needs to happen in the UI thread
+      rootView.draw(mCanvas);
+      mBackgroundHandler.post(mEncodeRunnable);
+    }
+
+    /**
+     * @return True if a new bitmap had to be allocated.
+     */
+    private boolean prepareBitmap(
+        Page.StartScreencastRequest request,
+        int viewWidth,
+        int viewHeight,
+        boolean usePixelCopy) {
+      // Unspecified bounds mean full size.
+      int maxWidth = request.maxWidth > 0 ? request.maxWidth : viewWidth;
+      int maxHeight = request.maxHeight > 0 ? request.maxHeight : viewHeight;
+      float scale = Math.min((float) maxWidth / (float) viewWidth,
+          (float) maxHeight / (float) viewHeight);
+      int destWidth = Math.max(1, (int) (viewWidth * scale));
+      int destHeight = Math.max(1, (int) (viewHeight * scale));
+      if (mBitmap != null &&
+          mBitmap.getWidth() == destWidth &&
+          mBitmap.getHeight() == destHeight) {
+        return false;
+      }
+      // PixelCopy reads back the window surface, which isn't guaranteed to be convertible to
+      // RGB_565.
+      mBitmap = null;
+      mCanvas = null;
+      mBitmap = Bitmap.createBitmap(
+          destWidth,
+          destHeight,
+          usePixelCopy ? Bitmap.Config.ARGB_8888 : Bitmap.Config.RGB_565);
+      mCanvas = new Canvas(mBitmap);
+      Matrix matrix = new Matrix();
+      mTempSrc.set(0, 0, viewWidth, viewHeight);
+      mTempDst.set(0, 0, destWidth, destHeight);
+      matrix.setRectToRect(mTempSrc, mTempDst, Matrix.ScaleToFit.CENTER);
+      mCanvas.setMatrix(matrix);
+      return true;
+    }
+  }
+
+  private void trackInvalidations(View rootView) {
+    if (rootView == mTrackedView) {
+      return;
+    }
+    untrackInvalidations();
+    mTrackedView = rootView;
+    mIsDirty = true;
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+      mInvalidationTracker = new InvalidationTracker();
+      rootView.getViewTreeObserver().addOnDrawListener(mInvalidationTracker);
+    }
+  }
+
+  private void untrackInvalidations() {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN &&
+        mTrackedView != null &&
+        mInvalidationTracker != null) {
+      ViewTreeObserver observer = mTrackedView.getViewTreeObserver();
+      if (observer.isAlive()) {
+        observer.removeOnDrawListener(mInvalidationTracker);
       }
     }
+    mTrackedView = null;
+    mInvalidationTracker = null;
   }
 
-  private class EventDispatchRunnable implements Runnable {
-    private Runnable mEndAction;
+  /**
+   * Runs on the screencast thread once the bitmap has been filled in.
+   */
+  private class EncodeRunnable implements Runnable {
+    /**
+     * Handed over by the main thread, which leaves it alone until
+     * {@link CaptureFinishedRunnable} runs.
+     */
+    public Bitmap bitmap;
+
+    private boolean mCaptureFailed;
 
-    private EventDispatchRunnable withEndAction(Runnable endAction) {
-      mEndAction = endAction;
+    public EncodeRunnable withCaptureFailed(boolean captureFailed) {
+      mCaptureFailed = captureFailed;
       return this;
     }
 
     @Override
     public void run() {
-      if (!mIsRunning || mBitmap == null) {
-        return;
+      try {
+        if (mIsRunning && !mCaptureFailed) {
+          sendFrame(bitmap);
+        }
+      } finally {
+        mCaptureFinishedRunnable.captureFailed = mCaptureFailed;
+        mCaptureFailed = false;
+        mMainHandler.post(mCaptureFinishedRunnable);
       }
-      int width = mBitmap.getWidth();
-      int height = mBitmap.getHeight();
-      mStream.reset();
-      Base64OutputStream base64Stream = new Base64OutputStream(mStream, Base64.DEFAULT);
+    }
+
+    private void sendFrame(Bitmap bitmap) {
+      Page.StartScreencastRequest request = mRequest;
+      mFrameBuffer.reset();
       // request format is either "jpeg" or "png"
-      Bitmap.CompressFormat format = Bitmap.CompressFormat.valueOf(mRequest.format.toUpperCase());
-      mBitmap.compress(format, mRequest.quality, base64Stream);
-      mEvent.data = mStream.toString();
+      String format = request.format != null ? request.format : "jpeg";
+      bitmap.compress(
+          Bitmap.CompressFormat.valueOf(format.toUpperCase()),
+          mFlowControl.getQuality(request.quality),
+          mFrameBuffer);
       mMetadata.pageScaleFactor = 1;
-      mMetadata.deviceWidth = width;
-      mMetadata.deviceHeight = height;
+      mMetadata.deviceWidth = bitmap.getWidth();
+      mMetadata.deviceHeight = bitmap.getHeight();
+      mEvent.data = mFrameBuffer.getBuffer();
+      mEvent.dataLength = mFrameBuffer.size();
       mEvent.metadata = mMetadata;
+      mEvent.sessionId = mFlowControl.onFrameSent(SystemClock.uptimeMillis());
       mPeer.invokeMethod("Page.screencastFrame", mEvent, null);
-      mMainHandler.postDelayed(mEndAction, FRAME_DELAY);
+    }
+  }
+
+  private class CaptureFinishedRunnable implements Runnable {
+    public boolean captureFailed;
+
+    @Override
+    public void run() {
+      mIsCapturePending = false;
+      if (captureFailed) {
+        // Try again on the next tick rather than waiting for another redraw.
+        mIsDirty = true;
+      }
     }
   }
 
   private class CancellationRunnable implements Runnable {
     @Override
     public void run() {
-      mHandlerThread.interrupt();
-      mMainHandler.removeCallbacks(mBitmapFetchRunnable);
-      mBackgroundHandler.removeCallbacks(mEventDispatchRunnable);
-      mIsRunning = false;
+      mMainHandler.removeCallbacks(mCaptureRunnable);
+      untrackInvalidations();
+      // Drops any pending encode; one already running sees mIsRunning and won't send.
+      mHandlerThread.quit();
       mHandlerThread = null;
       mBitmap = null;
       mCanvas = null;
-      mStream = null;
+    }
+  }
+
+  @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+  private class InvalidationTracker implements ViewTreeObserver.OnDrawListener {
+    @Override
+    public void onDraw() {
+      mIsDirty = true;
+    }
+  }
+
+  @TargetApi(Build.VERSION_CODES.O)
+  private static class PixelCopyHelper {
+    /**
+     * @return False if the window has no surface to copy from.
+     */
+    public static boolean request(
+        Window window,
+        Bitmap bitmap,
+        Handler handler,
+        final EncodeRunnable encodeRunnable) {
+      try {
+        PixelCopy.request(
+            window,
+            bitmap,
+            new PixelCopy.OnPixelCopyFinishedListener() {
+              @Override
+              public void onPixelCopyFinished(int copyResult) {
+                encodeRunnable.withCaptureFailed(copyResult != PixelCopy.SUCCESS).run();
+              }
+            },
+            handler);
+        return true;
+      } catch (IllegalArgumentException e) {
+        return false;
+      }
+    }
+  }
+
+  /**
+   * Lets the compressed image be encoded from the internal buffer without copying it out.
+   */
+  private static class FrameBuffer extends ByteArrayOutputStream {
+    public byte[] getBuffer() {
+      return buf;
     }
   }
 }
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.screencast;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Paces screencast frames by the client's {@code Page.screencastFrameAck}s.  No more than
+ * {@link #MAX_FRAMES_IN_FLIGHT} frames are sent ahead of the acks, and the time it takes for a
+ * frame to be acknowledged (which covers the socket, the adb forward and the client decoding
+ * it) stretches the frame interval and lowers the JPEG quality until the link keeps up.
+ */
+@ThreadSafe
+final class ScreencastFlowControl {
+  /**
+   * Keeps at most this many frames queued in the socket or in the client, so that a slow link
+   * drops frames here rather than building a backlog of stale ones.
+   */
+  private static final int MAX_FRAMES_IN_FLIGHT = 2;
+
+  /**
+   * Frames not acknowledged within this long are assumed lost, which also keeps clients that
+   * never acknowledge from stalling the screencast for good.
+   */
+  private static final long ACK_TIMEOUT_MS = 2000;
+
+  private static final long MIN_FRAME_DELAY_MS = 100;
+  private static final long MAX_FRAME_DELAY_MS = 1000;
+
+  /**
+   * Acks slower than this lower the quality, and faster than half of it raise it again.
+   */
+  private static final long TARGET_ACK_LATENCY_MS = 300;
+
+  private static final int DEFAULT_QUALITY = 80;
+  private static final int MIN_QUALITY = 20;
+  private static final int QUALITY_DECREASE_STEP = 10;
+  private static final int QUALITY_INCREASE_STEP = 5;
+
+  @GuardedBy("this")
+  private final long[] mSentTimesMs = new long[MAX_FRAMES_IN_FLIGHT];
+
+  @GuardedBy("this")
+  private int mLastSentSessionId;
+
+  @GuardedBy("this")
+  private int mLastAckedSessionId;
+
+  /**
+   * Moving average of the ack latency, or -1 before the first ack.
+   */
+  @GuardedBy("this")
+  private long mAckLatencyMs = -1;
+
+  /**
+   * Subtracted from the requested quality.
+   */
+  @GuardedBy("this")
+  private int mQualityPenalty;
+
+  public synchronized boolean canSendFrame(long nowMs) {
+    if (mLastSentSessionId - mLastAckedSessionId < MAX_FRAMES_IN_FLIGHT) {
+      return true;
+    }
+    if (nowMs - getSentTimeMs(mLastSentSessionId) >= ACK_TIMEOUT_MS) {
+      // Lost acks are the strongest sign of a link that can't keep up.
+      onAckLatency(ACK_TIMEOUT_MS);
+      mLastAckedSessionId = mLastSentSessionId;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * @return The session id of the frame being sent.
+   */
+  public synchronized int onFrameSent(long nowMs) {
+    int sessionId = ++mLastSentSessionId;
+    mSentTimesMs[sessionId % MAX_FRAMES_IN_FLIGHT] = nowMs;
+    return sessionId;
+  }
+
+  /**
+   * @param sessionId The acknowledged frame, or 0 if the client didn't say which.
+   */
+  public synchronized void onFrameAck(int sessionId, long nowMs) {
+    if (sessionId <= 0) {
+      sessionId = mLastAckedSessionId + 1;
+    }
+    if (sessionId <= mLastAckedSessionId || sessionId > mLastSentSessionId) {
+      // Duplicate, or for a frame we already gave up on.
+      return;
+    }
+    mLastAckedSessionId = sessionId;
+    onAckLatency(nowMs - getSentTimeMs(sessionId));
+  }
+
+  @GuardedBy("this")
+  private long getSentTimeMs(int sessionId) {
+    return mSentTimesMs[sessionId % MAX_FRAMES_IN_FLIGHT];
+  }
+
+  @GuardedBy("this")
+  private void onAckLatency(long latencyMs) {
+    if (mAckLatencyMs < 0) {
+      mAckLatencyMs = latencyMs;
+    } else {
+      mAckLatencyMs += (latencyMs - mAckLatencyMs) / 4;
+    }
+    if (mAckLatencyMs > TARGET_ACK_LATENCY_MS) {
+      mQualityPenalty += QUALITY_DECREASE_STEP;
+    } else if (mAckLatencyMs < TARGET_ACK_LATENCY_MS / 2) {
+      mQualityPenalty = Math.max(0, mQualityPenalty - QUALITY_INCREASE_STEP);
+    }
+  }
+
+  /**
+   * Delay until the next frame should be captured.
+   *
+   * @param everyNthFrame From {@code Page.startScreencast}, stretches the fastest frame rate.
+   */
+  public synchronized long getFrameDelayMs(int everyNthFrame) {
+    long delayMs = MIN_FRAME_DELAY_MS * Math.max(1, everyNthFrame);
+    if (mAckLatencyMs > 0) {
+      // With N frames in flight and an ack taking L, at most N frames go through every L.
+      long paceMs = Math.min(mAckLatencyMs / MAX_FRAMES_IN_FLIGHT, MAX_FRAME_DELAY_MS);
+      delayMs = Math.max(delayMs, paceMs);
+    }
+    return delayMs;
+  }
+
+  /**
+   * @param requestedQuality From {@code Page.startScreencast}, or 0 if it wasn't specified.
+   */
+  public synchronized int getQuality(int requestedQuality) {
+    int quality = requestedQuality > 0 ? Math.min(requestedQuality, 100) : DEFAULT_QUALITY;
+    int penalty = Math.min(mQualityPenalty, Math.max(0, quality - MIN_QUALITY));
+    // Don't let the penalty grow past what can be applied, or recovery would take forever.
+    mQualityPenalty = penalty;
+    return quality - penalty;
+  }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.json;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+
+/**
+ * Reflection-free conversion for a single class with {@link
+ * com.facebook.stetho.json.annotation.JsonProperty} fields.  Implementations are generated at
+ * compile time by {@code stetho-json-processor} and are named after the class they convert
+ * with nested class separators flattened, for instance {@code Network_DataReceivedParams$$JsonCodec}
+ * for {@code Network.DataReceivedParams}.  {@link ObjectMapper} discovers them automatically
+ * and falls back to reflection for classes that have none.
+ */
+public interface JsonCodec<T> {
+  String CLASS_NAME_SUFFIX = "$$JsonCodec";
+
+  /**
+   * Write {@code value} as a JSON object.  Nested values which are not known statically are
+   * written through {@link ObjectMapper#writeValue}.
+   */
+  void write(ObjectMapper mapper, JsonWriter writer, T value) throws IOException;
+
+  /**
+   * Construct a new instance populated from {@code jsonObject}, with the same semantics as
+   * {@link ObjectMapper#convertValue}.
+   */
+  T read(ObjectMapper mapper, JSONObject jsonObject) throws JSONException;
+}
@@ -0,0 +1,20 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.json;
+
+import java.io.IOException;
+
+/**
+ * Implemented by values that serialize themselves when passed to
+ * {@link ObjectMapper#writeValue}, typically to stream content which is too large to
+ * materialize as {@link com.facebook.stetho.json.annotation.JsonProperty} fields.  Such values
+ * are not supported by {@link ObjectMapper#convertValue}.
+ */
+public interface JsonWritable {
+  void writeTo(JsonWriter writer) throws IOException;
+}
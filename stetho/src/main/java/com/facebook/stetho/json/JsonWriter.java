@@ -0,0 +1,426 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+
+/**
+ * Minimal streaming JSON writer which encodes directly to UTF-8.  Unlike {@code JSONStringer}
+ * no intermediate {@code JSONObject} or {@link String} is built, which makes it suitable for
+ * the protocol hot path where every event would otherwise be materialized several times.
+ * <p/>
+ * Numbers are formatted the same way {@code org.json} formats them so that the output of
+ * {@link ObjectMapper#writeValue} matches {@link ObjectMapper#convertValue} byte for byte
+ * (modulo field ordering).  No structural validation is performed; callers are trusted to
+ * emit balanced objects and arrays.
+ */
+public final class JsonWriter {
+  private static final int DEFAULT_BUFFER_SIZE = 4096;
+  private static final int MIN_BUFFER_SIZE = 32;
+  private static final int READER_CHUNK_SIZE = 2048;
+
+  private static final byte[] NULL = { 'n', 'u', 'l', 'l' };
+  private static final byte[] TRUE = { 't', 'r', 'u', 'e' };
+  private static final byte[] FALSE = { 'f', 'a', 'l', 's', 'e' };
+  private static final byte[] HEX = {
+      '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'
+  };
+  private static final byte[] BASE64 = {
+      'A', 'B', 'C', 'D', 'E', 'F', 'G', 'H', 'I', 'J', 'K', 'L', 'M', 'N', 'O', 'P',
+      'Q', 'R', 'S', 'T', 'U', 'V', 'W', 'X', 'Y', 'Z', 'a', 'b', 'c', 'd', 'e', 'f',
+      'g', 'h', 'i', 'j', 'k', 'l', 'm', 'n', 'o', 'p', 'q', 'r', 's', 't', 'u', 'v',
+      'w', 'x', 'y', 'z', '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', '+', '/'
+  };
+
+  private final OutputStream mOut;
+  private final byte[] mBuffer;
+  private int mCount;
+
+  /**
+   * One entry per open object or array: true once the scope has at least one element and
+   * subsequent elements need a separating comma.
+   */
+  private boolean[] mScopeNonEmpty = new boolean[16];
+  private int mDepth;
+  private boolean mPendingName;
+
+  public JsonWriter(OutputStream out) {
+    this(out, DEFAULT_BUFFER_SIZE);
+  }
+
+  public JsonWriter(OutputStream out, int bufferSize) {
+    if (bufferSize < MIN_BUFFER_SIZE) {
+      throw new IllegalArgumentException("bufferSize must be >= " + MIN_BUFFER_SIZE);
+    }
+    mOut = out;
+    mBuffer = new byte[bufferSize];
+  }
+
+  public JsonWriter beginObject() throws IOException {
+    beforeValue();
+    writeByte('{');
+    push();
+    return this;
+  }
+
+  public JsonWriter endObject() throws IOException {
+    mDepth--;
+    writeByte('}');
+    return this;
+  }
+
+  public JsonWriter beginArray() throws IOException {
+    beforeValue();
+    writeByte('[');
+    push();
+    return this;
+  }
+
+  public JsonWriter endArray() throws IOException {
+    mDepth--;
+    writeByte(']');
+    return this;
+  }
+
+  public JsonWriter name(String name) throws IOException {
+    beforeValue();
+    writeQuoted(name);
+    writeByte(':');
+    mPendingName = true;
+    return this;
+  }
+
+  public JsonWriter nullValue() throws IOException {
+    beforeValue();
+    writeBytes(NULL);
+    return this;
+  }
+
+  /**
+   * Writes {@code value} as a JSON string, or {@code null} if {@code value} is null.
+   */
+  public JsonWriter value(String value) throws IOException {
+    if (value == null) {
+      return nullValue();
+    }
+    beforeValue();
+    writeQuoted(value);
+    return this;
+  }
+
+  /**
+   * Writes the remaining contents of {@code reader} as a single JSON string, escaping as it
+   * goes so that arbitrarily large text never has to be held in memory as a {@link String}.
+   * The reader is not closed.
+   */
+  public JsonWriter value(Reader reader) throws IOException {
+    beforeValue();
+    writeByte('"');
+    char[] chunk = new char[READER_CHUNK_SIZE];
+    int carry = 0;
+    int read;
+    while ((read = reader.read(chunk, carry, chunk.length - carry)) != -1) {
+      int end = carry + read;
+      // Hold back a trailing high surrogate until its pair has been read.
+      int limit = Character.isHighSurrogate(chunk[end - 1]) ? end - 1 : end;
+      for (int i = 0; i < limit; ) {
+        char c = chunk[i];
+        if (c < 0x80) {
+          writeAsciiChar(c);
+          i++;
+        } else {
+          i += writeNonAscii(c, i + 1 < end ? chunk[i + 1] : 0);
+        }
+      }
+      carry = end - limit;
+      if (carry > 0) {
+        chunk[0] = chunk[end - 1];
+      }
+    }
+    if (carry > 0) {
+      writeNonAscii(chunk[0], (char) 0);
+    }
+    writeByte('"');
+    return this;
+  }
+
+  /**
+   * Writes {@code count} bytes of {@code data} as a base64 encoded (padded, without line breaks)
+   * JSON string.  The encoding goes straight into the output, so large binary values such as
+   * images never exist as a {@link String}.
+   */
+  public JsonWriter base64Value(byte[] data, int offset, int count) throws IOException {
+    beforeValue();
+    writeByte('"');
+    int end = offset + count;
+    int i = offset;
+    for (; end - i >= 3; i += 3) {
+      ensureCapacity(4);
+      int bits = (data[i] & 0xff) << 16 | (data[i + 1] & 0xff) << 8 | (data[i + 2] & 0xff);
+      mBuffer[mCount++] = BASE64[bits >>> 18];
+      mBuffer[mCount++] = BASE64[(bits >>> 12) & 0x3f];
+      mBuffer[mCount++] = BASE64[(bits >>> 6) & 0x3f];
+      mBuffer[mCount++] = BASE64[bits & 0x3f];
+    }
+    int remaining = end - i;
+    if (remaining > 0) {
+      ensureCapacity(4);
+      int bits = (data[i] & 0xff) << 16 | (remaining == 2 ? (data[i + 1] & 0xff) << 8 : 0);
+      mBuffer[mCount++] = BASE64[bits >>> 18];
+      mBuffer[mCount++] = BASE64[(bits >>> 12) & 0x3f];
+      mBuffer[mCount++] = remaining == 2 ? BASE64[(bits >>> 6) & 0x3f] : (byte) '=';
+      mBuffer[mCount++] = '=';
+    }
+    writeByte('"');
+    return this;
+  }
+
+  public JsonWriter value(boolean value) throws IOException {
+    beforeValue();
+    writeBytes(value ? TRUE : FALSE);
+    return this;
+  }
+
+  public JsonWriter value(long value) throws IOException {
+    beforeValue();
+    writeLong(value);
+    return this;
+  }
+
+  /**
+   * JSON has no support for NaN, Infinity or -Infinity, so we serialize them as strings.
+   * Google Chrome's inspector will accept them just fine.
+   */
+  public JsonWriter value(double value) throws IOException {
+    beforeValue();
+    if (!writeNonFinite(value)) {
+      long longValue = (long) value;
+      if (isNegativeZero(value)) {
+        writeAscii("-0");
+      } else if (value == (double) longValue) {
+        writeLong(longValue);
+      } else {
+        writeAscii(Double.toString(value));
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Like {@link #value(double)}, but uses {@link Float#toString} so that e.g. {@code 0.1f} is
+   * written as {@code 0.1} rather than as its exact value once widened to a double.
+   */
+  public JsonWriter value(float value) throws IOException {
+    beforeValue();
+    if (!writeNonFinite(value)) {
+      long longValue = (long) value;
+      if (isNegativeZero(value)) {
+        writeAscii("-0");
+      } else if (value == (float) longValue) {
+        writeLong(longValue);
+      } else {
+        writeAscii(Float.toString(value));
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Writes any buffered output to the underlying stream and flushes it.
+   */
+  public void flush() throws IOException {
+    flushBuffer();
+    mOut.flush();
+  }
+
+  private void push() {
+    if (mDepth == mScopeNonEmpty.length) {
+      boolean[] newStack = new boolean[mDepth * 2];
+      System.arraycopy(mScopeNonEmpty, 0, newStack, 0, mDepth);
+      mScopeNonEmpty = newStack;
+    }
+    mScopeNonEmpty[mDepth++] = false;
+  }
+
+  private void beforeValue() throws IOException {
+    if (mPendingName) {
+      mPendingName = false;
+    } else if (mDepth > 0) {
+      if (mScopeNonEmpty[mDepth - 1]) {
+        writeByte(',');
+      } else {
+        mScopeNonEmpty[mDepth - 1] = true;
+      }
+    }
+  }
+
+  private boolean writeNonFinite(double value) throws IOException {
+    if (Double.isNaN(value)) {
+      writeAscii("\"NaN\"");
+    } else if (value == Double.POSITIVE_INFINITY) {
+      writeAscii("\"Infinity\"");
+    } else if (value == Double.NEGATIVE_INFINITY) {
+      writeAscii("\"-Infinity\"");
+    } else {
+      return false;
+    }
+    return true;
+  }
+
+  private static boolean isNegativeZero(double value) {
+    return value == 0 && Double.doubleToRawLongBits(value) != 0;
+  }
+
+  private void writeLong(long value) throws IOException {
+    if (value == Long.MIN_VALUE) {
+      writeAscii("-9223372036854775808");
+      return;
+    }
+    ensureCapacity(20);
+    if (value < 0) {
+      mBuffer[mCount++] = '-';
+      value = -value;
+    }
+    int start = mCount;
+    do {
+      mBuffer[mCount++] = (byte) ('0' + (value % 10));
+      value /= 10;
+    } while (value != 0);
+    // Digits were emitted least significant first.
+    for (int i = start, j = mCount - 1; i < j; i++, j--) {
+      byte tmp = mBuffer[i];
+      mBuffer[i] = mBuffer[j];
+      mBuffer[j] = tmp;
+    }
+  }
+
+  private void writeQuoted(String value) throws IOException {
+    writeByte('"');
+    for (int i = 0, N = value.length(); i < N; ) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        writeAsciiChar(c);
+        i++;
+      } else {
+        i += writeNonAscii(c, i + 1 < N ? value.charAt(i + 1) : 0);
+      }
+    }
+    writeByte('"');
+  }
+
+  private void writeAsciiChar(char c) throws IOException {
+    if (c >= 0x20 && c != '"' && c != '\\') {
+      if (mCount == mBuffer.length) {
+        flushBuffer();
+      }
+      mBuffer[mCount++] = (byte) c;
+    } else {
+      writeEscaped(c);
+    }
+  }
+
+  /**
+   * Encodes {@code c} (at least {@code 0x80}) as UTF-8, combining it with {@code next} if the
+   * two form a surrogate pair.
+   *
+   * @return The number of chars consumed, 1 or 2.
+   */
+  private int writeNonAscii(char c, char next) throws IOException {
+    if (c < 0x800) {
+      ensureCapacity(2);
+      mBuffer[mCount++] = (byte) (0xc0 | (c >> 6));
+      mBuffer[mCount++] = (byte) (0x80 | (c & 0x3f));
+    } else if (Character.isHighSurrogate(c) && Character.isLowSurrogate(next)) {
+      int codePoint = Character.toCodePoint(c, next);
+      ensureCapacity(4);
+      mBuffer[mCount++] = (byte) (0xf0 | (codePoint >> 18));
+      mBuffer[mCount++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+      mBuffer[mCount++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+      mBuffer[mCount++] = (byte) (0x80 | (codePoint & 0x3f));
+      return 2;
+    } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+      // Unpaired surrogate, replace as String#getBytes would.
+      writeByte('?');
+    } else {
+      ensureCapacity(3);
+      mBuffer[mCount++] = (byte) (0xe0 | (c >> 12));
+      mBuffer[mCount++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+      mBuffer[mCount++] = (byte) (0x80 | (c & 0x3f));
+    }
+    return 1;
+  }
+
+  private void writeEscaped(char c) throws IOException {
+    ensureCapacity(6);
+    mBuffer[mCount++] = '\\';
+    switch (c) {
+      case '"':
+      case '\\':
+        mBuffer[mCount++] = (byte) c;
+        break;
+      case '\b':
+        mBuffer[mCount++] = 'b';
+        break;
+      case '\f':
+        mBuffer[mCount++] = 'f';
+        break;
+      case '\n':
+        mBuffer[mCount++] = 'n';
+        break;
+      case '\r':
+        mBuffer[mCount++] = 'r';
+        break;
+      case '\t':
+        mBuffer[mCount++] = 't';
+        break;
+      default:
+        mBuffer[mCount++] = 'u';
+        mBuffer[mCount++] = '0';
+        mBuffer[mCount++] = '0';
+        mBuffer[mCount++] = HEX[(c >> 4) & 0xf];
+        mBuffer[mCount++] = HEX[c & 0xf];
+        break;
+    }
+  }
+
+  private void writeAscii(String value) throws IOException {
+    int length = value.length();
+    ensureCapacity(length);
+    for (int i = 0; i < length; i++) {
+      mBuffer[mCount++] = (byte) value.charAt(i);
+    }
+  }
+
+  private void writeBytes(byte[] bytes) throws IOException {
+    ensureCapacity(bytes.length);
+    System.arraycopy(bytes, 0, mBuffer, mCount, bytes.length);
+    mCount += bytes.length;
+  }
+
+  private void writeByte(int b) throws IOException {
+    if (mCount == mBuffer.length) {
+      flushBuffer();
+    }
+    mBuffer[mCount++] = (byte) b;
+  }
+
+  private void ensureCapacity(int needed) throws IOException {
+    if (mBuffer.length - mCount < needed) {
+      flushBuffer();
+    }
+  }
+
+  private void flushBuffer() throws IOException {
+    if (mCount > 0) {
+      mOut.write(mBuffer, 0, mCount);
+      mCount = 0;
+    }
+  }
+}
@@ -10,6 +10,7 @@ package com.facebook.stetho.json;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 
+import java.io.IOException;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
@@ -20,6 +21,7 @@ import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -48,6 +50,9 @@ public class ObjectMapper {
   @GuardedBy("mJsonValueMethodCache")
   private final Map<Class<?>, Method> mJsonValueMethodCache = new IdentityHashMap<>();
 
+  @GuardedBy("mCodecCache")
+  private final Map<Class<?>, JsonCodec<?>> mCodecCache = new IdentityHashMap<>();
+
   /**
    * Support mapping between arbitrary classes and {@link JSONObject}.
    * <note>
@@ -97,6 +102,36 @@ public class ObjectMapper {
   private <T> T _convertFromJSONObject(JSONObject jsonObject, Class<T> type)
       throws NoSuchMethodException, IllegalAccessException, InvocationTargetException,
       InstantiationException, JSONException {
+    JsonCodec<T> codec = getCodec(type);
+    if (codec != null) {
+      return codec.read(this, jsonObject);
+    }
+    return _convertFromJSONObjectReflectively(jsonObject, type);
+  }
+
+  /**
+   * Reflective implementation of {@link #convertValue} from a {@link JSONObject}.  Exposed
+   * for generated {@link JsonCodec}s which are unable to construct or populate {@code type}
+   * directly.
+   */
+  public <T> T readObjectReflectively(JSONObject jsonObject, Class<T> type)
+      throws JSONException {
+    try {
+      return _convertFromJSONObjectReflectively(jsonObject, type);
+    } catch (NoSuchMethodException e) {
+      throw new IllegalArgumentException(e);
+    } catch (IllegalAccessException e) {
+      throw new IllegalArgumentException(e);
+    } catch (InstantiationException e) {
+      throw new IllegalArgumentException(e);
+    } catch (InvocationTargetException e) {
+      throw ExceptionUtil.propagate(e.getCause());
+    }
+  }
+
+  private <T> T _convertFromJSONObjectReflectively(JSONObject jsonObject, Class<T> type)
+      throws NoSuchMethodException, IllegalAccessException, InvocationTargetException,
+      InstantiationException, JSONException {
     Constructor<T> constructor = type.getDeclaredConstructor((Class[]) null);
     constructor.setAccessible(true);
     T instance = constructor.newInstance();
@@ -124,46 +159,70 @@ public class ObjectMapper {
 
   private Object getValueForField(Field field, Object value)
       throws JSONException {
-    try {
-      if (value != null) {
-        if (value == JSONObject.NULL) {
-          return null;
-        }
-        if (value.getClass() == field.getType()) {
-          return value;
-        }
-        if (value instanceof JSONObject) {
-          return convertValue(value, field.getType());
-        } else {
-          if (field.getType().isEnum()) {
-            return getEnumValue((String) value, field.getType().asSubclass(Enum.class));
-          } else if (value instanceof JSONArray) {
-            return convertArrayToList(field, (JSONArray) value);
-          } else if (value instanceof Number) {
-            // Need to convert value to Number This happens because json treats 1 as an Integer even
-            // if the field is supposed to be a Long
-            Number numberValue = (Number) value;
-            Class<?> clazz = field.getType();
-            if (clazz == Integer.class || clazz == int.class) {
-              return numberValue.intValue();
-            } else if (clazz == Long.class || clazz == long.class) {
-              return numberValue.longValue();
-            } else if (clazz == Double.class || clazz == double.class) {
-              return numberValue.doubleValue();
-            } else if (clazz == Float.class || clazz == float.class) {
-              return numberValue.floatValue();
-            } else if (clazz == Byte.class || clazz == byte.class) {
-              return numberValue.byteValue();
-            } else if (clazz == Short.class || clazz == short.class) {
-              return numberValue.shortValue();
-            } else {
-              throw new IllegalArgumentException("Not setup to handle class " + clazz.getName());
-            }
+    Class<?> elementType = null;
+    if (value instanceof JSONArray && List.class.isAssignableFrom(field.getType())) {
+      elementType = getListElementType(field);
+    }
+    return convertFieldValue(field.getName(), field.getType(), elementType, value);
+  }
+
+  /**
+   * Read and convert the value named {@code name} for a field of type {@code type}, with the
+   * same semantics used when populating fields reflectively.  Intended for generated
+   * {@link JsonCodec}s.
+   *
+   * @param elementType Element type when {@code type} is a {@link List}, otherwise null.
+   */
+  @Nullable
+  public Object readField(
+      JSONObject jsonObject,
+      String name,
+      Class<?> type,
+      @Nullable Class<?> elementType) throws JSONException {
+    return convertFieldValue(name, type, elementType, jsonObject.opt(name));
+  }
+
+  private Object convertFieldValue(
+      String name,
+      Class<?> type,
+      @Nullable Class<?> elementType,
+      Object value) throws JSONException {
+    if (value != null) {
+      if (value == JSONObject.NULL) {
+        return null;
+      }
+      if (value.getClass() == type) {
+        return value;
+      }
+      if (value instanceof JSONObject) {
+        return convertValue(value, type);
+      } else {
+        if (type.isEnum()) {
+          return getEnumValue((String) value, type.asSubclass(Enum.class));
+        } else if (value instanceof JSONArray) {
+          return convertArrayToList(name, type, elementType, (JSONArray) value);
+        } else if (value instanceof Number) {
+          // Need to convert value to Number This happens because json treats 1 as an Integer even
+          // if the field is supposed to be a Long
+          Number numberValue = (Number) value;
+          Class<?> clazz = type;
+          if (clazz == Integer.class || clazz == int.class) {
+            return numberValue.intValue();
+          } else if (clazz == Long.class || clazz == long.class) {
+            return numberValue.longValue();
+          } else if (clazz == Double.class || clazz == double.class) {
+            return numberValue.doubleValue();
+          } else if (clazz == Float.class || clazz == float.class) {
+            return numberValue.floatValue();
+          } else if (clazz == Byte.class || clazz == byte.class) {
+            return numberValue.byteValue();
+          } else if (clazz == Short.class || clazz == short.class) {
+            return numberValue.shortValue();
+          } else {
+            throw new IllegalArgumentException("Not setup to handle class " + clazz.getName());
           }
         }
       }
-    } catch (IllegalAccessException e) {
-      throw new IllegalArgumentException("Unable to set value for field " + field.getName(), e);
     }
     return value;
   }
@@ -205,36 +264,42 @@ public class ObjectMapper {
     throw new IllegalArgumentException("No enum constant " + clazz.getName() + "." + value);
   }
 
-  private List<Object> convertArrayToList(Field field, JSONArray array)
-      throws IllegalAccessException, JSONException {
-    if (List.class.isAssignableFrom(field.getType())) {
-      ParameterizedType parameterizedType = (ParameterizedType) field.getGenericType();
-      Type[] types = parameterizedType.getActualTypeArguments();
-      if (types.length != 1) {
-        throw new IllegalArgumentException("Only able to handle a single type in a list " +
-            field.getName());
-      }
-      Class arrayClass = (Class)types[0];
-      List<Object> objectList = new ArrayList<Object>();
-      for (int i = 0; i < array.length(); ++i) {
-        if (arrayClass.isEnum()) {
-          objectList.add(getEnumValue(array.getString(i), arrayClass));
-        } else if (canDirectlySerializeClass(arrayClass)) {
-          objectList.add(array.get(i));
+  private static Class<?> getListElementType(Field field) {
+    ParameterizedType parameterizedType = (ParameterizedType) field.getGenericType();
+    Type[] types = parameterizedType.getActualTypeArguments();
+    if (types.length != 1) {
+      throw new IllegalArgumentException("Only able to handle a single type in a list " +
+          field.getName());
+    }
+    return (Class)types[0];
+  }
+
+  private List<Object> convertArrayToList(
+      String name,
+      Class<?> type,
+      @Nullable Class<?> elementType,
+      JSONArray array) throws JSONException {
+    if (!List.class.isAssignableFrom(type) || elementType == null) {
+      throw new IllegalArgumentException("only know how to deserialize List<?> on field "
+          + name);
+    }
+    Class arrayClass = elementType;
+    List<Object> objectList = new ArrayList<Object>();
+    for (int i = 0; i < array.length(); ++i) {
+      if (arrayClass.isEnum()) {
+        objectList.add(getEnumValue(array.getString(i), arrayClass));
+      } else if (canDirectlySerializeClass(arrayClass)) {
+        objectList.add(array.get(i));
+      } else {
+        JSONObject jsonObject = array.getJSONObject(i);
+        if (jsonObject == null) {
+          objectList.add(null);
         } else {
-          JSONObject jsonObject = array.getJSONObject(i);
-          if (jsonObject == null) {
-            objectList.add(null);
-          } else {
-            objectList.add(convertValue(jsonObject, arrayClass));
-          }
+          objectList.add(convertValue(jsonObject, arrayClass));
         }
       }
-      return objectList;
-    } else {
-      throw new IllegalArgumentException("only know how to deserialize List<?> on field "
-          + field.getName());
     }
+    return objectList;
   }
 
   private JSONObject _convertToJSONObject(Object fromValue)
@@ -313,6 +378,156 @@ public class ObjectMapper {
     return array;
   }
 
+  /**
+   * Stream {@code value} to {@code writer} using the same conversion rules as
+   * {@link #convertValue(Object, Class)} with a {@link JSONObject} target, but without
+   * building any intermediate {@link JSONObject} tree.  Classes with a generated
+   * {@link JsonCodec} are written without reflection.
+   */
+  public void writeValue(JsonWriter writer, @Nullable Object value) throws IOException {
+    if (value == null || value == JSONObject.NULL) {
+      writer.nullValue();
+      return;
+    }
+    Class<?> clazz = value.getClass();
+    if (clazz == String.class) {
+      writer.value((String) value);
+    } else if (clazz == Boolean.class) {
+      writer.value(((Boolean) value).booleanValue());
+    } else if (clazz == Integer.class ||
+        clazz == Long.class ||
+        clazz == Short.class ||
+        clazz == Byte.class) {
+      writer.value(((Number) value).longValue());
+    } else if (clazz == Double.class) {
+      writer.value(((Double) value).doubleValue());
+    } else if (clazz == Float.class) {
+      writer.value(((Float) value).floatValue());
+    } else if (clazz == Character.class) {
+      writer.value(value.toString());
+    } else if (value instanceof List) {
+      writeList(writer, (List<?>) value);
+    } else if (value instanceof JSONObject) {
+      writeJSONObject(writer, (JSONObject) value);
+    } else if (value instanceof JSONArray) {
+      writeJSONArray(writer, (JSONArray) value);
+    } else if (value instanceof JsonWritable) {
+      ((JsonWritable) value).writeTo(writer);
+    } else {
+      Method jsonValueMethod = getJsonValueMethod(clazz);
+      if (jsonValueMethod != null) {
+        writeValue(writer, invokeJsonValueMethod(jsonValueMethod, value));
+        return;
+      }
+      JsonCodec<Object> codec = getCodec((Class<Object>) clazz);
+      if (codec != null) {
+        codec.write(this, writer, value);
+      } else {
+        writeObjectReflectively(writer, value);
+      }
+    }
+  }
+
+  private void writeList(JsonWriter writer, List<?> list) throws IOException {
+    writer.beginArray();
+    for (int i = 0, N = list.size(); i < N; i++) {
+      writeValue(writer, list.get(i));
+    }
+    writer.endArray();
+  }
+
+  private void writeJSONObject(JsonWriter writer, JSONObject jsonObject) throws IOException {
+    writer.beginObject();
+    Iterator<String> keys = jsonObject.keys();
+    while (keys.hasNext()) {
+      String key = keys.next();
+      writer.name(key);
+      writeValue(writer, jsonObject.opt(key));
+    }
+    writer.endObject();
+  }
+
+  private void writeJSONArray(JsonWriter writer, JSONArray array) throws IOException {
+    writer.beginArray();
+    for (int i = 0, N = array.length(); i < N; i++) {
+      writeValue(writer, array.opt(i));
+    }
+    writer.endArray();
+  }
+
+  private void writeObjectReflectively(JsonWriter writer, Object value) throws IOException {
+    writer.beginObject();
+    Field[] fields = value.getClass().getFields();
+    for (int i = 0; i < fields.length; ++i) {
+      Field field = fields[i];
+      if (Modifier.isStatic(field.getModifiers())) {
+        continue;
+      }
+      JsonProperty property = field.getAnnotation(JsonProperty.class);
+      if (property != null) {
+        Object fieldValue;
+        try {
+          fieldValue = field.get(value);
+        } catch (IllegalAccessException e) {
+          throw new IllegalArgumentException(e);
+        }
+        if (fieldValue != null || property.required()) {
+          writer.name(field.getName());
+          writeValue(writer, fieldValue);
+        }
+      }
+    }
+    writer.endObject();
+  }
+
+  private static Object invokeJsonValueMethod(Method method, Object value) {
+    try {
+      return method.invoke(value);
+    } catch (IllegalAccessException e) {
+      throw new IllegalArgumentException(e);
+    } catch (InvocationTargetException e) {
+      throw ExceptionUtil.propagate(e.getCause());
+    }
+  }
+
+  /**
+   * @return the generated {@link JsonCodec} for exactly {@code clazz}, or null if the class
+   *     was not processed by {@code stetho-json-processor}.
+   */
+  @Nullable
+  private <T> JsonCodec<T> getCodec(Class<T> clazz) {
+    synchronized (mCodecCache) {
+      JsonCodec<?> codec = mCodecCache.get(clazz);
+      if (codec == null && !mCodecCache.containsKey(clazz)) {
+        codec = getCodecImpl(clazz);
+        mCodecCache.put(clazz, codec);
+      }
+      return (JsonCodec<T>) codec;
+    }
+  }
+
+  @Nullable
+  private static JsonCodec<?> getCodecImpl(Class<?> clazz) {
+    if (clazz.isPrimitive() || clazz.isArray()) {
+      return null;
+    }
+    String className = clazz.getName();
+    int packageEnd = className.lastIndexOf('.') + 1;
+    String codecName = className.substring(0, packageEnd) +
+        className.substring(packageEnd).replace('$', '_') +
+        JsonCodec.CLASS_NAME_SUFFIX;
+    try {
+      Class<?> codecClass = Class.forName(codecName, true /* initialize */, clazz.getClassLoader());
+      return (JsonCodec<?>) codecClass.newInstance();
+    } catch (ClassNotFoundException e) {
+      return null;
+    } catch (InstantiationException e) {
+      throw new IllegalArgumentException(e);
+    } catch (IllegalAccessException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
   /**
    *
    * @param clazz
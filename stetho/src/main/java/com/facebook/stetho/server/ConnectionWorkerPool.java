@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.server;
+
+import android.net.LocalSocket;
+import com.facebook.stetho.common.LogUtil;
+import com.facebook.stetho.common.Util;
+
+import java.io.IOException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded set of worker threads servicing connections accepted by {@link LocalSocketServer}.
+ * At most {@link #getMaxActiveConnections()} connections are handled concurrently and at most
+ * {@link #getMaxQueuedConnections()} more wait for a free worker.  Once both limits are reached
+ * the accept loop stops accepting (see {@link #acquireSlot()}) so that additional clients
+ * back up in the kernel's listen backlog rather than inside the app.
+ * <p/>
+ * Note that connections such as the DevTools WebSocket are long-lived and hold their worker
+ * for as long as the client stays attached.  Size {@code maxActiveConnections} accordingly.
+ */
+public class ConnectionWorkerPool {
+  public static final int DEFAULT_MAX_ACTIVE_CONNECTIONS = 8;
+  public static final int DEFAULT_MAX_QUEUED_CONNECTIONS = 16;
+
+  private static final String WORKER_THREAD_NAME_PREFIX = "StethoWorker";
+  private static final long IDLE_WORKER_TIMEOUT_MS = 30 * 1000;
+
+  private final int mMaxActiveConnections;
+  private final int mMaxQueuedConnections;
+  private final Semaphore mAdmission;
+  private final AtomicInteger mActiveConnections = new AtomicInteger();
+  private final AtomicInteger mQueuedConnections = new AtomicInteger();
+  private final AtomicLong mTotalAcceptedConnections = new AtomicLong();
+
+  private ThreadPoolExecutor mExecutor;
+
+  public ConnectionWorkerPool() {
+    this(DEFAULT_MAX_ACTIVE_CONNECTIONS, DEFAULT_MAX_QUEUED_CONNECTIONS);
+  }
+
+  /**
+   * @param maxActiveConnections maximum number of connections serviced concurrently; also the
+   *     maximum number of worker threads.
+   * @param maxQueuedConnections maximum number of accepted connections waiting for a worker
+   *     before the accept loop blocks.
+   */
+  public ConnectionWorkerPool(int maxActiveConnections, int maxQueuedConnections) {
+    if (maxActiveConnections < 1) {
+      throw new IllegalArgumentException("maxActiveConnections must be >= 1");
+    }
+    if (maxQueuedConnections < 0) {
+      throw new IllegalArgumentException("maxQueuedConnections must be >= 0");
+    }
+    mMaxActiveConnections = maxActiveConnections;
+    mMaxQueuedConnections = maxQueuedConnections;
+    mAdmission = new Semaphore(maxActiveConnections + maxQueuedConnections);
+  }
+
+  public int getMaxActiveConnections() {
+    return mMaxActiveConnections;
+  }
+
+  public int getMaxQueuedConnections() {
+    return mMaxQueuedConnections;
+  }
+
+  /**
+   * Number of connections currently being serviced by a worker thread.
+   */
+  public int getActiveConnectionCount() {
+    return mActiveConnections.get();
+  }
+
+  /**
+   * Number of accepted connections waiting for a worker thread to become available.
+   */
+  public int getQueuedConnectionCount() {
+    return mQueuedConnections.get();
+  }
+
+  /**
+   * Total number of connections handed to this pool since it was started.
+   */
+  public long getTotalAcceptedConnectionCount() {
+    return mTotalAcceptedConnections.get();
+  }
+
+  synchronized void start(final String friendlyName) {
+    Util.throwIfNotNull(mExecutor);
+    final AtomicInteger threadId = new AtomicInteger();
+    ThreadFactory threadFactory = new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r);
+        t.setName(
+            WORKER_THREAD_NAME_PREFIX +
+            "-" + friendlyName +
+            "-" + threadId.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      }
+    };
+
+    // Admission is bounded by mAdmission so the queue itself never needs to reject.
+    mExecutor = new ThreadPoolExecutor(
+        mMaxActiveConnections,
+        mMaxActiveConnections,
+        IDLE_WORKER_TIMEOUT_MS,
+        TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<Runnable>(),
+        threadFactory);
+    mExecutor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Block until there is room for another connection, either active or queued.  Must be
+   * followed by exactly one call to {@link #execute}.
+   */
+  void acquireSlot() throws InterruptedException {
+    if (!mAdmission.tryAcquire()) {
+      LogUtil.w("Connection limit reached (active=%d, queued=%d), deferring accept",
+          getActiveConnectionCount(),
+          getQueuedConnectionCount());
+      mAdmission.acquire();
+    }
+  }
+
+  /**
+   * Release a slot obtained by {@link #acquireSlot()} without executing a connection, for
+   * instance when {@code accept()} failed.
+   */
+  void releaseSlot() {
+    mAdmission.release();
+  }
+
+  void execute(LocalSocket socket, SocketHandler socketHandler) {
+    mTotalAcceptedConnections.incrementAndGet();
+    mQueuedConnections.incrementAndGet();
+    mExecutor.execute(new ConnectionTask(socket, socketHandler));
+  }
+
+  synchronized void shutdown() {
+    if (mExecutor != null) {
+      mExecutor.shutdown();
+    }
+  }
+
+  private class ConnectionTask implements Runnable {
+    private final LocalSocket mSocket;
+    private final SocketHandler mSocketHandler;
+
+    public ConnectionTask(LocalSocket socket, SocketHandler socketHandler) {
+      mSocket = socket;
+      mSocketHandler = socketHandler;
+    }
+
+    @Override
+    public void run() {
+      mQueuedConnections.decrementAndGet();
+      mActiveConnections.incrementAndGet();
+      try {
+        mSocketHandler.onAccepted(mSocket);
+      } catch (IOException ex) {
+        LogUtil.w("I/O error: %s", ex);
+      } finally {
+        try {
+          mSocket.close();
+        } catch (IOException ignore) {
+        }
+        mActiveConnections.decrementAndGet();
+        mAdmission.release();
+      }
+    }
+  }
+}
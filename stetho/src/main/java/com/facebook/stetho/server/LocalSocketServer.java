@@ -19,17 +19,15 @@ import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.net.BindException;
 import java.net.SocketException;
-import java.util.concurrent.atomic.AtomicInteger;
 
 public class LocalSocketServer {
-  private static final String WORKER_THREAD_NAME_PREFIX = "StethoWorker";
   private static final int MAX_BIND_RETRIES = 2;
   private static final int TIME_BETWEEN_BIND_RETRIES_MS = 1000;
 
   private final String mFriendlyName;
   private final String mAddress;
   private final SocketHandler mSocketHandler;
-  private final AtomicInteger mThreadId = new AtomicInteger();
+  private final ConnectionWorkerPool mWorkerPool;
 
   private Thread mListenerThread;
   private boolean mStopped;
@@ -44,15 +42,34 @@ public class LocalSocketServer {
       String friendlyName,
       String address,
       SocketHandler socketHandler) {
+    this(friendlyName, address, socketHandler, new ConnectionWorkerPool());
+  }
+
+  /**
+   * @param friendlyName identifier to help debug this server, used for naming threads and such.
+   * @param address the local socket address to listen on.
+   * @param socketHandler functional handler once a socket is accepted.
+   * @param workerPool pool which bounds how many accepted sockets are serviced concurrently.
+   */
+  public LocalSocketServer(
+      String friendlyName,
+      String address,
+      SocketHandler socketHandler,
+      ConnectionWorkerPool workerPool) {
     mFriendlyName = Util.throwIfNull(friendlyName);
     mAddress = Util.throwIfNull(address);
     mSocketHandler = socketHandler;
+    mWorkerPool = Util.throwIfNull(workerPool);
   }
 
   public String getName() {
     return mFriendlyName;
   }
 
+  public ConnectionWorkerPool getWorkerPool() {
+    return mWorkerPool;
+  }
+
   /**
    * Binds to the address and listens for connections.
    * <p/>
@@ -76,20 +93,31 @@ public class LocalSocketServer {
     mServerSocket = bindToSocket(address);
     LogUtil.i("Listening on @" + address);
 
+    mWorkerPool.start(mFriendlyName);
+    try {
+      acceptLoop();
+    } finally {
+      mWorkerPool.shutdown();
+    }
+
+    LogUtil.i("Server shutdown on @" + address);
+  }
+
+  private void acceptLoop() {
     while (!Thread.interrupted()) {
       try {
-        // Use previously accepted socket the first time around, otherwise wait to
-        // accept another.
-        LocalSocket socket = mServerSocket.accept();
+        // Wait for room in the worker pool before accepting so that excess clients queue up
+        // in the listen backlog instead of consuming resources in the app.
+        mWorkerPool.acquireSlot();
+      } catch (InterruptedException e) {
+        break;
+      }
 
-        // Start worker thread
-        Thread t = new WorkerThread(socket, mSocketHandler);
-        t.setName(
-            WORKER_THREAD_NAME_PREFIX +
-            "-" + mFriendlyName +
-            "-" + mThreadId.incrementAndGet());
-        t.setDaemon(true);
-        t.start();
+      boolean handedOff = false;
+      try {
+        LocalSocket socket = mServerSocket.accept();
+        mWorkerPool.execute(socket, mSocketHandler);
+        handedOff = true;
       } catch (SocketException se) {
         // ignore exception if interrupting the thread
         if (Thread.interrupted()) {
@@ -101,10 +129,12 @@ public class LocalSocketServer {
       } catch (IOException e) {
         LogUtil.w(e, "I/O error initialising connection thread");
         break;
+      } finally {
+        if (!handedOff) {
+          mWorkerPool.releaseSlot();
+        }
       }
     }
-
-    LogUtil.i("Server shutdown on @" + address);
   }
 
   /**
@@ -149,28 +179,4 @@ public class LocalSocketServer {
 
     throw firstException;
   }
-
-  private static class WorkerThread extends Thread {
-    private final LocalSocket mSocket;
-    private final SocketHandler mSocketHandler;
-
-    public WorkerThread(LocalSocket socket, SocketHandler socketHandler) {
-      mSocket = socket;
-      mSocketHandler = socketHandler;
-    }
-
-    @Override
-    public void run() {
-      try {
-        mSocketHandler.onAccepted(mSocket);
-      } catch (IOException ex) {
-        LogUtil.w("I/O error: %s", ex);
-      } finally {
-        try {
-          mSocket.close();
-        } catch (IOException ignore) {
-        }
-      }
-    }
-  }
 }
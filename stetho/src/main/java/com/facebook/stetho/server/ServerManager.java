@@ -22,6 +22,14 @@ public class ServerManager {
     mServer = server;
   }
 
+  /**
+   * Worker pool servicing connections accepted by the managed server.  Useful for monitoring
+   * the number of active and queued connections.
+   */
+  public ConnectionWorkerPool getWorkerPool() {
+    return mServer.getWorkerPool();
+  }
+
   public void start() {
     if (mStarted) {
       throw new IllegalStateException("Already started");
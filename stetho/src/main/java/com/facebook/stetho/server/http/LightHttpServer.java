@@ -97,8 +97,9 @@ public class LightHttpServer {
     }
   }
 
+  // @VisibleForTesting
   @Nullable
-  private static LightHttpRequest readRequestMessage(
+  static LightHttpRequest readRequestMessage(
       LightHttpRequest request,
       HttpMessageReader reader)
       throws IOException {
@@ -178,7 +179,8 @@ public class LightHttpServer {
    * are both mechanized and will not contain non-ASCII characters in the control messages upon
    * which this reader is applied.
    */
-  private static class HttpMessageReader {
+  // @VisibleForTesting
+  static class HttpMessageReader {
     private final BufferedInputStream mIn;
     private final StringBuilder mBuffer = new StringBuilder();
     private final NewLineDetector mNewLineDetector = new NewLineDetector();
@@ -17,6 +17,7 @@ import java.io.InputStream;
  * WebSocket frame as per RFC6455.
  */
 class Frame {
+  public static final byte OPCODE_CONTINUATION = 0x0;
   public static final byte OPCODE_TEXT_FRAME = 0x1;
   public static final byte OPCODE_BINARY_FRAME = 0x2;
   public static final byte OPCODE_CONNECTION_CLOSE = 0x8;
@@ -34,14 +35,40 @@ class Frame {
   public byte[] payloadData;
 
   public void readFrom(BufferedInputStream input) throws IOException {
+    readHeaderFrom(input);
+    payloadData = new byte[(int)payloadLen];
+    readPayloadFrom(input, payloadData, 0);
+  }
+
+  /**
+   * Read everything up to the payload, leaving {@link #payloadData} untouched.  The payload must
+   * then be consumed with {@link #readPayloadFrom}.
+   */
+  public void readHeaderFrom(BufferedInputStream input) throws IOException {
     decodeFirstByte(readByteOrThrow(input));
     byte maskAndFirstLengthBits = readByteOrThrow(input);
     hasMask = (maskAndFirstLengthBits & 0x80) != 0;
     payloadLen = decodeLength((byte)(maskAndFirstLengthBits & ~0x80), input);
+    if (payloadLen < 0 || payloadLen > Integer.MAX_VALUE) {
+      throw new IOException("Unsupported payload length: " + payloadLen);
+    }
     maskingKey = hasMask ? decodeMaskingKey(input) : null;
-    payloadData = new byte[(int)payloadLen];
-    readBytesOrThrow(input, payloadData, 0, (int)payloadLen);
-    MaskingHelper.unmask(maskingKey, payloadData, 0, (int)payloadLen);
+  }
+
+  /**
+   * Read and unmask the payload of the frame whose header was just read into
+   * {@code dest[offset]} onwards.
+   */
+  public void readPayloadFrom(BufferedInputStream input, byte[] dest, int offset)
+      throws IOException {
+    readBytesOrThrow(input, dest, offset, (int)payloadLen);
+    if (maskingKey != null) {
+      MaskingHelper.unmask(maskingKey, dest, offset, (int)payloadLen);
+    }
+  }
+
+  public boolean isControlFrame() {
+    return (opcode & 0x8) != 0;
   }
 
   public void writeTo(BufferedOutputStream output) throws IOException {
@@ -14,6 +14,10 @@ class FrameHelper {
     return createSimpleFrame(Frame.OPCODE_TEXT_FRAME, Utf8Charset.encodeUTF8(payload));
   }
 
+  public static Frame createTextFrame(MessageBuffer payload) {
+    return createSimpleFrame(Frame.OPCODE_TEXT_FRAME, payload.getBuffer(), payload.size());
+  }
+
   public static Frame createBinaryFrame(byte[] payload) {
     return createSimpleFrame(Frame.OPCODE_BINARY_FRAME, payload);
   }
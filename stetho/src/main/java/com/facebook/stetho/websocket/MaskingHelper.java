@@ -7,11 +7,38 @@
 
 package com.facebook.stetho.websocket;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 class MaskingHelper {
+  /**
+   * Below this, setting up the word-at-a-time loop costs more than it saves.
+   */
+  private static final int MIN_WORD_UNMASK_COUNT = 32;
+
+  /**
+   * Unmask {@code count} bytes of {@code data} starting at {@code offset}, which must be the
+   * start of the masked payload (the first byte is masked with {@code key[0]}).
+   *
+   * @param key 4 byte masking key.
+   */
   public static void unmask(byte[] key, byte[] data, int offset, int count) {
     int index = 0;
-    while (count-- > 0) {
-      data[offset++] ^= key[index++ % key.length];
+    if (count >= MIN_WORD_UNMASK_COUNT) {
+      // Every 8 byte step starts at the same key phase, so the key repeated twice lines up with
+      // each word.  Build it through the same ByteBuffer order that reads the data so that the
+      // byte order doesn't matter.
+      ByteBuffer words = ByteBuffer.wrap(data).order(ByteOrder.nativeOrder());
+      long mask = ByteBuffer.wrap(new byte[] {
+          key[0], key[1], key[2], key[3], key[0], key[1], key[2], key[3]
+      }).order(ByteOrder.nativeOrder()).getLong(0);
+      for (int last = count - 8; index <= last; index += 8) {
+        int position = offset + index;
+        words.putLong(position, words.getLong(position) ^ mask);
+      }
+    }
+    for (; index < count; index++) {
+      data[offset + index] ^= key[index & 3];
     }
   }
 }
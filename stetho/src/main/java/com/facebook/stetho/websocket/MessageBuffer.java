@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.websocket;
+
+import java.io.OutputStream;
+
+/**
+ * Growable in-memory payload buffer, similar to {@link java.io.ByteArrayOutputStream} but
+ * exposing the backing array so that it can be framed without copying and recycled by
+ * {@link WriteHandler} afterwards.  Not thread safe.
+ */
+class MessageBuffer extends OutputStream {
+  private byte[] mBuffer;
+  private int mCount;
+
+  public MessageBuffer(int initialCapacity) {
+    mBuffer = new byte[initialCapacity];
+  }
+
+  @Override
+  public void write(int b) {
+    ensureCapacity(mCount + 1);
+    mBuffer[mCount++] = (byte) b;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) {
+    if ((off | len | (b.length - (off + len))) < 0) {
+      throw new IndexOutOfBoundsException();
+    }
+    ensureCapacity(mCount + len);
+    System.arraycopy(b, off, mBuffer, mCount, len);
+    mCount += len;
+  }
+
+  /**
+   * Backing array; only the first {@link #size()} bytes are meaningful.
+   */
+  public byte[] getBuffer() {
+    return mBuffer;
+  }
+
+  public int size() {
+    return mCount;
+  }
+
+  public int capacity() {
+    return mBuffer.length;
+  }
+
+  public void reset() {
+    mCount = 0;
+  }
+
+  private void ensureCapacity(int minCapacity) {
+    if (minCapacity < 0) {
+      throw new OutOfMemoryError("Message too large");
+    }
+    if (minCapacity > mBuffer.length) {
+      int newCapacity = Math.max(mBuffer.length << 1, minCapacity);
+      if (newCapacity < 0) {
+        newCapacity = Integer.MAX_VALUE;
+      }
+      byte[] newBuffer = new byte[newCapacity];
+      System.arraycopy(mBuffer, 0, newBuffer, 0, mCount);
+      mBuffer = newBuffer;
+    }
+  }
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.websocket;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+
+import javax.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The permessage-deflate extension (RFC7692).  Messages are compressed with raw DEFLATE, the
+ * first frame of a compressed message has RSV1 set, and the sender strips the
+ * {@code 00 00 ff ff} tail of the final sync flush which the receiver appends again.
+ * <p/>
+ * Context takeover (keeping the LZ77 window from one message to the next) is used in both
+ * directions unless the client asks otherwise.  {@link Deflater} can't shrink its window, so
+ * offers that insist on {@code server_max_window_bits} below 15 are declined.
+ */
+class PerMessageDeflate {
+  public static final String EXTENSION_NAME = "permessage-deflate";
+
+  private static final String PARAM_SERVER_NO_CONTEXT_TAKEOVER = "server_no_context_takeover";
+  private static final String PARAM_CLIENT_NO_CONTEXT_TAKEOVER = "client_no_context_takeover";
+  private static final String PARAM_SERVER_MAX_WINDOW_BITS = "server_max_window_bits";
+  private static final String PARAM_CLIENT_MAX_WINDOW_BITS = "client_max_window_bits";
+
+  private static final int MAX_WINDOW_BITS = 15;
+
+  /**
+   * Below this the DEFLATE framing overhead eats most of the savings, and small messages (most
+   * events) aren't what saturates the link.
+   */
+  public static final int DEFAULT_MIN_COMPRESSED_SIZE = 256;
+
+  private static final byte[] SYNC_FLUSH_TAIL = { 0x00, 0x00, (byte) 0xff, (byte) 0xff };
+
+  private static final int INITIAL_BUFFER_SIZE = 4096;
+
+  /**
+   * Buffers that grew beyond this for one large message are released afterwards.
+   */
+  private static final int MAX_RETAINED_BUFFER_SIZE = 256 * 1024;
+
+  private final boolean mServerNoContextTakeover;
+  private final boolean mClientNoContextTakeover;
+  private final boolean mEchoServerMaxWindowBits;
+
+  private PerMessageDeflate(
+      boolean serverNoContextTakeover,
+      boolean clientNoContextTakeover,
+      boolean echoServerMaxWindowBits) {
+    mServerNoContextTakeover = serverNoContextTakeover;
+    mClientNoContextTakeover = clientNoContextTakeover;
+    mEchoServerMaxWindowBits = echoServerMaxWindowBits;
+  }
+
+  /**
+   * Compressing requires {@link Deflater#SYNC_FLUSH}, which Android only has from KitKat on.
+   */
+  public static boolean isSupported() {
+    return Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+  }
+
+  /**
+   * Pick the first acceptable permessage-deflate offer from a {@code Sec-WebSocket-Extensions}
+   * request header.
+   *
+   * @return The accepted configuration, or null if there was no offer we can accept.
+   */
+  @Nullable
+  public static PerMessageDeflate negotiate(@Nullable String extensionsHeader) {
+    if (extensionsHeader == null) {
+      return null;
+    }
+    for (String offer : extensionsHeader.split(",")) {
+      PerMessageDeflate accepted = acceptOffer(offer);
+      if (accepted != null) {
+        return accepted;
+      }
+    }
+    return null;
+  }
+
+  @Nullable
+  private static PerMessageDeflate acceptOffer(String offer) {
+    String[] parts = offer.split(";");
+    if (!EXTENSION_NAME.equals(parts[0].trim())) {
+      return null;
+    }
+    boolean serverNoContextTakeover = false;
+    boolean clientNoContextTakeover = false;
+    boolean seenServerMaxWindowBits = false;
+    boolean seenClientMaxWindowBits = false;
+    for (int i = 1; i < parts.length; i++) {
+      String param = parts[i].trim();
+      String value = null;
+      int equalsIndex = param.indexOf('=');
+      if (equalsIndex >= 0) {
+        value = unquote(param.substring(equalsIndex + 1).trim());
+        param = param.substring(0, equalsIndex).trim();
+      }
+
+      // Each parameter may appear at most once (RFC7692 section 7).
+      if (PARAM_SERVER_NO_CONTEXT_TAKEOVER.equals(param) && value == null &&
+          !serverNoContextTakeover) {
+        serverNoContextTakeover = true;
+      } else if (PARAM_CLIENT_NO_CONTEXT_TAKEOVER.equals(param) && value == null &&
+          !clientNoContextTakeover) {
+        clientNoContextTakeover = true;
+      } else if (PARAM_SERVER_MAX_WINDOW_BITS.equals(param) && !seenServerMaxWindowBits &&
+          parseWindowBits(value) == MAX_WINDOW_BITS) {
+        seenServerMaxWindowBits = true;
+      } else if (PARAM_CLIENT_MAX_WINDOW_BITS.equals(param) && !seenClientMaxWindowBits &&
+          (value == null || parseWindowBits(value) > 0)) {
+        // Only tells us the client could use a smaller window; we're fine with the default.
+        seenClientMaxWindowBits = true;
+      } else {
+        return null;
+      }
+    }
+    return new PerMessageDeflate(
+        serverNoContextTakeover,
+        clientNoContextTakeover,
+        seenServerMaxWindowBits);
+  }
+
+  private static String unquote(String value) {
+    if (value.length() >= 2 && value.charAt(0) == '"' && value.charAt(value.length() - 1) == '"') {
+      return value.substring(1, value.length() - 1);
+    }
+    return value;
+  }
+
+  /**
+   * @return The window bits in the range 8..15, or -1 if {@code value} is not one of those.
+   */
+  private static int parseWindowBits(@Nullable String value) {
+    if (value == null) {
+      return -1;
+    }
+    try {
+      int bits = Integer.parseInt(value);
+      return (bits >= 8 && bits <= MAX_WINDOW_BITS) ? bits : -1;
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Value of the {@code Sec-WebSocket-Extensions} response header confirming this configuration.
+   */
+  public String getResponseHeaderValue() {
+    StringBuilder b = new StringBuilder(EXTENSION_NAME);
+    if (mServerNoContextTakeover) {
+      b.append("; ").append(PARAM_SERVER_NO_CONTEXT_TAKEOVER);
+    }
+    if (mClientNoContextTakeover) {
+      b.append("; ").append(PARAM_CLIENT_NO_CONTEXT_TAKEOVER);
+    }
+    if (mEchoServerMaxWindowBits) {
+      // Accepting the parameter requires repeating it (RFC7692 section 7.1.2.1).
+      b.append("; ").append(PARAM_SERVER_MAX_WINDOW_BITS).append('=').append(MAX_WINDOW_BITS);
+    }
+    return b.toString();
+  }
+
+  public MessageDeflater createDeflater(int minCompressedSize) {
+    return new MessageDeflater(!mServerNoContextTakeover, minCompressedSize);
+  }
+
+  public MessageInflater createInflater() {
+    return new MessageInflater();
+  }
+
+  private static byte[] grow(byte[] buffer) {
+    return Arrays.copyOf(buffer, buffer.length * 2);
+  }
+
+  /**
+   * Compresses outgoing messages.  Not thread safe; owned by the thread writing frames, which
+   * must also be the one deciding message order since the compression context spans messages.
+   */
+  public static class MessageDeflater {
+    private final Deflater mDeflater =
+        new Deflater(Deflater.DEFAULT_COMPRESSION, true /* nowrap */);
+    private final boolean mContextTakeover;
+    private final int mMinCompressedSize;
+    private byte[] mBuffer = new byte[INITIAL_BUFFER_SIZE];
+
+    MessageDeflater(boolean contextTakeover, int minCompressedSize) {
+      mContextTakeover = contextTakeover;
+      mMinCompressedSize = minCompressedSize;
+    }
+
+    /**
+     * Compress a message into {@link #getBuffer()} unless it is too small to bother with.
+     *
+     * @return The compressed length, or -1 if the message should be sent as is.
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    public int deflate(byte[] data, int offset, int count) {
+      if (count < mMinCompressedSize) {
+        return -1;
+      }
+      if (mBuffer.length > MAX_RETAINED_BUFFER_SIZE) {
+        mBuffer = new byte[INITIAL_BUFFER_SIZE];
+      }
+      mDeflater.setInput(data, offset, count);
+      int size = 0;
+      while (true) {
+        if (size == mBuffer.length) {
+          mBuffer = grow(mBuffer);
+        }
+        int available = mBuffer.length - size;
+        int n = mDeflater.deflate(mBuffer, size, available, Deflater.SYNC_FLUSH);
+        size += n;
+        // A sync flush is complete once it no longer fills the space it is given.
+        if (n < available) {
+          break;
+        }
+      }
+      if (!mContextTakeover) {
+        mDeflater.reset();
+      }
+      // Every sync flush ends with an empty stored block, which the receiver re-appends.
+      return size - SYNC_FLUSH_TAIL.length;
+    }
+
+    public byte[] getBuffer() {
+      return mBuffer;
+    }
+
+    public void release() {
+      mDeflater.end();
+    }
+  }
+
+  /**
+   * Decompresses incoming messages.  Not thread safe; owned by the thread reading frames.
+   */
+  public static class MessageInflater {
+    private final Inflater mInflater = new Inflater(true /* nowrap */);
+    private byte[] mBuffer = new byte[INITIAL_BUFFER_SIZE];
+
+    MessageInflater() {
+    }
+
+    /**
+     * Decompress a complete message into {@link #getBuffer()}.
+     *
+     * @return The decompressed length.
+     */
+    public int inflate(byte[] data, int offset, int count) throws IOException {
+      if (mBuffer.length > MAX_RETAINED_BUFFER_SIZE) {
+        mBuffer = new byte[INITIAL_BUFFER_SIZE];
+      }
+      try {
+        mInflater.setInput(data, offset, count);
+        int size = drain(0);
+        mInflater.setInput(SYNC_FLUSH_TAIL);
+        size = drain(size);
+        if (mInflater.finished()) {
+          // The client ended the DEFLATE stream (BFINAL), so the next message starts a new one.
+          mInflater.reset();
+        }
+        return size;
+      } catch (DataFormatException e) {
+        throw new IOException("Malformed compressed message", e);
+      }
+    }
+
+    private int drain(int size) throws DataFormatException {
+      // The inflater can have consumed all of its input and still hold output that didn't fit
+      // (e.g. the rest of a long match), so needsInput() alone doesn't mean we're done.  It
+      // only comes up empty when there is truly nothing left to produce.
+      while (!mInflater.finished()) {
+        if (size == mBuffer.length) {
+          mBuffer = grow(mBuffer);
+        }
+        int n = mInflater.inflate(mBuffer, size, mBuffer.length - size);
+        if (n == 0) {
+          if (mInflater.needsDictionary()) {
+            throw new DataFormatException("Preset dictionaries are not supported");
+          }
+          break;
+        }
+        size += n;
+      }
+      return size;
+    }
+
+    public byte[] getBuffer() {
+      return mBuffer;
+    }
+
+    public void release() {
+      mInflater.end();
+    }
+  }
+}
@@ -8,5 +8,8 @@
 package com.facebook.stetho.websocket;
 
 interface ReadCallback {
+  /**
+   * @param payload Buffer owned by the {@link ReadHandler}, which is reused once this returns.
+   */
   void onCompleteFrame(byte opcode, byte[] payload, int payloadLen);
 }
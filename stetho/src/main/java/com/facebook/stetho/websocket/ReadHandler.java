@@ -7,23 +7,64 @@
 
 package com.facebook.stetho.websocket;
 
+import javax.annotation.Nullable;
+
 import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 
+/**
+ * Reads frames straight into a payload buffer that is reused for the life of the session, so
+ * that no per-frame copies are made.  The buffer handed to {@link ReadCallback} is only valid
+ * for the duration of the call.
+ */
 class ReadHandler {
+  private static final int INITIAL_PAYLOAD_BUFFER_SIZE = 4096;
+
+  /**
+   * A buffer that grew beyond this for one large message is released rather than retained for
+   * the rest of the session.
+   */
+  private static final int MAX_RETAINED_PAYLOAD_BUFFER_SIZE = 256 * 1024;
+
+  /**
+   * Control frames may not be fragmented and are limited to 125 bytes of payload (RFC6455
+   * section 5.5).
+   */
+  private static final int MAX_CONTROL_PAYLOAD_SIZE = 125;
+
   private final BufferedInputStream mBufferedInput;
   private final SimpleEndpoint mEndpoint;
+  @Nullable private final PerMessageDeflate.MessageInflater mInflater;
 
   /**
    * Used to build a larger payload over multiple frames.
    */
-  private final ByteArrayOutputStream mCurrentPayload = new ByteArrayOutputStream();
+  private byte[] mCurrentPayload = new byte[INITIAL_PAYLOAD_BUFFER_SIZE];
+  private int mCurrentPayloadLen;
+  private byte mCurrentOpcode;
+  private boolean mCurrentCompressed;
+
+  /**
+   * Control frames may arrive between the fragments of a message so they are read separately.
+   */
+  private final byte[] mControlPayload = new byte[MAX_CONTROL_PAYLOAD_SIZE];
 
   public ReadHandler(InputStream bufferedInput, SimpleEndpoint endpoint) {
+    this(bufferedInput, endpoint, null /* inflater */);
+  }
+
+  /**
+   * @param inflater Decompresses messages when permessage-deflate was negotiated.
+   */
+  public ReadHandler(
+      InputStream bufferedInput,
+      SimpleEndpoint endpoint,
+      @Nullable PerMessageDeflate.MessageInflater inflater) {
     mBufferedInput = new BufferedInputStream(bufferedInput, 1024);
     mEndpoint = endpoint;
+    mInflater = inflater;
   }
 
   /**
@@ -35,13 +76,57 @@ class ReadHandler {
   public void readLoop(ReadCallback readCallback) throws IOException {
     Frame frame = new Frame();
     do {
-      frame.readFrom(mBufferedInput);
-      mCurrentPayload.write(frame.payloadData, 0, (int)frame.payloadLen);
-      if (frame.fin) {
-        byte[] completePayload = mCurrentPayload.toByteArray();
-        readCallback.onCompleteFrame(frame.opcode, completePayload, completePayload.length);
-        mCurrentPayload.reset();
+      frame.readHeaderFrom(mBufferedInput);
+      int payloadLen = (int)frame.payloadLen;
+      if (frame.isControlFrame()) {
+        if (payloadLen > MAX_CONTROL_PAYLOAD_SIZE || !frame.fin || frame.rsv1) {
+          throw new IOException("Malformed control frame, opcode=" + frame.opcode);
+        }
+        frame.readPayloadFrom(mBufferedInput, mControlPayload, 0);
+        readCallback.onCompleteFrame(frame.opcode, mControlPayload, payloadLen);
+      } else {
+        if (mCurrentPayloadLen == 0 && frame.opcode != Frame.OPCODE_CONTINUATION) {
+          mCurrentOpcode = frame.opcode;
+          // Only the first frame of a message carries the compressed bit (RFC7692 section 6).
+          mCurrentCompressed = frame.rsv1;
+          if (frame.rsv1 && mInflater == null) {
+            throw new IOException("RSV1 set without a negotiated extension");
+          }
+        }
+        ensureCurrentPayloadCapacity(payloadLen);
+        frame.readPayloadFrom(mBufferedInput, mCurrentPayload, mCurrentPayloadLen);
+        mCurrentPayloadLen += payloadLen;
+        if (frame.fin) {
+          if (mCurrentCompressed) {
+            int inflatedLen = mInflater.inflate(mCurrentPayload, 0, mCurrentPayloadLen);
+            readCallback.onCompleteFrame(mCurrentOpcode, mInflater.getBuffer(), inflatedLen);
+          } else {
+            readCallback.onCompleteFrame(mCurrentOpcode, mCurrentPayload, mCurrentPayloadLen);
+          }
+          resetCurrentPayload();
+        }
       }
     } while (frame.opcode != Frame.OPCODE_CONNECTION_CLOSE);
   }
+
+  private void ensureCurrentPayloadCapacity(int additionalLen) throws IOException {
+    int required = mCurrentPayloadLen + additionalLen;
+    if (required < 0) {
+      throw new IOException("Message too large");
+    }
+    if (required > mCurrentPayload.length) {
+      int newLength = Math.max(required, mCurrentPayload.length * 2);
+      if (newLength < 0) {
+        newLength = required;
+      }
+      mCurrentPayload = Arrays.copyOf(mCurrentPayload, newLength);
+    }
+  }
+
+  private void resetCurrentPayload() {
+    mCurrentPayloadLen = 0;
+    if (mCurrentPayload.length > MAX_RETAINED_PAYLOAD_BUFFER_SIZE) {
+      mCurrentPayload = new byte[INITIAL_PAYLOAD_BUFFER_SIZE];
+    }
+  }
 }
@@ -7,11 +7,43 @@
 
 package com.facebook.stetho.websocket;
 
+import java.io.Closeable;
+import java.io.IOException;
+
 /**
  * Alternative to JSR-356's Session class but with a less insane J2EE-style API.
  */
 public interface SimpleSession {
   void sendText(String payload);
+
+  /**
+   * Send a text message whose payload is encoded by {@code messageWriter} directly into a
+   * reusable frame buffer, avoiding intermediate {@link String} and {@code byte[]} copies.
+   * Failures writing to the socket are reported to {@link SimpleEndpoint#onError} as with
+   * {@link #sendText(String)}.
+   *
+   * @throws IOException Thrown only if {@code messageWriter} throws.  Nothing is sent.
+   */
+  void sendText(TextMessageWriter messageWriter) throws IOException;
+
+  /**
+   * Variant of {@link #sendText(TextMessageWriter)} for messages which may be discarded if
+   * the outbound queue overflows because the peer is not keeping up, such as progress events
+   * which are superseded by later ones.
+   */
+  void sendText(TextMessageWriter messageWriter, boolean droppable) throws IOException;
+
+  /**
+   * Send a text message of unbounded size, such as a response body read from a file.  Unlike
+   * {@link #sendText(TextMessageWriter)}, {@code messageWriter} is called later on the thread
+   * writing to the socket, and the message goes out in fragments of bounded size, so memory use
+   * doesn't grow with the message.
+   * <p/>
+   * {@code resource} is closed once the message has been written, or as soon as it is known
+   * that it won't be (for instance because the session is already closed).
+   */
+  void sendStreamingText(TextMessageWriter messageWriter, Closeable resource);
+
   void sendBinary(byte[] payload);
 
   /**
@@ -23,4 +55,14 @@ public interface SimpleSession {
   void close(int closeReason, String reasonPhrase);
 
   boolean isOpen();
+
+  /**
+   * Number of outgoing messages waiting to be written to the peer.
+   */
+  int getQueuedMessageCount();
+
+  /**
+   * Number of droppable messages discarded so far because the outbound queue was full.
+   */
+  long getDroppedMessageCount();
 }
@@ -0,0 +1,25 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.websocket;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Produces the payload of a text message on demand so that it can be encoded directly into
+ * the session's frame buffer rather than first being materialized as a {@link String}.
+ *
+ * @see SimpleSession#sendText(TextMessageWriter)
+ */
+public interface TextMessageWriter {
+  /**
+   * Write the complete UTF-8 encoded message to {@code out}.  The stream is only valid for the
+   * duration of this call and must not be closed.
+   */
+  void writeTo(OutputStream out) throws IOException;
+}
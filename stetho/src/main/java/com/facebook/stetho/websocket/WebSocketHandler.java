@@ -44,6 +44,7 @@ public class WebSocketHandler implements HttpHandler {
   private static final String HEADER_SEC_WEBSOCKET_ACCEPT = "Sec-WebSocket-Accept";
   private static final String HEADER_SEC_WEBSOCKET_PROTOCOL = "Sec-WebSocket-Protocol";
   private static final String HEADER_SEC_WEBSOCKET_VERSION = "Sec-WebSocket-Version";
+  private static final String HEADER_SEC_WEBSOCKET_EXTENSIONS = "Sec-WebSocket-Extensions";
 
   private static final String HEADER_UPGRADE_WEBSOCKET = "websocket";
   private static final String HEADER_CONNECTION_UPGRADE = "Upgrade";
@@ -105,13 +106,24 @@ public class WebSocketHandler implements HttpHandler {
       response.addHeader(HEADER_SEC_WEBSOCKET_ACCEPT, generateServerKey(clientKey));
     }
 
+    PerMessageDeflate perMessageDeflate = null;
+    if (PerMessageDeflate.isSupported()) {
+      perMessageDeflate = PerMessageDeflate.negotiate(
+          getFirstHeaderValue(request, HEADER_SEC_WEBSOCKET_EXTENSIONS));
+      if (perMessageDeflate != null) {
+        response.addHeader(
+            HEADER_SEC_WEBSOCKET_EXTENSIONS,
+            perMessageDeflate.getResponseHeaderValue());
+      }
+    }
+
     InputStream in = socketLike.getInput();
     OutputStream out = socketLike.getOutput();
     LightHttpServer.writeResponseMessage(
         response,
         new LightHttpServer.HttpMessageWriter(new BufferedOutputStream(out)));
 
-    WebSocketSession session = new WebSocketSession(in, out, mEndpoint);
+    WebSocketSession session = new WebSocketSession(in, out, mEndpoint, perMessageDeflate);
     session.handle();
   }
 
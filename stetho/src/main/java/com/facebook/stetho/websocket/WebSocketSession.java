@@ -7,21 +7,26 @@
 
 package com.facebook.stetho.websocket;
 
+import javax.annotation.Nullable;
+
+import java.io.Closeable;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Binding driver between raw socket I/O and a high-level WebSocket interface.  This implementation
- * is generally very weak and doesn't offer sensible optimizations such as re-used buffers,
- * efficient UTF-8 encoding/decoding, or the full spectrum of features defined in the RFC.
+ * is generally very weak and doesn't offer efficient UTF-8 decoding or the full spectrum of
+ * features defined in the RFC.
  */
 class WebSocketSession implements SimpleSession {
   private final ReadHandler mReadHandler;
   private final WriteHandler mWriteHandler;
   private final SimpleEndpoint mEndpoint;
+  @Nullable private final PerMessageDeflate.MessageInflater mInflater;
 
   private AtomicBoolean mIsOpen = new AtomicBoolean(false);
   private volatile boolean mSentClose;
@@ -30,24 +35,50 @@ class WebSocketSession implements SimpleSession {
       InputStream rawSocketInput,
       OutputStream rawSocketOutput,
       SimpleEndpoint endpoint) {
-    mReadHandler = new ReadHandler(rawSocketInput, endpoint);
-    mWriteHandler = new WriteHandler(rawSocketOutput);
+    this(rawSocketInput, rawSocketOutput, endpoint, null /* perMessageDeflate */);
+  }
+
+  /**
+   * @param perMessageDeflate Negotiated compression settings, if any.
+   */
+  public WebSocketSession(
+      InputStream rawSocketInput,
+      OutputStream rawSocketOutput,
+      SimpleEndpoint endpoint,
+      @Nullable PerMessageDeflate perMessageDeflate) {
+    PerMessageDeflate.MessageDeflater deflater = null;
+    if (perMessageDeflate != null) {
+      mInflater = perMessageDeflate.createInflater();
+      deflater = perMessageDeflate.createDeflater(PerMessageDeflate.DEFAULT_MIN_COMPRESSED_SIZE);
+    } else {
+      mInflater = null;
+    }
+    mReadHandler = new ReadHandler(rawSocketInput, endpoint, mInflater);
+    mWriteHandler = new WriteHandler(rawSocketOutput, deflater);
     mEndpoint = endpoint;
   }
 
   public void handle() throws IOException {
-    markAndSignalOpen();
-
-    // Loop until orderly shutdown or socket exception.
+    mWriteHandler.start();
     try {
-      mReadHandler.readLoop(mReadCallback);
-    } catch (EOFException e) {
-      // No need to rethrow, this can be considered a graceful shutdown of the socket (though
-      // not the WebSocket).
-      markAndSignalClosed(CloseCodes.UNEXPECTED_CONDITION, "EOF while reading");
-    } catch (IOException e) {
-      markAndSignalClosed(CloseCodes.CLOSED_ABNORMALLY, null /* reasonPhrase */);
-      throw e;
+      markAndSignalOpen();
+
+      // Loop until orderly shutdown or socket exception.
+      try {
+        mReadHandler.readLoop(mReadCallback);
+      } catch (EOFException e) {
+        // No need to rethrow, this can be considered a graceful shutdown of the socket (though
+        // not the WebSocket).
+        markAndSignalClosed(CloseCodes.UNEXPECTED_CONDITION, "EOF while reading");
+      } catch (IOException e) {
+        markAndSignalClosed(CloseCodes.CLOSED_ABNORMALLY, null /* reasonPhrase */);
+        throw e;
+      }
+    } finally {
+      mWriteHandler.shutdown();
+      if (mInflater != null) {
+        mInflater.release();
+      }
     }
   }
 
@@ -56,6 +87,58 @@ class WebSocketSession implements SimpleSession {
     doWrite(FrameHelper.createTextFrame(payload));
   }
 
+  @Override
+  public void sendText(TextMessageWriter messageWriter) throws IOException {
+    sendText(messageWriter, false /* droppable */);
+  }
+
+  @Override
+  public void sendText(TextMessageWriter messageWriter, boolean droppable) throws IOException {
+    if (signalErrorIfNotOpen()) {
+      return;
+    }
+    MessageBuffer buffer = mWriteHandler.obtainMessageBuffer();
+    try {
+      messageWriter.writeTo(buffer);
+    } catch (IOException | RuntimeException | Error e) {
+      mWriteHandler.releaseMessageBuffer(buffer);
+      throw e;
+    }
+    mWriteHandler.write(
+        FrameHelper.createTextFrame(buffer),
+        buffer,
+        droppable,
+        mErrorForwardingWriteCallback);
+  }
+
+  @Override
+  public void sendStreamingText(TextMessageWriter messageWriter, final Closeable resource) {
+    if (signalErrorIfNotOpen()) {
+      closeQuietly(resource);
+      return;
+    }
+    mWriteHandler.writeStreaming(messageWriter, new WriteCallback() {
+      @Override
+      public void onFailure(IOException e) {
+        closeQuietly(resource);
+        signalError(e);
+      }
+
+      @Override
+      public void onSuccess() {
+        closeQuietly(resource);
+      }
+    });
+  }
+
+  private static void closeQuietly(Closeable resource) {
+    try {
+      resource.close();
+    } catch (IOException e) {
+      // The message is done with either way.
+    }
+  }
+
   @Override
   public void sendBinary(byte[] payload) {
     doWrite(FrameHelper.createBinaryFrame(payload));
@@ -93,6 +176,16 @@ class WebSocketSession implements SimpleSession {
     return mIsOpen.get();
   }
 
+  @Override
+  public int getQueuedMessageCount() {
+    return mWriteHandler.getQueuedFrameCount();
+  }
+
+  @Override
+  public long getDroppedMessageCount() {
+    return mWriteHandler.getDroppedFrameCount();
+  }
+
   private void doWrite(Frame frame) {
     if (signalErrorIfNotOpen()) {
       return;
@@ -163,7 +256,9 @@ class WebSocketSession implements SimpleSession {
     }
 
     private void handlePing(byte[] payload, int payloadLen) {
-      doWrite(FrameHelper.createPongFrame(payload, payloadLen));
+      // The pong is written from another thread, after the read buffer has been reused.
+      byte[] pongPayload = Arrays.copyOf(payload, payloadLen);
+      doWrite(FrameHelper.createPongFrame(pongPayload, payloadLen));
     }
 
     private void handlePong(byte[] payload, int payloadLen) {
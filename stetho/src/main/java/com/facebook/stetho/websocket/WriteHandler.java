@@ -7,27 +7,528 @@
 
 package com.facebook.stetho.websocket;
 
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 
 import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
 
+/**
+ * Writes frames to the socket from a dedicated thread so that callers (often app threads
+ * reporting network events) never block on the DevTools client draining the socket.  Frames
+ * are queued in a bounded queue and written in batches with a single flush per batch.
+ * <p/>
+ * When the queue is full, frames enqueued as droppable are discarded first: either the
+ * incoming frame itself or the oldest droppable frame already queued.  Only when no droppable
+ * frame remains does the caller block until the writer catches up, so that responses and
+ * other critical messages are never lost.
+ */
 @ThreadSafe
 class WriteHandler {
-  private final BufferedOutputStream mBufferedOutput;
+  private static final int INITIAL_MESSAGE_BUFFER_SIZE = 4096;
+
+  /**
+   * Buffers that grew beyond this size (for instance to hold a large response body) are
+   * released to the GC rather than being retained for the life of the session.
+   */
+  private static final int MAX_POOLED_MESSAGE_BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * Enough for a full queue's worth of small messages to avoid allocating under steady load.
+   */
+  private static final int MAX_POOLED_MESSAGE_BUFFERS = 16;
+
+  /**
+   * Payload size of each frame a streamed message is split into (see
+   * {@link #writeStreaming}).
+   */
+  private static final int MAX_FRAGMENT_SIZE = 32 * 1024;
+
+  private static final int DEFAULT_MAX_QUEUED_FRAMES = 512;
+  private static final int OUTPUT_BUFFER_SIZE = 8 * 1024;
+  private static final long SHUTDOWN_DRAIN_TIMEOUT_MS = 1000;
+
+  private final OutputStream mRawOutput;
+  private final int mMaxQueuedFrames;
+  @Nullable private final PerMessageDeflate.MessageDeflater mDeflater;
+
+  @GuardedBy("mMessageBufferPool")
+  private final ArrayList<MessageBuffer> mMessageBufferPool = new ArrayList<>();
+
+  @GuardedBy("mQueue")
+  private final ArrayDeque<QueuedFrame> mQueue = new ArrayDeque<>();
+
+  @GuardedBy("mQueue")
+  private boolean mShutdown;
+
+  @GuardedBy("mQueue")
+  private IOException mWriteFailure;
+
+  @GuardedBy("mQueue")
+  private long mDroppedFrameCount;
+
+  @GuardedBy("mQueue")
+  private Thread mWriterThread;
 
   public WriteHandler(OutputStream rawSocketOutput) {
-    mBufferedOutput = new BufferedOutputStream(rawSocketOutput, 1024);
+    this(rawSocketOutput, DEFAULT_MAX_QUEUED_FRAMES, null /* deflater */);
+  }
+
+  /**
+   * @param deflater Compresses messages on the writer thread when permessage-deflate was
+   *     negotiated.  Compressing there keeps the shared compression context in the same order
+   *     as the frames on the wire.
+   */
+  public WriteHandler(
+      OutputStream rawSocketOutput,
+      int maxQueuedFrames,
+      @Nullable PerMessageDeflate.MessageDeflater deflater) {
+    if (maxQueuedFrames < 1) {
+      throw new IllegalArgumentException("maxQueuedFrames must be >= 1");
+    }
+    mRawOutput = rawSocketOutput;
+    mMaxQueuedFrames = maxQueuedFrames;
+    mDeflater = deflater;
+  }
+
+  public WriteHandler(
+      OutputStream rawSocketOutput,
+      @Nullable PerMessageDeflate.MessageDeflater deflater) {
+    this(rawSocketOutput, DEFAULT_MAX_QUEUED_FRAMES, deflater);
+  }
+
+  /**
+   * Start the writer thread.  Frames written before this are queued.
+   */
+  public void start() {
+    synchronized (mQueue) {
+      if (mWriterThread != null) {
+        throw new IllegalStateException("Already started");
+      }
+      mWriterThread = new Thread(new WriterLoop(), "StethoWebSocketWriter");
+      mWriterThread.setDaemon(true);
+      mWriterThread.start();
+    }
+  }
+
+  /**
+   * Stop accepting frames and give the writer thread a short while to drain what is already
+   * queued (typically a close frame) before the socket is closed out from under it.
+   */
+  public void shutdown() {
+    Thread writerThread;
+    synchronized (mQueue) {
+      mShutdown = true;
+      mQueue.notifyAll();
+      writerThread = mWriterThread;
+    }
+    if (writerThread != null && writerThread != Thread.currentThread()) {
+      try {
+        writerThread.join(SHUTDOWN_DRAIN_TIMEOUT_MS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    failPendingFrames(new IOException("Session is closed"));
+  }
+
+  public void write(Frame frame, WriteCallback callback) {
+    enqueue(new QueuedFrame(
+        frame,
+        null /* buffer */,
+        null /* streamingWriter */,
+        false /* droppable */,
+        callback));
+  }
+
+  /**
+   * Queue a frame whose payload is backed by {@code buffer}.  Ownership of the buffer passes to
+   * this handler, which returns it to the pool once the frame has been written or dropped.
+   *
+   * @param droppable Whether the frame may be discarded if the queue overflows.
+   */
+  public void write(
+      Frame frame,
+      MessageBuffer buffer,
+      boolean droppable,
+      WriteCallback callback) {
+    enqueue(new QueuedFrame(frame, buffer, null /* streamingWriter */, droppable, callback));
+  }
+
+  /**
+   * Queue a text message of unbounded size whose payload is produced by {@code messageWriter}
+   * on the writer thread, once everything queued before it has been written.  The payload goes
+   * straight to the socket in uncompressed fragments of at most {@link #MAX_FRAGMENT_SIZE}
+   * bytes, so memory use doesn't depend on the size of the message, and no other message can be
+   * interleaved with them.
+   * <p/>
+   * If {@code messageWriter} fails before the first fragment is written only this message fails,
+   * but after that the session can't be recovered and is failed as a whole.
+   */
+  public void writeStreaming(TextMessageWriter messageWriter, WriteCallback callback) {
+    enqueue(new QueuedFrame(
+        null /* frame */,
+        null /* buffer */,
+        messageWriter,
+        false /* droppable */,
+        callback));
+  }
+
+  /**
+   * Number of frames waiting to be written.
+   */
+  public int getQueuedFrameCount() {
+    synchronized (mQueue) {
+      return mQueue.size();
+    }
   }
 
-  public synchronized void write(Frame frame, WriteCallback callback) {
-    try {
-      frame.writeTo(mBufferedOutput);
+  /**
+   * Total number of droppable frames discarded due to queue overflow.
+   */
+  public long getDroppedFrameCount() {
+    synchronized (mQueue) {
+      return mDroppedFrameCount;
+    }
+  }
+
+  private void enqueue(QueuedFrame queuedFrame) {
+    IOException failure = null;
+    QueuedFrame dropped = null;
+    synchronized (mQueue) {
+      while (failure == null && mQueue.size() >= mMaxQueuedFrames) {
+        if (mShutdown || mWriteFailure != null) {
+          break;
+        }
+        if (queuedFrame.droppable) {
+          dropped = queuedFrame;
+          break;
+        }
+        QueuedFrame oldestDroppable = removeOldestDroppableLocked();
+        if (oldestDroppable != null) {
+          dropped = oldestDroppable;
+          break;
+        }
+        try {
+          mQueue.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          failure = new IOException("Interrupted waiting for write queue");
+        }
+      }
+      if (mWriteFailure != null) {
+        failure = mWriteFailure;
+      } else if (mShutdown) {
+        failure = new IOException("Session is closed");
+      }
+      if (dropped != null) {
+        mDroppedFrameCount++;
+      }
+      if (failure == null && dropped != queuedFrame) {
+        mQueue.addLast(queuedFrame);
+        mQueue.notifyAll();
+      }
+    }
+    if (dropped != null) {
+      releaseMessageBuffer(dropped.buffer);
+    }
+    if (failure != null && dropped != queuedFrame) {
+      releaseMessageBuffer(queuedFrame.buffer);
+      queuedFrame.callback.onFailure(failure);
+    }
+  }
+
+  @GuardedBy("mQueue")
+  @Nullable
+  private QueuedFrame removeOldestDroppableLocked() {
+    Iterator<QueuedFrame> iter = mQueue.iterator();
+    while (iter.hasNext()) {
+      QueuedFrame next = iter.next();
+      if (next.droppable) {
+        iter.remove();
+        return next;
+      }
+    }
+    return null;
+  }
+
+  private void failPendingFrames(IOException e) {
+    ArrayList<QueuedFrame> pending;
+    synchronized (mQueue) {
+      pending = new ArrayList<>(mQueue);
+      mQueue.clear();
+      mQueue.notifyAll();
+    }
+    for (int i = 0, N = pending.size(); i < N; i++) {
+      QueuedFrame queuedFrame = pending.get(i);
+      releaseMessageBuffer(queuedFrame.buffer);
+      queuedFrame.callback.onFailure(e);
+    }
+  }
+
+  /**
+   * Obtain an empty buffer to encode an outgoing message into.  Encoding is performed by the
+   * caller without holding any lock; the buffer is then handed back through
+   * {@link #write(Frame, MessageBuffer, boolean, WriteCallback)}.
+   */
+  public MessageBuffer obtainMessageBuffer() {
+    synchronized (mMessageBufferPool) {
+      int size = mMessageBufferPool.size();
+      if (size > 0) {
+        return mMessageBufferPool.remove(size - 1);
+      }
+    }
+    return new MessageBuffer(INITIAL_MESSAGE_BUFFER_SIZE);
+  }
+
+  public void releaseMessageBuffer(@Nullable MessageBuffer buffer) {
+    if (buffer == null || buffer.capacity() > MAX_POOLED_MESSAGE_BUFFER_SIZE) {
+      return;
+    }
+    buffer.reset();
+    synchronized (mMessageBufferPool) {
+      if (mMessageBufferPool.size() < MAX_POOLED_MESSAGE_BUFFERS) {
+        mMessageBufferPool.add(buffer);
+      }
+    }
+  }
+
+  private class WriterLoop implements Runnable {
+    private final BufferedOutputStream mBufferedOutput =
+        new BufferedOutputStream(mRawOutput, OUTPUT_BUFFER_SIZE);
+    private final ArrayList<QueuedFrame> mBatch = new ArrayList<>();
+    @Nullable private FragmentingOutputStream mFragmentingOutput;
+
+    @Override
+    public void run() {
+      try {
+        while (takeBatch()) {
+          writeBatch();
+        }
+      } catch (IOException e) {
+        synchronized (mQueue) {
+          mWriteFailure = e;
+        }
+        failBatch(e);
+        failPendingFrames(e);
+      } catch (InterruptedException e) {
+        failPendingFrames(new IOException("Writer interrupted"));
+      }
+      releaseDeflater();
+    }
+
+    private void releaseDeflater() {
+      if (mDeflater != null) {
+        mDeflater.release();
+      }
+    }
+
+    /**
+     * Move everything currently queued into {@link #mBatch}, blocking while the queue is empty.
+     *
+     * @return False once shut down and fully drained.
+     */
+    private boolean takeBatch() throws InterruptedException {
+      synchronized (mQueue) {
+        while (mQueue.isEmpty()) {
+          if (mShutdown) {
+            return false;
+          }
+          mQueue.wait();
+        }
+        mBatch.addAll(mQueue);
+        mQueue.clear();
+        // Wake up any producers blocked on a full queue.
+        mQueue.notifyAll();
+        return true;
+      }
+    }
+
+    private void writeBatch() throws IOException {
+      for (int i = 0, N = mBatch.size(); i < N; i++) {
+        QueuedFrame queuedFrame = mBatch.get(i);
+        if (queuedFrame.streamingWriter != null) {
+          writeStreamingMessage(queuedFrame);
+          continue;
+        }
+        Frame frame = queuedFrame.frame;
+        if (mDeflater != null && !frame.isControlFrame()) {
+          compress(frame);
+        }
+        frame.writeTo(mBufferedOutput);
+      }
       mBufferedOutput.flush();
-      callback.onSuccess();
-    } catch (IOException e) {
-      callback.onFailure(e);
+      for (int i = 0, N = mBatch.size(); i < N; i++) {
+        QueuedFrame queuedFrame = mBatch.get(i);
+        releaseMessageBuffer(queuedFrame.buffer);
+        if (queuedFrame.failure != null) {
+          queuedFrame.callback.onFailure(queuedFrame.failure);
+        } else {
+          queuedFrame.callback.onSuccess();
+        }
+      }
+      mBatch.clear();
+    }
+
+    private void writeStreamingMessage(QueuedFrame queuedFrame) throws IOException {
+      if (mFragmentingOutput == null) {
+        mFragmentingOutput = new FragmentingOutputStream(mBufferedOutput);
+      }
+      FragmentingOutputStream out = mFragmentingOutput;
+      out.reset();
+      try {
+        queuedFrame.streamingWriter.writeTo(out);
+        out.finish();
+      } catch (IOException | RuntimeException | Error e) {
+        if (out.getSocketFailure() != null) {
+          throw out.getSocketFailure();
+        }
+        IOException failure = e instanceof IOException
+            ? (IOException) e
+            : new IOException("Failed to produce streamed message", e);
+        if (out.hasWrittenFragments()) {
+          // The client has part of the message, which nothing else can follow.
+          throw failure;
+        }
+        queuedFrame.failure = failure;
+      }
+    }
+
+    /**
+     * Swap the payload of an outgoing message for its compressed form.  The compressed bytes
+     * live in the deflater's buffer, which is fine as the frame is written out right away.
+     */
+    private void compress(Frame frame) {
+      int compressedLen = mDeflater.deflate(frame.payloadData, 0, (int) frame.payloadLen);
+      if (compressedLen >= 0) {
+        frame.rsv1 = true;
+        frame.payloadData = mDeflater.getBuffer();
+        frame.payloadLen = compressedLen;
+      }
+    }
+
+    private void failBatch(IOException e) {
+      for (int i = 0, N = mBatch.size(); i < N; i++) {
+        QueuedFrame queuedFrame = mBatch.get(i);
+        releaseMessageBuffer(queuedFrame.buffer);
+        queuedFrame.callback.onFailure(e);
+      }
+      mBatch.clear();
+    }
+  }
+
+  private static class QueuedFrame {
+    /**
+     * Null for streamed messages, which are framed as they are written.
+     */
+    @Nullable public final Frame frame;
+    @Nullable public final MessageBuffer buffer;
+    @Nullable public final TextMessageWriter streamingWriter;
+    public final boolean droppable;
+    public final WriteCallback callback;
+
+    /**
+     * Set on the writer thread if a streamed message failed without affecting the session.
+     */
+    @Nullable public IOException failure;
+
+    public QueuedFrame(
+        @Nullable Frame frame,
+        @Nullable MessageBuffer buffer,
+        @Nullable TextMessageWriter streamingWriter,
+        boolean droppable,
+        WriteCallback callback) {
+      this.frame = frame;
+      this.buffer = buffer;
+      this.streamingWriter = streamingWriter;
+      this.droppable = droppable;
+      this.callback = callback;
+    }
+  }
+
+  /**
+   * Splits a text message into a first frame and continuation frames of at most
+   * {@link #MAX_FRAGMENT_SIZE} bytes each, writing each one out as soon as it is full.  A message
+   * that fits in a single fragment is sent as an ordinary unfragmented frame.
+   */
+  private static class FragmentingOutputStream extends OutputStream {
+    private final BufferedOutputStream mOutput;
+    private final byte[] mBuffer = new byte[MAX_FRAGMENT_SIZE];
+    private final Frame mFrame = new Frame();
+    private int mCount;
+    private boolean mWrittenFragments;
+    @Nullable private IOException mSocketFailure;
+
+    public FragmentingOutputStream(BufferedOutputStream output) {
+      mOutput = output;
+    }
+
+    public void reset() {
+      mCount = 0;
+      mWrittenFragments = false;
+      mSocketFailure = null;
+    }
+
+    public boolean hasWrittenFragments() {
+      return mWrittenFragments;
+    }
+
+    /**
+     * The failure writing to the socket, as opposed to one of the message writer's own.
+     */
+    @Nullable
+    public IOException getSocketFailure() {
+      return mSocketFailure;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      if (mCount == mBuffer.length) {
+        writeFragment(false /* fin */);
+      }
+      mBuffer[mCount++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if ((off | len | (b.length - (off + len))) < 0) {
+        throw new IndexOutOfBoundsException();
+      }
+      while (len > 0) {
+        if (mCount == mBuffer.length) {
+          writeFragment(false /* fin */);
+        }
+        int n = Math.min(len, mBuffer.length - mCount);
+        System.arraycopy(b, off, mBuffer, mCount, n);
+        mCount += n;
+        off += n;
+        len -= n;
+      }
+    }
+
+    public void finish() throws IOException {
+      writeFragment(true /* fin */);
+    }
+
+    private void writeFragment(boolean fin) throws IOException {
+      Frame frame = mFrame;
+      frame.fin = fin;
+      frame.opcode = mWrittenFragments ? Frame.OPCODE_CONTINUATION : Frame.OPCODE_TEXT_FRAME;
+      frame.payloadData = mBuffer;
+      frame.payloadLen = mCount;
+      try {
+        frame.writeTo(mOutput);
+      } catch (IOException e) {
+        mSocketFailure = e;
+        throw e;
+      }
+      mWrittenFragments = true;
+      mCount = 0;
     }
   }
 }
@@ -0,0 +1,317 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.elements;
+
+import android.os.Build;
+import android.os.SystemClock;
+
+import com.facebook.stetho.common.Accumulator;
+import com.facebook.stetho.common.ThreadBound;
+import com.facebook.stetho.common.UncheckedCallable;
+import com.facebook.stetho.inspector.helper.ThreadBoundProxy;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@Config(emulateSdk = Build.VERSION_CODES.JELLY_BEAN)
+@RunWith(RobolectricTestRunner.class)
+public class DocumentTest {
+  private final FakeLooper mLooper = new FakeLooper();
+  private final TestNode mRoot = createTree(3 /* depth */, 6 /* childrenPerNode */);
+
+  @Test
+  public void testFullUpdateSlicedAndMatchesOneShotUpdate() {
+    TestDocumentProviderFactory factory = new TestDocumentProviderFactory(mLooper, mRoot);
+    Document document = new Document(factory);
+    document.addRef();
+
+    TestNode removed = mRoot.children.remove(0);
+    TestNode added = new TestNode();
+    added.children.add(new TestNode());
+    mRoot.children.get(1).children.add(added);
+
+    factory.listener.onPossiblyChanged();
+    int slices = 0;
+    while (mLooper.runNext()) {
+      if (document.getDocumentView().getElementInfo(added) == null) {
+        // Nothing is visible until the whole update is committed.
+        assertNotNull(document.getDocumentView().getElementInfo(removed));
+      }
+      slices++;
+    }
+    assertTrue("update was not sliced: " + slices, slices > 2);
+    assertNull(document.getDocumentView().getElementInfo(removed));
+
+    Document oneShotDocument = new Document(new TestDocumentProviderFactory(mLooper, mRoot));
+    oneShotDocument.addRef();
+    assertSameTree(oneShotDocument.getDocumentView(), document.getDocumentView(), mRoot);
+  }
+
+  @Test
+  public void testFullUpdateWaitsIntervalAfterPreviousFinished() {
+    TestDocumentProviderFactory factory = new TestDocumentProviderFactory(mLooper, mRoot);
+    Document document = new Document(factory);
+    document.addRef();
+
+    // Start a full update, and poll again while it is still running.
+    factory.listener.onPossiblyChanged();
+    assertTrue(mLooper.runNext());
+    factory.listener.onPossiblyChanged();
+    while (mLooper.runNext()) {
+    }
+
+    // Initial read, the first update and the one requested while it ran.
+    List<Long> rootReadTimesMs = factory.descriptor.rootReadTimesMs;
+    assertEquals(3, rootReadTimesMs.size());
+    long secondStartTimeMs = rootReadTimesMs.get(2);
+    long firstFinishedTimeMs = 0;
+    for (long readTimeMs : factory.descriptor.readTimesMs) {
+      if (readTimeMs < secondStartTimeMs) {
+        firstFinishedTimeMs = readTimeMs + 1;
+      }
+    }
+    assertTrue(
+        "next update started " + (secondStartTimeMs - firstFinishedTimeMs) + " ms after the last",
+        secondStartTimeMs - firstFinishedTimeMs >= 5000);
+  }
+
+  private static void assertSameTree(DocumentView expected, DocumentView actual, TestNode node) {
+    assertEquals(expected.getElementInfo(node), actual.getElementInfo(node));
+    for (TestNode child : node.children) {
+      assertSameTree(expected, actual, child);
+    }
+  }
+
+  private static TestNode createTree(int depth, int childrenPerNode) {
+    TestNode node = new TestNode();
+    if (depth > 0) {
+      for (int i = 0; i < childrenPerNode; i++) {
+        node.children.add(createTree(depth - 1, childrenPerNode));
+      }
+    }
+    return node;
+  }
+
+  private static class TestNode {
+    public final List<TestNode> children = new ArrayList<>();
+  }
+
+  /**
+   * Runs posted callbacks in the order they are due, moving the clock forward to each one.
+   */
+  private static class FakeLooper implements ThreadBound {
+    private final ArrayList<Runnable> mRunnables = new ArrayList<>();
+    private final ArrayList<Long> mDueTimesMs = new ArrayList<>();
+
+    public boolean runNext() {
+      if (mRunnables.isEmpty()) {
+        return false;
+      }
+      int next = 0;
+      for (int i = 1; i < mDueTimesMs.size(); i++) {
+        if (mDueTimesMs.get(i) < mDueTimesMs.get(next)) {
+          next = i;
+        }
+      }
+      Runnable runnable = mRunnables.remove(next);
+      long dueTimeMs = mDueTimesMs.remove(next);
+      if (dueTimeMs > SystemClock.uptimeMillis()) {
+        SystemClock.setCurrentTimeMillis(dueTimeMs);
+      }
+      runnable.run();
+      return true;
+    }
+
+    @Override
+    public boolean checkThreadAccess() {
+      return true;
+    }
+
+    @Override
+    public void verifyThreadAccess() {
+    }
+
+    @Override
+    public <V> V postAndWait(UncheckedCallable<V> c) {
+      return c.call();
+    }
+
+    @Override
+    public void postAndWait(Runnable r) {
+      r.run();
+    }
+
+    @Override
+    public void postDelayed(Runnable r, long delayMillis) {
+      mRunnables.add(r);
+      mDueTimesMs.add(SystemClock.uptimeMillis() + delayMillis);
+    }
+
+    @Override
+    public void removeCallbacks(Runnable r) {
+      for (int i = mRunnables.size() - 1; i >= 0; i--) {
+        if (mRunnables.get(i) == r) {
+          mRunnables.remove(i);
+          mDueTimesMs.remove(i);
+        }
+      }
+    }
+  }
+
+  private static class TestDocumentProviderFactory extends ThreadBoundProxy
+      implements DocumentProviderFactory {
+    public final TestNodeDescriptor descriptor;
+    private final TestNode mRoot;
+    @Nullable public DocumentProviderListener listener;
+
+    public TestDocumentProviderFactory(ThreadBound enforcer, TestNode root) {
+      super(enforcer);
+      descriptor = new TestNodeDescriptor(enforcer, root);
+      mRoot = root;
+    }
+
+    @Override
+    public DocumentProvider create() {
+      return new TestDocumentProvider();
+    }
+
+    private class TestDocumentProvider extends ThreadBoundProxy implements DocumentProvider {
+      public TestDocumentProvider() {
+        super(TestDocumentProviderFactory.this);
+      }
+
+      @Override
+      public void setListener(DocumentProviderListener listener) {
+        TestDocumentProviderFactory.this.listener = listener;
+      }
+
+      @Override
+      public void dispose() {
+      }
+
+      @Override
+      public Object getRootElement() {
+        return mRoot;
+      }
+
+      @Override
+      public NodeDescriptor getNodeDescriptor(@Nullable Object element) {
+        return descriptor;
+      }
+
+      @Override
+      public void highlightElement(Object element, int color) {
+      }
+
+      @Override
+      public void hideHighlight() {
+      }
+
+      @Override
+      public void setInspectModeEnabled(boolean enabled) {
+      }
+
+      @Override
+      public void setAttributesAsText(Object element, String text) {
+      }
+    }
+  }
+
+  /**
+   * Each element read takes a millisecond, so that updates run over their time slice.
+   */
+  private static class TestNodeDescriptor extends ThreadBoundProxy
+      implements NodeDescriptor<TestNode> {
+    public final ArrayList<Long> readTimesMs = new ArrayList<>();
+    public final ArrayList<Long> rootReadTimesMs = new ArrayList<>();
+    private final TestNode mRoot;
+
+    public TestNodeDescriptor(ThreadBound enforcer, TestNode root) {
+      super(enforcer);
+      mRoot = root;
+    }
+
+    @Override
+    public void getChildren(TestNode element, Accumulator<Object> children) {
+      long nowMs = SystemClock.uptimeMillis();
+      readTimesMs.add(nowMs);
+      if (element == mRoot) {
+        rootReadTimesMs.add(nowMs);
+      }
+      SystemClock.setCurrentTimeMillis(nowMs + 1);
+      for (TestNode child : element.children) {
+        children.store(child);
+      }
+    }
+
+    @Override
+    public void hook(TestNode element) {
+    }
+
+    @Override
+    public void unhook(TestNode element) {
+    }
+
+    @Override
+    public NodeType getNodeType(TestNode element) {
+      return NodeType.ELEMENT_NODE;
+    }
+
+    @Override
+    public String getNodeName(TestNode element) {
+      return "node";
+    }
+
+    @Override
+    public String getLocalName(TestNode element) {
+      return "node";
+    }
+
+    @Nullable
+    @Override
+    public String getNodeValue(TestNode element) {
+      return null;
+    }
+
+    @Override
+    public void getAttributes(TestNode element, AttributeAccumulator attributes) {
+    }
+
+    @Override
+    public void setAttributesAsText(TestNode element, String text) {
+    }
+
+    @Override
+    public void getStyleRuleNames(TestNode element, StyleRuleNameAccumulator accumulator) {
+    }
+
+    @Override
+    public void getStyles(TestNode element, String ruleName, StyleAccumulator accumulator) {
+    }
+
+    @Override
+    public void setStyle(TestNode element, String ruleName, String name, String value) {
+    }
+
+    @Override
+    public void getComputedStyles(TestNode element, ComputedStyleAccumulator accumulator) {
+    }
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.elements.android;
+
+import android.app.Activity;
+import android.os.Build;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+
+import com.facebook.stetho.inspector.elements.DescriptorMap;
+import com.facebook.stetho.inspector.elements.ObjectDescriptor;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.lang.reflect.Field;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+@Config(emulateSdk = Build.VERSION_CODES.JELLY_BEAN)
+@RunWith(RobolectricTestRunner.class)
+public class ViewGroupDescriptorTest {
+  private final AndroidDescriptorHost mHost = mock(AndroidDescriptorHost.class);
+  private final Activity mActivity = Robolectric.setupActivity(Activity.class);
+
+  @Test
+  public void testChildAddedReportedThroughHierarchyListener() {
+    Field field = ViewGroupDescriptor.findOnHierarchyChangeListenerField(
+        Build.VERSION_CODES.JELLY_BEAN);
+    assertNotNull(field);
+    ViewGroupDescriptor descriptor = createDescriptor(field);
+
+    FrameLayout group = new FrameLayout(mActivity);
+    descriptor.hook(group);
+    group.addView(new View(mActivity));
+    verify(mHost).onSubtreePossiblyChanged(group);
+
+    descriptor.unhook(group);
+    group.addView(new View(mActivity));
+    verify(mHost).onSubtreePossiblyChanged(group);
+  }
+
+  @Test
+  public void testLayoutReportedThroughTreeObserver() {
+    ViewGroupDescriptor descriptor = createDescriptor(
+        ViewGroupDescriptor.findOnHierarchyChangeListenerField(Build.VERSION_CODES.P));
+
+    ViewGroup root = (ViewGroup) mActivity.getWindow().getDecorView();
+    descriptor.hook(root);
+    root.getViewTreeObserver().dispatchOnGlobalLayout();
+    verify(mHost).onSubtreePossiblyChanged(root);
+
+    descriptor.unhook(root);
+    root.getViewTreeObserver().dispatchOnGlobalLayout();
+    verify(mHost).onSubtreePossiblyChanged(root);
+  }
+
+  @Test
+  public void testOnlyRootWatchesTreeObserver() {
+    ViewGroupDescriptor descriptor = createDescriptor(null);
+
+    ViewGroup root = (ViewGroup) mActivity.getWindow().getDecorView();
+    FrameLayout child = new FrameLayout(mActivity);
+    root.addView(child);
+    descriptor.hook(child);
+    root.getViewTreeObserver().dispatchOnGlobalLayout();
+    verify(mHost, never()).onSubtreePossiblyChanged(child);
+  }
+
+  @Test
+  public void testHierarchyListenerFieldNotUsedAfterOreo() {
+    assertNull(ViewGroupDescriptor.findOnHierarchyChangeListenerField(
+        ViewGroupDescriptor.MAX_HIERARCHY_LISTENER_SDK + 1));
+  }
+
+  private ViewGroupDescriptor createDescriptor(Field onHierarchyChangeListenerField) {
+    ViewGroupDescriptor descriptor = new ViewGroupDescriptor(onHierarchyChangeListenerField);
+    new DescriptorMap()
+        .beginInit()
+        .registerDescriptor(Object.class, new ObjectDescriptor())
+        .registerDescriptor(ViewGroup.class, descriptor)
+        .setHost(mHost)
+        .endInit();
+    return descriptor;
+  }
+}
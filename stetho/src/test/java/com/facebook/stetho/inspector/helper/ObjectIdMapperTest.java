@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.helper;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class ObjectIdMapperTest {
+  private final RecordingObjectIdMapper mMapper = new RecordingObjectIdMapper();
+
+  @Test
+  public void testPutIsIdempotent() {
+    Object object = new Object();
+    int id = mMapper.putObject(object);
+    assertTrue(id > 0);
+    assertEquals(id, mMapper.putObject(object));
+    assertEquals(1, mMapper.size());
+    assertEquals(1, mMapper.mapped);
+  }
+
+  @Test
+  public void testIdentityNotEquality() {
+    String first = new String("a");
+    String second = new String("a");
+    int firstId = mMapper.putObject(first);
+    int secondId = mMapper.putObject(second);
+    assertNotEquals(firstId, secondId);
+    assertSame(first, mMapper.getObjectForId(firstId));
+    assertSame(second, mMapper.getObjectForId(secondId));
+  }
+
+  @Test
+  public void testMissingLookups() {
+    mMapper.putObject(new Object());
+    assertNull(mMapper.getIdForObject(new Object()));
+    assertEquals(-1, mMapper.getIdForObject(new Object(), -1));
+    assertNull(mMapper.getObjectForId(0));
+    assertNull(mMapper.getObjectForId(-1));
+    assertNull(mMapper.getObjectForId(1000));
+    assertFalse(mMapper.containsId(-1));
+  }
+
+  /**
+   * Enough entries to grow the table several times past its minimum capacity, which also makes
+   * sure that many of them share probe chains.
+   */
+  @Test
+  public void testResize() {
+    List<Object> objects = newObjects(5000);
+    Set<Integer> ids = new HashSet<>();
+    for (Object object : objects) {
+      assertTrue(ids.add(mMapper.putObject(object)));
+    }
+    assertEquals(objects.size(), mMapper.size());
+    assertAllMapped(objects);
+  }
+
+  /**
+   * Removed entries are left behind as tombstones, so lookups for entries placed further along
+   * the same probe chain must keep probing past them.
+   */
+  @Test
+  public void testRemoveKeepsProbeChains() {
+    List<Object> objects = newObjects(30);
+    for (Object object : objects) {
+      mMapper.putObject(object);
+    }
+
+    List<Object> kept = new ArrayList<>();
+    for (int i = 0; i < objects.size(); i++) {
+      Object object = objects.get(i);
+      if (i % 2 == 0) {
+        int id = mMapper.getIdForObject(object, 0);
+        if (i % 4 == 0) {
+          assertSame(object, mMapper.removeObjectById(id));
+        } else {
+          assertEquals(Integer.valueOf(id), mMapper.removeObject(object));
+        }
+        assertFalse(mMapper.containsObject(object));
+        assertFalse(mMapper.containsId(id));
+        assertNull(mMapper.removeObjectById(id));
+        assertNull(mMapper.removeObject(object));
+      } else {
+        kept.add(object);
+      }
+    }
+
+    assertEquals(kept.size(), mMapper.size());
+    assertEquals(objects.size() - kept.size(), mMapper.unmapped);
+    assertAllMapped(kept);
+  }
+
+  @Test
+  public void testRemovedObjectGetsNewId() {
+    Object object = new Object();
+    int id = mMapper.putObject(object);
+    mMapper.removeObject(object);
+    int newId = mMapper.putObject(object);
+    assertNotEquals(id, newId);
+    assertNull(mMapper.getObjectForId(id));
+    assertSame(object, mMapper.getObjectForId(newId));
+  }
+
+  /**
+   * Tombstones count towards the load factor, so a steady put/remove workload with a small live
+   * set has to keep rebuilding the table rather than filling it up.
+   */
+  @Test
+  public void testChurn() {
+    List<Object> live = new ArrayList<>();
+    for (int i = 0; i < 20000; i++) {
+      Object object = new Object();
+      mMapper.putObject(object);
+      live.add(object);
+      if (live.size() > 20) {
+        assertNotNull(mMapper.removeObject(live.remove(0)));
+      }
+    }
+    assertEquals(live.size(), mMapper.size());
+    assertAllMapped(live);
+  }
+
+  @Test
+  public void testClear() {
+    List<Object> objects = newObjects(100);
+    List<Integer> ids = new ArrayList<>();
+    for (Object object : objects) {
+      ids.add(mMapper.putObject(object));
+    }
+    mMapper.removeObject(objects.get(0));
+
+    mMapper.clear();
+    assertEquals(0, mMapper.size());
+    assertEquals(objects.size(), mMapper.unmapped);
+    for (int i = 0; i < objects.size(); i++) {
+      assertFalse(mMapper.containsObject(objects.get(i)));
+      assertFalse(mMapper.containsId(ids.get(i)));
+    }
+
+    // Ids keep increasing across a clear().
+    int id = mMapper.putObject(objects.get(0));
+    assertFalse(ids.contains(id));
+  }
+
+  private void assertAllMapped(List<Object> objects) {
+    for (Object object : objects) {
+      Integer id = mMapper.getIdForObject(object);
+      assertNotNull(id);
+      assertSame(object, mMapper.getObjectForId(id));
+    }
+  }
+
+  private static List<Object> newObjects(int count) {
+    List<Object> objects = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      objects.add(new Object());
+    }
+    return objects;
+  }
+
+  private static class RecordingObjectIdMapper extends ObjectIdMapper {
+    public int mapped;
+    public int unmapped;
+
+    @Override
+    protected void onMapped(Object object, int id) {
+      mapped++;
+    }
+
+    @Override
+    protected void onUnmapped(Object object, int id) {
+      unmapped++;
+    }
+  }
+}
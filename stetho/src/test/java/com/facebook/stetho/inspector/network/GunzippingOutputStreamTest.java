@@ -12,6 +12,7 @@ import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.zip.GZIPOutputStream;
@@ -31,4 +32,36 @@ public class GunzippingOutputStreamTest {
     zippingStream.close();
     assertArrayEquals(data, out.toByteArray());
   }
+
+  @Test
+  public void testGunzipByteAtATimeWithConcatenatedMembers() throws IOException {
+    byte[] first = "test123".getBytes();
+    byte[] second = "test456".getBytes();
+    ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+    for (byte[] member : new byte[][] { first, second }) {
+      GZIPOutputStream zippingStream = new GZIPOutputStream(gzipped);
+      zippingStream.write(member);
+      zippingStream.finish();
+    }
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    OutputStream unzippingStream = GunzippingOutputStream.create(out);
+    for (byte b : gzipped.toByteArray()) {
+      unzippingStream.write(b);
+    }
+    unzippingStream.close();
+    assertArrayEquals("test123test456".getBytes(), out.toByteArray());
+  }
+
+  @Test(expected = EOFException.class)
+  public void testGunzipTruncated() throws IOException {
+    ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+    OutputStream zippingStream = new GZIPOutputStream(gzipped);
+    zippingStream.write("test123test123".getBytes());
+    zippingStream.close();
+
+    OutputStream unzippingStream = GunzippingOutputStream.create(new ByteArrayOutputStream());
+    unzippingStream.write(gzipped.toByteArray(), 0, gzipped.size() - 1);
+    unzippingStream.close();
+  }
 }
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class GzipTrailerSizeOutputStreamTest {
+  @Test
+  public void testSizeFromTrailer() throws IOException {
+    byte[] data = new byte[70000];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) (i % 7);
+    }
+    ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+    GZIPOutputStream gzipOut = new GZIPOutputStream(gzipped);
+    gzipOut.write(data);
+    gzipOut.close();
+    byte[] compressed = gzipped.toByteArray();
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    GzipTrailerSizeOutputStream sizeOut = new GzipTrailerSizeOutputStream(out);
+    // Split so that the trailer spans writes, with one of them a single byte.
+    int split = compressed.length - 3;
+    sizeOut.write(compressed, 0, split);
+    sizeOut.write(compressed[split]);
+    sizeOut.write(compressed, split + 1, compressed.length - split - 1);
+    assertEquals(0, sizeOut.getCount());
+    sizeOut.close();
+
+    assertEquals(data.length, sizeOut.getCount());
+    assertArrayEquals(compressed, out.toByteArray());
+  }
+
+  @Test
+  public void testTooShortForTrailer() throws IOException {
+    GzipTrailerSizeOutputStream sizeOut =
+        new GzipTrailerSizeOutputStream(new ByteArrayOutputStream());
+    sizeOut.write(new byte[] { 1, 2, 3, 4 });
+    sizeOut.close();
+    assertEquals(0, sizeOut.getCount());
+  }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.os.Build;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import javax.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+@Config(emulateSdk = Build.VERSION_CODES.JELLY_BEAN)
+@RunWith(RobolectricTestRunner.class)
+public class HarExporterTest {
+  private final NetworkFlightRecorder mRecorder =
+      new NetworkFlightRecorder(new FakeContext(), 64 * 1024, 1024);
+
+  @Test
+  public void testEntries() throws IOException, JSONException {
+    mRecorder.recordRequestWillBeSent(
+        new FakeRequest("1", "https://api.example.com/feed?a=1&b=x%20y", "POST"),
+        "{}".getBytes("UTF-8"),
+        1000);
+    mRecorder.recordRequestWillBeSent(
+        new FakeRequest("2", "https://cdn.example.com/a.png", "GET"),
+        null /* body */,
+        1010);
+    mRecorder.recordResponseReceived(new FakeResponse("1", "application/json"), 1100);
+    mRecorder.recordDataReceived("1", 1150, 7, 27);
+    OutputStream body = mRecorder.openResponseBody(
+        "1",
+        false /* base64Encode */,
+        true /* gzipped */,
+        BodyCapturePolicy.CAPTURE_ALL);
+    body.write(gzip("[1,2,3]"));
+    body.close();
+    mRecorder.recordLoadingFinished("1", 1200);
+    mRecorder.recordLoadingFailed("2", 1300, "Connection reset");
+
+    JSONArray entries = export(new HarExporter(mRecorder, null /* bodyFileManager */));
+    assertEquals(2, entries.length());
+
+    JSONObject first = entries.getJSONObject(0);
+    assertEquals("1970-01-01T00:00:01.000Z", first.getString("startedDateTime"));
+    assertEquals(200, first.getLong("time"));
+    JSONObject request = first.getJSONObject("request");
+    assertEquals("POST", request.getString("method"));
+    assertEquals("x y", request.getJSONArray("queryString").getJSONObject(1).getString("value"));
+    assertEquals("{}", request.getJSONObject("postData").getString("text"));
+    JSONObject response = first.getJSONObject("response");
+    assertEquals(200, response.getInt("status"));
+    assertEquals(27, response.getLong("bodySize"));
+    JSONObject content = response.getJSONObject("content");
+    assertEquals(7, content.getLong("size"));
+    assertEquals("[1,2,3]", content.getString("text"));
+    JSONObject timings = first.getJSONObject("timings");
+    assertEquals(100, timings.getLong("wait"));
+    assertEquals(100, timings.getLong("receive"));
+
+    JSONObject second = entries.getJSONObject(1);
+    assertEquals(0, second.getJSONObject("response").getInt("status"));
+    assertEquals("Connection reset", second.getString("comment"));
+  }
+
+  @Test
+  public void testFilters() throws IOException, JSONException {
+    mRecorder.recordRequestWillBeSent(
+        new FakeRequest("1", "https://example.com/", "GET"), null /* body */, 1000);
+    mRecorder.recordRequestWillBeSent(
+        new FakeRequest("2", "https://notexample.com/", "GET"), null /* body */, 1000);
+    mRecorder.recordRequestWillBeSent(
+        new FakeRequest("3", "https://img.example.com/", "GET"), null /* body */, 2000);
+    mRecorder.recordRequestWillBeSent(
+        new FakeRequest("4", "https://img.example.com/", "GET"), null /* body */, 3000);
+    mRecorder.recordResponseReceived(new FakeResponse("1", "text/html"), 1100);
+    mRecorder.recordResponseReceived(new FakeResponse("2", "image/png"), 1100);
+    mRecorder.recordResponseReceived(new FakeResponse("3", "image/webp"), 2100);
+    mRecorder.recordLoadingFinished("1", 1200);
+    mRecorder.recordLoadingFinished("2", 1200);
+
+    assertEquals(
+        3,
+        export(new HarExporter(mRecorder, null).addHost("Example.com")).length());
+    assertEquals(
+        1,
+        export(new HarExporter(mRecorder, null).addMimeType("image/*").addHost("example.com"))
+            .length());
+    JSONArray entries = export(new HarExporter(mRecorder, null).setTimeWindow(1500, 2500));
+    assertEquals(1, entries.length());
+    assertEquals("Incomplete", entries.getJSONObject(0).getString("comment"));
+  }
+
+  private static JSONArray export(HarExporter exporter) throws IOException, JSONException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    exporter.writeTo(out, 0 /* wallClockOffsetMs */);
+    JSONObject log = new JSONObject(out.toString("UTF-8")).getJSONObject("log");
+    assertEquals("1.2", log.getString("version"));
+    return log.getJSONArray("entries");
+  }
+
+  private static byte[] gzip(String text) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    GZIPOutputStream gzipOut = new GZIPOutputStream(out);
+    gzipOut.write(text.getBytes("UTF-8"));
+    gzipOut.close();
+    return out.toByteArray();
+  }
+
+  private static class FakeContext extends ContextWrapper {
+    public FakeContext() {
+      super(null);
+    }
+
+    @Override
+    public Context getApplicationContext() {
+      return this;
+    }
+  }
+
+  private static class FakeHeaders implements NetworkEventReporter.InspectorHeaders {
+    private final String[] mHeaders;
+
+    public FakeHeaders(String... headers) {
+      mHeaders = headers;
+    }
+
+    @Override
+    public int headerCount() {
+      return mHeaders.length / 2;
+    }
+
+    @Override
+    public String headerName(int index) {
+      return mHeaders[index * 2];
+    }
+
+    @Override
+    public String headerValue(int index) {
+      return mHeaders[index * 2 + 1];
+    }
+
+    @Nullable
+    @Override
+    public String firstHeaderValue(String name) {
+      for (int i = 0; i < headerCount(); i++) {
+        if (name.equalsIgnoreCase(headerName(i))) {
+          return headerValue(i);
+        }
+      }
+      return null;
+    }
+  }
+
+  private static class FakeRequest
+      extends FakeHeaders
+      implements NetworkEventReporter.InspectorRequest {
+    private final String mId;
+    private final String mUrl;
+    private final String mMethod;
+
+    public FakeRequest(String id, String url, String method) {
+      super("Content-Type", "application/json");
+      mId = id;
+      mUrl = url;
+      mMethod = method;
+    }
+
+    @Override
+    public String id() {
+      return mId;
+    }
+
+    @Override
+    public String friendlyName() {
+      return "test";
+    }
+
+    @Nullable
+    @Override
+    public Integer friendlyNameExtra() {
+      return null;
+    }
+
+    @Override
+    public String url() {
+      return mUrl;
+    }
+
+    @Override
+    public String method() {
+      return mMethod;
+    }
+
+    @Nullable
+    @Override
+    public byte[] body() {
+      return null;
+    }
+  }
+
+  private static class FakeResponse
+      extends FakeHeaders
+      implements NetworkEventReporter.InspectorResponse {
+    private final String mRequestId;
+
+    public FakeResponse(String requestId, String contentType) {
+      super("Content-Type", contentType);
+      mRequestId = requestId;
+    }
+
+    @Override
+    public String requestId() {
+      return mRequestId;
+    }
+
+    @Override
+    public int statusCode() {
+      return 200;
+    }
+
+    @Override
+    public String reasonPhrase() {
+      return "OK";
+    }
+
+    @Override
+    public String url() {
+      return "https://example.com/";
+    }
+
+    @Override
+    public boolean connectionReused() {
+      return false;
+    }
+
+    @Override
+    public int connectionId() {
+      return 1;
+    }
+
+    @Override
+    public boolean fromDiskCache() {
+      return false;
+    }
+  }
+}
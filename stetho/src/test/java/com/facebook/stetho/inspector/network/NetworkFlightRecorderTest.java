@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.os.Build;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import javax.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static org.junit.Assert.*;
+
+@Config(emulateSdk = Build.VERSION_CODES.JELLY_BEAN)
+@RunWith(RobolectricTestRunner.class)
+public class NetworkFlightRecorderTest {
+  @Test
+  public void testReplay() throws IOException {
+    NetworkFlightRecorder recorder = new NetworkFlightRecorder(new FakeContext(), 4096, 4);
+    recorder.recordRequestWillBeSent(
+        new FakeRequest("1", "https://example.com/\u00e9\u20ac"),
+        "abcdef".getBytes("UTF-8"),
+        100);
+    recorder.recordDataReceived("1", 200, 10, 5);
+    OutputStream body = recorder.openResponseBody(
+        "1",
+        false /* base64Encode */,
+        true /* gzipped */,
+        BodyCapturePolicy.CAPTURE_ALL);
+    body.write("xyz".getBytes("UTF-8"));
+    body.write('w');
+    body.write('v');
+    body.close();
+    recorder.recordLoadingFailed("1", 300, "Timeout");
+
+    RecordingListener listener = new RecordingListener();
+    recorder.replay(listener);
+    assertEquals(
+        "request 1 https://example.com/\u00e9\u20ac GET friendly 7 abcd @100\n" +
+            "data 1 10 5 @200\n" +
+            "body 1 false true xyzw truncated\n" +
+            "failed 1 Timeout @300\n",
+        listener.toString());
+  }
+
+  @Test
+  public void testOldestDropped() {
+    NetworkFlightRecorder recorder = new NetworkFlightRecorder(new FakeContext(), 100, 0);
+    for (int i = 0; i < 10; i++) {
+      recorder.recordLoadingFinished(String.valueOf(i), i);
+    }
+    RecordingListener listener = new RecordingListener();
+    recorder.replay(listener);
+    // Each record is 4 (length) + 1 (type) + 4 + 1 (id) + 8 (timestamp) = 18 bytes.
+    assertEquals(
+        "finished 5 @5\n" +
+            "finished 6 @6\n" +
+            "finished 7 @7\n" +
+            "finished 8 @8\n" +
+            "finished 9 @9\n",
+        listener.toString());
+
+    recorder.clear();
+    listener = new RecordingListener();
+    recorder.replay(listener);
+    assertEquals("", listener.toString());
+  }
+
+  @Test
+  public void testReplayCatchesUp() {
+    final NetworkFlightRecorder recorder = new NetworkFlightRecorder(new FakeContext(), 4096, 0);
+    recorder.recordLoadingFinished("0", 0);
+    recorder.recordLoadingFinished("1", 1);
+    final RecordingListener listener = new RecordingListener() {
+      @Override
+      public void onLoadingFinished(String requestId, long timestampMs) {
+        super.onLoadingFinished(requestId, timestampMs);
+        // Stands in for events recorded by other threads while the replay is under way.
+        if (timestampMs == 1 || timestampMs == 2) {
+          recorder.recordLoadingFinished(String.valueOf(timestampMs + 1), timestampMs + 1);
+        }
+      }
+    };
+    recorder.replay(listener, new Runnable() {
+      @Override
+      public void run() {
+        listener.onLoadingFailed("-", 0, "caught up");
+      }
+    });
+    recorder.recordLoadingFinished("4", 4);
+    assertEquals(
+        "finished 0 @0\n" +
+            "finished 1 @1\n" +
+            "finished 2 @2\n" +
+            "finished 3 @3\n" +
+            "failed - caught up @0\n",
+        listener.toString());
+  }
+
+  private static class RecordingListener implements NetworkFlightRecorder.Listener {
+    private final StringBuilder mEvents = new StringBuilder();
+
+    @Override
+    public void onRequestWillBeSent(
+        NetworkEventReporter.InspectorRequest request,
+        @Nullable byte[] body,
+        long timestampMs) {
+      mEvents.append("request ").append(request.id())
+          .append(' ').append(request.url())
+          .append(' ').append(request.method())
+          .append(' ').append(request.friendlyName())
+          .append(' ').append(request.friendlyNameExtra())
+          .append(' ').append(new String(body))
+          .append(" @").append(timestampMs).append('\n');
+      assertEquals("text/plain", request.firstHeaderValue("content-type"));
+    }
+
+    @Override
+    public void onResponseReceived(
+        NetworkEventReporter.InspectorResponse response,
+        long timestampMs) {
+      mEvents.append("response ").append(response.requestId())
+          .append(" @").append(timestampMs).append('\n');
+    }
+
+    @Override
+    public void onDataReceived(
+        String requestId,
+        long timestampMs,
+        int dataLength,
+        int encodedDataLength) {
+      mEvents.append("data ").append(requestId)
+          .append(' ').append(dataLength)
+          .append(' ').append(encodedDataLength)
+          .append(" @").append(timestampMs).append('\n');
+    }
+
+    @Override
+    public void onLoadingFinished(String requestId, long timestampMs) {
+      mEvents.append("finished ").append(requestId)
+          .append(" @").append(timestampMs).append('\n');
+    }
+
+    @Override
+    public void onLoadingFailed(String requestId, long timestampMs, String errorText) {
+      mEvents.append("failed ").append(requestId)
+          .append(' ').append(errorText)
+          .append(" @").append(timestampMs).append('\n');
+    }
+
+    @Override
+    public void onResponseBody(
+        String requestId,
+        boolean base64Encode,
+        boolean gzipped,
+        byte[] body,
+        boolean truncated) {
+      mEvents.append("body ").append(requestId)
+          .append(' ').append(base64Encode)
+          .append(' ').append(gzipped)
+          .append(' ').append(new String(body))
+          .append(truncated ? " truncated" : "").append('\n');
+    }
+
+    @Override
+    public String toString() {
+      return mEvents.toString();
+    }
+  }
+
+  private static class FakeContext extends ContextWrapper {
+    public FakeContext() {
+      super(null);
+    }
+
+    @Override
+    public Context getApplicationContext() {
+      return this;
+    }
+  }
+
+  private static class FakeRequest implements NetworkEventReporter.InspectorRequest {
+    private final String mId;
+    private final String mUrl;
+
+    public FakeRequest(String id, String url) {
+      mId = id;
+      mUrl = url;
+    }
+
+    @Override
+    public String id() {
+      return mId;
+    }
+
+    @Override
+    public String friendlyName() {
+      return "friendly";
+    }
+
+    @Nullable
+    @Override
+    public Integer friendlyNameExtra() {
+      return 7;
+    }
+
+    @Override
+    public String url() {
+      return mUrl;
+    }
+
+    @Override
+    public String method() {
+      return "GET";
+    }
+
+    @Nullable
+    @Override
+    public byte[] body() {
+      return null;
+    }
+
+    @Override
+    public int headerCount() {
+      return 1;
+    }
+
+    @Override
+    public String headerName(int index) {
+      return "Content-Type";
+    }
+
+    @Override
+    public String headerValue(int index) {
+      return "text/plain";
+    }
+
+    @Nullable
+    @Override
+    public String firstHeaderValue(String name) {
+      return "Content-Type".equalsIgnoreCase(name) ? "text/plain" : null;
+    }
+  }
+}
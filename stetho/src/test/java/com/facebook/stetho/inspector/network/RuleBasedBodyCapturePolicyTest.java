@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.annotation.Nullable;
+
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class RuleBasedBodyCapturePolicyTest {
+  private final BodyCapturePolicy mPolicy = new RuleBasedBodyCapturePolicy.Builder()
+      .mimeType("video/*", BodyCapturePolicy.CAPTURE_NONE)
+      .contentLengthAbove(1000, 100)
+      .url(Pattern.compile("/thumbnails/"), 50)
+      .build();
+
+  @Test
+  public void testNoMatchingRule() {
+    assertEquals(
+        BodyCapturePolicy.CAPTURE_ALL,
+        mPolicy.getCaptureLimit(new FakeResponse("https://example.com/a", "text/html", "1000")));
+  }
+
+  @Test
+  public void testMimeType() {
+    assertEquals(
+        BodyCapturePolicy.CAPTURE_NONE,
+        mPolicy.getCaptureLimit(
+            new FakeResponse("https://example.com/a", "video/mp4; codecs=avc1", null)));
+  }
+
+  @Test
+  public void testMostRestrictiveRuleWins() {
+    assertEquals(
+        100,
+        mPolicy.getCaptureLimit(new FakeResponse("https://example.com/a", "image/png", "1001")));
+    assertEquals(
+        50,
+        mPolicy.getCaptureLimit(
+            new FakeResponse("https://example.com/thumbnails/a", "image/png", "1001")));
+  }
+
+  @Test
+  public void testMalformedContentLength() {
+    assertEquals(
+        BodyCapturePolicy.CAPTURE_ALL,
+        mPolicy.getCaptureLimit(new FakeResponse("https://example.com/a", "image/png", "x")));
+  }
+
+  @Test
+  public void testSampleRate() {
+    BodyCapturePolicy none = new RuleBasedBodyCapturePolicy.Builder().sampleRate(0).build();
+    assertEquals(
+        BodyCapturePolicy.CAPTURE_NONE,
+        none.getCaptureLimit(new FakeResponse("https://example.com/a", "text/html", null)));
+  }
+
+  private static class FakeResponse implements NetworkEventReporter.InspectorResponse {
+    private final String mUrl;
+    private final String[] mHeaders;
+
+    public FakeResponse(String url, String contentType, @Nullable String contentLength) {
+      mUrl = url;
+      mHeaders = contentLength != null
+          ? new String[] { "Content-Type", contentType, "Content-Length", contentLength }
+          : new String[] { "Content-Type", contentType };
+    }
+
+    @Override
+    public String url() {
+      return mUrl;
+    }
+
+    @Override
+    public boolean connectionReused() {
+      return false;
+    }
+
+    @Override
+    public int connectionId() {
+      return 0;
+    }
+
+    @Override
+    public boolean fromDiskCache() {
+      return false;
+    }
+
+    @Override
+    public String requestId() {
+      return "1";
+    }
+
+    @Override
+    public int statusCode() {
+      return 200;
+    }
+
+    @Override
+    public String reasonPhrase() {
+      return "OK";
+    }
+
+    @Override
+    public int headerCount() {
+      return mHeaders.length / 2;
+    }
+
+    @Override
+    public String headerName(int index) {
+      return mHeaders[index * 2];
+    }
+
+    @Override
+    public String headerValue(int index) {
+      return mHeaders[index * 2 + 1];
+    }
+
+    @Nullable
+    @Override
+    public String firstHeaderValue(String name) {
+      for (int i = 0; i < headerCount(); i++) {
+        if (name.equals(headerName(i))) {
+          return headerValue(i);
+        }
+      }
+      return null;
+    }
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.screencast;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class ScreencastFlowControlTest {
+  private final ScreencastFlowControl mFlowControl = new ScreencastFlowControl();
+
+  @Test
+  public void testAckWindow() {
+    assertTrue(mFlowControl.canSendFrame(0));
+    assertEquals(1, mFlowControl.onFrameSent(0));
+    assertTrue(mFlowControl.canSendFrame(0));
+    assertEquals(2, mFlowControl.onFrameSent(0));
+    assertFalse(mFlowControl.canSendFrame(10));
+
+    mFlowControl.onFrameAck(1, 20);
+    assertTrue(mFlowControl.canSendFrame(20));
+    assertEquals(3, mFlowControl.onFrameSent(20));
+    assertFalse(mFlowControl.canSendFrame(30));
+
+    mFlowControl.onFrameAck(3, 40);
+    assertTrue(mFlowControl.canSendFrame(40));
+  }
+
+  @Test
+  public void testAckWithoutSessionId() {
+    mFlowControl.onFrameSent(0);
+    mFlowControl.onFrameSent(0);
+    mFlowControl.onFrameAck(0 /* sessionId */, 10);
+    assertTrue(mFlowControl.canSendFrame(10));
+    mFlowControl.onFrameSent(10);
+    assertFalse(mFlowControl.canSendFrame(10));
+  }
+
+  @Test
+  public void testUnknownAndDuplicateAcksIgnored() {
+    mFlowControl.onFrameSent(0);
+    mFlowControl.onFrameSent(0);
+    mFlowControl.onFrameAck(5, 10);
+    assertFalse(mFlowControl.canSendFrame(10));
+
+    mFlowControl.onFrameAck(1, 10);
+    mFlowControl.onFrameSent(10);
+    mFlowControl.onFrameAck(1, 20);
+    assertFalse(mFlowControl.canSendFrame(20));
+  }
+
+  @Test
+  public void testAckTimeout() {
+    mFlowControl.onFrameSent(0);
+    mFlowControl.onFrameSent(100);
+    assertFalse(mFlowControl.canSendFrame(2099));
+    assertTrue(mFlowControl.canSendFrame(2100));
+
+    // The lost frames count as a slow link.
+    assertEquals(70, mFlowControl.getQuality(0));
+    assertEquals(1000, mFlowControl.getFrameDelayMs(1));
+
+    // Acks for frames that were given up on change nothing.
+    mFlowControl.onFrameAck(2, 2200);
+    assertEquals(70, mFlowControl.getQuality(0));
+    assertEquals(3, mFlowControl.onFrameSent(2200));
+    assertTrue(mFlowControl.canSendFrame(2200));
+  }
+
+  @Test
+  public void testDefaults() {
+    assertEquals(100, mFlowControl.getFrameDelayMs(0));
+    assertEquals(300, mFlowControl.getFrameDelayMs(3));
+    assertEquals(80, mFlowControl.getQuality(0));
+    assertEquals(50, mFlowControl.getQuality(50));
+    assertEquals(100, mFlowControl.getQuality(150));
+  }
+
+  @Test
+  public void testSlowAcksThenRecovery() {
+    long nowMs = 0;
+    for (int i = 0; i < 20; i++) {
+      nowMs = sendAndAck(nowMs, 1000 /* latencyMs */);
+    }
+    assertEquals(500, mFlowControl.getFrameDelayMs(1));
+    assertEquals(20, mFlowControl.getQuality(0));
+
+    int quality = mFlowControl.getQuality(0);
+    for (int i = 0; i < 50; i++) {
+      nowMs = sendAndAck(nowMs, 10 /* latencyMs */);
+      int newQuality = mFlowControl.getQuality(0);
+      assertTrue(newQuality >= quality);
+      quality = newQuality;
+    }
+    assertEquals(80, quality);
+    assertEquals(100, mFlowControl.getFrameDelayMs(1));
+  }
+
+  private long sendAndAck(long nowMs, long latencyMs) {
+    assertTrue(mFlowControl.canSendFrame(nowMs));
+    int sessionId = mFlowControl.onFrameSent(nowMs);
+    nowMs += latencyMs;
+    mFlowControl.onFrameAck(sessionId, nowMs);
+    return nowMs;
+  }
+}
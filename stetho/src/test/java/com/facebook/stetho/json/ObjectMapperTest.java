@@ -8,6 +8,7 @@
 package com.facebook.stetho.json;
 
 import android.os.Build;
+import android.util.Base64;
 import com.facebook.stetho.json.annotation.JsonProperty;
 import com.facebook.stetho.json.annotation.JsonValue;
 import org.json.JSONArray;
@@ -19,6 +20,7 @@ import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -180,6 +182,63 @@ public class ObjectMapperTest {
     assertEquals(primitives.toString(), actual.toString());
   }
 
+  @Test
+  public void testWriteValue() throws IOException, JSONException {
+    NestedJsonProperty njp = new NestedJsonProperty();
+    njp.child1 = new JsonPropertyString();
+    njp.child1.testString = "a\"b\u00e9\n";
+
+    JsonPropertyEnum jpe = new JsonPropertyEnum();
+    jpe.enumValue = TestEnum.VALUE_THREE;
+
+    ArrayOfPrimitivesContainer container = new ArrayOfPrimitivesContainer();
+    container.primitives.add(Long.MIN_VALUE);
+    container.primitives.add(1.5f);
+    container.primitives.add(4.0);
+    container.primitives.add(Double.NaN);
+    container.primitives.add(null);
+
+    for (Object value : new Object[] { njp, jpe, container }) {
+      String expected = mObjectMapper.convertValue(value, JSONObject.class).toString();
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      JsonWriter writer = new JsonWriter(out);
+      mObjectMapper.writeValue(writer, value);
+      writer.flush();
+      assertEquals(expected, out.toString("UTF-8"));
+    }
+  }
+
+  @Test
+  public void testWriteFloatValue() throws IOException, JSONException {
+    ArrayOfPrimitivesContainer container = new ArrayOfPrimitivesContainer();
+    container.primitives.add(0.1f);
+    container.primitives.add(-2.0f);
+    container.primitives.add(Float.NaN);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    JsonWriter writer = new JsonWriter(out);
+    mObjectMapper.writeValue(writer, container);
+    writer.flush();
+    assertEquals("{\"primitives\":[0.1,-2,\"NaN\"]}", out.toString("UTF-8"));
+    assertEquals(
+        mObjectMapper.convertValue(container, JSONObject.class).toString(),
+        out.toString("UTF-8"));
+  }
+
+  @Test
+  public void testWriteBase64Value() throws IOException {
+    byte[] data = new byte[] { (byte) 0xfb, (byte) 0xff, 0x00, 0x7f, (byte) 0x80, 0x41, 0x0a };
+    // Cover all three padding cases, and an offset into the array.
+    for (int count = 0; count <= 4; count++) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      JsonWriter writer = new JsonWriter(out, 32 /* bufferSize */);
+      writer.base64Value(data, 2, count);
+      writer.flush();
+      String expected = '"' + Base64.encodeToString(data, 2, count, Base64.NO_WRAP) + '"';
+      assertEquals(expected, out.toString("US-ASCII"));
+    }
+  }
+
   public static class ArrayOfPrimitivesContainer {
     @JsonProperty
     public final ArrayList<Object> primitives = new ArrayList<>();
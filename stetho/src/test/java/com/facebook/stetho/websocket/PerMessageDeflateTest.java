@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.websocket;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class PerMessageDeflateTest {
+  @Test
+  public void testNegotiateDefaults() {
+    assertNull(PerMessageDeflate.negotiate(null));
+    assertNull(PerMessageDeflate.negotiate("x-webkit-deflate-frame"));
+    assertResponse("permessage-deflate", "permessage-deflate");
+    assertResponse("permessage-deflate", " permessage-deflate ; client_max_window_bits");
+    assertResponse("permessage-deflate", "permessage-deflate; client_max_window_bits=10");
+  }
+
+  @Test
+  public void testNegotiateNoContextTakeover() {
+    assertResponse(
+        "permessage-deflate; server_no_context_takeover",
+        "permessage-deflate; server_no_context_takeover");
+    assertResponse(
+        "permessage-deflate; server_no_context_takeover; client_no_context_takeover",
+        "permessage-deflate; client_no_context_takeover; server_no_context_takeover");
+  }
+
+  @Test
+  public void testNegotiateServerMaxWindowBits() {
+    assertResponse(
+        "permessage-deflate; server_max_window_bits=15",
+        "permessage-deflate; server_max_window_bits=15");
+    assertResponse(
+        "permessage-deflate; server_max_window_bits=15",
+        "permessage-deflate; server_max_window_bits=\"15\"");
+    // Deflater can't use a smaller window.
+    assertNull(PerMessageDeflate.negotiate("permessage-deflate; server_max_window_bits=10"));
+  }
+
+  @Test
+  public void testNegotiateRejectedParameters() {
+    assertNull(PerMessageDeflate.negotiate("permessage-deflate; unknown_param"));
+    assertNull(PerMessageDeflate.negotiate("permessage-deflate; server_max_window_bits"));
+    assertNull(PerMessageDeflate.negotiate("permessage-deflate; client_max_window_bits=16"));
+    assertNull(PerMessageDeflate.negotiate("permessage-deflate; client_max_window_bits=abc"));
+    assertNull(PerMessageDeflate.negotiate("permessage-deflate; server_no_context_takeover=1"));
+    assertNull(PerMessageDeflate.negotiate(
+        "permessage-deflate; server_no_context_takeover; server_no_context_takeover"));
+    assertNull(PerMessageDeflate.negotiate(
+        "permessage-deflate; client_max_window_bits; client_max_window_bits=10"));
+  }
+
+  @Test
+  public void testNegotiateFallsBackToLaterOffer() {
+    assertResponse(
+        "permessage-deflate; client_no_context_takeover",
+        "permessage-deflate; server_max_window_bits=10, " +
+            "permessage-deflate; client_no_context_takeover");
+  }
+
+  @Test
+  public void testSmallMessagesNotCompressed() {
+    PerMessageDeflate.MessageDeflater deflater =
+        PerMessageDeflate.negotiate("permessage-deflate").createDeflater(16);
+    byte[] message = bytes("short");
+    assertEquals(-1, deflater.deflate(message, 0, message.length));
+    deflater.release();
+  }
+
+  @Test
+  public void testRoundTripWithContextTakeover() throws IOException {
+    PerMessageDeflate extension = PerMessageDeflate.negotiate("permessage-deflate");
+    byte[] message = bytes(randomText(2000));
+    List<byte[]> frames = new ArrayList<>();
+    int[] sizes = compressInto(extension, frames, message, message, message);
+
+    // The later messages are back-references into the window kept from the first one.
+    assertTrue(sizes[1] < sizes[0] / 4);
+    assertTrue(sizes[2] < sizes[0] / 4);
+
+    List<byte[]> messages = readMessages(extension.createInflater(), frames);
+    assertEquals(3, messages.size());
+    for (byte[] received : messages) {
+      assertArrayEquals(message, received);
+    }
+  }
+
+  @Test
+  public void testRoundTripWithoutContextTakeover() throws IOException {
+    PerMessageDeflate extension =
+        PerMessageDeflate.negotiate("permessage-deflate; server_no_context_takeover");
+    byte[] message = bytes(randomText(2000));
+    List<byte[]> frames = new ArrayList<>();
+    int[] sizes = compressInto(extension, frames, message, message);
+
+    assertEquals(sizes[0], sizes[1]);
+    List<byte[]> messages = readMessages(extension.createInflater(), frames);
+    assertArrayEquals(message, messages.get(0));
+    assertArrayEquals(message, messages.get(1));
+  }
+
+  /**
+   * Highly compressible messages inflate to many times the size of the inflater's buffer, which
+   * has to keep growing after all of the input has been consumed.
+   */
+  @Test
+  public void testRoundTripLargeMessages() throws IOException {
+    PerMessageDeflate extension = PerMessageDeflate.negotiate("permessage-deflate");
+    List<byte[]> frames = new ArrayList<>();
+    List<byte[]> sent = new ArrayList<>();
+    for (int size = 4000; size < 300000; size = size * 3 + 7) {
+      byte[] message = new byte[size];
+      Arrays.fill(message, (byte) 'a');
+      sent.add(message);
+    }
+    compressInto(extension, frames, sent.toArray(new byte[sent.size()][]));
+
+    List<byte[]> messages = readMessages(extension.createInflater(), frames);
+    assertEquals(sent.size(), messages.size());
+    for (int i = 0; i < sent.size(); i++) {
+      assertArrayEquals(sent.get(i), messages.get(i));
+    }
+  }
+
+  @Test
+  public void testRsv1RejectedWithoutExtension() throws IOException {
+    ReadHandler handler = new ReadHandler(
+        new ByteArrayInputStream(frame(true /* rsv1 */, bytes("a"))),
+        null /* endpoint */);
+    try {
+      handler.readLoop(new CollectingReadCallback());
+      fail("Expected RSV1 to be rejected");
+    } catch (IOException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void testUncompressedMessageWithExtension() throws IOException {
+    PerMessageDeflate extension = PerMessageDeflate.negotiate("permessage-deflate");
+    List<byte[]> messages = readMessages(
+        extension.createInflater(),
+        Arrays.asList(frame(false /* rsv1 */, bytes("plain"))));
+    assertEquals("plain", new String(messages.get(0), "UTF-8"));
+  }
+
+  private static void assertResponse(String expected, String offer) {
+    PerMessageDeflate extension = PerMessageDeflate.negotiate(offer);
+    assertNotNull(offer, extension);
+    assertEquals(expected, extension.getResponseHeaderValue());
+  }
+
+  /**
+   * @return The compressed size of each message.
+   */
+  private static int[] compressInto(
+      PerMessageDeflate extension,
+      List<byte[]> frames,
+      byte[]... messages) throws IOException {
+    PerMessageDeflate.MessageDeflater deflater = extension.createDeflater(0);
+    int[] sizes = new int[messages.length];
+    for (int i = 0; i < messages.length; i++) {
+      sizes[i] = deflater.deflate(messages[i], 0, messages[i].length);
+      assertTrue(sizes[i] > 0);
+      frames.add(frame(true /* rsv1 */, Arrays.copyOf(deflater.getBuffer(), sizes[i])));
+    }
+    deflater.release();
+    return sizes;
+  }
+
+  private static List<byte[]> readMessages(
+      PerMessageDeflate.MessageInflater inflater,
+      List<byte[]> frames) throws IOException {
+    ByteArrayOutputStream input = new ByteArrayOutputStream();
+    for (byte[] frame : frames) {
+      input.write(frame);
+    }
+    input.write(closeFrame());
+
+    CollectingReadCallback callback = new CollectingReadCallback();
+    new ReadHandler(new ByteArrayInputStream(input.toByteArray()), null /* endpoint */, inflater)
+        .readLoop(callback);
+    inflater.release();
+    return callback.messages;
+  }
+
+  private static byte[] frame(boolean rsv1, byte[] payload) throws IOException {
+    Frame frame = new Frame();
+    frame.fin = true;
+    frame.rsv1 = rsv1;
+    frame.opcode = Frame.OPCODE_TEXT_FRAME;
+    frame.payloadLen = payload.length;
+    frame.payloadData = payload;
+    return encode(frame);
+  }
+
+  private static byte[] closeFrame() throws IOException {
+    Frame frame = new Frame();
+    frame.fin = true;
+    frame.opcode = Frame.OPCODE_CONNECTION_CLOSE;
+    frame.payloadData = new byte[0];
+    return encode(frame);
+  }
+
+  private static byte[] encode(Frame frame) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    BufferedOutputStream bufferedOut = new BufferedOutputStream(out);
+    frame.writeTo(bufferedOut);
+    bufferedOut.flush();
+    return out.toByteArray();
+  }
+
+  private static String randomText(int length) {
+    Random random = new Random(1);
+    StringBuilder b = new StringBuilder(length);
+    for (int i = 0; i < length; i++) {
+      b.append((char) ('a' + random.nextInt(26)));
+    }
+    return b.toString();
+  }
+
+  private static byte[] bytes(String text) {
+    try {
+      return text.getBytes("UTF-8");
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static class CollectingReadCallback implements ReadCallback {
+    public final List<byte[]> messages = new ArrayList<>();
+
+    @Override
+    public void onCompleteFrame(byte opcode, byte[] payload, int payloadLen) {
+      if (opcode == Frame.OPCODE_TEXT_FRAME) {
+        messages.add(Arrays.copyOf(payload, payloadLen));
+      }
+    }
+  }
+}
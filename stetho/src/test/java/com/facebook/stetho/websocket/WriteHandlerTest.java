@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.websocket;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class WriteHandlerTest {
+  private static final long TIMEOUT_MS = 5000;
+
+  private final ByteArrayOutputStream mOutput = new ByteArrayOutputStream();
+  private final WriteHandler mHandler =
+      new WriteHandler(mOutput, 2 /* maxQueuedFrames */, null /* deflater */);
+
+  @Test
+  public void testWritesInOrder() throws Exception {
+    RecordingCallback callback = new RecordingCallback(3);
+    mHandler.write(frame('a'), callback);
+    mHandler.write(frame('b'), callback);
+    mHandler.start();
+    mHandler.write(frame('c'), callback);
+    callback.await();
+
+    assertEquals("abc", writtenPayloads());
+    assertEquals(3, callback.successes);
+    mHandler.shutdown();
+  }
+
+  @Test
+  public void testIncomingDroppableFrameDropped() throws Exception {
+    RecordingCallback callback = new RecordingCallback(2);
+    write('a', false /* droppable */, callback);
+    write('b', false /* droppable */, callback);
+    write('c', true /* droppable */, callback);
+    assertEquals(1, mHandler.getDroppedFrameCount());
+    assertEquals(2, mHandler.getQueuedFrameCount());
+
+    mHandler.start();
+    callback.await();
+    assertEquals("ab", writtenPayloads());
+    mHandler.shutdown();
+  }
+
+  @Test
+  public void testOldestDroppableFrameDropped() throws Exception {
+    RecordingCallback callback = new RecordingCallback(2);
+    write('a', true /* droppable */, callback);
+    write('b', true /* droppable */, callback);
+    write('c', false /* droppable */, callback);
+    assertEquals(1, mHandler.getDroppedFrameCount());
+
+    mHandler.start();
+    callback.await();
+    assertEquals("bc", writtenPayloads());
+    mHandler.shutdown();
+  }
+
+  @Test
+  public void testCriticalFrameWaitsForWriter() throws Exception {
+    final RecordingCallback callback = new RecordingCallback(3);
+    write('a', false /* droppable */, callback);
+    write('b', false /* droppable */, callback);
+    final CountDownLatch enqueued = new CountDownLatch(1);
+    Thread producer = new Thread() {
+      @Override
+      public void run() {
+        write('c', false /* droppable */, callback);
+        enqueued.countDown();
+      }
+    };
+    producer.start();
+    assertFalse(
+        "Should block while the queue is full",
+        enqueued.await(100, TimeUnit.MILLISECONDS));
+
+    mHandler.start();
+    assertTrue(enqueued.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    callback.await();
+    assertEquals("abc", writtenPayloads());
+    assertEquals(0, mHandler.getDroppedFrameCount());
+    mHandler.shutdown();
+  }
+
+  @Test
+  public void testShutdownFailsLaterWrites() throws Exception {
+    mHandler.start();
+    mHandler.shutdown();
+    RecordingCallback callback = new RecordingCallback(1);
+    mHandler.write(frame('a'), callback);
+    callback.await();
+    assertEquals(1, callback.failures);
+    assertEquals("", writtenPayloads());
+  }
+
+  @Test
+  public void testStreamingMessageFragmented() throws Exception {
+    final byte[] message = new byte[100 * 1024];
+    for (int i = 0; i < message.length; i++) {
+      message[i] = (byte) ('a' + i % 26);
+    }
+    RecordingCallback callback = new RecordingCallback(2);
+    mHandler.writeStreaming(new TextMessageWriter() {
+      @Override
+      public void writeTo(OutputStream out) throws IOException {
+        out.write(message, 0, 10);
+        out.write(message, 10, message.length - 10);
+      }
+    }, callback);
+    mHandler.write(frame('z'), callback);
+    mHandler.start();
+    callback.await();
+    assertEquals(2, callback.successes);
+
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(writtenBytes()));
+    ByteArrayOutputStream payload = new ByteArrayOutputStream();
+    int frames = 0;
+    while (true) {
+      int first = in.readUnsignedByte();
+      int opcode = first & 0xf;
+      assertEquals(frames == 0 ? Frame.OPCODE_TEXT_FRAME : Frame.OPCODE_CONTINUATION, opcode);
+      int length = in.readUnsignedByte();
+      assertEquals(126, length);
+      length = in.readUnsignedShort();
+      assertTrue(length <= 32 * 1024);
+      byte[] fragment = new byte[length];
+      in.readFully(fragment);
+      payload.write(fragment);
+      frames++;
+      if ((first & 0x80) != 0) {
+        break;
+      }
+    }
+    assertEquals(4, frames);
+    assertArrayEquals(message, payload.toByteArray());
+    // The next message only follows the last fragment.
+    assertEquals(0x81, in.readUnsignedByte());
+    assertEquals(1, in.readUnsignedByte());
+    assertEquals('z', in.readUnsignedByte());
+    mHandler.shutdown();
+  }
+
+  @Test
+  public void testStreamingMessageFailsAlone() throws Exception {
+    RecordingCallback callback = new RecordingCallback(2);
+    mHandler.writeStreaming(new TextMessageWriter() {
+      @Override
+      public void writeTo(OutputStream out) throws IOException {
+        out.write('x');
+        throw new IOException("Unreadable");
+      }
+    }, callback);
+    mHandler.write(frame('a'), callback);
+    mHandler.start();
+    callback.await();
+    assertEquals(1, callback.failures);
+    assertEquals(1, callback.successes);
+    assertEquals("a", writtenPayloads());
+    mHandler.shutdown();
+  }
+
+  private void write(char payload, boolean droppable, WriteCallback callback) {
+    MessageBuffer buffer = mHandler.obtainMessageBuffer();
+    buffer.write(payload);
+    mHandler.write(FrameHelper.createTextFrame(buffer), buffer, droppable, callback);
+  }
+
+  private static Frame frame(char payload) {
+    return FrameHelper.createTextFrame(String.valueOf(payload));
+  }
+
+  /**
+   * Each frame carries a single byte of payload, behind a two byte header.
+   */
+  private String writtenPayloads() {
+    byte[] output = writtenBytes();
+    StringBuilder payloads = new StringBuilder();
+    for (int i = 0; i + 2 < output.length; i += 3) {
+      assertEquals(1, output[i + 1]);
+      payloads.append((char) output[i + 2]);
+    }
+    return payloads.toString();
+  }
+
+  private byte[] writtenBytes() {
+    synchronized (mOutput) {
+      return mOutput.toByteArray();
+    }
+  }
+
+  private static class RecordingCallback implements WriteCallback {
+    private final CountDownLatch mLatch;
+    public volatile int successes;
+    public volatile int failures;
+
+    public RecordingCallback(int expectedCalls) {
+      mLatch = new CountDownLatch(expectedCalls);
+    }
+
+    @Override
+    public synchronized void onFailure(IOException e) {
+      failures++;
+      mLatch.countDown();
+    }
+
+    @Override
+    public synchronized void onSuccess() {
+      successes++;
+      mLatch.countDown();
+    }
+
+    public void await() throws InterruptedException {
+      assertTrue("Timed out", mLatch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+  }
+}